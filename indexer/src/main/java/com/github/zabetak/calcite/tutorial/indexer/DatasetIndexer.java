@@ -18,9 +18,12 @@ package com.github.zabetak.calcite.tutorial.indexer;
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoubleDocValuesField;
 import org.apache.lucene.document.DoublePoint;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.IndexWriter;
@@ -28,9 +31,12 @@ import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 
 import au.com.bytecode.opencsv.CSVReader;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
+
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
@@ -39,6 +45,7 @@ import java.nio.file.Paths;
 import java.sql.Date;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 
 /**
  * A class for indexing predefined datasets in Apache Lucene.
@@ -51,20 +58,30 @@ import java.time.format.DateTimeFormatter;
  * The indexer reads data from CSV files and creates a single Lucene index per file. The indexes
  * are created under the {@link #INDEX_LOCATION} directory and (with the current configuration)
  * are overwritten every time the indexer runs.
+ *
+ * Every value is indexed (for searching) and stored (for retrieval). By default, the values are
+ * also written in column-oriented doc values, which are much cheaper to read for analytic scans
+ * than the row-oriented stored fields. The creation of doc values can be disabled by passing the
+ * {@value #STORED_ONLY_OPTION} option to the indexer.
+ *
+ * The statistics of the columns of each table (see {@link IndexStatistics}) are computed while
+ * the rows are indexed and stored in the user data of the commit.
  */
 public class DatasetIndexer {
   private static final char DELIMITER = '|';
   private static final String DATASET_LOCATION = "data";
   public static final String INDEX_LOCATION = "target";
   private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+  public static final String STORED_ONLY_OPTION = "--stored-only";
 
   public static void main(String[] args) throws IOException, URISyntaxException {
+    boolean docValues = !Arrays.asList(args).contains(STORED_ONLY_OPTION);
     for (TpchTable table : TpchTable.values()) {
-      indexTable("tpch", table);
+      indexTable("tpch", table, docValues);
     }
   }
 
-  private static void indexTable(final String dataset, TpchTable table)
+  private static void indexTable(final String dataset, TpchTable table, boolean docValues)
       throws IOException {
     final String tablePath =
         DATASET_LOCATION + "/" + dataset + "/" + table.name().toLowerCase().concat(".csv");
@@ -73,39 +90,71 @@ public class DatasetIndexer {
       writerConfig.setOpenMode(OpenMode.CREATE);
       try (IndexWriter writer = new IndexWriter(indexDir, writerConfig)) {
         try (CSVReader reader = new CSVReader(getResourceAsReader(tablePath), DELIMITER)) {
+          IndexStatistics.Builder statistics = new IndexStatistics.Builder(table.columns);
           String[] values = reader.readNext();
           while (values != null) {
             Document doc = new Document();
+            Object[] row = new Object[table.columns.size()];
             for (int i = 0; i < table.columns.size() && i < values.length; i++) {
               TpchTable.Column c = table.columns.get(i);
-              indexValue(doc, c, values[i]);
+              row[i] = parseValue(c, values[i]);
+              if (row[i] != null) {
+                indexValue(doc, c, row[i], docValues);
+              }
             }
             writer.addDocument(doc);
+            statistics.add(row);
             values = reader.readNext();
           }
+          writer.setLiveCommitData(statistics.build().toUserData().entrySet());
         }
       }
     }
   }
 
-  private static void indexValue(Document doc, TpchTable.Column column, String value) {
+  /**
+   * Returns the value of a column in the representation of the index, or null if the column has
+   * no value.
+   */
+  private static @Nullable Object parseValue(TpchTable.Column column, String value) {
     if (value.equals("")) {
-      return;
+      return null;
     }
     if (Integer.class == column.type) {
-      int intVal = Integer.valueOf(value);
+      return Integer.valueOf(value);
+    } else if (String.class == column.type) {
+      return value;
+    } else if (Double.class == column.type) {
+      return Double.valueOf(value);
+    } else if (Date.class == column.type) {
+      return Math.toIntExact(LocalDate.parse(value, FORMATTER).toEpochDay());
+    } else {
+      throw new IllegalStateException();
+    }
+  }
+
+  private static void indexValue(Document doc, TpchTable.Column column, Object value,
+      boolean docValues) {
+    if (Integer.class == column.type || Date.class == column.type) {
+      int intVal = (Integer) value;
       doc.add(new StoredField(column.name, intVal));
       doc.add(new IntPoint(column.name, intVal));
+      if (docValues) {
+        doc.add(new NumericDocValuesField(column.name, intVal));
+      }
     } else if (String.class == column.type) {
-      doc.add(new StringField(column.name, value, Field.Store.YES));
+      String strVal = (String) value;
+      doc.add(new StringField(column.name, strVal, Field.Store.YES));
+      if (docValues) {
+        doc.add(new SortedDocValuesField(column.name, new BytesRef(strVal)));
+      }
     } else if (Double.class == column.type) {
-      double dblVal = Double.valueOf(value);
+      double dblVal = (Double) value;
       doc.add(new StoredField(column.name, dblVal));
       doc.add(new DoublePoint(column.name, dblVal));
-    } else if (Date.class == column.type) {
-      int epochDays = Math.toIntExact(LocalDate.parse(value, FORMATTER).toEpochDay());
-      doc.add(new StoredField(column.name, epochDays));
-      doc.add(new IntPoint(column.name, epochDays));
+      if (docValues) {
+        doc.add(new DoubleDocValuesField(column.name, dblVal));
+      }
     } else {
       throw new IllegalStateException();
     }
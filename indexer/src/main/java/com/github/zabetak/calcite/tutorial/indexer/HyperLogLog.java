@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.indexer;
+
+import java.util.Base64;
+
+/**
+ * A HyperLogLog sketch estimating the number of distinct values added to it in constant memory.
+ *
+ * The sketch has 2<sup>{@value #PRECISION}</sup> registers, one byte each, so the standard error
+ * of the estimate is about 2.3%. Small cardinalities are estimated with linear counting and are
+ * nearly exact.
+ */
+public final class HyperLogLog {
+  private static final int PRECISION = 11;
+  private static final int REGISTERS = 1 << PRECISION;
+
+  private final byte[] registers;
+
+  public HyperLogLog() {
+    this(new byte[REGISTERS]);
+  }
+
+  private HyperLogLog(byte[] registers) {
+    this.registers = registers;
+  }
+
+  /**
+   * Adds an integer value to the sketch.
+   */
+  public void add(int value) {
+    addHash(mix(value));
+  }
+
+  /**
+   * Adds a double value to the sketch.
+   */
+  public void add(double value) {
+    // Positive and negative zero are the same value
+    addHash(mix(Double.doubleToLongBits(value == 0 ? 0d : value)));
+  }
+
+  /**
+   * Adds a string value to the sketch.
+   */
+  public void add(String value) {
+    // 64-bit FNV-1a
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      h ^= value.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    addHash(mix(h));
+  }
+
+  private void addHash(long hash) {
+    int register = (int) (hash >>> (64 - PRECISION));
+    // The remaining bits, with a sentinel so that the rank is bounded
+    long rest = (hash << PRECISION) | (1L << (PRECISION - 1));
+    byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+    if (registers[register] < rank) {
+      registers[register] = rank;
+    }
+  }
+
+  /**
+   * Returns the finalizer of MurmurHash3, which spreads the bits of the value over the hash.
+   */
+  private static long mix(long value) {
+    long h = value;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * Returns the estimated number of distinct values added to the sketch.
+   */
+  public double estimate() {
+    double sum = 0;
+    int zeros = 0;
+    for (byte r : registers) {
+      sum += 1d / (1L << r);
+      if (r == 0) {
+        zeros++;
+      }
+    }
+    double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+    double estimate = alpha * REGISTERS * REGISTERS / sum;
+    if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+      return REGISTERS * Math.log((double) REGISTERS / zeros);
+    }
+    return estimate;
+  }
+
+  /**
+   * Returns the sketch encoded as a string, which {@link #fromString} decodes.
+   */
+  @Override public String toString() {
+    return Base64.getEncoder().encodeToString(registers);
+  }
+
+  /**
+   * Decodes a sketch encoded with {@link #toString}.
+   *
+   * @throws IllegalArgumentException if the string is not an encoded sketch
+   */
+  public static HyperLogLog fromString(String encoded) {
+    byte[] registers = Base64.getDecoder().decode(encoded);
+    if (registers.length != REGISTERS) {
+      throw new IllegalArgumentException("Sketch with " + registers.length + " registers");
+    }
+    return new HyperLogLog(registers);
+  }
+}
@@ -0,0 +1,315 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.indexer;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Statistics of the columns of a table, computed while the table is indexed and stored in the
+ * user data of the Lucene commit, so that the readers of the index get them without scanning it.
+ *
+ * For every column, the statistics consist of the number of nulls (missing values), the minimum
+ * and maximum values, a {@link HyperLogLog} sketch of the distinct values, and, for numeric and
+ * date columns, an equi-depth histogram. The histogram is made of the values at
+ * {@value #BUCKETS} + 1 equally spaced ranks (the first and last are the minimum and maximum), so
+ * every bucket between two consecutive boundaries holds about the same number of rows. The ranks
+ * are taken from a uniform sample of at most {@value #SAMPLE_SIZE} values per column so that
+ * the memory needed to index a table does not grow with its size.
+ *
+ * Values are in the representation of the index: dates are days since epoch.
+ */
+public final class IndexStatistics {
+  private static final String PREFIX = "statistics.";
+  private static final String ROW_COUNT = PREFIX + "rowCount";
+  private static final String NULLS = ".nulls";
+  private static final String MIN = ".min";
+  private static final String MAX = ".max";
+  private static final String SKETCH = ".sketch";
+  private static final String HISTOGRAM = ".histogram";
+  /**
+   * The maximum number of buckets of a histogram; tables with fewer rows have fewer buckets.
+   */
+  public static final int BUCKETS = 64;
+  /**
+   * The maximum number of values of a column sampled for its histogram.
+   */
+  public static final int SAMPLE_SIZE = 1 << 16;
+
+  private final long rowCount;
+  private final Map<String, ColumnSummary> columns;
+
+  private IndexStatistics(long rowCount, Map<String, ColumnSummary> columns) {
+    this.rowCount = rowCount;
+    this.columns = columns;
+  }
+
+  /**
+   * Returns the number of rows of the table.
+   */
+  public long rowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Returns the statistics of the specified column, or null if there are none.
+   */
+  public @Nullable ColumnSummary column(String name) {
+    return columns.get(name);
+  }
+
+  /**
+   * Returns the statistics as entries of the user data of a commit.
+   */
+  public Map<String, String> toUserData() {
+    Map<String, String> data = new HashMap<>();
+    data.put(ROW_COUNT, Long.toString(rowCount));
+    for (Map.Entry<String, ColumnSummary> e : columns.entrySet()) {
+      String key = PREFIX + e.getKey();
+      ColumnSummary column = e.getValue();
+      data.put(key + NULLS, Long.toString(column.nullCount));
+      data.put(key + SKETCH, column.sketch.toString());
+      if (column.min != null && column.max != null) {
+        data.put(key + MIN, column.min);
+        data.put(key + MAX, column.max);
+      }
+      if (column.histogram != null) {
+        StringBuilder b = new StringBuilder();
+        for (double boundary : column.histogram) {
+          b.append(b.length() == 0 ? "" : ",").append(boundary);
+        }
+        data.put(key + HISTOGRAM, b.toString());
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Reads the statistics from the user data of a commit.
+   *
+   * @return the statistics, or null if the commit has none (e.g., the index was created by an
+   * older version of the indexer)
+   * @throws IllegalArgumentException if the statistics are malformed
+   */
+  public static @Nullable IndexStatistics fromUserData(Map<String, String> data) {
+    String rowCount = data.get(ROW_COUNT);
+    if (rowCount == null) {
+      return null;
+    }
+    Map<String, ColumnSummary> columns = new HashMap<>();
+    for (Map.Entry<String, String> e : data.entrySet()) {
+      if (!e.getKey().startsWith(PREFIX) || !e.getKey().endsWith(NULLS)) {
+        continue;
+      }
+      String key = e.getKey().substring(0, e.getKey().length() - NULLS.length());
+      String histogram = data.get(key + HISTOGRAM);
+      columns.put(key.substring(PREFIX.length()), new ColumnSummary(
+          Long.parseLong(e.getValue()),
+          data.get(key + MIN),
+          data.get(key + MAX),
+          HyperLogLog.fromString(data.get(key + SKETCH)),
+          histogram == null ? null
+              : Arrays.stream(histogram.split(",")).mapToDouble(Double::parseDouble).toArray()));
+    }
+    return new IndexStatistics(Long.parseLong(rowCount), Collections.unmodifiableMap(columns));
+  }
+
+  /**
+   * Statistics of a column.
+   */
+  public static final class ColumnSummary {
+    private final long nullCount;
+    private final @Nullable String min;
+    private final @Nullable String max;
+    private final HyperLogLog sketch;
+    private final double @Nullable [] histogram;
+
+    private ColumnSummary(long nullCount, @Nullable String min, @Nullable String max,
+        HyperLogLog sketch, double @Nullable [] histogram) {
+      this.nullCount = nullCount;
+      this.min = min;
+      this.max = max;
+      this.sketch = sketch;
+      this.histogram = histogram;
+    }
+
+    /**
+     * Returns the number of rows without a value for the column.
+     */
+    public long nullCount() {
+      return nullCount;
+    }
+
+    /**
+     * Returns the minimum value of the column as a string, or null if the column has no values.
+     */
+    public @Nullable String min() {
+      return min;
+    }
+
+    /**
+     * Returns the maximum value of the column as a string, or null if the column has no values.
+     */
+    public @Nullable String max() {
+      return max;
+    }
+
+    /**
+     * Returns the estimated number of distinct non-null values of the column.
+     */
+    public double distinctCount() {
+      return sketch.estimate();
+    }
+
+    /**
+     * Returns the boundaries of the equi-depth histogram of the column in ascending order, or null
+     * if the column is not numeric or has no values.
+     */
+    public double @Nullable [] histogram() {
+      return histogram == null ? null : histogram.clone();
+    }
+  }
+
+  /**
+   * Computes the statistics of a table from its rows, as they are indexed.
+   */
+  public static final class Builder {
+    private final List<TpchTable.Column> columns;
+    private final long[] nulls;
+    private final Comparable<?>[] min;
+    private final Comparable<?>[] max;
+    private final HyperLogLog[] sketches;
+    /**
+     * A reservoir sample of the non-null values of the numeric columns, for the histograms.
+     */
+    private final double[][] values;
+    /**
+     * Picks the values replaced in the samples; seeded so that the statistics are reproducible.
+     */
+    private final Random random = new Random(0);
+    private int rowCount;
+
+    public Builder(List<TpchTable.Column> columns) {
+      this.columns = columns;
+      this.nulls = new long[columns.size()];
+      this.min = new Comparable<?>[columns.size()];
+      this.max = new Comparable<?>[columns.size()];
+      this.sketches = new HyperLogLog[columns.size()];
+      this.values = new double[columns.size()][];
+      for (int i = 0; i < columns.size(); i++) {
+        sketches[i] = new HyperLogLog();
+        if (isNumeric(columns.get(i))) {
+          values[i] = new double[16];
+        }
+      }
+    }
+
+    private static boolean isNumeric(TpchTable.Column column) {
+      return column.type != String.class;
+    }
+
+    /**
+     * Adds a row to the statistics.
+     *
+     * @param row - the values of the row in the representation of the index; nulls or missing
+     * trailing values for columns without a value
+     */
+    public void add(Object... row) {
+      for (int i = 0; i < columns.size(); i++) {
+        Object value = i < row.length ? row[i] : null;
+        if (value == null) {
+          nulls[i]++;
+          continue;
+        }
+        if (value instanceof Integer) {
+          sketches[i].add((int) value);
+        } else if (value instanceof Double) {
+          sketches[i].add((double) value);
+        } else {
+          sketches[i].add(value.toString());
+        }
+        if (min[i] == null || compare(value, min[i]) < 0) {
+          min[i] = (Comparable<?>) value;
+        }
+        if (max[i] == null || compare(value, max[i]) > 0) {
+          max[i] = (Comparable<?>) value;
+        }
+        if (values[i] != null) {
+          sample(i, rowCount - (int) nulls[i], ((Number) value).doubleValue());
+        }
+      }
+      rowCount++;
+    }
+
+    /**
+     * Adds the n-th (from zero) non-null value of a numeric column to its sample; once the sample
+     * is full, the value replaces a random one with probability {@code SAMPLE_SIZE / (n + 1)}.
+     */
+    private void sample(int column, int n, double value) {
+      if (n < SAMPLE_SIZE) {
+        if (n == values[column].length) {
+          values[column] = Arrays.copyOf(values[column], Math.min(2 * n, SAMPLE_SIZE));
+        }
+        values[column][n] = value;
+        return;
+      }
+      int j = random.nextInt(n + 1);
+      if (j < SAMPLE_SIZE) {
+        values[column][j] = value;
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object value, Comparable<?> other) {
+      return ((Comparable<Object>) value).compareTo(other);
+    }
+
+    /**
+     * Returns the statistics of the rows added so far.
+     */
+    public IndexStatistics build() {
+      Map<String, ColumnSummary> summaries = new HashMap<>();
+      for (int i = 0; i < columns.size(); i++) {
+        double[] histogram = null;
+        int n = rowCount - (int) nulls[i];
+        if (values[i] != null && n > 0) {
+          int sampled = Math.min(n, SAMPLE_SIZE);
+          double[] sorted = Arrays.copyOf(values[i], sampled);
+          Arrays.sort(sorted);
+          int buckets = Math.min(BUCKETS, n);
+          histogram = new double[buckets + 1];
+          for (int b = 0; b <= buckets; b++) {
+            histogram[b] = sorted[(int) Math.round((double) b * (sampled - 1) / buckets)];
+          }
+          // The sample may miss the extremes, which are known exactly
+          histogram[0] = ((Number) min[i]).doubleValue();
+          histogram[buckets] = ((Number) max[i]).doubleValue();
+        }
+        summaries.put(columns.get(i).name, new ColumnSummary(nulls[i],
+            min[i] == null ? null : min[i].toString(),
+            max[i] == null ? null : max[i].toString(), sketches[i], histogram));
+      }
+      return new IndexStatistics(rowCount, Collections.unmodifiableMap(summaries));
+    }
+  }
+}
@@ -45,7 +45,7 @@ public enum TpchTable {
       new Column("c_phone", String.class),
       new Column("c_acctbal", Double.class),
       new Column("c_mktsegment", String.class),
-      new Column("c_comment", String.class))),
+      new Column("c_comment", String.class)), "c_custkey"),
   /**
    * <pre>{@code
    * CREATE TABLE LINEITEM (
@@ -83,7 +83,7 @@ public enum TpchTable {
       new Column("l_receiptdate", Date.class),
       new Column("l_shipinstruct", String.class),
       new Column("l_shipmode", String.class),
-      new Column("l_comment", String.class))),
+      new Column("l_comment", String.class)), "l_orderkey", "l_linenumber"),
   /**
    * <pre>{@code
    * CREATE TABLE ORDERS (
@@ -107,7 +107,7 @@ public enum TpchTable {
       new Column("o_orderpriority", String.class),
       new Column("o_clerk", String.class),
       new Column("o_shippriority", Integer.class),
-      new Column("o_comment", String.class))),
+      new Column("o_comment", String.class)), "o_orderkey"),
   /**
    * <pre>{@code
    * CREATE TABLE NATION (
@@ -121,7 +121,7 @@ public enum TpchTable {
       new Column("n_nationkey", Integer.class),
       new Column("n_name", String.class),
       new Column("n_regionkey", Integer.class),
-      new Column("n_comment", String.class))),
+      new Column("n_comment", String.class)), "n_nationkey"),
   /**
    * <pre>{@code
    * CREATE TABLE part(
@@ -145,7 +145,7 @@ public enum TpchTable {
       new Column("p_size", Integer.class),
       new Column("p_container", String.class),
       new Column("p_retailprice", Double.class),
-      new Column("p_comment", String.class))),
+      new Column("p_comment", String.class)), "p_partkey"),
   /**
    * <pre>{@code
    *   CREATE TABLE PARTSUPP(
@@ -161,7 +161,7 @@ public enum TpchTable {
       new Column("ps_suppkey", Integer.class),
       new Column("ps_availqty", Integer.class),
       new Column("ps_supplycost", Double.class),
-      new Column("ps_comment", String.class))),
+      new Column("ps_comment", String.class)), "ps_partkey", "ps_suppkey"),
   /**
    * <pre>{@code
    * CREATE TABLE REGION (
@@ -173,7 +173,7 @@ public enum TpchTable {
   REGION(Arrays.asList(
       new Column("r_regionkey", Integer.class),
       new Column("r_name", String.class),
-      new Column("r_comment", String.class))),
+      new Column("r_comment", String.class)), "r_regionkey"),
   /**
    * <pre>{@code
    * CREATE TABLE SUPPLIER (
@@ -193,12 +193,17 @@ public enum TpchTable {
       new Column("s_nationkey", Integer.class),
       new Column("s_phone", String.class),
       new Column("s_acctbal", Double.class),
-      new Column("s_comment", String.class)));
+      new Column("s_comment", String.class)), "s_suppkey");
 
   public final List<Column> columns;
+  /**
+   * The names of the columns forming the primary key of the table.
+   */
+  public final List<String> primaryKey;
 
-  TpchTable(final List<Column> columns) {
+  TpchTable(final List<Column> columns, final String... primaryKey) {
     this.columns = columns;
+    this.primaryKey = Arrays.asList(primaryKey);
   }
 
   /**
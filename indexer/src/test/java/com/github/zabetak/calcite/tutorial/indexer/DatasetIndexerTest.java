@@ -17,6 +17,8 @@
 package com.github.zabetak.calcite.tutorial.indexer;
 
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.search.IndexSearcher;
@@ -84,4 +86,19 @@ public class DatasetIndexerTest {
       }
     }
   }
+
+  @Test
+  void testTpchDatasetHasDocValues() throws IOException {
+    for (TpchTable table : TpchTable.values()) {
+      try (IndexReader reader =
+               DirectoryReader.open(FSDirectory.open(Paths.get(INDEX_LOCATION, "tpch", table.name())))) {
+        FieldInfos infos = FieldInfos.getMergedFieldInfos(reader);
+        for (TpchTable.Column c : table.columns) {
+          DocValuesType expected =
+              String.class == c.type ? DocValuesType.SORTED : DocValuesType.NUMERIC;
+          assertEquals(expected, infos.fieldInfo(c.name).getDocValuesType(), c.name);
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Description of a grouped aggregation computed while scanning an index.
+ *
+ * The aggregation reads the specified columns of the matching documents (from doc values) and
+ * returns one row per group with the values of the group columns followed by the result of
+ * every aggregate call, all in Calcite's internal representation.
+ *
+ * @see LuceneEnumerable#withAggregation(LuceneAggregation)
+ */
+public final class LuceneAggregation {
+  private final LinkedHashMap<String, SqlTypeName> columns;
+  private final int[] groups;
+  private final List<Call> calls;
+
+  /**
+   * Creates an aggregation.
+   *
+   * @param columns - the name and type of the columns read from the index
+   * @param groups - the position, in {@code columns}, of the columns to group by
+   * @param calls - the aggregate calls
+   */
+  public LuceneAggregation(LinkedHashMap<String, SqlTypeName> columns, int[] groups,
+      List<Call> calls) {
+    this.columns = new LinkedHashMap<>(columns);
+    this.groups = groups.clone();
+    this.calls = Collections.unmodifiableList(new ArrayList<>(calls));
+  }
+
+  /**
+   * Returns the name and type of the columns read from the index.
+   */
+  public LinkedHashMap<String, SqlTypeName> columns() {
+    return new LinkedHashMap<>(columns);
+  }
+
+  /**
+   * Returns the position of the group columns in {@link #columns()}.
+   */
+  public int[] groups() {
+    return groups.clone();
+  }
+
+  /**
+   * Returns the aggregate calls.
+   */
+  public List<Call> calls() {
+    return calls;
+  }
+
+  @Override public String toString() {
+    StringBuilder sb = new StringBuilder("group=[");
+    List<String> names = new ArrayList<>(columns.keySet());
+    for (int i = 0; i < groups.length; i++) {
+      sb.append(i == 0 ? "" : ", ").append(names.get(groups[i]));
+    }
+    sb.append("], calls=").append(calls);
+    return sb.toString();
+  }
+
+  /**
+   * The aggregate functions that can be computed over an index.
+   */
+  public enum Function {
+    COUNT, SUM, MIN, MAX
+  }
+
+  /**
+   * An aggregate call over one column (or no column for {@code COUNT(*)}).
+   */
+  public static final class Call {
+    private final Function function;
+    private final int column;
+    private final SqlTypeName type;
+
+    /**
+     * Creates an aggregate call.
+     *
+     * @param function - the aggregate function
+     * @param column - the position of the argument in {@link #columns()}; -1 for
+     * {@code COUNT(*)}
+     * @param type - the type of the result
+     */
+    public Call(Function function, int column, SqlTypeName type) {
+      this.function = function;
+      this.column = column;
+      this.type = type;
+    }
+
+    public Function function() {
+      return function;
+    }
+
+    public int column() {
+      return column;
+    }
+
+    public SqlTypeName type() {
+      return type;
+    }
+
+    @Override public String toString() {
+      return function + "(" + (column < 0 ? "*" : "$" + column) + ")";
+    }
+  }
+}
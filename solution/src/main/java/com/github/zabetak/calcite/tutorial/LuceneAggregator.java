@@ -0,0 +1,468 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import com.github.zabetak.calcite.tutorial.LuceneAggregation.Call;
+import com.github.zabetak.calcite.tutorial.LuceneAggregation.Function;
+import com.github.zabetak.calcite.tutorial.LuceneBatch.ColumnVector;
+import com.github.zabetak.calcite.tutorial.LuceneBatch.DoubleVector;
+import com.github.zabetak.calcite.tutorial.LuceneBatch.IntVector;
+import com.github.zabetak.calcite.tutorial.LuceneBatch.StringVector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes a {@link LuceneAggregation} over the hits of a query.
+ *
+ * The hits of every segment are aggregated separately (see {@link #aggregate(LuceneBatchReader)})
+ * so segments can be processed concurrently. Within a segment the value of each group column is
+ * mapped to a dense id using a primitive hash table keyed by the value itself (integers, dates,
+ * and the bits of doubles) or by its ordinal (strings); the ids of the group columns are then
+ * combined pairwise into the id of the group. The accumulators of the groups are kept in
+ * primitive arrays indexed by the group id, so no object is allocated per hit.
+ *
+ * The groups of the segments are merged by the actual values of the group columns (see
+ * {@link #merge(Segment)}), which are materialized once per group and segment.
+ */
+final class LuceneAggregator {
+  private final int[] groups;
+  private final Call[] calls;
+  /**
+   * Whether the argument of each call is a floating point column.
+   */
+  private final boolean[] floating;
+  private final Map<List<Object>, Integer> ids = new HashMap<>();
+  private final List<Object[]> keys = new ArrayList<>();
+  private final Accumulators totals;
+
+  LuceneAggregator(LuceneAggregation aggregation) {
+    this.groups = aggregation.groups();
+    this.calls = aggregation.calls().toArray(new Call[0]);
+    List<SqlTypeName> types = new ArrayList<>(aggregation.columns().values());
+    this.floating = new boolean[calls.length];
+    for (int i = 0; i < calls.length; i++) {
+      floating[i] = calls[i].column() >= 0 && isFloating(types.get(calls[i].column()));
+    }
+    this.totals = new Accumulators();
+  }
+
+  /**
+   * Aggregates the batches of a single segment.
+   *
+   * The method does not modify the aggregator so it can be called concurrently for different
+   * segments.
+   */
+  Segment aggregate(LuceneBatchReader batches) throws IOException {
+    Segment segment = new Segment(batches.hasSegmentOrdinals());
+    for (LuceneBatch batch = batches.next(); batch != null; batch = batches.next()) {
+      segment.add(batch);
+    }
+    return segment;
+  }
+
+  /**
+   * Merges the groups of the specified segment into the result.
+   */
+  void merge(Segment segment) {
+    for (int g = 0; g < segment.keys.size(); g++) {
+      Object[] key = segment.keys.get(g);
+      Integer id = ids.get(Arrays.asList(key));
+      if (id == null) {
+        id = keys.size();
+        ids.put(Arrays.asList(key), id);
+        keys.add(key);
+        totals.grow(keys.size());
+      }
+      totals.merge(id, segment.accumulators, g);
+    }
+  }
+
+  /**
+   * Returns one row per group with the values of the group columns followed by the results of the
+   * calls.
+   *
+   * An aggregation without group columns always returns exactly one row, even if there are no
+   * hits.
+   */
+  List<Object[]> rows() {
+    if (groups.length == 0 && keys.isEmpty()) {
+      keys.add(new Object[0]);
+      totals.grow(1);
+    }
+    List<Object[]> rows = new ArrayList<>(keys.size());
+    for (int g = 0; g < keys.size(); g++) {
+      Object[] row = Arrays.copyOf(keys.get(g), groups.length + calls.length);
+      for (int i = 0; i < calls.length; i++) {
+        row[groups.length + i] = totals.result(i, g);
+      }
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  private static boolean isFloating(SqlTypeName type) {
+    return type == SqlTypeName.DOUBLE || type == SqlTypeName.FLOAT
+        || type == SqlTypeName.DECIMAL;
+  }
+
+  /**
+   * Returns the value of an accumulator after adding the specified value; the first value of a
+   * group becomes the initial value of the accumulator.
+   */
+  private static long combine(Function function, boolean first, long acc, long value) {
+    if (first) {
+      return value;
+    }
+    switch (function) {
+    case SUM:
+      return acc + value;
+    case MIN:
+      return Math.min(acc, value);
+    case MAX:
+      return Math.max(acc, value);
+    default:
+      return acc;
+    }
+  }
+
+  /**
+   * Returns the value of an accumulator after adding the specified value (see
+   * {@link #combine(Function, boolean, long, long)}).
+   */
+  private static double combine(Function function, boolean first, double acc, double value) {
+    if (first) {
+      return value;
+    }
+    switch (function) {
+    case SUM:
+      return acc + value;
+    case MIN:
+      return Math.min(acc, value);
+    case MAX:
+      return Math.max(acc, value);
+    default:
+      return acc;
+    }
+  }
+
+  /**
+   * Converts an integer result to Calcite's internal representation of the specified type.
+   */
+  private static Object toInternal(long value, SqlTypeName type) {
+    switch (type) {
+    case TINYINT:
+      return (byte) value;
+    case SMALLINT:
+      return (short) value;
+    case INTEGER:
+    case DATE:
+      return (int) value;
+    case BIGINT:
+      return value;
+    case DOUBLE:
+      return (double) value;
+    default:
+      throw new IllegalStateException("Unexpected result type " + type);
+    }
+  }
+
+  /**
+   * The groups of a single segment.
+   */
+  final class Segment {
+    /**
+     * Whether string ordinals can be used as keys across the batches of the segment.
+     */
+    private final boolean segmentOrdinals;
+    /**
+     * Maps the values of each group column to dense ids.
+     */
+    private final LongIdTable[] values = new LongIdTable[groups.length];
+    /**
+     * Maps the combination of the ids of the first {@code i + 1} group columns to a dense id; the
+     * last table assigns the ids of the groups.
+     */
+    private final LongIdTable[] combined = new LongIdTable[groups.length];
+    /**
+     * Maps strings to dense ids, per group column, when the ordinals are specific to a batch.
+     */
+    private final Map<String, Integer>[] strings;
+    private final List<Object[]> keys = new ArrayList<>();
+    private final Accumulators accumulators = new Accumulators();
+    private int[] rowGroups = new int[0];
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Segment(boolean segmentOrdinals) {
+      this.segmentOrdinals = segmentOrdinals;
+      this.strings = new Map[groups.length];
+      for (int c = 0; c < groups.length; c++) {
+        values[c] = new LongIdTable();
+        combined[c] = c == 0 ? values[c] : new LongIdTable();
+        strings[c] = new HashMap<>();
+      }
+    }
+
+    void add(LuceneBatch batch) {
+      int size = batch.size();
+      if (rowGroups.length < size) {
+        rowGroups = new int[batch.capacity()];
+      }
+      if (groups.length == 0) {
+        Arrays.fill(rowGroups, 0, size, 0);
+        if (keys.isEmpty() && size > 0) {
+          newGroup(batch, 0);
+        }
+      } else {
+        for (int r = 0; r < size; r++) {
+          int id = valueId(0, batch.column(groups[0]), r);
+          for (int c = 1; c < groups.length; c++) {
+            long pair = ((long) id << 32) | valueId(c, batch.column(groups[c]), r);
+            id = combined[c].id(pair);
+          }
+          if (id == keys.size()) {
+            newGroup(batch, r);
+          }
+          rowGroups[r] = id;
+        }
+      }
+      for (int i = 0; i < calls.length; i++) {
+        accumulate(i, batch, size);
+      }
+    }
+
+    private void newGroup(LuceneBatch batch, int r) {
+      Object[] key = new Object[groups.length];
+      for (int c = 0; c < groups.length; c++) {
+        key[c] = batch.column(groups[c]).getObject(r);
+      }
+      keys.add(key);
+      accumulators.grow(keys.size());
+    }
+
+    /**
+     * Returns the dense id of the value of the specified group column at the specified row.
+     */
+    private int valueId(int c, ColumnVector column, int r) {
+      if (column.isNull(r)) {
+        return values[c].nullId();
+      }
+      final long value;
+      if (column instanceof IntVector) {
+        value = ((IntVector) column).getInt(r);
+      } else if (column instanceof DoubleVector) {
+        double d = ((DoubleVector) column).getDouble(r);
+        // Zero and negative zero are equal
+        value = d == 0 ? 0L : Double.doubleToLongBits(d);
+      } else {
+        StringVector s = (StringVector) column;
+        if (segmentOrdinals) {
+          value = s.getOrdinal(r);
+        } else {
+          Map<String, Integer> ids = strings[c];
+          value = ids.computeIfAbsent(s.lookup(s.getOrdinal(r)), k -> ids.size());
+        }
+      }
+      return values[c].id(value);
+    }
+
+    private void accumulate(int i, LuceneBatch batch, int size) {
+      long[] counts = accumulators.counts[i];
+      if (calls[i].column() < 0) {
+        for (int r = 0; r < size; r++) {
+          counts[rowGroups[r]]++;
+        }
+        return;
+      }
+      ColumnVector column = batch.column(calls[i].column());
+      Function function = calls[i].function();
+      if (floating[i]) {
+        double[] doubles = accumulators.doubles[i];
+        for (int r = 0; r < size; r++) {
+          if (column.isNull(r)) {
+            continue;
+          }
+          int g = rowGroups[r];
+          double v = ((DoubleVector) column).getDouble(r);
+          doubles[g] = combine(function, counts[g]++ == 0, doubles[g], v);
+        }
+      } else {
+        long[] longs = accumulators.longs[i];
+        for (int r = 0; r < size; r++) {
+          if (column.isNull(r)) {
+            continue;
+          }
+          int g = rowGroups[r];
+          long v = ((IntVector) column).getInt(r);
+          longs[g] = combine(function, counts[g]++ == 0, longs[g], v);
+        }
+      }
+    }
+  }
+
+  /**
+   * The state of the calls for every group, in arrays indexed by the id of the group.
+   *
+   * Each call counts its non-null arguments and, depending on the type of the argument, keeps a
+   * {@code long} or a {@code double} holding the sum, minimum, or maximum of the values.
+   */
+  private final class Accumulators {
+    private final long[][] counts = new long[calls.length][];
+    private final long[][] longs = new long[calls.length][];
+    private final double[][] doubles = new double[calls.length][];
+
+    Accumulators() {
+      for (int i = 0; i < calls.length; i++) {
+        counts[i] = new long[16];
+        longs[i] = new long[16];
+        doubles[i] = new double[16];
+      }
+    }
+
+    /**
+     * Ensures there is room for the specified number of groups.
+     */
+    void grow(int groups) {
+      if (calls.length == 0 || counts[0].length >= groups) {
+        return;
+      }
+      int capacity = Math.max(groups, counts[0].length * 2);
+      for (int i = 0; i < calls.length; i++) {
+        counts[i] = Arrays.copyOf(counts[i], capacity);
+        longs[i] = Arrays.copyOf(longs[i], capacity);
+        doubles[i] = Arrays.copyOf(doubles[i], capacity);
+      }
+    }
+
+    void merge(int group, Accumulators other, int otherGroup) {
+      for (int i = 0; i < calls.length; i++) {
+        long count = other.counts[i][otherGroup];
+        if (count == 0) {
+          continue;
+        }
+        boolean first = counts[i][group] == 0;
+        counts[i][group] += count;
+        if (floating[i]) {
+          doubles[i][group] =
+              combine(calls[i].function(), first, doubles[i][group], other.doubles[i][otherGroup]);
+        } else {
+          longs[i][group] =
+              combine(calls[i].function(), first, longs[i][group], other.longs[i][otherGroup]);
+        }
+      }
+    }
+
+    /**
+     * Returns the result of the specified call for the specified group in Calcite's internal
+     * representation.
+     */
+    Object result(int i, int group) {
+      SqlTypeName type = calls[i].type();
+      long count = counts[i][group];
+      if (calls[i].function() == Function.COUNT) {
+        return toInternal(count, type);
+      }
+      if (count == 0) {
+        return null;
+      }
+      if (!floating[i]) {
+        return toInternal(longs[i][group], type);
+      }
+      double value = doubles[i][group];
+      return type == SqlTypeName.DOUBLE ? (Object) value : toInternal((long) value, type);
+    }
+  }
+
+  /**
+   * Open addressing hash table assigning consecutive ids, starting from 0, to {@code long} keys
+   * (and to null) in the order they are first seen.
+   */
+  private static final class LongIdTable {
+    private long[] keys = new long[16];
+    private int[] ids = newIds(16);
+    private int entries = 0;
+    private int size = 0;
+    private int nullId = -1;
+
+    /**
+     * Returns the id of the specified key, assigning the next id if the key is new.
+     */
+    int id(long key) {
+      int mask = keys.length - 1;
+      int i = hash(key) & mask;
+      while (ids[i] != -1) {
+        if (keys[i] == key) {
+          return ids[i];
+        }
+        i = (i + 1) & mask;
+      }
+      int id = size++;
+      keys[i] = key;
+      ids[i] = id;
+      if (++entries * 2 > keys.length) {
+        rehash();
+      }
+      return id;
+    }
+
+    /**
+     * Returns the id of null, assigning the next id if null has not been seen.
+     */
+    int nullId() {
+      if (nullId == -1) {
+        nullId = size++;
+      }
+      return nullId;
+    }
+
+    private void rehash() {
+      long[] oldKeys = keys;
+      int[] oldIds = ids;
+      keys = new long[oldKeys.length * 2];
+      ids = newIds(oldKeys.length * 2);
+      int mask = keys.length - 1;
+      for (int j = 0; j < oldKeys.length; j++) {
+        if (oldIds[j] == -1) {
+          continue;
+        }
+        int i = hash(oldKeys[j]) & mask;
+        while (ids[i] != -1) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = oldKeys[j];
+        ids[i] = oldIds[j];
+      }
+    }
+
+    private static int[] newIds(int capacity) {
+      int[] ids = new int[capacity];
+      Arrays.fill(ids, -1);
+      return ids;
+    }
+
+    private static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import java.util.function.IntFunction;
+
+/**
+ * A batch of rows stored column by column.
+ *
+ * Each column is a {@link ColumnVector} holding the values of up to {@link #capacity()} rows in a
+ * primitive array: integers (and dates) in an {@code int[]}, doubles in a {@code double[]}, and
+ * strings as ordinals into a dictionary. Missing values are tracked in a null bitmap.
+ *
+ * Values are in Calcite's internal representation, so dates are days since epoch.
+ *
+ * Batches are obtained from {@link LuceneEnumerable#batches()}. Operators that can process whole
+ * columns in tight loops use the vectors directly; all others can fall back to row-at-a-time
+ * processing through {@link #row(int)}. A batch remains valid until the enumerator that produced
+ * it is closed.
+ */
+public final class LuceneBatch {
+  private final ColumnVector[] columns;
+  /**
+   * The (top-level) document ids of the rows.
+   */
+  private final int[] docs;
+  private final int capacity;
+  private int size = 0;
+
+  LuceneBatch(SqlTypeName[] types, int capacity) {
+    this.capacity = capacity;
+    this.columns = new ColumnVector[types.length];
+    this.docs = new int[capacity];
+    for (int i = 0; i < types.length; i++) {
+      columns[i] = ColumnVector.of(types[i], capacity);
+    }
+  }
+
+  /**
+   * Returns the number of rows in the batch.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the maximum number of rows the batch can hold.
+   */
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns the number of columns in the batch.
+   */
+  public int columnCount() {
+    return columns.length;
+  }
+
+  /**
+   * Returns the vector with the values of the specified column.
+   */
+  public ColumnVector column(int i) {
+    return columns[i];
+  }
+
+  /**
+   * Returns the specified row in Calcite's internal representation.
+   */
+  public Object[] row(int r) {
+    Object[] row = new Object[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      row[i] = columns[i].getObject(r);
+    }
+    return row;
+  }
+
+  /**
+   * Returns the id of the document in the index from which the specified row was read.
+   */
+  int docId(int r) {
+    return docs[r];
+  }
+
+  int[] docIds() {
+    return docs;
+  }
+
+  void setDocId(int r, int doc) {
+    docs[r] = doc;
+  }
+
+  void setSize(int size) {
+    this.size = size;
+  }
+
+  /**
+   * The values of one column of a {@link LuceneBatch}.
+   */
+  public abstract static class ColumnVector {
+    private final SqlTypeName type;
+    /**
+     * Bitmap with the positions of the null values.
+     */
+    private final long[] nulls;
+    private boolean hasNulls = false;
+
+    ColumnVector(SqlTypeName type, int capacity) {
+      this.type = type;
+      this.nulls = new long[(capacity + Long.SIZE - 1) / Long.SIZE];
+    }
+
+    static ColumnVector of(SqlTypeName type, int capacity) {
+      switch (type) {
+      case DOUBLE:
+      case FLOAT:
+      case DECIMAL:
+        return new DoubleVector(type, capacity);
+      case VARCHAR:
+      case CHAR:
+        return new StringVector(type, capacity);
+      default:
+        return new IntVector(type, capacity);
+      }
+    }
+
+    /**
+     * Returns the SQL type of the values in the vector.
+     */
+    public SqlTypeName type() {
+      return type;
+    }
+
+    /**
+     * Returns whether the vector contains any null value; if not, the null checks can be skipped.
+     */
+    public boolean hasNulls() {
+      return hasNulls;
+    }
+
+    /**
+     * Returns whether the value at the specified position is null.
+     */
+    public boolean isNull(int i) {
+      return hasNulls && (nulls[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Returns the value at the specified position in Calcite's internal representation.
+     */
+    public abstract Object getObject(int i);
+
+    void setNull(int i) {
+      nulls[i >>> 6] |= 1L << i;
+      hasNulls = true;
+    }
+  }
+
+  /**
+   * Vector holding integer values; also used for dates, represented as days since epoch.
+   */
+  public static final class IntVector extends ColumnVector {
+    final int[] values;
+
+    IntVector(SqlTypeName type, int capacity) {
+      super(type, capacity);
+      this.values = new int[capacity];
+    }
+
+    /**
+     * Returns the value at the specified position; undefined if the value is null.
+     */
+    public int getInt(int i) {
+      return values[i];
+    }
+
+    @Override public Object getObject(int i) {
+      return isNull(i) ? null : LuceneEnumerable.extractValueForType(values[i], type());
+    }
+  }
+
+  /**
+   * Vector holding double values.
+   */
+  public static final class DoubleVector extends ColumnVector {
+    final double[] values;
+
+    DoubleVector(SqlTypeName type, int capacity) {
+      super(type, capacity);
+      this.values = new double[capacity];
+    }
+
+    /**
+     * Returns the value at the specified position; undefined if the value is null.
+     */
+    public double getDouble(int i) {
+      return values[i];
+    }
+
+    @Override public Object getObject(int i) {
+      return isNull(i) ? null : values[i];
+    }
+  }
+
+  /**
+   * Vector holding dictionary-encoded strings.
+   *
+   * Each value is an ordinal into a dictionary which is shared by all the rows of the batch.
+   * Equal strings have equal ordinals so comparisons and grouping can be done on the ordinals
+   * alone; the dictionary is consulted only when the actual string is needed. Dictionaries are
+   * specific to a batch and the ordinals of different batches must not be compared.
+   */
+  public static final class StringVector extends ColumnVector {
+    final int[] ordinals;
+    private IntFunction<String> dictionary;
+
+    StringVector(SqlTypeName type, int capacity) {
+      super(type, capacity);
+      this.ordinals = new int[capacity];
+    }
+
+    /**
+     * Returns the ordinal of the value at the specified position; undefined if the value is null.
+     */
+    public int getOrdinal(int i) {
+      return ordinals[i];
+    }
+
+    /**
+     * Returns the string corresponding to the specified ordinal.
+     */
+    public String lookup(int ordinal) {
+      return dictionary.apply(ordinal);
+    }
+
+    @Override public Object getObject(int i) {
+      return isNull(i) ? null : dictionary.apply(ordinals[i]);
+    }
+
+    void setDictionary(IntFunction<String> dictionary) {
+      this.dictionary = dictionary;
+    }
+  }
+}
@@ -0,0 +1,413 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.calcite.sql.SqlKind;
+
+import com.github.zabetak.calcite.tutorial.LuceneBatch.ColumnVector;
+import com.github.zabetak.calcite.tutorial.LuceneBatch.DoubleVector;
+import com.github.zabetak.calcite.tutorial.LuceneBatch.IntVector;
+import com.github.zabetak.calcite.tutorial.LuceneBatch.StringVector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * A condition evaluated on the column vectors of a {@link LuceneBatch}, so that the rows that do
+ * not satisfy it are dropped before they are materialized.
+ *
+ * The condition follows the three-valued logic of SQL: a row is selected only if the condition
+ * is true for it, comparisons with null values are unknown, and unknown propagates through
+ * {@code AND}, {@code OR}, and {@code NOT} as in SQL. The conditions are built from:
+ * <ul>
+ *   <li>comparisons of a column with a constant: numbers with integer, date (days since epoch),
+ *   and double columns, strings with string columns;</li>
+ *   <li>comparisons of two numeric (or two date) columns;</li>
+ *   <li>{@code LIKE} patterns on string columns;</li>
+ *   <li>{@code IS [NOT] NULL} checks;</li>
+ *   <li>{@code AND}, {@code OR}, and {@code NOT} of the above.</li>
+ * </ul>
+ * Strings are compared with {@link String#compareTo(String)} like in the code that Calcite
+ * generates. Conditions on string columns are evaluated once per distinct dictionary ordinal of
+ * a batch.
+ *
+ * Conditions are immutable and can be evaluated by several threads at the same time.
+ *
+ * @see LuceneEnumerable#withBatchFilter(LuceneBatchFilter)
+ */
+public abstract class LuceneBatchFilter {
+  private static final byte FALSE = 0;
+  private static final byte TRUE = 1;
+  private static final byte UNKNOWN = 2;
+
+  private LuceneBatchFilter() {
+  }
+
+  /**
+   * Returns the condition that is true if all the specified conditions are true.
+   */
+  public static LuceneBatchFilter and(List<LuceneBatchFilter> operands) {
+    return new Junction(true, operands);
+  }
+
+  /**
+   * Returns the condition that is true if any of the specified conditions is true.
+   */
+  public static LuceneBatchFilter or(List<LuceneBatchFilter> operands) {
+    return new Junction(false, operands);
+  }
+
+  /**
+   * Returns the negation of the specified condition.
+   */
+  public static LuceneBatchFilter not(LuceneBatchFilter operand) {
+    return new Not(operand);
+  }
+
+  /**
+   * Returns the condition checking whether the value of the specified column is null or, if
+   * {@code negated}, not null.
+   */
+  public static LuceneBatchFilter isNull(int column, boolean negated) {
+    return new IsNull(column, negated);
+  }
+
+  /**
+   * Returns the comparison of the specified column with a constant.
+   *
+   * @param kind - the comparison: {@code =}, {@code <>}, {@code <}, {@code <=}, {@code >}, or
+   * {@code >=}
+   * @param column - the position of the column in the batch
+   * @param value - a {@link Number} for numeric and date columns or a {@link String} for string
+   * columns
+   */
+  public static LuceneBatchFilter compare(SqlKind kind, int column, Object value) {
+    checkComparison(kind);
+    if (value instanceof String) {
+      String s = (String) value;
+      return new StringCondition(column, kind + " '" + s + "'",
+          v -> test(kind, v.compareTo(s)));
+    }
+    return new ConstantComparison(kind, column, ((Number) value).doubleValue());
+  }
+
+  /**
+   * Returns the comparison of two numeric (or two date) columns.
+   */
+  public static LuceneBatchFilter compareColumns(SqlKind kind, int left, int right) {
+    checkComparison(kind);
+    return new ColumnComparison(kind, left, right);
+  }
+
+  /**
+   * Returns the condition checking whether the value of the specified string column matches a
+   * SQL {@code LIKE} pattern without escape character.
+   */
+  public static LuceneBatchFilter like(int column, String pattern) {
+    Pattern regex = likeToRegex(pattern);
+    return new StringCondition(column, "LIKE '" + pattern + "'",
+        v -> regex.matcher(v).matches());
+  }
+
+  private static Pattern likeToRegex(String pattern) {
+    StringBuilder regex = new StringBuilder();
+    int literal = 0;
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if (c == '%' || c == '_') {
+        if (literal < i) {
+          regex.append(Pattern.quote(pattern.substring(literal, i)));
+        }
+        regex.append(c == '%' ? ".*" : ".");
+        literal = i + 1;
+      }
+    }
+    if (literal < pattern.length()) {
+      regex.append(Pattern.quote(pattern.substring(literal)));
+    }
+    return Pattern.compile(regex.toString(), Pattern.DOTALL);
+  }
+
+  private static void checkComparison(SqlKind kind) {
+    if (!SqlKind.COMPARISON.contains(kind) || kind == SqlKind.IN || kind == SqlKind.NOT_IN) {
+      throw new IllegalArgumentException("Unsupported comparison " + kind);
+    }
+  }
+
+  /**
+   * Writes the positions of the rows of the batch that satisfy the condition to the selection
+   * and returns their number.
+   *
+   * @param selection - an array at least as large as the batch
+   */
+  public final int select(LuceneBatch batch, int[] selection) {
+    byte[] values = new byte[batch.size()];
+    evaluate(batch, values);
+    int count = 0;
+    for (int r = 0; r < values.length; r++) {
+      if (values[r] == TRUE) {
+        selection[count++] = r;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Writes the value ({@link #TRUE}, {@link #FALSE}, or {@link #UNKNOWN}) of the condition for
+   * every row of the batch.
+   */
+  abstract void evaluate(LuceneBatch batch, byte[] values);
+
+  private static boolean test(SqlKind kind, int cmp) {
+    switch (kind) {
+    case EQUALS:
+      return cmp == 0;
+    case NOT_EQUALS:
+      return cmp != 0;
+    case LESS_THAN:
+      return cmp < 0;
+    case LESS_THAN_OR_EQUAL:
+      return cmp <= 0;
+    case GREATER_THAN:
+      return cmp > 0;
+    case GREATER_THAN_OR_EQUAL:
+      return cmp >= 0;
+    default:
+      throw new AssertionError(kind);
+    }
+  }
+
+  private static boolean test(SqlKind kind, double left, double right) {
+    switch (kind) {
+    case EQUALS:
+      return left == right;
+    case NOT_EQUALS:
+      return left != right;
+    case LESS_THAN:
+      return left < right;
+    case LESS_THAN_OR_EQUAL:
+      return left <= right;
+    case GREATER_THAN:
+      return left > right;
+    case GREATER_THAN_OR_EQUAL:
+      return left >= right;
+    default:
+      throw new AssertionError(kind);
+    }
+  }
+
+  private static byte value(boolean b) {
+    return b ? TRUE : FALSE;
+  }
+
+  private static double getDouble(ColumnVector vector, int r) {
+    return vector instanceof IntVector
+        ? ((IntVector) vector).getInt(r)
+        : ((DoubleVector) vector).getDouble(r);
+  }
+
+  /**
+   * {@code AND} or {@code OR} of conditions.
+   */
+  private static final class Junction extends LuceneBatchFilter {
+    private final boolean and;
+    private final List<LuceneBatchFilter> operands;
+
+    Junction(boolean and, List<LuceneBatchFilter> operands) {
+      this.and = and;
+      this.operands = new ArrayList<>(operands);
+    }
+
+    @Override void evaluate(LuceneBatch batch, byte[] values) {
+      // FALSE dominates an AND and TRUE an OR; otherwise UNKNOWN dominates
+      byte dominant = and ? FALSE : TRUE;
+      Arrays.fill(values, and ? TRUE : FALSE);
+      byte[] operand = new byte[values.length];
+      for (LuceneBatchFilter o : operands) {
+        o.evaluate(batch, operand);
+        for (int r = 0; r < values.length; r++) {
+          if (values[r] != dominant && (operand[r] == dominant || operand[r] == UNKNOWN)) {
+            values[r] = operand[r];
+          }
+        }
+      }
+    }
+
+    @Override public String toString() {
+      StringBuilder sb = new StringBuilder(and ? "AND(" : "OR(");
+      for (int i = 0; i < operands.size(); i++) {
+        sb.append(i == 0 ? "" : ", ").append(operands.get(i));
+      }
+      return sb.append(')').toString();
+    }
+  }
+
+  /**
+   * Negation of a condition.
+   */
+  private static final class Not extends LuceneBatchFilter {
+    private final LuceneBatchFilter operand;
+
+    Not(LuceneBatchFilter operand) {
+      this.operand = operand;
+    }
+
+    @Override void evaluate(LuceneBatch batch, byte[] values) {
+      operand.evaluate(batch, values);
+      for (int r = 0; r < values.length; r++) {
+        if (values[r] != UNKNOWN) {
+          values[r] = value(values[r] == FALSE);
+        }
+      }
+    }
+
+    @Override public String toString() {
+      return "NOT(" + operand + ")";
+    }
+  }
+
+  /**
+   * {@code IS NULL} or {@code IS NOT NULL} check.
+   */
+  private static final class IsNull extends LuceneBatchFilter {
+    private final int column;
+    private final boolean negated;
+
+    IsNull(int column, boolean negated) {
+      this.column = column;
+      this.negated = negated;
+    }
+
+    @Override void evaluate(LuceneBatch batch, byte[] values) {
+      ColumnVector vector = batch.column(column);
+      for (int r = 0; r < values.length; r++) {
+        values[r] = value(vector.isNull(r) != negated);
+      }
+    }
+
+    @Override public String toString() {
+      return "$" + column + (negated ? " IS NOT NULL" : " IS NULL");
+    }
+  }
+
+  /**
+   * Comparison of a numeric or date column with a constant.
+   */
+  private static final class ConstantComparison extends LuceneBatchFilter {
+    private final SqlKind kind;
+    private final int column;
+    private final double value;
+
+    ConstantComparison(SqlKind kind, int column, double value) {
+      this.kind = kind;
+      this.column = column;
+      this.value = value;
+    }
+
+    @Override void evaluate(LuceneBatch batch, byte[] values) {
+      ColumnVector vector = batch.column(column);
+      boolean nulls = vector.hasNulls();
+      for (int r = 0; r < values.length; r++) {
+        values[r] = nulls && vector.isNull(r)
+            ? UNKNOWN
+            : value(test(kind, getDouble(vector, r), value));
+      }
+    }
+
+    @Override public String toString() {
+      return "$" + column + " " + kind + " " + value;
+    }
+  }
+
+  /**
+   * Comparison of two numeric or date columns.
+   */
+  private static final class ColumnComparison extends LuceneBatchFilter {
+    private final SqlKind kind;
+    private final int left;
+    private final int right;
+
+    ColumnComparison(SqlKind kind, int left, int right) {
+      this.kind = kind;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override void evaluate(LuceneBatch batch, byte[] values) {
+      ColumnVector l = batch.column(left);
+      ColumnVector r = batch.column(right);
+      for (int i = 0; i < values.length; i++) {
+        values[i] = l.isNull(i) || r.isNull(i)
+            ? UNKNOWN
+            : value(test(kind, getDouble(l, i), getDouble(r, i)));
+      }
+    }
+
+    @Override public String toString() {
+      return "$" + left + " " + kind + " $" + right;
+    }
+  }
+
+  /**
+   * Condition on the value of a string column, evaluated once per distinct ordinal.
+   */
+  private static final class StringCondition extends LuceneBatchFilter {
+    private final int column;
+    private final String description;
+    private final Predicate<String> predicate;
+
+    StringCondition(int column, String description, Predicate<String> predicate) {
+      this.column = column;
+      this.description = description;
+      this.predicate = predicate;
+    }
+
+    @Override void evaluate(LuceneBatch batch, byte[] values) {
+      StringVector vector = (StringVector) batch.column(column);
+      // Open addressing table from the ordinals seen in the batch to the value of the condition;
+      // the ordinals are specific to the batch
+      int capacity = Integer.highestOneBit(Math.max(1, values.length)) << 2;
+      int[] ordinals = new int[capacity];
+      byte[] results = new byte[capacity];
+      boolean[] used = new boolean[capacity];
+      for (int r = 0; r < values.length; r++) {
+        if (vector.isNull(r)) {
+          values[r] = UNKNOWN;
+          continue;
+        }
+        int ordinal = vector.getOrdinal(r);
+        int slot = (ordinal * 0x9E3779B9) >>> 1 & (capacity - 1);
+        while (used[slot] && ordinals[slot] != ordinal) {
+          slot = (slot + 1) & (capacity - 1);
+        }
+        if (!used[slot]) {
+          used[slot] = true;
+          ordinals[slot] = ordinal;
+          results[slot] = value(predicate.test(vector.lookup(ordinal)));
+        }
+        values[r] = results[slot];
+      }
+    }
+
+    @Override public String toString() {
+      return "$" + column + " " + description;
+    }
+  }
+}
@@ -0,0 +1,383 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.StoredFieldVisitor;
+
+import com.github.zabetak.calcite.tutorial.LuceneBatch.DoubleVector;
+import com.github.zabetak.calcite.tutorial.LuceneBatch.IntVector;
+import com.github.zabetak.calcite.tutorial.LuceneBatch.StringVector;
+import com.github.zabetak.calcite.tutorial.LuceneTableCache.CachedColumn;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reader filling {@link LuceneBatch batches} with the values of the documents returned by a
+ * {@link LuceneHitIterator}.
+ *
+ * A batch contains documents of a single segment. When all the requested fields have doc values,
+ * which are stored in a column-oriented fashion per segment, the batch is filled one column at a
+ * time in a tight loop. The reader keeps one iterator per column for the segment that is
+ * currently read so when documents are requested in increasing order of their ids (which is the
+ * case for most scans) every column is read sequentially. Requesting a document that is behind
+ * the current position is supported but ends the batch and requires restarting the iterators of
+ * the segment.
+ *
+ * Otherwise the batch is filled one document at a time from the stored fields.
+ *
+ * When the columns are available in a {@link LuceneTableCache} the index is used only to find the
+ * matching documents and the values are copied from the cache.
+ */
+final class LuceneBatchReader {
+  private final IndexReader reader;
+  private final List<LeafReaderContext> leaves;
+  private final LuceneHitIterator hits;
+  private final String[] fields;
+  private final SqlTypeName[] types;
+  private final int capacity;
+  /**
+   * Whether the values are read from doc values or stored fields.
+   */
+  private final boolean docValues;
+  /**
+   * The cached values of the fields; null if the values are read from the index.
+   */
+  private final CachedColumn[] cached;
+  /**
+   * The (segment) document ids in the current batch.
+   */
+  private final int[] docs;
+  private final NumericDocValues[] numerics;
+  private final SortedDocValues[] sorted;
+  /**
+   * The segment for which the doc values iterators are open.
+   */
+  private int leaf = -1;
+  private int lastDoc = -1;
+  /**
+   * A hit that was obtained but did not fit in the previous batch; -1 if there is none.
+   */
+  private int pending = -1;
+
+  LuceneBatchReader(IndexReader reader, LuceneHitIterator hits, String[] fields,
+      SqlTypeName[] types, int capacity) {
+    this(reader, hits, fields, types, capacity, null);
+  }
+
+  LuceneBatchReader(IndexReader reader, LuceneHitIterator hits, String[] fields,
+      SqlTypeName[] types, int capacity, CachedColumn[] cached) {
+    this.reader = reader;
+    this.leaves = reader.leaves();
+    this.hits = hits;
+    this.fields = fields;
+    this.types = types;
+    this.capacity = capacity;
+    this.docValues = cached == null && hasDocValues(reader, fields);
+    this.cached = cached;
+    this.docs = new int[capacity];
+    this.numerics = new NumericDocValues[fields.length];
+    this.sorted = new SortedDocValues[fields.length];
+  }
+
+  /**
+   * Returns whether equal strings have equal ordinals in all the batches of a segment; otherwise
+   * every batch has its own dictionary (see {@link LuceneBatch.StringVector}).
+   */
+  boolean hasSegmentOrdinals() {
+    return docValues || cached != null;
+  }
+
+  /**
+   * Returns whether all the specified fields can be read from doc values.
+   */
+  static boolean hasDocValues(IndexReader reader, String[] fields) {
+    FieldInfos infos = FieldInfos.getMergedFieldInfos(reader);
+    for (String f : fields) {
+      FieldInfo info = infos.fieldInfo(f);
+      if (info == null) {
+        return false;
+      }
+      DocValuesType type = info.getDocValuesType();
+      if (type != DocValuesType.NUMERIC && type != DocValuesType.SORTED) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a batch with the next hits or null if there are no more hits.
+   *
+   * Every call returns a new batch; the allocation is amortized over all the rows of the batch
+   * and callers, including iterators that read ahead, do not have to copy the batch before
+   * asking for the next one.
+   */
+  LuceneBatch next() throws IOException {
+    int count = 0;
+    int batchLeaf = -1;
+    int docBase = 0;
+    int docEnd = 0;
+    while (count < docs.length) {
+      int doc = pending != -1 ? pending : hits.nextDoc();
+      pending = -1;
+      if (doc == LuceneHitIterator.NO_MORE_DOCS) {
+        break;
+      }
+      if (doc < docBase || doc >= docEnd) {
+        if (batchLeaf != -1) {
+          // The hit belongs to another segment so it goes into the next batch
+          pending = doc;
+          break;
+        }
+        batchLeaf = ReaderUtil.subIndex(doc, leaves);
+        LeafReaderContext context = leaves.get(batchLeaf);
+        docBase = context.docBase;
+        docEnd = docBase + context.reader().maxDoc();
+      }
+      if (count > 0 && doc - docBase <= docs[count - 1]) {
+        // Hits that are not in index order (e.g., sorted by a field) start a new batch so the
+        // doc values of the batch can still be read sequentially
+        pending = doc;
+        break;
+      }
+      docs[count++] = doc - docBase;
+    }
+    if (count == 0) {
+      return null;
+    }
+    LuceneBatch batch = new LuceneBatch(types, capacity);
+    batch.setSize(count);
+    for (int j = 0; j < count; j++) {
+      batch.setDocId(j, docBase + docs[j]);
+    }
+    if (cached != null) {
+      readCache(batch, count);
+    } else if (docValues) {
+      readDocValues(batch, batchLeaf, count);
+    } else {
+      readStoredFields(batch, docBase, count);
+    }
+    return batch;
+  }
+
+  /**
+   * Rewinds the reader so that it starts from the first hit again.
+   */
+  void reset() {
+    hits.reset();
+    pending = -1;
+    leaf = -1;
+  }
+
+  private void readCache(LuceneBatch batch, int count) {
+    for (int i = 0; i < fields.length; i++) {
+      cached[i].fill(batch.column(i), batch.docIds(), count);
+    }
+  }
+
+  private void readDocValues(LuceneBatch batch, int batchLeaf, int count) throws IOException {
+    if (batchLeaf != leaf || docs[0] < lastDoc) {
+      open(leaves.get(batchLeaf).reader());
+      leaf = batchLeaf;
+    }
+    lastDoc = docs[count - 1];
+    for (int i = 0; i < fields.length; i++) {
+      LuceneBatch.ColumnVector column = batch.column(i);
+      if (column instanceof IntVector) {
+        int[] values = ((IntVector) column).values;
+        NumericDocValues dv = numerics[i];
+        for (int j = 0; j < count; j++) {
+          if (dv.advanceExact(docs[j])) {
+            values[j] = (int) dv.longValue();
+          } else {
+            column.setNull(j);
+          }
+        }
+      } else if (column instanceof DoubleVector) {
+        double[] values = ((DoubleVector) column).values;
+        NumericDocValues dv = numerics[i];
+        for (int j = 0; j < count; j++) {
+          if (dv.advanceExact(docs[j])) {
+            values[j] = Double.longBitsToDouble(dv.longValue());
+          } else {
+            column.setNull(j);
+          }
+        }
+      } else {
+        StringVector strings = (StringVector) column;
+        int[] ordinals = strings.ordinals;
+        SortedDocValues dv = sorted[i];
+        for (int j = 0; j < count; j++) {
+          if (dv.advanceExact(docs[j])) {
+            ordinals[j] = dv.ordValue();
+          } else {
+            column.setNull(j);
+          }
+        }
+        strings.setDictionary(ord -> lookup(dv, ord));
+      }
+    }
+  }
+
+  private static String lookup(SortedDocValues dv, int ord) {
+    try {
+      return dv.lookupOrd(ord).utf8ToString();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void open(LeafReader leafReader) throws IOException {
+    for (int i = 0; i < fields.length; i++) {
+      if (isString(types[i])) {
+        sorted[i] = DocValues.getSorted(leafReader, fields[i]);
+      } else {
+        numerics[i] = DocValues.getNumeric(leafReader, fields[i]);
+      }
+    }
+  }
+
+  private static boolean isString(SqlTypeName type) {
+    return type == SqlTypeName.VARCHAR || type == SqlTypeName.CHAR;
+  }
+
+  private void readStoredFields(LuceneBatch batch, int docBase, int count) throws IOException {
+    BatchVisitor visitor = new BatchVisitor(batch);
+    for (int j = 0; j < count; j++) {
+      visitor.position(j);
+      reader.document(docBase + docs[j], visitor);
+      visitor.setMissingToNull();
+    }
+  }
+
+  /**
+   * Visitor loading the requested stored fields of a document straight into a batch.
+   *
+   * The document is decoded only once and the visitor stops as soon as all the requested fields
+   * have been loaded. Strings are dictionary-encoded in order of appearance in the batch.
+   */
+  private final class BatchVisitor extends StoredFieldVisitor {
+    private final LuceneBatch batch;
+    private final Map<String, Integer> columns = new HashMap<>();
+    /**
+     * The dictionary of each string column; null for the other columns.
+     */
+    private final List<String>[] dictionaries;
+    /**
+     * The ordinal of each string in the dictionary of each string column.
+     */
+    private final Map<String, Integer>[] ordinals;
+    private final boolean[] loaded = new boolean[fields.length];
+    private int position;
+    private int remaining;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BatchVisitor(LuceneBatch batch) {
+      this.batch = batch;
+      for (int i = 0; i < fields.length; i++) {
+        columns.put(fields[i], i);
+      }
+      this.dictionaries = new List[fields.length];
+      this.ordinals = new Map[fields.length];
+      for (int i = 0; i < fields.length; i++) {
+        if (batch.column(i) instanceof StringVector) {
+          List<String> dictionary = new ArrayList<>();
+          dictionaries[i] = dictionary;
+          ordinals[i] = new HashMap<>();
+          ((StringVector) batch.column(i)).setDictionary(dictionary::get);
+        }
+      }
+    }
+
+    void position(int position) {
+      this.position = position;
+      this.remaining = fields.length;
+      Arrays.fill(loaded, false);
+    }
+
+    void setMissingToNull() {
+      for (int i = 0; i < fields.length; i++) {
+        if (!loaded[i]) {
+          batch.column(i).setNull(position);
+        }
+      }
+    }
+
+    @Override public Status needsField(final FieldInfo fieldInfo) {
+      if (remaining == 0) {
+        return Status.STOP;
+      }
+      return columns.containsKey(fieldInfo.name) ? Status.YES : Status.NO;
+    }
+
+    @Override public void intField(final FieldInfo fieldInfo, final int value) {
+      int i = loaded(fieldInfo);
+      ((IntVector) batch.column(i)).values[position] = value;
+    }
+
+    @Override public void longField(final FieldInfo fieldInfo, final long value) {
+      int i = loaded(fieldInfo);
+      ((IntVector) batch.column(i)).values[position] = (int) value;
+    }
+
+    @Override public void floatField(final FieldInfo fieldInfo, final float value) {
+      int i = loaded(fieldInfo);
+      ((DoubleVector) batch.column(i)).values[position] = value;
+    }
+
+    @Override public void doubleField(final FieldInfo fieldInfo, final double value) {
+      int i = loaded(fieldInfo);
+      ((DoubleVector) batch.column(i)).values[position] = value;
+    }
+
+    @Override public void stringField(final FieldInfo fieldInfo, final byte[] value) {
+      int i = loaded(fieldInfo);
+      List<String> dictionary = dictionaries[i];
+      int ord = ordinals[i].computeIfAbsent(new String(value, StandardCharsets.UTF_8), s -> {
+        dictionary.add(s);
+        return dictionary.size() - 1;
+      });
+      ((StringVector) batch.column(i)).ordinals[position] = ord;
+    }
+
+    private int loaded(FieldInfo fieldInfo) {
+      int i = columns.get(fieldInfo.name);
+      if (!loaded[i]) {
+        loaded[i] = true;
+        remaining--;
+      }
+      return i;
+    }
+  }
+}
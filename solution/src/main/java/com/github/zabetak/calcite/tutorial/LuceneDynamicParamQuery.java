@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.calcite.DataContext;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Weight;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Placeholder for the query comparing a column with a dynamic parameter ({@code ?}) of an SQL
+ * query, whose value is only known when the compiled plan is executed.
+ *
+ * Plans with dynamic parameters are optimized and compiled once and executed with different
+ * values. The placeholders take the place of the comparisons in the Lucene query of the plan and
+ * {@link #bind(Query, DataContext)} replaces them with the queries for the values of the
+ * parameters before the index is searched. The values are taken from the context under the names
+ * {@code ?0}, {@code ?1}, etc., like in the code that Calcite generates for the dynamic
+ * parameters of other expressions, and they are in Calcite's internal representation (e.g.,
+ * dates are days since epoch).
+ *
+ * A placeholder cannot be searched. While planning, it only provides the estimated fraction of
+ * the documents that it matches (see
+ * {@link com.github.zabetak.calcite.tutorial.metadata.LuceneQueryEstimator}).
+ */
+public final class LuceneDynamicParamQuery extends Query {
+  private final int index;
+  private final String field;
+  private final String operator;
+  private final double selectivity;
+  private final Function<@Nullable Object, Query> binder;
+
+  /**
+   * Creates a placeholder.
+   *
+   * @param index - the index of the dynamic parameter
+   * @param field - the name of the column compared with the parameter
+   * @param operator - the comparison operator, only used to describe the query
+   * @param selectivity - the estimated fraction of the documents matching the query
+   * @param binder - the function returning the query for a value of the parameter
+   */
+  public LuceneDynamicParamQuery(int index, String field, String operator, double selectivity,
+      Function<@Nullable Object, Query> binder) {
+    this.index = index;
+    this.field = field;
+    this.operator = operator;
+    this.selectivity = selectivity;
+    this.binder = binder;
+  }
+
+  /**
+   * Returns the index of the dynamic parameter.
+   */
+  public int index() {
+    return index;
+  }
+
+  /**
+   * Returns the estimated fraction of the documents matching the query.
+   */
+  public double selectivity() {
+    return selectivity;
+  }
+
+  /**
+   * Returns the query for the specified value of the parameter.
+   */
+  public Query bind(@Nullable Object value) {
+    return binder.apply(value);
+  }
+
+  /**
+   * Returns the specified query with every placeholder replaced by the query for the value of its
+   * parameter in the specified context.
+   */
+  public static Query bind(Query query, DataContext root) {
+    if (query instanceof LuceneDynamicParamQuery) {
+      LuceneDynamicParamQuery param = (LuceneDynamicParamQuery) query;
+      return param.bind(root.get("?" + param.index));
+    }
+    if (query instanceof BooleanQuery && hasDynamicParams(query)) {
+      BooleanQuery bool = (BooleanQuery) query;
+      BooleanQuery.Builder builder = new BooleanQuery.Builder()
+          .setMinimumNumberShouldMatch(bool.getMinimumNumberShouldMatch());
+      for (BooleanClause c : bool.clauses()) {
+        builder.add(bind(c.getQuery(), root), c.getOccur());
+      }
+      return builder.build();
+    }
+    return query;
+  }
+
+  /**
+   * Returns whether the specified query has placeholders that must be bound before searching.
+   */
+  public static boolean hasDynamicParams(Query query) {
+    if (query instanceof LuceneDynamicParamQuery) {
+      return true;
+    }
+    if (query instanceof BooleanQuery) {
+      for (BooleanClause c : ((BooleanQuery) query).clauses()) {
+        if (hasDynamicParams(c.getQuery())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  @Override public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) {
+    throw new IllegalStateException("Dynamic parameter ?" + index + " is not bound");
+  }
+
+  @Override public String toString(String defaultField) {
+    return field + operator + "?" + index;
+  }
+
+  @Override public boolean equals(Object o) {
+    if (!sameClassAs(o)) {
+      return false;
+    }
+    LuceneDynamicParamQuery that = (LuceneDynamicParamQuery) o;
+    return index == that.index && field.equals(that.field) && operator.equals(that.operator);
+  }
+
+  @Override public int hashCode() {
+    return Objects.hash(classHash(), index, field, operator);
+  }
+}
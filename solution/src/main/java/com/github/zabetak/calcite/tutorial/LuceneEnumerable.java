@@ -17,31 +17,47 @@
 package com.github.zabetak.calcite.tutorial;
 
 import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
 import org.apache.calcite.linq4j.Enumerator;
 import org.apache.calcite.linq4j.Linq4j;
 import org.apache.calcite.sql.type.SqlTypeName;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
 import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
 import org.apache.lucene.queryparser.flexible.standard.config.PointsConfig;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.Weight;
 import org.apache.lucene.store.FSDirectory;
 
+import com.github.zabetak.calcite.tutorial.LuceneTableCache.CachedColumn;
+
 import java.io.IOException;
 import java.nio.file.Paths;
-import java.sql.Date;
 import java.text.NumberFormat;
-import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A class providing enumerators over an Apache Lucene index.
@@ -50,104 +66,871 @@ import java.util.Map;
  * using Calcite's internal representation, and construct Enumerator objects, which can be consumed
  * by Calcite's {@link org.apache.calcite.adapter.enumerable.EnumerableRel} (physical) operators.
  *
- * Performance note: The class could be optimized to not fetch in-memory all the results from the
- * index by exploiting some additional Lucene APIs such as
- * {@link IndexSearcher#searchAfter(ScoreDoc, Query, int)}. This is not done in the current
- * implementation to keep the implementation as simple as possible.
+ * The values of the requested fields are read in columnar batches (see {@link #batches()}) from
+ * doc values when all of them are available and otherwise from the stored fields of each
+ * document. The row-based {@link #enumerator()} converts the batches to rows; a condition can be
+ * evaluated on the vectors of each batch beforehand so that only the rows satisfying it are
+ * materialized (see {@link #withBatchFilter(LuceneBatchFilter)}).
+ *
+ * The rows are not materialized in memory; the enumerator obtains the hits of the query from the
+ * index in chunks (see {@link ScanMode}) so memory stays bounded regardless of the size of the
+ * result.
+ *
+ * When the table specifies an executor (see {@link LuceneTable.Options#scanExecutor()}) and the
+ * index has more than one segment, the segments are scanned concurrently: each segment is
+ * collected and decoded into rows by a separate task and the rows are handed over to the
+ * enumerator through bounded queues. Rows come out in index order if the enumerable is ordered
+ * (see {@link #withOrdered(boolean)}) and in the order they are produced otherwise.
+ *
+ * Instead of returning the hits, the enumerable can also aggregate them while they are read (see
+ * {@link #withAggregation(LuceneAggregation)}).
  */
 public class LuceneEnumerable extends AbstractEnumerable<Object[]> {
+  /**
+   * The number of hits fetched from the index in one go.
+   */
+  private static final int PAGE_SIZE = 1024;
+  /**
+   * The maximum number of chunks (of {@link #PAGE_SIZE} rows) waiting to be consumed in a queue
+   * of a parallel scan.
+   */
+  private static final int QUEUE_CAPACITY = 4;
+
+  /**
+   * The strategy for obtaining the hits of a query from the index.
+   */
+  public enum ScanMode {
+    /**
+     * Pages through the top hits of the query using
+     * {@link IndexSearcher#searchAfter(ScoreDoc, Query, int)}.
+     *
+     * Every hit is scored and each page is sorted by score, although Calcite never uses the
+     * relevance of the documents.
+     */
+    TOP_DOCS,
+    /**
+     * Collects the hits of the query wrapped in a
+     * {@link org.apache.lucene.search.ConstantScoreQuery} using a
+     * {@link org.apache.lucene.search.LeafCollector} that does not need scores.
+     *
+     * Hits are returned in index order without any sorting overhead.
+     */
+    COLLECTOR
+  }
+
+  /**
+   * The table providing (shared) searchers over the index; null if the enumerable has to open a
+   * reader on its own.
+   */
+  private final LuceneTable table;
   private final String indexPath;
   private final LinkedHashMap<String, SqlTypeName> fields;
-  private final String query;
+  /**
+   * The query selecting the documents; null if it is given as a string.
+   */
+  private final Query query;
+  /**
+   * The query, in the syntax of {@link StandardQueryParser}, selecting the documents; null if the
+   * query is given as an object.
+   */
+  private final String queryString;
+  /**
+   * The name of each field in the row.
+   */
+  private final String[] names;
+  /**
+   * The type of each field in the row.
+   */
+  private final SqlTypeName[] types;
+  private final ScanMode scanMode;
+  /**
+   * Whether the rows must be returned in index order.
+   */
+  private final boolean ordered;
+  /**
+   * Flag set when the query using the enumerable is cancelled; null if the scan cannot be
+   * cancelled.
+   */
+  private final AtomicBoolean cancelFlag;
+  /**
+   * The order of the hits when only a range of them is returned; null for index order.
+   */
+  private final Sort sort;
+  /**
+   * The number of (sorted) hits to skip.
+   */
+  private final int offset;
+  /**
+   * The maximum number of hits to return after the offset; -1 to return all the hits.
+   */
+  private final int fetch;
+  /**
+   * The aggregation computed over the hits; null if the hits are returned as rows.
+   */
+  private final LuceneAggregation aggregation;
+  /**
+   * Additional (non-scoring) query that the hits must match; null if there is none.
+   */
+  private final Query filter;
+  /**
+   * Condition evaluated on the batches before their rows are returned; null if there is none.
+   */
+  private final LuceneBatchFilter batchFilter;
 
+  /**
+   * Creates an enumerable opening a new reader over the index every time it is enumerated.
+   */
   public LuceneEnumerable(String indexPath, LinkedHashMap<String, SqlTypeName> fields,
       String query) {
+    this(null, indexPath, fields, null, query, ScanMode.COLLECTOR, true, null, null, 0,
+        -1, null, null, null);
+  }
+
+  /**
+   * Creates an enumerable using the searchers provided by the specified table.
+   *
+   * The query is parsed every time the enumerable is enumerated; prefer
+   * {@link #LuceneEnumerable(LuceneTable, LinkedHashMap, Query)} when the query is available as
+   * an object.
+   */
+  public LuceneEnumerable(LuceneTable table, LinkedHashMap<String, SqlTypeName> fields,
+      String query) {
+    this(table, table.indexPath(), fields, null, query, ScanMode.COLLECTOR, true, null, null, 0,
+        -1, null, null, null);
+  }
+
+  /**
+   * Creates an enumerable using the searchers provided by the specified table and returning the
+   * documents matching the specified query.
+   */
+  public LuceneEnumerable(LuceneTable table, LinkedHashMap<String, SqlTypeName> fields,
+      Query query) {
+    this(table, table.indexPath(), fields, query, null, ScanMode.COLLECTOR, true, null, null, 0,
+        -1, null, null, null);
+  }
+
+  private LuceneEnumerable(LuceneTable table, String indexPath,
+      LinkedHashMap<String, SqlTypeName> fields, Query query, String queryString,
+      ScanMode scanMode, boolean ordered, AtomicBoolean cancelFlag, Sort sort, int offset,
+      int fetch, LuceneAggregation aggregation, Query filter, LuceneBatchFilter batchFilter) {
+    this.table = table;
     this.indexPath = indexPath;
     this.fields = fields;
     this.query = query;
+    this.queryString = queryString;
+    this.scanMode = scanMode;
+    this.ordered = ordered;
+    this.cancelFlag = cancelFlag;
+    this.sort = sort;
+    this.offset = offset;
+    this.fetch = fetch;
+    this.aggregation = aggregation;
+    this.filter = filter;
+    this.batchFilter = batchFilter;
+    this.names = fields.keySet().toArray(new String[0]);
+    this.types = fields.values().toArray(new SqlTypeName[0]);
+  }
+
+  /**
+   * Returns a copy of this enumerable using the specified strategy for obtaining hits.
+   */
+  public LuceneEnumerable withScanMode(ScanMode mode) {
+    return new LuceneEnumerable(table, indexPath, fields, query, queryString, mode, ordered,
+        cancelFlag, sort, offset, fetch, aggregation, filter, batchFilter);
+  }
+
+  /**
+   * Returns a copy of this enumerable that returns rows in index order, or in any order if
+   * {@code ordered} is false.
+   *
+   * Sequential scans always return rows in index order; relaxing the order allows parallel scans
+   * to hand over rows as soon as any segment produces them.
+   */
+  public LuceneEnumerable withOrdered(boolean ordered) {
+    return new LuceneEnumerable(table, indexPath, fields, query, queryString, scanMode, ordered,
+        cancelFlag, sort, offset, fetch, aggregation, filter, batchFilter);
+  }
+
+  /**
+   * Returns a copy of this enumerable that stops scanning the index as soon as the specified flag
+   * is set (see {@link org.apache.calcite.DataContext.Variable#CANCEL_FLAG}).
+   *
+   * The flag is checked before obtaining every chunk of hits from the index and before returning
+   * every row, so an abandoned query stops consuming resources almost immediately; the
+   * enumerator fails with a {@link CancellationException}.
+   */
+  public LuceneEnumerable withCancelFlag(AtomicBoolean cancelFlag) {
+    return new LuceneEnumerable(table, indexPath, fields, query, queryString, scanMode, ordered,
+        cancelFlag, sort, offset, fetch, aggregation, filter, batchFilter);
+  }
+
+  /**
+   * Returns a copy of this enumerable that returns only the hits ranked from {@code offset}
+   * (inclusive) to {@code offset + fetch} (exclusive) according to the specified sort, or in
+   * index order if the sort is null.
+   *
+   * The hits are collected with {@link IndexSearcher#search(Query, int, Sort)} so only
+   * {@code offset + fetch} hits are kept in memory and only {@code fetch} documents are read; the
+   * scan mode does not apply and the scan is never parallelized.
+   */
+  public LuceneEnumerable withLimit(Sort sort, int offset, int fetch) {
+    return new LuceneEnumerable(table, indexPath, fields, query, queryString, scanMode, ordered,
+        cancelFlag, sort, offset, fetch, aggregation, filter, batchFilter);
+  }
+
+  /**
+   * Returns a copy of this enumerable that returns one row per group of hits, computed by the
+   * specified aggregation, instead of one row per hit.
+   *
+   * The columns of the aggregation replace the fields of this enumerable. The segments of the
+   * index are aggregated separately, concurrently if the table specifies an executor, and their
+   * groups are merged when all of them are done; the rows are thus computed eagerly when the
+   * enumerator is created. The scan mode and the limit do not apply.
+   */
+  public LuceneEnumerable withAggregation(LuceneAggregation aggregation) {
+    if (batchFilter != null) {
+      throw new IllegalStateException("Aggregations do not evaluate batch filters");
+    }
+    return new LuceneEnumerable(table, indexPath, aggregation.columns(), query, queryString,
+        scanMode, ordered, cancelFlag, sort, offset, fetch, aggregation, filter, batchFilter);
+  }
+
+  /**
+   * Returns a copy of this enumerable that returns only the hits that also match the specified
+   * query.
+   *
+   * The filter is combined with the query of this enumerable when the enumerator is created, so
+   * it can be computed at runtime (e.g., from the keys of the other input of a join; see
+   * {@link LuceneJoins}). The filter does not affect scoring.
+   */
+  public LuceneEnumerable withFilter(Query filter) {
+    return new LuceneEnumerable(table, indexPath, fields, query, queryString, scanMode, ordered,
+        cancelFlag, sort, offset, fetch, aggregation, filter, batchFilter);
+  }
+
+  /**
+   * Returns a copy of this enumerable that returns only the rows satisfying the specified
+   * condition.
+   *
+   * The condition is evaluated on the column vectors of each batch, so the rows that do not
+   * satisfy it are never materialized. It applies to the rows returned by {@link #enumerator()},
+   * after the limit if there is one, whereas {@link #batches()} returns all the rows.
+   *
+   * @throws IllegalStateException if the enumerable computes an aggregation
+   */
+  public LuceneEnumerable withBatchFilter(LuceneBatchFilter batchFilter) {
+    if (aggregation != null) {
+      throw new IllegalStateException("Aggregations do not evaluate batch filters");
+    }
+    return new LuceneEnumerable(table, indexPath, fields, query, queryString, scanMode, ordered,
+        cancelFlag, sort, offset, fetch, aggregation, filter, batchFilter);
+  }
+
+  /**
+   * Throws a {@link CancellationException} if the specified flag is set.
+   */
+  static void checkCancelled(AtomicBoolean cancelFlag) {
+    if (cancelFlag != null && cancelFlag.get()) {
+      throw new CancellationException("Query was cancelled or reached its deadline");
+    }
+  }
+
+  /**
+   * Returns an enumerable over the rows of this enumerable in columnar batches.
+   *
+   * Hits are obtained sequentially, using the scan mode of this enumerable, and every batch
+   * contains rows of a single segment in index order (see {@link LuceneBatch} for the lifetime
+   * of each batch).
+   */
+  public Enumerable<LuceneBatch> batches() {
+    return new AbstractEnumerable<LuceneBatch>() {
+      @Override public Enumerator<LuceneBatch> enumerator() {
+        return batchEnumerator();
+      }
+    };
+  }
+
+  private Enumerator<LuceneBatch> batchEnumerator() {
+    IndexSearcher searcher;
+    try {
+      searcher = acquireSearcher();
+    } catch (IOException exception) {
+      // If the index is not found or for some reason we cannot read it consider the table empty
+      return Linq4j.emptyEnumerator();
+    }
+    try {
+      return new LuceneBatchEnumerator(searcher, createHits(searcher));
+    } catch (IOException | RuntimeException e) {
+      try {
+        releaseSearcher(searcher);
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw e instanceof IOException ? new RuntimeException(e) : (RuntimeException) e;
+    }
   }
 
   @Override public Enumerator<Object[]> enumerator() {
-    return Linq4j.enumerator(searchIndex());
-  }
-
-  private List<Object[]> searchIndex() {
-    Query q = createQuery();
-    try (IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(indexPath)))) {
-      IndexSearcher searcher = new IndexSearcher(reader);
-      List<Object[]> result = new ArrayList<>();
-      for (ScoreDoc d : searcher.search(q, Integer.MAX_VALUE).scoreDocs) {
-        Object[] row = new Object[fields.size()];
-        int i = 0;
-        for (Map.Entry<String, SqlTypeName> field : fields.entrySet()) {
-          IndexableField indexField = reader.document(d.doc).getField(field.getKey());
-          row[i++] = extractValueForType(indexField, field.getValue());
-        }
-        result.add(row);
+    Executor executor = table == null ? null : table.options().scanExecutor();
+    if (aggregation != null) {
+      return Linq4j.enumerator(aggregate(executor));
+    }
+    if (executor == null || scanMode != ScanMode.COLLECTOR || fetch != -1) {
+      return new BatchRowEnumerator(batchEnumerator(), batchFilter, cancelFlag);
+    }
+    IndexSearcher searcher;
+    try {
+      searcher = acquireSearcher();
+    } catch (IOException exception) {
+      // If the index is not found or for some reason we cannot read it consider the table empty
+      return Linq4j.emptyEnumerator();
+    }
+    try {
+      IndexReader reader = searcher.getIndexReader();
+      if (reader.leaves().size() > 1) {
+        Weight weight = LuceneHitIterator.constantScoreWeight(searcher, createQuery(reader));
+        return new ParallelLuceneEnumerator(searcher, weight, executor);
+      }
+      return new BatchRowEnumerator(new LuceneBatchEnumerator(searcher, createHits(searcher)),
+          batchFilter, cancelFlag);
+    } catch (IOException | RuntimeException e) {
+      try {
+        releaseSearcher(searcher);
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
       }
-      return result;
+      throw e instanceof IOException ? new RuntimeException(e) : (RuntimeException) e;
+    }
+  }
+
+  /**
+   * Computes the aggregation over the hits of the query and returns the groups.
+   */
+  private List<Object[]> aggregate(Executor executor) {
+    LuceneAggregator aggregator = new LuceneAggregator(aggregation);
+    IndexSearcher searcher;
+    try {
+      searcher = acquireSearcher();
     } catch (IOException exception) {
       // If the index is not found or for some reason we cannot read it consider the table empty
-      return Collections.emptyList();
+      return aggregator.rows();
+    }
+    List<Object[]> rows;
+    try {
+      rows = aggregate(searcher, executor, aggregator);
+    } catch (IOException | RuntimeException e) {
+      try {
+        releaseSearcher(searcher);
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw e instanceof IOException ? new RuntimeException(e) : (RuntimeException) e;
+    }
+    try {
+      releaseSearcher(searcher);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return rows;
+  }
+
+  private List<Object[]> aggregate(IndexSearcher searcher, Executor executor,
+      LuceneAggregator aggregator) throws IOException {
+    IndexReader reader = searcher.getIndexReader();
+    Weight weight = LuceneHitIterator.constantScoreWeight(searcher, createQuery(reader));
+    CachedColumn[] cached = cachedColumns(searcher);
+    List<FutureTask<LuceneAggregator.Segment>> tasks = new ArrayList<>();
+    for (LeafReaderContext leaf : reader.leaves()) {
+      tasks.add(new FutureTask<>(() -> {
+        LuceneHitIterator hits =
+            LuceneHitIterator.collector(weight, leaf, PAGE_SIZE).cancelOn(cancelFlag);
+        return aggregator.aggregate(
+            new LuceneBatchReader(reader, hits, names, types, PAGE_SIZE, cached));
+      }));
+    }
+    for (FutureTask<LuceneAggregator.Segment> task : tasks) {
+      if (executor == null || tasks.size() == 1) {
+        task.run();
+      } else {
+        executor.execute(task);
+      }
+    }
+    // All the tasks must finish before the searcher is released, even if some of them failed
+    Throwable failure = null;
+    for (FutureTask<LuceneAggregator.Segment> task : tasks) {
+      try {
+        LuceneAggregator.Segment segment = getUninterruptibly(task);
+        if (failure == null) {
+          aggregator.merge(segment);
+        }
+      } catch (ExecutionException e) {
+        failure = failure == null ? e.getCause() : failure;
+      }
+    }
+    if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    }
+    if (failure != null) {
+      throw failure instanceof RuntimeException
+          ? (RuntimeException) failure
+          : new RuntimeException(failure);
+    }
+    return aggregator.rows();
+  }
+
+  private static <V> V getUninterruptibly(FutureTask<V> task) throws ExecutionException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException e) {
+          // The searcher cannot be released while the tasks are still using it
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private LuceneHitIterator createHits(IndexSearcher searcher) throws IOException {
+    Query q = createQuery(searcher.getIndexReader());
+    if (fetch != -1) {
+      return LuceneHitIterator.topN(searcher, q, sort, offset, fetch).cancelOn(cancelFlag);
+    }
+    switch (scanMode) {
+    case TOP_DOCS:
+      return LuceneHitIterator.topDocs(searcher, q, PAGE_SIZE).cancelOn(cancelFlag);
+    case COLLECTOR:
+      return LuceneHitIterator.collector(searcher, q, PAGE_SIZE).cancelOn(cancelFlag);
+    default:
+      throw new AssertionError("Unknown scan mode " + scanMode);
+    }
+  }
+
+  private IndexSearcher acquireSearcher() throws IOException {
+    if (table != null) {
+      return table.acquireSearcher();
+    }
+    return new IndexSearcher(DirectoryReader.open(FSDirectory.open(Paths.get(indexPath))));
+  }
+
+  private void releaseSearcher(IndexSearcher searcher) throws IOException {
+    if (table != null) {
+      table.releaseSearcher(searcher);
+    } else {
+      searcher.getIndexReader().close();
+    }
+  }
+
+  /**
+   * Returns the values of the projected fields from the cache of the table, loading them if
+   * needed, or null if the table is not cached.
+   */
+  private CachedColumn[] cachedColumns(IndexSearcher searcher) throws IOException {
+    LuceneTableCache cache = table == null ? null : table.options().cache();
+    if (cache == null) {
+      return null;
     }
+    return cache.columns(table, searcher.getIndexReader(), names, types);
   }
 
-  private Query createQuery() {
+  private Query createQuery(IndexReader reader) {
+    Query q = query != null ? query : parseQuery(reader);
+    if (filter == null) {
+      return q;
+    }
+    return new BooleanQuery.Builder()
+        .add(q, BooleanClause.Occur.MUST)
+        .add(filter, BooleanClause.Occur.FILTER)
+        .build();
+  }
+
+  private Query parseQuery(IndexReader reader) {
     try {
       StandardQueryParser parser = new StandardQueryParser();
       Map<String, PointsConfig> config = new HashMap<>();
-      for (Map.Entry<String, SqlTypeName> field : fields.entrySet()) {
+      // The query may refer to fields which are not projected so the numeric fields are
+      // obtained from the index
+      for (FieldInfo info : FieldInfos.getMergedFieldInfos(reader)) {
         // Instruct Lucene which fields should be treated as numeric by creating appropriate confs
-        PointsConfig conf = configForType(field.getValue());
+        PointsConfig conf = configForPoint(info);
         if (conf != null) {
-          config.put(field.getKey(), conf);
+          config.put(info.name, conf);
         }
       }
       parser.setPointsConfigMap(config);
-      return parser.parse(query, "");
+      return parser.parse(queryString, "");
     } catch (QueryNodeException e) {
       throw new RuntimeException(e);
     }
   }
 
-  private static Object extractValueForType(IndexableField field, SqlTypeName typeName) {
-    if (field != null) {
-      switch (typeName) {
-      case TINYINT:
-      case SMALLINT:
-      case INTEGER:
-      case BIGINT:
-      case DOUBLE:
-      case FLOAT:
-      case DECIMAL:
-        return field.numericValue();
-      case DATE:
-        return Date.valueOf(LocalDate.ofEpochDay((int) field.numericValue()));
-      case VARCHAR:
-      case CHAR:
-        return field.stringValue();
-      default:
-        throw new IllegalStateException();
-      }
-    }
-    return null;
-  }
-
-  private static PointsConfig configForType(SqlTypeName typeName) {
+  /**
+   * Returns an integer value read from the index in Calcite's internal representation for the
+   * specified type.
+   *
+   * The index stores dates as days since epoch, which is also their internal representation, so
+   * dates are returned as they are and the generated code consumes them without any conversion.
+   */
+  static Object extractValueForType(int value, SqlTypeName typeName) {
     switch (typeName) {
     case TINYINT:
+      return (byte) value;
     case SMALLINT:
+      return (short) value;
     case BIGINT:
+      return (long) value;
     case INTEGER:
     case DATE:
+      return value;
+    default:
+      throw new IllegalStateException("Unexpected integer type " + typeName);
+    }
+  }
+
+  private static PointsConfig configForPoint(FieldInfo info) {
+    if (info.getPointDimensionCount() == 0) {
+      return null;
+    }
+    // The indexer creates IntPoint (INTEGER, DATE) and DoublePoint (DOUBLE) fields
+    switch (info.getPointNumBytes()) {
+    case Integer.BYTES:
       return new PointsConfig(NumberFormat.getNumberInstance(), Integer.class);
-    case DOUBLE:
-    case FLOAT:
-    case DECIMAL:
+    case Double.BYTES:
       return new PointsConfig(NumberFormat.getNumberInstance(), Double.class);
     default:
       return null;
     }
   }
 
+  /**
+   * Enumerator streaming the hits of a query over an index in batches.
+   *
+   * The enumerator holds the searcher (and its reader) for its whole lifetime and releases it in
+   * {@link #close()}.
+   */
+  private final class LuceneBatchEnumerator implements Enumerator<LuceneBatch> {
+    private final IndexSearcher searcher;
+    private final LuceneBatchReader batches;
+    private LuceneBatch current;
+
+    LuceneBatchEnumerator(IndexSearcher searcher, LuceneHitIterator hits) throws IOException {
+      this.searcher = searcher;
+      this.batches = new LuceneBatchReader(searcher.getIndexReader(), hits, names, types,
+          PAGE_SIZE, cachedColumns(searcher));
+    }
+
+    @Override public LuceneBatch current() {
+      return current;
+    }
+
+    @Override public boolean moveNext() {
+      checkCancelled(cancelFlag);
+      try {
+        current = batches.next();
+        return current != null;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override public void reset() {
+      batches.reset();
+      current = null;
+    }
+
+    @Override public void close() {
+      try {
+        releaseSearcher(searcher);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Enumerator returning the rows of the batches produced by another enumerator one at a time.
+   *
+   * When there is a batch filter, only the selected rows of each batch are materialized.
+   */
+  private static final class BatchRowEnumerator implements Enumerator<Object[]> {
+    private final Enumerator<LuceneBatch> batches;
+    private final LuceneBatchFilter filter;
+    private final AtomicBoolean cancelFlag;
+    private LuceneBatch batch;
+    /**
+     * The positions of the selected rows of the batch; null if all the rows are selected.
+     */
+    private int[] selection;
+    private int size;
+    private int position = 0;
+    private Object[] current;
+
+    BatchRowEnumerator(Enumerator<LuceneBatch> batches, LuceneBatchFilter filter,
+        AtomicBoolean cancelFlag) {
+      this.batches = batches;
+      this.filter = filter;
+      this.cancelFlag = cancelFlag;
+    }
+
+    @Override public Object[] current() {
+      return current;
+    }
+
+    @Override public boolean moveNext() {
+      // Operators such as nested loop joins may spend a lot of time between two rows
+      checkCancelled(cancelFlag);
+      while (batch == null || position >= size) {
+        if (!batches.moveNext()) {
+          batch = null;
+          current = null;
+          return false;
+        }
+        batch = batches.current();
+        size = batch.size();
+        if (filter != null) {
+          if (selection == null || selection.length < size) {
+            selection = new int[batch.capacity()];
+          }
+          size = filter.select(batch, selection);
+        }
+        position = 0;
+      }
+      int row = selection == null ? position : selection[position];
+      position++;
+      current = batch.row(row);
+      return true;
+    }
+
+    @Override public void reset() {
+      batches.reset();
+      batch = null;
+      current = null;
+    }
+
+    @Override public void close() {
+      batches.close();
+    }
+  }
+
+  /**
+   * Enumerator scanning the segments of an index concurrently.
+   *
+   * One task per segment is submitted to the executor. Each task collects the hits of its segment,
+   * reads them in batches, and puts the (selected) rows of each batch as a chunk into a bounded
+   * queue, so producers cannot run arbitrarily ahead of the consumer. When the rows must be
+   * returned in index order every segment has its own queue and the queues are drained one after
+   * the other; otherwise all tasks share a single queue.
+   *
+   * The tasks are submitted in segment order, so the executor must run them asynchronously and
+   * (at least roughly) in submission order; an executor running tasks in the calling thread
+   * deadlocks as soon as a queue is full.
+   */
+  private final class ParallelLuceneEnumerator implements Enumerator<Object[]> {
+    private final IndexSearcher searcher;
+    private final Weight weight;
+    private final Executor executor;
+    private final List<LeafReaderContext> leaves;
+    private final CachedColumn[] cached;
+    private List<BlockingQueue<Chunk>> queues;
+    private CountDownLatch running;
+    private volatile boolean stopped;
+    /**
+     * The number of segments that have not been fully consumed.
+     */
+    private int remaining;
+    private List<Object[]> rows = Collections.emptyList();
+    private int position = 0;
+    private Object[] current;
+
+    ParallelLuceneEnumerator(IndexSearcher searcher, Weight weight, Executor executor)
+        throws IOException {
+      this.searcher = searcher;
+      this.weight = weight;
+      this.executor = executor;
+      this.leaves = searcher.getIndexReader().leaves();
+      this.cached = cachedColumns(searcher);
+    }
+
+    @Override public Object[] current() {
+      return current;
+    }
+
+    @Override public boolean moveNext() {
+      checkCancelled(cancelFlag);
+      if (queues == null) {
+        start();
+      }
+      while (position >= rows.size()) {
+        Chunk chunk = take();
+        if (chunk == null) {
+          current = null;
+          return false;
+        }
+        rows = chunk.rows;
+        position = 0;
+      }
+      current = rows.get(position++);
+      return true;
+    }
+
+    private void start() {
+      stopped = false;
+      remaining = leaves.size();
+      running = new CountDownLatch(leaves.size());
+      queues = new ArrayList<>();
+      for (int i = 0; i < (ordered ? leaves.size() : 1); i++) {
+        queues.add(new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+      }
+      for (int i = 0; i < leaves.size(); i++) {
+        LeafReaderContext leaf = leaves.get(i);
+        BlockingQueue<Chunk> queue = queues.get(ordered ? i : 0);
+        try {
+          executor.execute(() -> scan(leaf, queue));
+        } catch (RuntimeException e) {
+          // Account for the tasks that will never run
+          for (int j = i; j < leaves.size(); j++) {
+            running.countDown();
+          }
+          stop();
+          throw e;
+        }
+      }
+    }
+
+    private void scan(LeafReaderContext leaf, BlockingQueue<Chunk> queue) {
+      try {
+        LuceneHitIterator hits =
+            LuceneHitIterator.collector(weight, leaf, PAGE_SIZE).cancelOn(cancelFlag);
+        LuceneBatchReader batches = new LuceneBatchReader(searcher.getIndexReader(), hits, names,
+            types, PAGE_SIZE, cached);
+        for (LuceneBatch batch = batches.next(); batch != null && !stopped;
+            batch = batches.next()) {
+          int size = batch.size();
+          int[] selection = null;
+          if (batchFilter != null) {
+            selection = new int[size];
+            size = batchFilter.select(batch, selection);
+          }
+          List<Object[]> chunk = new ArrayList<>(size);
+          for (int i = 0; i < size; i++) {
+            chunk.add(batch.row(selection == null ? i : selection[i]));
+          }
+          put(queue, new Chunk(chunk, null));
+        }
+        put(queue, Chunk.END);
+      } catch (Throwable e) {
+        put(queue, new Chunk(Collections.emptyList(), e));
+      } finally {
+        running.countDown();
+      }
+    }
+
+    /**
+     * Puts the chunk in the queue, waiting for space to become available unless the scan has
+     * been stopped.
+     */
+    private void put(BlockingQueue<Chunk> queue, Chunk chunk) {
+      try {
+        while (!stopped) {
+          if (queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+            return;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /**
+     * Returns the next chunk of rows or null if all segments have been consumed.
+     */
+    private Chunk take() {
+      try {
+        while (remaining > 0) {
+          Chunk chunk = queues.get(ordered ? leaves.size() - remaining : 0).take();
+          if (chunk == Chunk.END) {
+            remaining--;
+          } else if (chunk.error != null) {
+            remaining = 0;
+            if (chunk.error instanceof Error) {
+              throw (Error) chunk.error;
+            }
+            throw chunk.error instanceof RuntimeException
+                ? (RuntimeException) chunk.error
+                : new RuntimeException(chunk.error);
+          } else {
+            return chunk;
+          }
+        }
+        return null;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+    }
+
+    /**
+     * Stops the running tasks (if any) and waits for them to finish.
+     */
+    private void stop() {
+      if (queues == null) {
+        return;
+      }
+      stopped = true;
+      boolean interrupted = false;
+      while (true) {
+        try {
+          running.await();
+          break;
+        } catch (InterruptedException e) {
+          // The searcher cannot be released while the tasks are still using it
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      queues = null;
+    }
+
+    @Override public void reset() {
+      stop();
+      rows = Collections.emptyList();
+      position = 0;
+      current = null;
+    }
+
+    @Override public void close() {
+      stop();
+      try {
+        releaseSearcher(searcher);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Rows produced by a segment scan; the last chunk of each segment is {@link #END} and a failed
+   * scan ends with a chunk holding the error.
+   */
+  private static final class Chunk {
+    static final Chunk END = new Chunk(Collections.emptyList(), null);
+
+    final List<Object[]> rows;
+    final Throwable error;
+
+    Chunk(List<Object[]> rows, Throwable error) {
+      this.rows = rows;
+      this.error = error;
+    }
+  }
 }
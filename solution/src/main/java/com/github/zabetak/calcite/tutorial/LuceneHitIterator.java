@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.BulkScorer;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorable;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.Weight;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Iterator over the (top-level) ids of the documents matching a query.
+ *
+ * The hits are obtained from the index lazily, in chunks of bounded size, so iterating over a
+ * query matching the whole index does not require holding all hits in memory.
+ *
+ * The iterator checks its cancel flag (see {@link #cancelOn(AtomicBoolean)}) before obtaining
+ * each chunk, so a query that matches few documents of a big index can be cancelled even if no
+ * hit is returned for a long time.
+ */
+abstract class LuceneHitIterator {
+  static final int NO_MORE_DOCS = DocIdSetIterator.NO_MORE_DOCS;
+
+  private AtomicBoolean cancelFlag;
+
+  /**
+   * Makes the iterator throw a {@link java.util.concurrent.CancellationException} as soon as the
+   * specified flag is set; null if the iterator cannot be cancelled.
+   */
+  LuceneHitIterator cancelOn(AtomicBoolean cancelFlag) {
+    this.cancelFlag = cancelFlag;
+    return this;
+  }
+
+  void checkCancelled() {
+    LuceneEnumerable.checkCancelled(cancelFlag);
+  }
+
+  /**
+   * Advances to the next hit and returns its document id or {@link #NO_MORE_DOCS} if there are
+   * no more hits.
+   */
+  abstract int nextDoc() throws IOException;
+
+  /**
+   * Rewinds the iterator so that it starts from the first hit again.
+   */
+  abstract void reset();
+
+  /**
+   * Creates an iterator that pages through the top hits of the query using
+   * {@link IndexSearcher#searchAfter(ScoreDoc, Query, int)}.
+   *
+   * Hits are returned in order of decreasing score, which requires scoring each hit and sorting
+   * every page in a priority queue.
+   */
+  static LuceneHitIterator topDocs(IndexSearcher searcher, Query query, int pageSize) {
+    return new TopDocsHitIterator(searcher, query, pageSize);
+  }
+
+  /**
+   * Creates an iterator over the hits of the query ranked from {@code offset} (inclusive) to
+   * {@code offset + fetch} (exclusive) according to the specified sort, or in index order if the
+   * sort is null.
+   *
+   * The top hits are collected in one go using {@link IndexSearcher#search(Query, int, Sort)},
+   * which keeps only {@code offset + fetch} hits in a priority queue; hits are not scored.
+   */
+  static LuceneHitIterator topN(IndexSearcher searcher, Query query, Sort sort, int offset,
+      int fetch) {
+    return new TopNHitIterator(searcher, query, sort == null ? Sort.INDEXORDER : sort, offset,
+        fetch);
+  }
+
+  /**
+   * Creates an iterator that collects the hits of the query without scoring them.
+   *
+   * The query is wrapped in a {@link ConstantScoreQuery} and each segment is scored in windows
+   * of document ids using a {@link LeafCollector}; hits are returned in index order.
+   */
+  static LuceneHitIterator collector(IndexSearcher searcher, Query query, int windowSize)
+      throws IOException {
+    return new CollectorHitIterator(constantScoreWeight(searcher, query),
+        searcher.getIndexReader().leaves(), windowSize);
+  }
+
+  /**
+   * Creates an iterator that collects the hits of a single segment without scoring them.
+   *
+   * The weight can be shared by iterators over different segments of the same reader so that
+   * the segments can be scanned concurrently.
+   *
+   * @see #constantScoreWeight(IndexSearcher, Query)
+   */
+  static LuceneHitIterator collector(Weight weight, LeafReaderContext leaf, int windowSize) {
+    return new CollectorHitIterator(weight, Collections.singletonList(leaf), windowSize);
+  }
+
+  /**
+   * Creates a weight for the specified query that does not need scores.
+   */
+  static Weight constantScoreWeight(IndexSearcher searcher, Query query) throws IOException {
+    return searcher.createWeight(searcher.rewrite(new ConstantScoreQuery(query)),
+        ScoreMode.COMPLETE_NO_SCORES, 1f);
+  }
+
+  /**
+   * Iterator paging through the top hits of a query.
+   */
+  private static final class TopDocsHitIterator extends LuceneHitIterator {
+    private final IndexSearcher searcher;
+    private final Query query;
+    private final int pageSize;
+    private ScoreDoc[] page = new ScoreDoc[0];
+    private int position = 0;
+    private boolean exhausted = false;
+
+    TopDocsHitIterator(IndexSearcher searcher, Query query, int pageSize) {
+      this.searcher = searcher;
+      this.query = query;
+      this.pageSize = pageSize;
+    }
+
+    @Override int nextDoc() throws IOException {
+      if (position >= page.length) {
+        if (exhausted) {
+          return NO_MORE_DOCS;
+        }
+        checkCancelled();
+        ScoreDoc after = page.length == 0 ? null : page[page.length - 1];
+        page = searcher.searchAfter(after, query, pageSize).scoreDocs;
+        position = 0;
+        exhausted = page.length < pageSize;
+        if (page.length == 0) {
+          return NO_MORE_DOCS;
+        }
+      }
+      return page[position++].doc;
+    }
+
+    @Override void reset() {
+      page = new ScoreDoc[0];
+      position = 0;
+      exhausted = false;
+    }
+  }
+
+  /**
+   * Iterator over a range of the top hits of a query according to a sort.
+   */
+  private static final class TopNHitIterator extends LuceneHitIterator {
+    private final IndexSearcher searcher;
+    private final Query query;
+    private final Sort sort;
+    private final int offset;
+    private final int fetch;
+    private ScoreDoc[] hits;
+    private int position;
+
+    TopNHitIterator(IndexSearcher searcher, Query query, Sort sort, int offset, int fetch) {
+      this.searcher = searcher;
+      this.query = query;
+      this.sort = sort;
+      this.offset = offset;
+      this.fetch = fetch;
+      this.position = offset;
+    }
+
+    @Override int nextDoc() throws IOException {
+      if (hits == null) {
+        int n = (int) Math.min((long) offset + fetch, searcher.getIndexReader().maxDoc());
+        if (n <= offset) {
+          hits = new ScoreDoc[0];
+        } else {
+          checkCancelled();
+          hits = searcher.search(query, n, sort).scoreDocs;
+        }
+      }
+      return position < hits.length ? hits[position++].doc : NO_MORE_DOCS;
+    }
+
+    @Override void reset() {
+      position = offset;
+    }
+  }
+
+  /**
+   * Iterator collecting the hits of a query segment by segment without scoring them.
+   */
+  private static final class CollectorHitIterator extends LuceneHitIterator
+      implements LeafCollector {
+    private final Weight weight;
+    private final List<LeafReaderContext> leaves;
+    private final int windowSize;
+    /**
+     * The (segment) document ids collected in the current window.
+     */
+    private final int[] window;
+    private int count = 0;
+    private int position = 0;
+    private int leaf = -1;
+    private LeafReaderContext context;
+    private BulkScorer scorer;
+    /**
+     * The first document id of the next window in the current segment.
+     */
+    private int next = NO_MORE_DOCS;
+
+    CollectorHitIterator(Weight weight, List<LeafReaderContext> leaves, int windowSize) {
+      this.weight = weight;
+      this.leaves = leaves;
+      this.windowSize = windowSize;
+      this.window = new int[windowSize];
+    }
+
+    @Override int nextDoc() throws IOException {
+      while (position >= count) {
+        if (!collectWindow()) {
+          return NO_MORE_DOCS;
+        }
+      }
+      return context.docBase + window[position++];
+    }
+
+    private boolean collectWindow() throws IOException {
+      checkCancelled();
+      count = 0;
+      position = 0;
+      while (next == NO_MORE_DOCS) {
+        if (++leaf >= leaves.size()) {
+          return false;
+        }
+        context = leaves.get(leaf);
+        scorer = weight.bulkScorer(context);
+        next = scorer == null ? NO_MORE_DOCS : 0;
+      }
+      int maxDoc = context.reader().maxDoc();
+      int max = (int) Math.min((long) next + windowSize, maxDoc);
+      next = scorer.score(this, context.reader().getLiveDocs(), next, max);
+      if (next >= maxDoc) {
+        next = NO_MORE_DOCS;
+      }
+      return true;
+    }
+
+    @Override public void setScorer(final Scorable scorer) {
+      // Scores are not needed
+    }
+
+    @Override public void collect(final int doc) {
+      window[count++] = doc;
+    }
+
+    @Override void reset() {
+      count = 0;
+      position = 0;
+      leaf = -1;
+      scorer = null;
+      next = NO_MORE_DOCS;
+    }
+  }
+}
@@ -0,0 +1,486 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.EnumerableDefaults;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.linq4j.Lookup;
+import org.apache.calcite.linq4j.function.EqualityComparer;
+import org.apache.calcite.linq4j.function.Function1;
+import org.apache.calcite.linq4j.function.Function2;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.util.BytesRef;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Joins whose Lucene input is restricted, at runtime, to the join keys of the other input.
+ *
+ * <h3>Hash joins</h3>
+ *
+ * The other input is read before the Lucene input is scanned. If it has at most
+ * {@code maxKeys} distinct keys, the keys are added as a filter to the query of the Lucene input
+ * (see {@link LuceneEnumerable#withFilter(Query)}) so that the index only returns the documents
+ * that may join; integer and date keys become an {@link IntPoint} set query and string keys a
+ * {@link TermInSetQuery}. Otherwise, the Lucene input is scanned as it is.
+ *
+ * The rows of the other input that are read while collecting the keys are kept in memory and
+ * replayed to the join, so the other input is read only once. The join itself is the hash join
+ * of {@link EnumerableDefaults}: the right input is loaded in a hash table and the left input is
+ * streamed. When the left input provides the keys, at most {@link #MAX_BUFFERED_ROWS} of its
+ * rows are kept in memory; if it has more rows the Lucene input is scanned as it is, so that the
+ * left input is still streamed.
+ *
+ * <h3>Nested loop joins</h3>
+ *
+ * The outer input is read in batches of at most {@code batchSize} distinct keys. For each batch
+ * the Lucene (inner) input is searched once, with a filter on the keys of the batch, and the
+ * documents it returns are joined with the rows of the batch. Only one batch of the outer input
+ * is kept in memory and the Lucene input never needs to be read in full, which pays off when the
+ * outer input is small compared to the Lucene input.
+ *
+ * @see com.github.zabetak.calcite.tutorial.operators.LuceneHashJoin
+ * @see com.github.zabetak.calcite.tutorial.operators.LuceneNestedLoopJoin
+ */
+public final class LuceneJoins {
+  /**
+   * The maximum number of rows of the streamed input of a hash join that are kept in memory while
+   * collecting its keys.
+   */
+  static final int MAX_BUFFERED_ROWS = 16 * 1024;
+
+  private LuceneJoins() {
+  }
+
+  /**
+   * Returns the inner hash join of the specified inputs.
+   *
+   * @param left - the left (streamed) input
+   * @param right - the right (hashed) input
+   * @param leftKey - the join key of a left row
+   * @param rightKey - the join key of a right row
+   * @param selector - the function combining a left and a right row to a result row
+   * @param comparer - the function comparing keys; null to use {@link Object#equals(Object)}
+   * @param filterLeft - whether the left input is the one filtered by the keys of the right;
+   * false for the opposite
+   * @param filterKey - the key of a row of the input providing the keys, compared with the
+   * filtered field
+   * @param field - the name of the filtered field in the index
+   * @param maxKeys - the maximum number of keys for which the filter is applied
+   */
+  public static <L, R, K, T> Enumerable<T> hashJoin(Enumerable<L> left, Enumerable<R> right,
+      Function1<L, K> leftKey, Function1<R, K> rightKey, Function2<L, R, T> selector,
+      EqualityComparer<K> comparer, boolean filterLeft, Function1<Object, Object> filterKey,
+      String field, int maxKeys) {
+    return new AbstractEnumerable<T>() {
+      @Override public Enumerator<T> enumerator() {
+        if (filterLeft) {
+          // The right input is loaded in a hash table anyway
+          KeyCollector<R> keys =
+              new KeyCollector<>(right, filterKey, maxKeys, Integer.MAX_VALUE);
+          return EnumerableDefaults.hashJoin(keys.filter(left, field), keys.rows(), leftKey,
+              rightKey, selector, comparer, false, false).enumerator();
+        }
+        KeyCollector<L> keys = new KeyCollector<>(left, filterKey, maxKeys, MAX_BUFFERED_ROWS);
+        return EnumerableDefaults.hashJoin(keys.rows(), keys.filter(right, field), leftKey,
+            rightKey, selector, comparer, false, false).enumerator();
+      }
+    };
+  }
+
+  /**
+   * Returns the rows of the left input that join with some row of the right input, filtering
+   * the left input by the keys of the right input.
+   *
+   * @see #hashJoin(Enumerable, Enumerable, Function1, Function1, Function2, EqualityComparer,
+   * boolean, Function1, String, int)
+   */
+  public static <L, R, K> Enumerable<L> semiJoin(Enumerable<L> left, Enumerable<R> right,
+      Function1<L, K> leftKey, Function1<R, K> rightKey, EqualityComparer<K> comparer,
+      Function1<Object, Object> filterKey, String field, int maxKeys) {
+    return new AbstractEnumerable<L>() {
+      @Override public Enumerator<L> enumerator() {
+        KeyCollector<R> keys =
+            new KeyCollector<>(right, filterKey, maxKeys, Integer.MAX_VALUE);
+        return EnumerableDefaults.semiJoin(keys.filter(left, field), keys.rows(), leftKey,
+            rightKey, comparer).enumerator();
+      }
+    };
+  }
+
+  /**
+   * Returns the inner join of the specified inputs, searching the Lucene input once for each
+   * batch of keys of the other input.
+   *
+   * @param left - the left input
+   * @param right - the right input
+   * @param leftKey - the join key of a left row
+   * @param rightKey - the join key of a right row
+   * @param selector - the function combining a left and a right row to a result row
+   * @param comparer - the function comparing keys; null to use {@link Object#equals(Object)}
+   * @param lookupRight - whether the right input is the Lucene input searched with the keys of
+   * the left; false for the opposite
+   * @param outerKey - the key of a row of the outer input, compared with the searched field
+   * @param field - the name of the searched field in the index
+   * @param batchSize - the maximum number of distinct keys of a search
+   * @throws IllegalStateException if the searched input is not a {@link LuceneEnumerable}
+   */
+  @SuppressWarnings("unchecked")
+  public static <L, R, K, T> Enumerable<T> nestedLoopJoin(Enumerable<L> left,
+      Enumerable<R> right, Function1<L, K> leftKey, Function1<R, K> rightKey,
+      Function2<L, R, T> selector, EqualityComparer<K> comparer, boolean lookupRight,
+      Function1<Object, Object> outerKey, String field, int batchSize) {
+    Enumerable<?> inner = lookupRight ? right : left;
+    if (!(inner instanceof LuceneEnumerable)) {
+      // The join implements its searched input itself (see LuceneNestedLoopJoin)
+      throw new IllegalStateException("The searched input of the join is not a Lucene scan: "
+          + inner.getClass().getName());
+    }
+    LuceneEnumerable scan = (LuceneEnumerable) inner;
+    return new AbstractEnumerable<T>() {
+      @Override public Enumerator<T> enumerator() {
+        if (lookupRight) {
+          return new NestedLoopEnumerator<L, K, T>(left.enumerator(), scan, leftKey,
+              row -> rightKey.apply((R) row), (o, i) -> selector.apply(o, (R) i), comparer,
+              outerKey, field, batchSize);
+        }
+        return new NestedLoopEnumerator<R, K, T>(right.enumerator(), scan, rightKey,
+            row -> leftKey.apply((L) row), (o, i) -> selector.apply((L) i, o), comparer,
+            outerKey, field, batchSize);
+      }
+    };
+  }
+
+  /**
+   * Returns a query matching the documents whose value for the specified field is one of the
+   * specified keys, or null if the keys cannot be searched in the index.
+   */
+  static Query keyQuery(String field, Collection<Object> keys) {
+    if (keys.isEmpty()) {
+      return new MatchNoDocsQuery();
+    }
+    Object first = keys.iterator().next();
+    if (first instanceof Integer) {
+      int[] points = new int[keys.size()];
+      int i = 0;
+      for (Object k : keys) {
+        if (!(k instanceof Integer)) {
+          return null;
+        }
+        points[i++] = (Integer) k;
+      }
+      return IntPoint.newSetQuery(field, points);
+    }
+    if (first instanceof String) {
+      List<BytesRef> terms = new ArrayList<>(keys.size());
+      for (Object k : keys) {
+        if (!(k instanceof String)) {
+          return null;
+        }
+        terms.add(new BytesRef((String) k));
+      }
+      return new TermInSetQuery(field, terms);
+    }
+    return null;
+  }
+
+  /**
+   * Reads an input once, collecting its distinct keys, and replays its rows.
+   *
+   * Keys are collected until there are more than {@code maxKeys} of them or more than
+   * {@code maxRows} rows have been read; the remaining rows are then streamed from the input, so
+   * {@link #rows()} can be enumerated only once. Null keys are skipped since they never join.
+   *
+   * @param <E> element type of the input
+   */
+  private static final class KeyCollector<E> {
+    private final Enumerable<E> input;
+    private final Function1<Object, Object> key;
+    private final int maxKeys;
+    private final int maxRows;
+    private List<E> buffer;
+    /**
+     * The enumerator over the rows after the buffered ones; null if the input is exhausted.
+     */
+    private Enumerator<E> rest;
+    /**
+     * The distinct keys of the input; null if there are too many.
+     */
+    private Set<Object> keys;
+
+    KeyCollector(Enumerable<E> input, Function1<Object, Object> key, int maxKeys, int maxRows) {
+      this.input = input;
+      this.key = key;
+      this.maxKeys = maxKeys;
+      this.maxRows = maxRows;
+    }
+
+    private void collect() {
+      if (buffer != null) {
+        return;
+      }
+      buffer = new ArrayList<>();
+      keys = new HashSet<>();
+      Enumerator<E> rows = input.enumerator();
+      try {
+        while (rows.moveNext()) {
+          E row = rows.current();
+          buffer.add(row);
+          Object k = key.apply(row);
+          if ((k != null && keys.add(k) && keys.size() > maxKeys) || buffer.size() > maxRows) {
+            // The remaining rows are streamed (and the enumerator closed) by the join
+            keys = null;
+            rest = rows;
+            return;
+          }
+        }
+      } finally {
+        if (rest == null) {
+          rows.close();
+        }
+      }
+    }
+
+    /**
+     * Returns the rows of the input.
+     */
+    Enumerable<E> rows() {
+      return new AbstractEnumerable<E>() {
+        @Override public Enumerator<E> enumerator() {
+          collect();
+          return new ReplayEnumerator<>(buffer, rest);
+        }
+      };
+    }
+
+    /**
+     * Returns the specified input, filtered by the collected keys if it is a Lucene scan and
+     * there are not too many keys.
+     */
+    <T> Enumerable<T> filter(Enumerable<T> scan, String field) {
+      return new AbstractEnumerable<T>() {
+        @SuppressWarnings("unchecked")
+        @Override public Enumerator<T> enumerator() {
+          collect();
+          Query q = keys == null ? null : keyQuery(field, keys);
+          if (q == null || !(scan instanceof LuceneEnumerable)) {
+            return scan.enumerator();
+          }
+          return (Enumerator<T>) ((LuceneEnumerable) scan).withFilter(q).enumerator();
+        }
+      };
+    }
+  }
+
+  /**
+   * Enumerator joining batches of outer rows with the documents of a Lucene scan that have one
+   * of the keys of the batch.
+   *
+   * @param <O> element type of the outer input
+   * @param <K> join key type
+   * @param <T> result element type
+   */
+  private static final class NestedLoopEnumerator<O, K, T> implements Enumerator<T> {
+    private final Enumerator<O> outer;
+    private final LuceneEnumerable scan;
+    private final Function1<O, K> outerKey;
+    private final Function1<Object[], K> innerKey;
+    private final Function2<O, Object[], T> selector;
+    private final EqualityComparer<K> comparer;
+    private final Function1<Object, Object> searchKey;
+    private final String field;
+    private final int batchSize;
+    /**
+     * The outer rows of the current batch by join key.
+     */
+    private Lookup<K, O> batch;
+    /**
+     * The documents matching the keys of the current batch; null before the first batch.
+     */
+    private Enumerator<Object[]> inner;
+    private Object[] innerRow;
+    /**
+     * The outer rows of the current batch that join with the current document.
+     */
+    private Iterator<O> matches = Collections.emptyIterator();
+    private boolean outerDone;
+    private T current;
+
+    NestedLoopEnumerator(Enumerator<O> outer, LuceneEnumerable scan, Function1<O, K> outerKey,
+        Function1<Object[], K> innerKey, Function2<O, Object[], T> selector,
+        EqualityComparer<K> comparer, Function1<Object, Object> searchKey, String field,
+        int batchSize) {
+      this.outer = outer;
+      this.scan = scan;
+      this.outerKey = outerKey;
+      this.innerKey = innerKey;
+      this.selector = selector;
+      this.comparer = comparer;
+      this.searchKey = searchKey;
+      this.field = field;
+      this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Override public T current() {
+      return current;
+    }
+
+    @Override public boolean moveNext() {
+      while (true) {
+        if (matches.hasNext()) {
+          current = selector.apply(matches.next(), innerRow);
+          return true;
+        }
+        if (inner != null && inner.moveNext()) {
+          innerRow = inner.current();
+          K k = innerKey.apply(innerRow);
+          matches = k != null && batch.containsKey(k)
+              ? batch.get(k).iterator()
+              : Collections.emptyIterator();
+          continue;
+        }
+        if (!nextBatch()) {
+          return false;
+        }
+      }
+    }
+
+    /**
+     * Reads the next batch of outer rows and searches the documents with their keys; returns
+     * false if the outer input is exhausted.
+     */
+    private boolean nextBatch() {
+      closeInner();
+      List<O> rows = new ArrayList<>();
+      Set<Object> keys = new HashSet<>();
+      while (!outerDone && keys.size() < batchSize) {
+        if (!outer.moveNext()) {
+          outerDone = true;
+          break;
+        }
+        O row = outer.current();
+        Object k = searchKey.apply(row);
+        // Rows with a null key never join
+        if (k != null) {
+          rows.add(row);
+          keys.add(k);
+        }
+      }
+      if (rows.isEmpty()) {
+        return false;
+      }
+      Enumerable<O> batchRows = Linq4j.asEnumerable(rows);
+      batch = comparer == null ? batchRows.toLookup(outerKey)
+          : batchRows.toLookup(outerKey, comparer);
+      Query q = keyQuery(field, keys);
+      inner = (q == null ? scan : scan.withFilter(q)).enumerator();
+      return true;
+    }
+
+    private void closeInner() {
+      if (inner != null) {
+        inner.close();
+        inner = null;
+      }
+    }
+
+    /**
+     * Restarts the join from the first outer row; the documents are searched again.
+     */
+    @Override public void reset() {
+      closeInner();
+      outer.reset();
+      batch = null;
+      innerRow = null;
+      matches = Collections.emptyIterator();
+      outerDone = false;
+      current = null;
+    }
+
+    @Override public void close() {
+      closeInner();
+      outer.close();
+    }
+  }
+
+  /**
+   * Enumerator over buffered rows followed by the rows of another enumerator.
+   *
+   * The enumerator can be reset as long as it has not moved past the buffered rows; the rows of
+   * the other enumerator are not kept so they cannot be replayed.
+   */
+  private static final class ReplayEnumerator<E> implements Enumerator<E> {
+    private final List<E> buffer;
+    private final Enumerator<E> rest;
+    private int position = -1;
+    private boolean restStarted = false;
+    private E current;
+
+    ReplayEnumerator(List<E> buffer, Enumerator<E> rest) {
+      this.buffer = buffer;
+      this.rest = rest;
+    }
+
+    @Override public E current() {
+      return current;
+    }
+
+    @Override public boolean moveNext() {
+      if (position + 1 < buffer.size()) {
+        current = buffer.get(++position);
+        return true;
+      }
+      position = buffer.size();
+      current = null;
+      if (rest != null) {
+        restStarted = true;
+      }
+      if (rest != null && rest.moveNext()) {
+        current = rest.current();
+        return true;
+      }
+      return false;
+    }
+
+    @Override public void reset() {
+      if (restStarted) {
+        throw new UnsupportedOperationException(
+            "Cannot reset after reading the rows that are not buffered");
+      }
+      position = -1;
+      current = null;
+    }
+
+    @Override public void close() {
+      if (rest != null) {
+        rest.close();
+      }
+    }
+  }
+}
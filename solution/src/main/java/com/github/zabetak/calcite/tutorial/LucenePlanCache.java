@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.runtime.Bindable;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Cache with the compiled plans of queries over a {@link LuceneSchema}.
+ *
+ * Parsing, validating, optimizing, and compiling a query to Java code takes much longer than
+ * executing most queries, so a query that is executed again only needs to bind its compiled plan
+ * to a new context. Plans are keyed by the SQL text of the query, with runs of whitespace outside
+ * of quotes and comments collapsed, and the type of query processor.
+ *
+ * Plans depend on the statistics of the indexes, so the cache is bound to a version of the schema
+ * made of the generation of the latest commit of every index. A lookup with a different version
+ * invalidates all the cached plans. Queries with dynamic parameters ({@code ?}) share the same
+ * plan whatever the values of their parameters.
+ *
+ * The size of the cache is bounded by the number of plans. When the bound is exceeded the least
+ * recently used plans are evicted.
+ *
+ * The cache is thread-safe.
+ */
+public final class LucenePlanCache {
+  private final int maxPlans;
+  private final LinkedHashMap<Key, CompiledPlan> plans = new LinkedHashMap<>(16, 0.75f, true);
+  private Map<String, Long> version = Collections.emptyMap();
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+  private long invalidations = 0;
+
+  /**
+   * Creates a cache holding at most the specified number of plans.
+   */
+  public LucenePlanCache(int maxPlans) {
+    this.maxPlans = maxPlans;
+  }
+
+  /**
+   * Returns the cached plan of the query, or null if the plan is not in the cache.
+   *
+   * @param sql - the SQL text of the query
+   * @param version - the generation of the latest commit of every index of the schema
+   */
+  public synchronized @Nullable CompiledPlan get(String sql, LuceneQueryProcessor.Type type,
+      Map<String, Long> version) {
+    invalidateIfChanged(version);
+    CompiledPlan plan = plans.get(new Key(normalize(sql), type));
+    if (plan == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return plan;
+  }
+
+  /**
+   * Adds the compiled plan of the query to the cache.
+   *
+   * @param sql - the SQL text of the query
+   * @param version - the generation of the latest commit of every index of the schema when the
+   * plan was optimized
+   */
+  public synchronized void put(String sql, LuceneQueryProcessor.Type type,
+      Map<String, Long> version, CompiledPlan plan) {
+    invalidateIfChanged(version);
+    plans.put(new Key(normalize(sql), type), plan);
+    while (plans.size() > maxPlans) {
+      plans.remove(plans.keySet().iterator().next());
+      evictions++;
+    }
+  }
+
+  private void invalidateIfChanged(Map<String, Long> version) {
+    Map<String, Long> sorted = new TreeMap<>(version);
+    if (!sorted.equals(this.version)) {
+      if (!plans.isEmpty()) {
+        plans.clear();
+        invalidations++;
+      }
+      this.version = sorted;
+    }
+  }
+
+  /**
+   * Returns the SQL text with every run of whitespace outside of quotes and line comments
+   * replaced by a single space and without leading and trailing whitespace.
+   */
+  static String normalize(String sql) {
+    StringBuilder b = new StringBuilder(sql.length());
+    // The character ending the current quoted identifier, literal, or line comment; 0 if none
+    char end = 0;
+    boolean space = false;
+    for (int i = 0; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (end == 0 && Character.isWhitespace(c)) {
+        space = true;
+        continue;
+      }
+      if (space && b.length() > 0) {
+        b.append(' ');
+      }
+      space = false;
+      if (end == 0 && (c == '\'' || c == '"' || c == '`')) {
+        end = c;
+      } else if (end == 0 && c == '-' && i + 1 < sql.length() && sql.charAt(i + 1) == '-') {
+        // The end of the line ends the comment so it cannot become a space
+        end = '\n';
+      } else if (c == end) {
+        // A doubled quote escapes the quote and starts another quoted part right after
+        end = 0;
+      }
+      b.append(c);
+    }
+    return b.toString();
+  }
+
+  /**
+   * Returns the maximum number of plans held by the cache.
+   */
+  public int maxPlans() {
+    return maxPlans;
+  }
+
+  /**
+   * Returns the number of plans currently held by the cache.
+   */
+  public synchronized int size() {
+    return plans.size();
+  }
+
+  /**
+   * Returns the number of lookups that found the plan in the cache.
+   */
+  public synchronized long hitCount() {
+    return hits;
+  }
+
+  /**
+   * Returns the number of lookups that did not find the plan in the cache.
+   */
+  public synchronized long missCount() {
+    return misses;
+  }
+
+  /**
+   * Returns the number of plans evicted to stay within the bound.
+   */
+  public synchronized long evictionCount() {
+    return evictions;
+  }
+
+  /**
+   * Returns the number of times the cached plans were discarded because the schema changed.
+   */
+  public synchronized long invalidationCount() {
+    return invalidations;
+  }
+
+  /**
+   * Removes all the plans from the cache.
+   */
+  public synchronized void clear() {
+    plans.clear();
+  }
+
+  @Override public synchronized String toString() {
+    return "LucenePlanCache(plans=" + plans.size() + "/" + maxPlans + ", hits=" + hits
+        + ", misses=" + misses + ", evictions=" + evictions + ", invalidations=" + invalidations
+        + ")";
+  }
+
+  /**
+   * A plan compiled to Java code along with what its execution needs.
+   */
+  public static final class CompiledPlan {
+    final Bindable<?> bindable;
+    /**
+     * The objects stashed in the parameters of the context while compiling the plan, which the
+     * compiled code retrieves when it is bound.
+     */
+    final Map<String, Object> stash;
+    final RelDataType rowType;
+    /**
+     * The row type of the dynamic parameters of the query.
+     */
+    final RelDataType parameterRowType;
+    /**
+     * The text of the physical plan, which identifies its results.
+     */
+    final String plan;
+    /**
+     * The tables accessed by the plan; null if the results of the plan cannot be cached.
+     */
+    final @Nullable List<LuceneTable> tables;
+
+    CompiledPlan(Bindable<?> bindable, Map<String, Object> stash, RelDataType rowType,
+        RelDataType parameterRowType, String plan, @Nullable List<LuceneTable> tables) {
+      this.bindable = bindable;
+      this.stash = Collections.unmodifiableMap(new HashMap<>(stash));
+      this.rowType = rowType;
+      this.parameterRowType = parameterRowType;
+      this.plan = plan;
+      this.tables = tables;
+    }
+  }
+
+  /**
+   * Identifies the plan of a query.
+   */
+  private static final class Key {
+    private final String sql;
+    private final LuceneQueryProcessor.Type type;
+
+    Key(String sql, LuceneQueryProcessor.Type type) {
+      this.sql = sql;
+      this.type = type;
+    }
+
+    @Override public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return sql.equals(key.sql) && type == key.type;
+    }
+
+    @Override public int hashCode() {
+      return Objects.hash(sql, type);
+    }
+  }
+}
@@ -27,7 +27,9 @@ import org.apache.calcite.config.CalciteConnectionConfigImpl;
 import org.apache.calcite.config.CalciteConnectionProperty;
 import org.apache.calcite.jdbc.CalciteSchema;
 import org.apache.calcite.jdbc.JavaTypeFactoryImpl;
+import org.apache.calcite.linq4j.AbstractEnumerable;
 import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
 import org.apache.calcite.linq4j.QueryProvider;
 import org.apache.calcite.plan.ConventionTraitDef;
 import org.apache.calcite.plan.RelOptCluster;
@@ -37,10 +39,16 @@ import org.apache.calcite.plan.RelOptUtil;
 import org.apache.calcite.plan.volcano.VolcanoPlanner;
 import org.apache.calcite.prepare.CalciteCatalogReader;
 import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelVisitor;
 import org.apache.calcite.rel.rules.CoreRules;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rel.type.RelDataTypeField;
 import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.rex.RexUtil;
 import org.apache.calcite.runtime.Bindable;
 import org.apache.calcite.schema.SchemaPlus;
 import org.apache.calcite.sql.SqlExplainFormat;
@@ -49,25 +57,53 @@ import org.apache.calcite.sql.SqlNode;
 import org.apache.calcite.sql.fun.SqlStdOperatorTable;
 import org.apache.calcite.sql.parser.SqlParseException;
 import org.apache.calcite.sql.parser.SqlParser;
+import org.apache.calcite.sql.type.SqlTypeName;
 import org.apache.calcite.sql.validate.SqlValidator;
 import org.apache.calcite.sql.validate.SqlValidatorUtil;
 import org.apache.calcite.sql2rel.SqlToRelConverter;
 import org.apache.calcite.sql2rel.StandardConvertletTable;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.Pair;
 
 import com.github.zabetak.calcite.tutorial.indexer.DatasetIndexer;
 import com.github.zabetak.calcite.tutorial.indexer.TpchTable;
+import com.github.zabetak.calcite.tutorial.metadata.LuceneRelMetadataProvider;
 import com.github.zabetak.calcite.tutorial.operators.LuceneRel;
 import com.github.zabetak.calcite.tutorial.rules.LuceneToEnumerableConverterRule;
+import com.github.zabetak.calcite.tutorial.rules.LuceneAggregateRule;
+import com.github.zabetak.calcite.tutorial.rules.LuceneBatchFilterRule;
 import com.github.zabetak.calcite.tutorial.rules.LuceneFilterRule;
+import com.github.zabetak.calcite.tutorial.rules.LuceneFilterSplitRule;
+import com.github.zabetak.calcite.tutorial.rules.LuceneHashJoinRule;
+import com.github.zabetak.calcite.tutorial.rules.LuceneNestedLoopJoinRule;
+import com.github.zabetak.calcite.tutorial.rules.LuceneProjectRule;
+import com.github.zabetak.calcite.tutorial.rules.LuceneSortRule;
 import com.github.zabetak.calcite.tutorial.rules.LuceneTableScanRule;
+import com.google.common.collect.ImmutableList;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 /**
  * Query processor for running TPC-H queries over Apache Lucene.
@@ -95,7 +131,7 @@ public class LuceneQueryProcessor {
     ADVANCED,
     /**
      * Advanced query processor using two conventions and extra rules capable of pushing basic
-     * conditions in Lucene.
+     * conditions and projections in Lucene.
      *
      * The processor relies on {@link org.apache.calcite.adapter.enumerable.EnumerableConvention}
      * and {@link LuceneRel#LUCENE} to execute queries over Lucene.
@@ -124,29 +160,503 @@ public class LuceneQueryProcessor {
   }
 
   /**
-   * Plans and executes an SQL query.
+   * The maximum number of bytes held by the column cache of the TPC-H schema.
+   */
+  public static final long TPCH_CACHE_BYTES = 64L * 1024 * 1024;
+
+  /**
+   * The maximum number of rows held by the result cache of the TPC-H schema.
+   */
+  public static final int TPCH_RESULT_CACHE_ROWS = 100_000;
+
+  /**
+   * The maximum number of compiled plans held by the plan cache of the TPC-H schema.
+   */
+  public static final int TPCH_PLAN_CACHE_PLANS = 100;
+
+  /**
+   * Schema with the TPC-H tables.
    *
-   * @param sqlQuery - a string with the SQL query for execution
-   * @return an Enumerable with the results of the execution of the query
-   * @throws SqlParseException if there is a problem when parsing the query
+   * The schema is shared by all queries executed through {@link #execute(String, Type)} so that
+   * index readers are opened once and reused. The tables are warmed up when the schema is loaded.
    */
-  public static <T> Enumerable<T> execute(String sqlQuery, Type processorType)
-      throws SqlParseException {
-    System.out.println("[Input query]");
-    System.out.println(sqlQuery);
+  private static final LuceneSchema TPCH_SCHEMA = createTpchSchema();
 
-    // Create the schema and table data types
-    CalciteSchema schema = CalciteSchema.createRootSchema(true);
+  /**
+   * Sets the cancel flag of queries when they reach their deadline.
+   */
+  private static final ScheduledExecutorService DEADLINES =
+      Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lucene-query-deadlines");
+        t.setDaemon(true);
+        return t;
+      });
+
+  /**
+   * Creates a schema with the TPC-H tables indexed by {@link DatasetIndexer} and warms it up.
+   *
+   * The tiny NATION and REGION tables are held in memory; the other tables are memory-mapped
+   * and preloaded. The columns of all tables but the big LINEITEM and ORDERS fact tables are
+   * cached, once decoded, in a cache of {@link #TPCH_CACHE_BYTES} bytes. The results of queries
+   * are cached as well, up to {@link #TPCH_RESULT_CACHE_ROWS} rows, and so are the compiled plans,
+   * up to {@link #TPCH_PLAN_CACHE_PLANS} plans.
+   */
+  public static LuceneSchema createTpchSchema() {
+    LuceneTableCache cache = new LuceneTableCache(TPCH_CACHE_BYTES);
+    LuceneSchema schema = createTpchSchema(table -> {
+      LuceneTable.Options options = LuceneTable.Options.DEFAULT.withWarmup(true);
+      switch (table) {
+      case NATION:
+      case REGION:
+        return options.withDirectoryType(LuceneTable.DirectoryType.RAM).withCache(cache);
+      case LINEITEM:
+      case ORDERS:
+        return options.withDirectoryType(LuceneTable.DirectoryType.MMAP).withPreload(true);
+      default:
+        return options.withDirectoryType(LuceneTable.DirectoryType.MMAP).withPreload(true)
+            .withCache(cache);
+      }
+    }, new LuceneResultCache(TPCH_RESULT_CACHE_ROWS), new LucenePlanCache(TPCH_PLAN_CACHE_PLANS));
+    schema.warmup();
+    return schema;
+  }
+
+  /**
+   * Creates a schema with the TPC-H tables indexed by {@link DatasetIndexer} using the specified
+   * options for each table.
+   */
+  public static LuceneSchema createTpchSchema(Function<TpchTable, LuceneTable.Options> options) {
+    return createTpchSchema(options, null);
+  }
+
+  /**
+   * Creates a schema with the TPC-H tables indexed by {@link DatasetIndexer} using the specified
+   * options for each table and the specified cache for the results of queries (null for no
+   * caching).
+   */
+  public static LuceneSchema createTpchSchema(Function<TpchTable, LuceneTable.Options> options,
+      LuceneResultCache resultCache) {
+    return createTpchSchema(options, resultCache, null);
+  }
+
+  /**
+   * Creates a schema with the TPC-H tables indexed by {@link DatasetIndexer} using the specified
+   * options for each table and the specified caches for the results and the compiled plans of
+   * queries (null for no caching).
+   */
+  public static LuceneSchema createTpchSchema(Function<TpchTable, LuceneTable.Options> options,
+      LuceneResultCache resultCache, LucenePlanCache planCache) {
     RelDataTypeFactory typeFactory = new JavaTypeFactoryImpl();
+    Map<String, LuceneTable> tables = new LinkedHashMap<>();
     for (TpchTable table : TpchTable.values()) {
       RelDataTypeFactory.Builder builder = new RelDataTypeFactory.Builder(typeFactory);
+      ImmutableBitSet.Builder primaryKey = ImmutableBitSet.builder();
       for (TpchTable.Column column : table.columns) {
         RelDataType type = typeFactory.createJavaType(column.type);
+        if (table.primaryKey.contains(column.name)) {
+          primaryKey.set(builder.getFieldCount());
+        }
         builder.add(column.name, type.getSqlTypeName()).nullable(true);
       }
       String indexPath = DatasetIndexer.INDEX_LOCATION + "/tpch/" + table.name();
-      schema.add(table.name(), new LuceneTable(indexPath, builder.build()));
+      tables.put(table.name(), new LuceneTable(indexPath, builder.build(),
+          ImmutableList.of(primaryKey.build()), options.apply(table)));
+    }
+    return new LuceneSchema(tables, resultCache, planCache);
+  }
+
+  /**
+   * Plans and executes an SQL query over the TPC-H schema.
+   *
+   * @param sqlQuery - a string with the SQL query for execution
+   * @return an Enumerable with the results of the execution of the query
+   * @throws SqlParseException if there is a problem when parsing the query
+   */
+  public static <T> Enumerable<T> execute(String sqlQuery, Type processorType)
+      throws SqlParseException {
+    return execute(sqlQuery, processorType, TPCH_SCHEMA);
+  }
+
+  /**
+   * Plans and executes an SQL query over the specified schema.
+   *
+   * @param sqlQuery - a string with the SQL query for execution
+   * @param luceneSchema - the schema with the tables that the query can access
+   * @return an Enumerable with the results of the execution of the query
+   * @throws SqlParseException if there is a problem when parsing the query
+   */
+  public static <T> Enumerable<T> execute(String sqlQuery, Type processorType,
+      LuceneSchema luceneSchema) throws SqlParseException {
+    return execute(sqlQuery, processorType, luceneSchema, new AtomicBoolean(false), 0);
+  }
+
+  /**
+   * Plans and executes an SQL query over the specified schema with the possibility to cancel it.
+   *
+   * The query stops, failing with a {@link java.util.concurrent.CancellationException}, shortly
+   * after the cancel flag is set or the timeout expires. Lucene scans check the flag before
+   * obtaining every chunk of hits and every row so an abandoned query stops reading the index
+   * almost immediately. The timeout no longer applies once the results are fully read or their
+   * enumerator is closed, so the flag can be reused by the next query, but it must not be shared
+   * between queries running at the same time.
+   *
+   * @param sqlQuery - a string with the SQL query for execution
+   * @param luceneSchema - the schema with the tables that the query can access
+   * @param cancelFlag - a flag that cancels the query when it is set (from any thread)
+   * @param timeoutMillis - the time in milliseconds, from this call, after which the query is
+   * cancelled; 0 for no timeout
+   * @return an Enumerable with the results of the execution of the query
+   * @throws SqlParseException if there is a problem when parsing the query
+   */
+  public static <T> Enumerable<T> execute(String sqlQuery, Type processorType,
+      LuceneSchema luceneSchema, AtomicBoolean cancelFlag, long timeoutMillis)
+      throws SqlParseException {
+    return execute(sqlQuery, processorType, luceneSchema, Collections.emptyList(), cancelFlag,
+        timeoutMillis);
+  }
+
+  /**
+   * Plans and executes an SQL query with dynamic parameters over the specified schema.
+   *
+   * @param sqlQuery - a string with the SQL query for execution
+   * @param luceneSchema - the schema with the tables that the query can access
+   * @param parameters - the values of the dynamic parameters (see {@link PreparedQuery})
+   * @return an Enumerable with the results of the execution of the query
+   * @throws SqlParseException if there is a problem when parsing the query
+   */
+  public static <T> Enumerable<T> execute(String sqlQuery, Type processorType,
+      LuceneSchema luceneSchema, List<?> parameters) throws SqlParseException {
+    return execute(sqlQuery, processorType, luceneSchema, parameters, new AtomicBoolean(false), 0);
+  }
+
+  /**
+   * Plans and executes an SQL query with dynamic parameters over the specified schema with the
+   * possibility to cancel it.
+   *
+   * @param sqlQuery - a string with the SQL query for execution
+   * @param luceneSchema - the schema with the tables that the query can access
+   * @param parameters - the values of the dynamic parameters (see {@link PreparedQuery})
+   * @param cancelFlag - a flag that cancels the query when it is set (from any thread)
+   * @param timeoutMillis - the time in milliseconds, from this call, after which the query is
+   * cancelled; 0 for no timeout
+   * @return an Enumerable with the results of the execution of the query
+   * @throws SqlParseException if there is a problem when parsing the query
+   * @see #execute(String, Type, LuceneSchema, AtomicBoolean, long)
+   */
+  public static <T> Enumerable<T> execute(String sqlQuery, Type processorType,
+      LuceneSchema luceneSchema, List<?> parameters, AtomicBoolean cancelFlag,
+      long timeoutMillis) throws SqlParseException {
+    ScheduledFuture<?> deadline = scheduleTimeout(cancelFlag, timeoutMillis);
+    try {
+      return prepare(sqlQuery, processorType, luceneSchema).run(parameters, cancelFlag,
+          timeoutMillis, deadline);
+    } catch (SqlParseException | RuntimeException e) {
+      cancel(deadline);
+      throw e;
+    }
+  }
+
+  /**
+   * Plans and compiles an SQL query, possibly with dynamic parameters, over the specified schema
+   * for executing it any number of times.
+   *
+   * The plan is taken from the plan cache of the schema, if there is one, and added to it
+   * otherwise.
+   *
+   * @param sqlQuery - a string with the SQL query
+   * @param luceneSchema - the schema with the tables that the query can access
+   * @return the query, ready for execution
+   * @throws SqlParseException if there is a problem when parsing the query
+   */
+  public static PreparedQuery prepare(String sqlQuery, Type processorType,
+      LuceneSchema luceneSchema) throws SqlParseException {
+    // Pick up the new commits once, instead of on every access to the tables while planning
+    luceneSchema.refresh();
+    CalciteSchema schema = rootSchema(luceneSchema);
+    // Repeated queries over unchanged indexes reuse their compiled plan
+    LucenePlanCache planCache = luceneSchema.planCache();
+    Map<String, Long> version = planCache == null ? null : luceneSchema.version();
+    LucenePlanCache.CompiledPlan compiledPlan =
+        planCache == null ? null : planCache.get(sqlQuery, processorType, version);
+    if (compiledPlan != null) {
+      System.out.println("[Plan cache hit]");
+    } else {
+      Pair<EnumerableRel, RelDataType> plan = optimize(sqlQuery, processorType, schema);
+      compiledPlan = compile(plan.left, plan.right);
+      if (planCache != null) {
+        planCache.put(sqlQuery, processorType, version, compiledPlan);
+      }
+    }
+    return new PreparedQuery(luceneSchema, schema, compiledPlan);
+  }
+
+  /**
+   * Creates the root schema containing the (shared) Lucene tables.
+   */
+  private static CalciteSchema rootSchema(LuceneSchema luceneSchema) {
+    CalciteSchema schema = CalciteSchema.createRootSchema(true);
+    for (String tableName : luceneSchema.getTableNames()) {
+      schema.add(tableName, luceneSchema.getTable(tableName));
+    }
+    return schema;
+  }
+
+  /**
+   * Schedules setting the cancel flag after the timeout; returns the scheduled task, or null if
+   * there is no timeout.
+   */
+  private static @Nullable ScheduledFuture<?> scheduleTimeout(AtomicBoolean cancelFlag,
+      long timeoutMillis) {
+    if (timeoutMillis <= 0) {
+      return null;
+    }
+    return DEADLINES.schedule(() -> cancelFlag.set(true), timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Cancels the task setting the cancel flag of a query that no longer runs, so that it neither
+   * stays in the queue until its deadline nor cancels a later query using the same flag.
+   */
+  private static void cancel(@Nullable ScheduledFuture<?> deadline) {
+    if (deadline != null) {
+      deadline.cancel(false);
+    }
+  }
+
+  /**
+   * Returns the values of the dynamic parameters as the parameters of the executable plan, named
+   * {@code ?0}, {@code ?1}, etc., in Calcite's internal representation.
+   *
+   * @throws IllegalArgumentException if the number of values does not match the number of
+   * parameters or a value does not match the type of its parameter
+   */
+  private static Map<String, Object> toInternal(List<?> values, RelDataType parameterRowType) {
+    List<RelDataTypeField> parameters = parameterRowType.getFieldList();
+    if (values.size() != parameters.size()) {
+      throw new IllegalArgumentException("Query has " + parameters.size()
+          + " dynamic parameters but " + values.size() + " values were given");
+    }
+    Map<String, Object> internal = new HashMap<>();
+    for (int i = 0; i < values.size(); i++) {
+      internal.put("?" + i, toInternal(i, values.get(i), parameters.get(i).getType()));
+    }
+    return internal;
+  }
+
+  private static Object toInternal(int index, Object value, RelDataType type) {
+    if (value == null) {
+      return null;
+    }
+    switch (type.getSqlTypeName()) {
+    case DATE:
+      if (value instanceof Date) {
+        return (int) ((Date) value).toLocalDate().toEpochDay();
+      }
+      if (value instanceof LocalDate) {
+        return (int) ((LocalDate) value).toEpochDay();
+      }
+      break;
+    case TINYINT:
+    case SMALLINT:
+    case INTEGER:
+      if (value instanceof Number) {
+        return ((Number) value).intValue();
+      }
+      break;
+    case BIGINT:
+      if (value instanceof Number) {
+        return ((Number) value).longValue();
+      }
+      break;
+    case DECIMAL:
+      if (value instanceof Number) {
+        return new BigDecimal(value.toString());
+      }
+      break;
+    case FLOAT:
+    case REAL:
+    case DOUBLE:
+      if (value instanceof Number) {
+        return ((Number) value).doubleValue();
+      }
+      break;
+    case CHAR:
+    case VARCHAR:
+      if (value instanceof String) {
+        return value;
+      }
+      break;
+    default:
+      return value;
+    }
+    throw new IllegalArgumentException("Value " + value + " of dynamic parameter ?" + index
+        + " does not match its type " + type);
+  }
+
+  /**
+   * Returns a string uniquely identifying the result of the plan with the specified values of the
+   * dynamic parameters.
+   */
+  private static String resultKey(String plan, Map<String, Object> parameters) {
+    StringBuilder key = new StringBuilder(plan);
+    for (int i = 0; i < parameters.size(); i++) {
+      Object value = parameters.get("?" + i);
+      String s = String.valueOf(value);
+      // The length keeps the values apart whatever characters they contain
+      key.append("?").append(i).append('=')
+          .append(value == null ? "" : value.getClass().getSimpleName())
+          .append('(').append(s.length()).append(')').append(s);
+    }
+    return key.toString();
+  }
+
+  /**
+   * Compiles the physical plan to Java code.
+   */
+  private static LucenePlanCache.CompiledPlan compile(EnumerableRel phyPlan,
+      RelDataType parameterRowType) {
+    // The objects that the compiled code needs at runtime are stashed in the parameters
+    Map<String, Object> stash = new HashMap<>();
+    Bindable<?> bindable = EnumerableInterpretable.toBindable(
+        stash,
+        null,
+        phyPlan,
+        EnumerableRel.Prefer.ARRAY);
+    return new LucenePlanCache.CompiledPlan(bindable, stash, phyPlan.getRowType(),
+        parameterRowType, RelOptUtil.toString(phyPlan), luceneTables(phyPlan));
+  }
+
+  /**
+   * Returns an enumerable that fails as soon as the cancel flag is set.
+   *
+   * Lucene scans check the flag on their own; this covers the operators that run for a long time
+   * without pulling rows from a scan (e.g., joins producing lots of rows). The deadline of the
+   * query, if any, is cancelled when the results are fully read or the enumerator is closed.
+   */
+  private static <T> Enumerable<T> cancellable(Enumerable<T> results, AtomicBoolean cancelFlag,
+      @Nullable ScheduledFuture<?> deadline) {
+    return new AbstractEnumerable<T>() {
+      @Override public Enumerator<T> enumerator() {
+        Enumerator<T> delegate = results.enumerator();
+        return new Enumerator<T>() {
+          @Override public T current() {
+            return delegate.current();
+          }
+
+          @Override public boolean moveNext() {
+            LuceneEnumerable.checkCancelled(cancelFlag);
+            if (delegate.moveNext()) {
+              return true;
+            }
+            cancel(deadline);
+            return false;
+          }
+
+          @Override public void reset() {
+            delegate.reset();
+          }
+
+          @Override public void close() {
+            cancel(deadline);
+            delegate.close();
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Returns the tables accessed by the plan, or null if the results of the plan cannot be cached.
+   *
+   * The results are identified by the commits of the indexes the plan reads, so they cannot be
+   * cached if the plan reads tables that are not {@link LuceneTable}s or no table at all (e.g.,
+   * {@code VALUES}), or if it computes non-deterministic expressions (e.g., {@code RAND()}).
+   */
+  private static List<LuceneTable> luceneTables(RelNode plan) {
+    if (!isDeterministic(plan)) {
+      return null;
+    }
+    List<LuceneTable> tables = new ArrayList<>();
+    for (RelOptTable t : RelOptUtil.findTables(plan)) {
+      LuceneTable table = t.unwrap(LuceneTable.class);
+      if (table == null) {
+        return null;
+      }
+      tables.add(table);
+    }
+    return tables.isEmpty() ? null : tables;
+  }
+
+  /**
+   * Returns whether all the expressions of the operators of the plan return the same value every
+   * time they are evaluated over the same input.
+   *
+   * Besides the non-deterministic functions (see {@link RexUtil#isDeterministic}), this excludes
+   * the dynamic functions, which Calcite evaluates once per execution (e.g., {@code RAND()},
+   * {@code CURRENT_TIMESTAMP}).
+   */
+  private static boolean isDeterministic(RelNode plan) {
+    boolean[] deterministic = {true};
+    new RelVisitor() {
+      @Override public void visit(RelNode node, int ordinal, @Nullable RelNode parent) {
+        node.accept(new RexShuttle() {
+          @Override public RexNode visitCall(RexCall call) {
+            deterministic[0] &= RexUtil.isDeterministic(call)
+                && !call.getOperator().isDynamicFunction();
+            return super.visitCall(call);
+          }
+        });
+        super.visit(node, ordinal, parent);
+      }
+    }.go(plan);
+    return deterministic[0];
+  }
+
+  /**
+   * Returns the generation of the latest commit of every specified index, or null if the tables
+   * are unknown or some indexes cannot be read.
+   */
+  private static Map<String, Long> commitGenerations(List<LuceneTable> tables) {
+    if (tables == null) {
+      return null;
+    }
+    Map<String, Long> generations = new HashMap<>();
+    for (LuceneTable table : tables) {
+      try {
+        generations.put(table.indexPath(), table.commitGeneration());
+      } catch (IOException e) {
+        return null;
+      }
     }
+    return generations;
+  }
+
+  /**
+   * Returns the physical plan of an SQL query over the specified schema.
+   *
+   * @param sqlQuery - a string with the SQL query
+   * @param luceneSchema - the schema with the tables that the query can access
+   * @return the plan in {@link SqlExplainFormat#TEXT text} format without the ids of the operators
+   * @throws SqlParseException if there is a problem when parsing the query
+   */
+  public static String explain(String sqlQuery, Type processorType, LuceneSchema luceneSchema)
+      throws SqlParseException {
+    luceneSchema.refresh();
+    return RelOptUtil.toString(optimize(sqlQuery, processorType, rootSchema(luceneSchema)).left);
+  }
+
+  /**
+   * Parses, validates, and optimizes an SQL query over the specified schema, displaying the
+   * intermediate plans.
+   *
+   * @return the physical plan and the row type of the dynamic parameters of the query
+   */
+  private static Pair<EnumerableRel, RelDataType> optimize(String sqlQuery, Type processorType,
+      CalciteSchema schema) throws SqlParseException {
+    System.out.println("[Input query]");
+    System.out.println(sqlQuery);
+
+    RelDataTypeFactory typeFactory = new JavaTypeFactoryImpl();
 
     // Create an SQL parser
     SqlParser parser = SqlParser.create(sqlQuery);
@@ -169,19 +679,27 @@ public class LuceneQueryProcessor {
 
     // Validate the initial AST
     SqlNode validNode = validator.validate(sqlNode);
+    // The types of the dynamic parameters are inferred from the expressions using them
+    RelDataType parameterRowType = validator.getParameterRowType(validNode);
 
     // Configure and instantiate the converter of the AST to Logical plan (requires opt cluster)
     RelOptCluster cluster = newCluster(typeFactory);
+    // Only the PUSHDOWN processor can read a subset of the fields of an index
+    boolean trim = processorType == Type.PUSHDOWN;
     SqlToRelConverter relConverter = new SqlToRelConverter(
         NOOP_EXPANDER,
         validator,
         catalogReader,
         cluster,
         StandardConvertletTable.INSTANCE,
-        SqlToRelConverter.config());
+        SqlToRelConverter.config().withTrimUnusedFields(trim));
 
     // Convert the valid AST into a logical plan
     RelNode logPlan = relConverter.convertQuery(validNode, false, true).rel;
+    if (trim) {
+      // Remove the fields that are not needed by the query
+      logPlan = relConverter.trimUnusedFields(true, logPlan);
+    }
 
     // Display the logical plan
     System.out.println(
@@ -205,7 +723,18 @@ public class LuceneQueryProcessor {
     planner.addRule(EnumerableRules.ENUMERABLE_WINDOW_RULE);
     switch (processorType) {
     case PUSHDOWN:
+      planner.addRule(LuceneFilterSplitRule.DEFAULT.toRule());
       planner.addRule(LuceneFilterRule.DEFAULT.toRule());
+      planner.addRule(LuceneProjectRule.DEFAULT.toRule());
+      planner.addRule(LuceneSortRule.DEFAULT.toRule());
+      planner.addRule(LuceneAggregateRule.DEFAULT.toRule());
+      // Conditions left over a scan are evaluated on its batches before rows are materialized
+      planner.addRule(LuceneBatchFilterRule.DEFAULT.toRule());
+      // Filters on one side of a join are pushed to that side so that it can restrict the other
+      // side at runtime
+      planner.addRule(CoreRules.FILTER_INTO_JOIN);
+      planner.addRule(LuceneHashJoinRule.DEFAULT.toRule());
+      planner.addRule(LuceneNestedLoopJoinRule.DEFAULT.toRule());
       // Fall-through
     case ADVANCED:
       planner.addRule(LuceneTableScanRule.DEFAULT.toRule());
@@ -231,33 +760,157 @@ public class LuceneQueryProcessor {
     System.out.println(
         RelOptUtil.dumpPlan("[Physical plan]", phyPlan, SqlExplainFormat.TEXT,
             SqlExplainLevel.NON_COST_ATTRIBUTES));
-
-    // Obtain the executable plan
-    Bindable<T> executablePlan = EnumerableInterpretable.toBindable(
-        new HashMap<>(),
-        null,
-        phyPlan,
-        EnumerableRel.Prefer.ARRAY);
-    // Run the executable plan using a context simply providing access to the schema
-    return executablePlan.bind(new SchemaOnlyDataContext(schema));
+    return Pair.of(phyPlan, parameterRowType);
   }
 
   private static RelOptCluster newCluster(RelDataTypeFactory factory) {
     RelOptPlanner planner = new VolcanoPlanner();
     planner.addRelTraitDef(ConventionTraitDef.INSTANCE);
-    return RelOptCluster.create(planner, new RexBuilder(factory));
+    RelOptCluster cluster = RelOptCluster.create(planner, new RexBuilder(factory));
+    cluster.setMetadataProvider(LuceneRelMetadataProvider.INSTANCE);
+    return cluster;
+  }
+
+  /**
+   * Converts the values of the results from Calcite's internal representation to the one exposed
+   * to the callers of {@link #execute(String, Type)}.
+   *
+   * Operators exchange DATE values as days since epoch; they become {@link Date} objects only
+   * here, once per result row.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> Enumerable<T> toExternal(Enumerable<T> results, RelDataType rowType) {
+    int[] dates = rowType.getFieldList().stream()
+        .filter(f -> f.getType().getSqlTypeName() == SqlTypeName.DATE)
+        .mapToInt(RelDataTypeField::getIndex)
+        .toArray();
+    if (dates.length == 0) {
+      return results;
+    }
+    return results.select(row -> {
+      if (!(row instanceof Object[])) {
+        // Rows with a single field are not wrapped in an array
+        return (T) toDate(row);
+      }
+      Object[] values = ((Object[]) row).clone();
+      for (int i : dates) {
+        values[i] = toDate(values[i]);
+      }
+      return (T) values;
+    });
+  }
+
+  private static Date toDate(Object daysSinceEpoch) {
+    return daysSinceEpoch == null
+        ? null
+        : Date.valueOf(LocalDate.ofEpochDay((Integer) daysSinceEpoch));
   }
 
   private static final RelOptTable.ViewExpander NOOP_EXPANDER = (type, query, schema, path) -> null;
 
   /**
-   * A simple data context only with schema information.
+   * A query that is planned and compiled once and executed any number of times, possibly with
+   * different values of its dynamic parameters ({@code ?}).
+   *
+   * The types of the parameters are inferred from the expressions using them (e.g., the
+   * parameter of {@code c_custkey = ?} is an {@code INTEGER}). Values are given in the order of
+   * the parameters in the query: numbers for numeric parameters, strings for character
+   * parameters, and {@link Date}s or {@link LocalDate}s for date parameters. Comparisons between
+   * columns and parameters are pushed in Lucene like comparisons with literals; their queries are
+   * built from the values of the parameters on every execution (see
+   * {@link LuceneDynamicParamQuery}).
    */
-  private static final class SchemaOnlyDataContext implements DataContext {
+  public static final class PreparedQuery {
+    private final LuceneSchema luceneSchema;
+    private final CalciteSchema schema;
+    private final LucenePlanCache.CompiledPlan compiledPlan;
+
+    private PreparedQuery(LuceneSchema luceneSchema, CalciteSchema schema,
+        LucenePlanCache.CompiledPlan compiledPlan) {
+      this.luceneSchema = luceneSchema;
+      this.schema = schema;
+      this.compiledPlan = compiledPlan;
+    }
+
+    /**
+     * Returns the row type of the dynamic parameters of the query, with one field per parameter.
+     */
+    public RelDataType parameterRowType() {
+      return compiledPlan.parameterRowType;
+    }
+
+    /**
+     * Executes the query with the specified values of the dynamic parameters.
+     *
+     * @throws IllegalArgumentException if the number of values does not match the number of
+     * parameters or a value does not match the type of its parameter
+     */
+    public <T> Enumerable<T> execute(List<?> parameters) {
+      return execute(parameters, new AtomicBoolean(false), 0);
+    }
+
+    /**
+     * Executes the query with the specified values of the dynamic parameters and the
+     * possibility to cancel it.
+     *
+     * @throws IllegalArgumentException if the number of values does not match the number of
+     * parameters or a value does not match the type of its parameter
+     * @see LuceneQueryProcessor#execute(String, Type, LuceneSchema, AtomicBoolean, long)
+     */
+    public <T> Enumerable<T> execute(List<?> parameters, AtomicBoolean cancelFlag,
+        long timeoutMillis) {
+      ScheduledFuture<?> deadline = scheduleTimeout(cancelFlag, timeoutMillis);
+      try {
+        luceneSchema.refresh();
+        return run(parameters, cancelFlag, timeoutMillis, deadline);
+      } catch (RuntimeException e) {
+        cancel(deadline);
+        throw e;
+      }
+    }
+
+    private <T> Enumerable<T> run(List<?> parameters, AtomicBoolean cancelFlag,
+        long timeoutMillis, @Nullable ScheduledFuture<?> deadline) {
+      Map<String, Object> values = toInternal(parameters, compiledPlan.parameterRowType);
+      // Identical plans with the same parameters over unchanged indexes return the same results
+      LuceneResultCache resultCache = luceneSchema.resultCache();
+      Map<String, Long> generations =
+          resultCache == null ? null : commitGenerations(compiledPlan.tables);
+      String key = generations == null ? null : resultKey(compiledPlan.plan, values);
+      if (generations != null) {
+        Enumerable<T> cached = resultCache.get(key, generations);
+        if (cached != null) {
+          System.out.println("[Result cache hit]");
+          return cancellable(cached, cancelFlag, deadline);
+        }
+      }
+
+      // Objects needed at runtime are passed in the parameters along with the compiled ones
+      Map<String, Object> context = new HashMap<>(compiledPlan.stash);
+      context.putAll(values);
+      context.put(DataContext.Variable.CANCEL_FLAG.camelName, cancelFlag);
+      context.put(DataContext.Variable.TIMEOUT.camelName, timeoutMillis);
+      @SuppressWarnings("unchecked")
+      Bindable<T> executablePlan = (Bindable<T>) compiledPlan.bindable;
+      // Run the executable plan using a context providing access to the schema and the parameters
+      Enumerable<T> results = executablePlan.bind(new SimpleDataContext(schema, context));
+      Enumerable<T> external = toExternal(results, compiledPlan.rowType);
+      return cancellable(
+          generations == null ? external : resultCache.caching(key, generations, external),
+          cancelFlag, deadline);
+    }
+  }
+
+  /**
+   * A simple data context with schema information and the parameters of the executable plan.
+   */
+  private static final class SimpleDataContext implements DataContext {
     private final SchemaPlus schema;
+    private final Map<String, Object> parameters;
 
-    SchemaOnlyDataContext(CalciteSchema calciteSchema) {
+    SimpleDataContext(CalciteSchema calciteSchema, Map<String, Object> parameters) {
       this.schema = calciteSchema.plus();
+      this.parameters = parameters;
     }
 
     @Override public SchemaPlus getRootSchema() {
@@ -273,7 +926,7 @@ public class LuceneQueryProcessor {
     }
 
     @Override public Object get(final String name) {
-      return null;
+      return parameters.get(name);
     }
   }
 }
@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.calcite.linq4j.AbstractEnumerable;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Cache with the results of queries over {@link LuceneTable}s.
+ *
+ * Results are keyed by the (physical) plan of the query and the generation of the latest commit
+ * of every index accessed by the plan. Re-indexing a table creates a new commit so the results
+ * computed over the previous commit are never returned again; they are eventually evicted.
+ *
+ * The size of the cache is bounded by the total number of rows in the cached results. When the
+ * bound is exceeded the least recently used results are evicted. Results with more rows than the
+ * bound are not cached at all.
+ *
+ * Results are cached only once they are fully enumerated. Rows are shared among all the callers
+ * obtaining them from the cache, so they must not be modified.
+ *
+ * The cache is thread-safe.
+ */
+public final class LuceneResultCache {
+  private final int maxRows;
+  private final LinkedHashMap<Key, List<Object>> results = new LinkedHashMap<>(16, 0.75f, true);
+  private int rows = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  /**
+   * Creates a cache holding at most the specified number of rows.
+   */
+  public LuceneResultCache(int maxRows) {
+    this.maxRows = maxRows;
+  }
+
+  /**
+   * Returns the cached result of the plan over the specified commits of the indexes, or null if
+   * the result is not in the cache.
+   *
+   * @param plan - a string uniquely identifying the plan
+   * @param generations - the generation of the latest commit of every index accessed by the plan
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized <T> Enumerable<T> get(String plan, Map<String, Long> generations) {
+    List<Object> result = results.get(new Key(plan, generations));
+    if (result == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return Linq4j.asEnumerable((List<T>) result);
+  }
+
+  /**
+   * Returns an enumerable returning the same rows as the specified one which adds the rows to the
+   * cache once they have been fully enumerated.
+   *
+   * @param plan - a string uniquely identifying the plan
+   * @param generations - the generation of the latest commit of every index accessed by the plan
+   * @param result - the (lazy) result of the plan
+   */
+  public <T> Enumerable<T> caching(String plan, Map<String, Long> generations,
+      Enumerable<T> result) {
+    Key key = new Key(plan, generations);
+    return new AbstractEnumerable<T>() {
+      @Override public Enumerator<T> enumerator() {
+        return new CachingEnumerator<>(key, result.enumerator());
+      }
+    };
+  }
+
+  /**
+   * Returns the maximum number of rows held by the cache.
+   */
+  public int maxRows() {
+    return maxRows;
+  }
+
+  /**
+   * Returns the number of rows currently held by the cache.
+   */
+  public synchronized int sizeInRows() {
+    return rows;
+  }
+
+  /**
+   * Returns the number of lookups that found the result in the cache.
+   */
+  public synchronized long hitCount() {
+    return hits;
+  }
+
+  /**
+   * Returns the number of lookups that did not find the result in the cache.
+   */
+  public synchronized long missCount() {
+    return misses;
+  }
+
+  /**
+   * Returns the number of results evicted to stay within the bound.
+   */
+  public synchronized long evictionCount() {
+    return evictions;
+  }
+
+  /**
+   * Removes all the results from the cache.
+   */
+  public synchronized void clear() {
+    results.clear();
+    rows = 0;
+  }
+
+  @Override public synchronized String toString() {
+    return "LuceneResultCache(rows=" + rows + "/" + maxRows + ", results=" + results.size()
+        + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ")";
+  }
+
+  private synchronized void put(Key key, List<Object> result) {
+    List<Object> previous = results.put(key, Collections.unmodifiableList(result));
+    if (previous != null) {
+      // Computed concurrently by another query
+      rows -= previous.size();
+    }
+    rows += result.size();
+    Iterator<List<Object>> lru = results.values().iterator();
+    while (rows > maxRows) {
+      rows -= lru.next().size();
+      lru.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * Enumerator collecting the rows of a result and adding them to the cache when the end of the
+   * result is reached.
+   */
+  private final class CachingEnumerator<T> implements Enumerator<T> {
+    private final Key key;
+    private final Enumerator<T> delegate;
+    /**
+     * The rows enumerated so far; null if the result does not fit in the cache.
+     */
+    private List<Object> rows = new ArrayList<>();
+
+    CachingEnumerator(Key key, Enumerator<T> delegate) {
+      this.key = key;
+      this.delegate = delegate;
+    }
+
+    @Override public T current() {
+      return delegate.current();
+    }
+
+    @Override public boolean moveNext() {
+      if (!delegate.moveNext()) {
+        if (rows != null) {
+          put(key, rows);
+          rows = null;
+        }
+        return false;
+      }
+      if (rows != null) {
+        rows.add(delegate.current());
+        if (rows.size() > maxRows) {
+          rows = null;
+        }
+      }
+      return true;
+    }
+
+    @Override public void reset() {
+      delegate.reset();
+      rows = new ArrayList<>();
+    }
+
+    @Override public void close() {
+      delegate.close();
+    }
+  }
+
+  /**
+   * Identifies the result of a plan over specific commits of the indexes.
+   */
+  private static final class Key {
+    private final String plan;
+    private final Map<String, Long> generations;
+
+    Key(String plan, Map<String, Long> generations) {
+      this.plan = plan;
+      this.generations = new TreeMap<>(generations);
+    }
+
+    @Override public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return plan.equals(key.plan) && generations.equals(key.generations);
+    }
+
+    @Override public int hashCode() {
+      return Objects.hash(plan, generations);
+    }
+  }
+}
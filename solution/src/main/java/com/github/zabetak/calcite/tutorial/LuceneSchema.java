@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.calcite.schema.Table;
+import org.apache.calcite.schema.impl.AbstractSchema;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Schema with tables representing Apache Lucene indexes.
+ *
+ * The schema owns its tables so they can be shared between queries; closing the schema releases
+ * the resources (readers, directories) held by every table.
+ *
+ * Queries over the schema may optionally reuse the results of previous queries through a
+ * {@link LuceneResultCache} and the compiled plans of previous queries through a
+ * {@link LucenePlanCache}.
+ */
+public final class LuceneSchema extends AbstractSchema implements Closeable {
+  private final Map<String, LuceneTable> tables;
+  private final LuceneResultCache resultCache;
+  private final LucenePlanCache planCache;
+
+  public LuceneSchema(Map<String, LuceneTable> tables) {
+    this(tables, null);
+  }
+
+  public LuceneSchema(Map<String, LuceneTable> tables, LuceneResultCache resultCache) {
+    this(tables, resultCache, null);
+  }
+
+  public LuceneSchema(Map<String, LuceneTable> tables, LuceneResultCache resultCache,
+      LucenePlanCache planCache) {
+    this.tables = new LinkedHashMap<>(tables);
+    this.resultCache = resultCache;
+    this.planCache = planCache;
+  }
+
+  @Override protected Map<String, Table> getTableMap() {
+    return new LinkedHashMap<>(tables);
+  }
+
+  /**
+   * Returns the cache with the results of queries over the schema; null if results are not cached.
+   */
+  public LuceneResultCache resultCache() {
+    return resultCache;
+  }
+
+  /**
+   * Returns the cache with the compiled plans of queries over the schema; null if plans are not
+   * cached.
+   */
+  public LucenePlanCache planCache() {
+    return planCache;
+  }
+
+  /**
+   * Returns the version of the schema, made of the generation of the latest commit of the index
+   * of every table; -1 for indexes that do not exist (yet) or cannot be read.
+   *
+   * Re-indexing a table creates a new commit, with new statistics for the planner, so it changes
+   * the version.
+   */
+  public Map<String, Long> version() {
+    Map<String, Long> version = new HashMap<>();
+    for (Map.Entry<String, LuceneTable> e : tables.entrySet()) {
+      long generation;
+      try {
+        generation = e.getValue().commitGeneration();
+      } catch (IOException ignored) {
+        generation = -1;
+      }
+      version.put(e.getKey(), generation);
+    }
+    return version;
+  }
+
+  /**
+   * Makes the tables see the latest commit of their index (see {@link LuceneTable#refresh()}).
+   *
+   * Tables whose index does not exist (yet) or cannot be read are skipped; queries treat them as
+   * empty anyway.
+   */
+  public void refresh() {
+    for (LuceneTable table : tables.values()) {
+      try {
+        table.refresh();
+      } catch (IOException e) {
+        // Nothing to refresh
+      }
+    }
+  }
+
+  /**
+   * Warms up the tables that are configured to do so (see {@link LuceneTable.Options#warmup()}).
+   *
+   * Tables whose index does not exist (yet) or cannot be read are skipped; queries treat them as
+   * empty anyway.
+   */
+  public void warmup() {
+    for (LuceneTable table : tables.values()) {
+      if (table.options().warmup()) {
+        try {
+          table.warmup();
+        } catch (IOException e) {
+          // Nothing to warm up
+        }
+      }
+    }
+  }
+
+  @Override public void close() throws IOException {
+    IOException failure = null;
+    for (LuceneTable table : tables.values()) {
+      try {
+        table.close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
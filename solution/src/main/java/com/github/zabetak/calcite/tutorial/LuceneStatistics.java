@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
+
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+
+import com.github.zabetak.calcite.tutorial.indexer.IndexStatistics;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Statistics of a Lucene index.
+ *
+ * The statistics of the columns are those computed when the table was indexed and stored in the
+ * commit (see {@link IndexStatistics}): the number of nulls, the minimum and maximum values, the
+ * (estimated) number of distinct values, and, for numeric and date columns, a {@link Histogram}.
+ * Commits without stored statistics, or with documents added or deleted since they were computed,
+ * get statistics read from the structures that Lucene already maintains for searching. In this
+ * case, the number of nulls and the minimum and maximum values come from the points (numeric and
+ * date columns) or the terms (string columns) of the field. The number of distinct values is
+ * exact for string columns, since every distinct value is a term of the index, and an upper
+ * bound for integer and date columns, which cannot have more distinct values than documents or
+ * integers between their minimum and maximum; it is unknown for double columns, which have no
+ * histograms either.
+ *
+ * The row count is always the number of live documents. Values are in Calcite's internal
+ * representation: dates are days since epoch.
+ */
+public final class LuceneStatistics {
+  private final long rowCount;
+  private final Map<String, ColumnStatistics> columns;
+
+  private LuceneStatistics(long rowCount, Map<String, ColumnStatistics> columns) {
+    this.rowCount = rowCount;
+    this.columns = columns;
+  }
+
+  /**
+   * Computes the statistics of the columns of the specified row type in the specified index.
+   *
+   * @param rowType - the row type of the table; null to compute only the row count
+   */
+  static LuceneStatistics of(IndexReader reader, @Nullable RelDataType rowType)
+      throws IOException {
+    IndexStatistics stored = stored(reader);
+    Map<String, ColumnStatistics> columns = new HashMap<>();
+    if (rowType != null) {
+      for (RelDataTypeField f : rowType.getFieldList()) {
+        IndexStatistics.ColumnSummary summary =
+            stored == null ? null : stored.column(f.getName());
+        ColumnStatistics column =
+            summary == null ? column(reader, f) : column(summary, stored.rowCount(), f);
+        if (column != null) {
+          columns.put(f.getName(), column);
+        }
+      }
+    }
+    return new LuceneStatistics(reader.numDocs(), Collections.unmodifiableMap(columns));
+  }
+
+  /**
+   * Returns the statistics stored in the commit of the reader, or null if there are none or they
+   * do not reflect the documents of the commit.
+   */
+  private static @Nullable IndexStatistics stored(IndexReader reader) {
+    if (!(reader instanceof DirectoryReader)) {
+      return null;
+    }
+    try {
+      IndexStatistics stored = IndexStatistics.fromUserData(
+          ((DirectoryReader) reader).getIndexCommit().getUserData());
+      // A writer keeps the user data of the previous commit unless it sets new data
+      if (stored == null || stored.rowCount() != reader.maxDoc() || reader.hasDeletions()) {
+        return null;
+      }
+      return stored;
+    } catch (IOException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static @Nullable ColumnStatistics column(IndexStatistics.ColumnSummary summary,
+      long rowCount, RelDataTypeField f) {
+    String min = summary.min();
+    String max = summary.max();
+    double[] histogram = summary.histogram();
+    // The sketch estimates small cardinalities nearly exactly, so rounding makes them exact, and
+    // large ones within a few percent, possibly above the number of values
+    double distinct =
+        Math.min(Math.round(summary.distinctCount()), rowCount - summary.nullCount());
+    switch (f.getType().getSqlTypeName()) {
+    case INTEGER:
+    case DATE:
+      if (min == null || max == null) {
+        return new ColumnStatistics(summary.nullCount(), 0d, null, null, null);
+      }
+      int lo = Integer.parseInt(min);
+      int hi = Integer.parseInt(max);
+      return new ColumnStatistics(summary.nullCount(),
+          Math.min(distinct, (double) hi - lo + 1), lo, hi,
+          histogram == null ? null : new Histogram(histogram, true));
+    case DOUBLE:
+      if (min == null || max == null) {
+        return new ColumnStatistics(summary.nullCount(), 0d, null, null, null);
+      }
+      return new ColumnStatistics(summary.nullCount(), distinct, Double.parseDouble(min),
+          Double.parseDouble(max), histogram == null ? null : new Histogram(histogram, false));
+    case CHAR:
+    case VARCHAR:
+      return new ColumnStatistics(summary.nullCount(), distinct, min, max, null);
+    default:
+      return null;
+    }
+  }
+
+  private static @Nullable ColumnStatistics column(IndexReader reader, RelDataTypeField f)
+      throws IOException {
+    String field = f.getName();
+    switch (f.getType().getSqlTypeName()) {
+    case INTEGER:
+    case DATE:
+      byte[] min = PointValues.getMinPackedValue(reader, field);
+      if (min == null) {
+        return ColumnStatistics.empty(reader.numDocs());
+      }
+      int lo = IntPoint.decodeDimension(min, 0);
+      int hi = IntPoint.decodeDimension(PointValues.getMaxPackedValue(reader, field), 0);
+      int docs = PointValues.getDocCount(reader, field);
+      return new ColumnStatistics(nulls(reader, docs),
+          Math.min((double) docs, (double) hi - lo + 1), lo, hi, null);
+    case DOUBLE:
+      byte[] dmin = PointValues.getMinPackedValue(reader, field);
+      if (dmin == null) {
+        return ColumnStatistics.empty(reader.numDocs());
+      }
+      return new ColumnStatistics(nulls(reader, PointValues.getDocCount(reader, field)), null,
+          DoublePoint.decodeDimension(dmin, 0),
+          DoublePoint.decodeDimension(PointValues.getMaxPackedValue(reader, field), 0), null);
+    case CHAR:
+    case VARCHAR:
+      Terms terms = MultiTerms.getTerms(reader, field);
+      if (terms == null) {
+        return ColumnStatistics.empty(reader.numDocs());
+      }
+      return new ColumnStatistics(nulls(reader, terms.getDocCount()), (double) size(terms),
+          terms.getMin().utf8ToString(), terms.getMax().utf8ToString(), null);
+    default:
+      return null;
+    }
+  }
+
+  private static long nulls(IndexReader reader, int docsWithValue) {
+    // The count of documents with a value includes deleted documents
+    return Math.max(0, reader.numDocs() - docsWithValue);
+  }
+
+  private static long size(Terms terms) throws IOException {
+    long size = terms.size();
+    if (size >= 0) {
+      return size;
+    }
+    // Terms merged from several segments do not know their size
+    TermsEnum it = terms.iterator();
+    size = 0;
+    while (it.next() != null) {
+      size++;
+    }
+    return size;
+  }
+
+  /**
+   * Returns the number of (live) documents in the index.
+   */
+  public long rowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Returns the statistics of the specified column, or null if they are not available.
+   */
+  public @Nullable ColumnStatistics column(String name) {
+    return columns.get(name);
+  }
+
+  /**
+   * Statistics of a column of a Lucene index.
+   */
+  public static final class ColumnStatistics {
+    private final long nullCount;
+    private final @Nullable Double distinctCount;
+    private final @Nullable Comparable<?> min;
+    private final @Nullable Comparable<?> max;
+    private final @Nullable Histogram histogram;
+
+    ColumnStatistics(long nullCount, @Nullable Double distinctCount, @Nullable Comparable<?> min,
+        @Nullable Comparable<?> max, @Nullable Histogram histogram) {
+      this.nullCount = nullCount;
+      this.distinctCount = distinctCount;
+      this.min = min;
+      this.max = max;
+      this.histogram = histogram;
+    }
+
+    /**
+     * Returns the statistics of a column without any value.
+     */
+    static ColumnStatistics empty(long rowCount) {
+      return new ColumnStatistics(rowCount, 0d, null, null, null);
+    }
+
+    /**
+     * Returns the number of documents without a value for the column.
+     */
+    public long nullCount() {
+      return nullCount;
+    }
+
+    /**
+     * Returns the (estimated) number of distinct non-null values of the column; null if unknown.
+     */
+    public @Nullable Double distinctCount() {
+      return distinctCount;
+    }
+
+    /**
+     * Returns the minimum value of the column; null if the column has no values.
+     */
+    public @Nullable Comparable<?> min() {
+      return min;
+    }
+
+    /**
+     * Returns the maximum value of the column; null if the column has no values.
+     */
+    public @Nullable Comparable<?> max() {
+      return max;
+    }
+
+    /**
+     * Returns the histogram of the values of the column, or null if there is none.
+     */
+    public @Nullable Histogram histogram() {
+      return histogram;
+    }
+  }
+
+  /**
+   * An equi-depth histogram of the non-null values of a numeric or date column.
+   *
+   * Every bucket between two consecutive boundaries holds the same number of values, which are
+   * assumed to be uniformly distributed in the bucket. The values of integer and date columns are
+   * discrete: each one covers the unit interval centered on it, so that a bucket whose boundaries
+   * are equal still has a width.
+   */
+  public static final class Histogram {
+    private final double[] boundaries;
+    private final boolean discrete;
+
+    Histogram(double[] boundaries, boolean discrete) {
+      if (boundaries.length < 2) {
+        throw new IllegalArgumentException("Histogram without buckets");
+      }
+      this.boundaries = boundaries;
+      this.discrete = discrete;
+    }
+
+    /**
+     * Returns the estimated fraction of the non-null values that are between the specified
+     * bounds, which may be infinite.
+     */
+    public double fraction(double lower, boolean lowerInclusive, double upper,
+        boolean upperInclusive) {
+      if (discrete) {
+        // The integers between the bounds, as a continuous interval
+        double lo = lowerInclusive ? Math.ceil(lower) : Math.floor(lower) + 1;
+        double hi = upperInclusive ? Math.floor(upper) : Math.ceil(upper) - 1;
+        return lo > hi ? 0 : cumulative(hi + 0.5) - cumulative(lo - 0.5);
+      }
+      return Math.max(0, cumulative(upper) - cumulative(lower));
+    }
+
+    /**
+     * Returns the estimated fraction of the values that are less than the specified value.
+     */
+    private double cumulative(double value) {
+      double width = discrete ? 0.5 : 0;
+      int buckets = boundaries.length - 1;
+      double sum = 0;
+      for (int i = 0; i < buckets; i++) {
+        double lo = boundaries[i] - width;
+        double hi = boundaries[i + 1] + width;
+        if (value >= hi) {
+          sum += 1;
+        } else if (value > lo) {
+          sum += (value - lo) / (hi - lo);
+        }
+      }
+      return sum / buckets;
+    }
+  }
+}
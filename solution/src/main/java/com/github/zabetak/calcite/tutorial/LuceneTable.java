@@ -22,10 +22,37 @@ import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
 import org.apache.calcite.rel.type.RelDataTypeField;
 import org.apache.calcite.schema.ScannableTable;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
 import org.apache.calcite.schema.impl.AbstractTable;
 import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.util.ImmutableBitSet;
 
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+
+import com.google.common.collect.ImmutableList;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Table representing an Apache Lucene index.
@@ -38,14 +65,65 @@ import java.util.LinkedHashMap;
  * interface in order to work. The {@link LuceneQueryProcessor.Type#ADVANCED} and
  * {@link LuceneQueryProcessor.Type#PUSHDOWN} variants do not need this interface so the respective
  * methods can be removed.
+ *
+ * The table owns a {@link SearcherManager}, which is opened lazily and shared by all the queries
+ * (and threads) accessing the table. Callers obtain a searcher via {@link #acquireSearcher()} and
+ * must give it back using {@link #releaseSearcher(IndexSearcher)}. Checking for a new commit
+ * touches the filesystem, so it is not done on every acquire but when {@link #refresh()} is
+ * called (once per query by the {@link LuceneQueryProcessor}) and otherwise at most once per
+ * {@link #REFRESH_INTERVAL_NANOS}. The underlying resources are released when the table is closed
+ * and the last searcher in use is released.
+ *
+ * Additional characteristics of the table, such as whether scans are parallelized, how the
+ * index files are accessed (see {@link DirectoryType}), or whether the decoded columns are kept
+ * in a {@link LuceneTableCache}, are defined by its {@link Options}.
  */
-public final class LuceneTable extends AbstractTable implements ScannableTable {
+public final class LuceneTable extends AbstractTable implements ScannableTable, Closeable {
+  /**
+   * The maximum time between two checks for a new commit when {@link #refresh()} is not called.
+   */
+  static final long REFRESH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
   private final String indexPath;
   private final RelDataType dataType;
+  private final List<ImmutableBitSet> keys;
+  private final Options options;
+  private Directory directory;
+  private SearcherManager searcherManager;
+  /**
+   * The generation of the commit copied in memory when the table is a {@link DirectoryType#RAM}
+   * table.
+   */
+  private long snapshotGeneration = -1;
+  /**
+   * The time (see {@link System#nanoTime()}) of the last check for a new commit.
+   */
+  private long lastRefreshNanos;
+  private boolean closed = false;
+  /**
+   * The statistics of the commit with generation {@link #statisticsGeneration}.
+   */
+  private LuceneStatistics statistics;
+  private long statisticsGeneration = -1;
 
   public LuceneTable(String indexPath, RelDataType dataType) {
+    this(indexPath, dataType, Options.DEFAULT);
+  }
+
+  public LuceneTable(String indexPath, RelDataType dataType, Options options) {
+    this(indexPath, dataType, ImmutableList.of(), options);
+  }
+
+  /**
+   * Creates a table.
+   *
+   * @param keys - the sets of columns whose values are unique in the table
+   */
+  public LuceneTable(String indexPath, RelDataType dataType, List<ImmutableBitSet> keys,
+      Options options) {
     this.indexPath = indexPath;
     this.dataType = dataType;
+    this.keys = ImmutableList.copyOf(keys);
+    this.options = options;
   }
 
   @Override public Enumerable<Object[]> scan(final DataContext root) {
@@ -53,17 +131,376 @@ public final class LuceneTable extends AbstractTable implements ScannableTable {
     for (RelDataTypeField f : dataType.getFieldList()) {
       fields.put(f.getName(), f.getType().getSqlTypeName());
     }
-    return new LuceneEnumerable(indexPath, fields, "*:*");
+    // The table does not declare any collation so the rows can be returned in any order
+    return new LuceneEnumerable(this, fields, "*:*").withOrdered(false)
+        .withCancelFlag(root == null ? null : DataContext.Variable.CANCEL_FLAG.get(root));
   }
 
   @Override public RelDataType getRowType(final RelDataTypeFactory typeFactory) {
     return typeFactory.copyType(dataType);
   }
 
+  /**
+   * Returns the row count of the latest commit of the index and the keys of the table.
+   *
+   * No collation is declared since scans do not return the documents in any particular order.
+   * The statistics of the columns are available through {@link #statistics()}.
+   */
+  @Override public Statistic getStatistic() {
+    LuceneStatistics stats = statistics();
+    return Statistics.of(stats == null ? null : (double) stats.rowCount(), keys, null,
+        ImmutableList.of());
+  }
+
+  /**
+   * Returns the statistics of the latest commit of the index, or null if the index does not
+   * exist or cannot be read.
+   *
+   * The statistics are computed once per commit.
+   */
+  public synchronized @Nullable LuceneStatistics statistics() {
+    try {
+      IndexSearcher searcher = acquireSearcher();
+      try {
+        DirectoryReader reader = (DirectoryReader) searcher.getIndexReader();
+        long generation = reader.getIndexCommit().getGeneration();
+        if (statistics == null || statisticsGeneration != generation) {
+          statistics = LuceneStatistics.of(reader, dataType);
+          statisticsGeneration = generation;
+        }
+        return statistics;
+      } finally {
+        releaseSearcher(searcher);
+      }
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
   /**
    * Returns the path to the index in the filesystem.
    */
   public String indexPath() {
     return indexPath;
   }
+
+  /**
+   * Returns the options of the table.
+   */
+  public Options options() {
+    return options;
+  }
+
+  /**
+   * Returns a searcher over the latest commit of the index seen by the table.
+   *
+   * New commits are seen after {@link #refresh()} or, at the latest,
+   * {@link #REFRESH_INTERVAL_NANOS} after they are made. The searcher must be released using
+   * {@link #releaseSearcher(IndexSearcher)} when it is no longer needed.
+   *
+   * @throws IOException if the index does not exist or cannot be read
+   */
+  public IndexSearcher acquireSearcher() throws IOException {
+    return searcherManager(false).acquire();
+  }
+
+  /**
+   * Makes the searchers acquired from now on see the latest commit of the index.
+   *
+   * @throws IOException if the index does not exist or cannot be read
+   */
+  public void refresh() throws IOException {
+    searcherManager(true);
+  }
+
+  /**
+   * Releases a searcher obtained by {@link #acquireSearcher()}.
+   */
+  public void releaseSearcher(IndexSearcher searcher) throws IOException {
+    // Readers are reference counted so searchers can be released even after the table is closed
+    searcher.getIndexReader().decRef();
+  }
+
+  /**
+   * Returns whether the specified field has doc values in the latest commit of the index, which
+   * allows, for instance, sorting on the field.
+   *
+   * Returns false if the index does not exist or cannot be read.
+   */
+  public boolean hasDocValues(String field) {
+    try {
+      IndexSearcher searcher = acquireSearcher();
+      try {
+        return LuceneBatchReader.hasDocValues(searcher.getIndexReader(), new String[]{field});
+      } finally {
+        releaseSearcher(searcher);
+      }
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the generation of the latest commit of the index.
+   *
+   * The generation increases with every commit, so it can be used to detect that the index has
+   * changed (e.g., to invalidate results computed over a previous commit).
+   *
+   * @throws IOException if the index does not exist or cannot be read
+   */
+  public long commitGeneration() throws IOException {
+    IndexSearcher searcher = acquireSearcher();
+    try {
+      return ((DirectoryReader) searcher.getIndexReader()).getIndexCommit().getGeneration();
+    } finally {
+      releaseSearcher(searcher);
+    }
+  }
+
+  /**
+   * Warms up the table by opening a searcher over the index and reading all the files of its
+   * commit so that the first query does not have to wait for the data to be paged in.
+   *
+   * @throws IOException if the index does not exist or cannot be read
+   */
+  public void warmup() throws IOException {
+    IndexSearcher searcher = acquireSearcher();
+    try {
+      if (options.directoryType() == DirectoryType.RAM) {
+        // The files are already in memory
+        return;
+      }
+      DirectoryReader reader = (DirectoryReader) searcher.getIndexReader();
+      byte[] buffer = new byte[64 * 1024];
+      for (String file : reader.getIndexCommit().getFileNames()) {
+        try (IndexInput in = reader.directory().openInput(file, IOContext.READONCE)) {
+          for (long remaining = in.length(); remaining > 0; remaining -= buffer.length) {
+            in.readBytes(buffer, 0, (int) Math.min(buffer.length, remaining));
+          }
+        }
+      }
+    } finally {
+      releaseSearcher(searcher);
+    }
+  }
+
+  private synchronized SearcherManager searcherManager(boolean refresh) throws IOException {
+    if (closed) {
+      throw new AlreadyClosedException("Table over " + indexPath + " is closed");
+    }
+    long now = System.nanoTime();
+    if (searcherManager != null && (refresh || now - lastRefreshNanos > REFRESH_INTERVAL_NANOS)) {
+      lastRefreshNanos = now;
+      if (directory instanceof ByteBuffersDirectory) {
+        // The in-memory copy never changes; only a new commit on disk makes it stale
+        if (SegmentInfos.getLastCommitGeneration(FSDirectory.listAll(Paths.get(indexPath)))
+            != snapshotGeneration) {
+          // Searchers that are still in use keep the old copy alive
+          closeWhenUnused(searcherManager, directory);
+          searcherManager = null;
+          directory = null;
+        }
+      } else {
+        // Cheap when the index has not changed; otherwise opens a reader over the new commit
+        searcherManager.maybeRefresh();
+      }
+    }
+    if (searcherManager == null) {
+      Directory dir = openDirectory();
+      try {
+        searcherManager = new SearcherManager(dir, null);
+      } catch (IOException e) {
+        dir.close();
+        throw e;
+      }
+      directory = dir;
+      lastRefreshNanos = now;
+    }
+    return searcherManager;
+  }
+
+  private Directory openDirectory() throws IOException {
+    Path path = Paths.get(indexPath);
+    switch (options.directoryType()) {
+    case MMAP:
+      MMapDirectory mmap = new MMapDirectory(path);
+      mmap.setPreload(options.preload());
+      return mmap;
+    case NIOFS:
+      return new NIOFSDirectory(path);
+    case RAM:
+      try (Directory source = FSDirectory.open(path)) {
+        SegmentInfos commit = SegmentInfos.readLatestCommit(source);
+        ByteBuffersDirectory ram = new ByteBuffersDirectory();
+        for (String file : commit.files(true)) {
+          ram.copyFrom(source, file, file, IOContext.READONCE);
+        }
+        snapshotGeneration = commit.getGeneration();
+        return ram;
+      }
+    default:
+      return FSDirectory.open(path);
+    }
+  }
+
+  /**
+   * Closes the manager and releases the directory once the last searcher using it is released.
+   */
+  private static void closeWhenUnused(SearcherManager manager, Directory dir) throws IOException {
+    IndexSearcher searcher = manager.acquire();
+    try {
+      searcher.getIndexReader().getReaderCacheHelper().addClosedListener(key -> dir.close());
+    } finally {
+      manager.release(searcher);
+    }
+    manager.close();
+  }
+
+  @Override public synchronized void close() throws IOException {
+    closed = true;
+    if (options.cache() != null) {
+      options.cache().invalidate(this);
+    }
+    if (searcherManager != null) {
+      try {
+        // Queries that are still running keep using their searchers
+        closeWhenUnused(searcherManager, directory);
+      } finally {
+        searcherManager = null;
+        directory = null;
+      }
+    }
+  }
+
+  /**
+   * The {@link Directory} implementation used to access the index files.
+   */
+  public enum DirectoryType {
+    /**
+     * Lets Lucene pick the implementation for the current platform (see
+     * {@link FSDirectory#open(Path)}).
+     */
+    DEFAULT,
+    /**
+     * Memory-maps the index files (see {@link MMapDirectory}); the files are optionally preloaded
+     * in physical memory when they are opened (see {@link Options#withPreload(boolean)}).
+     */
+    MMAP,
+    /**
+     * Reads the index files with positional reads on a file channel (see {@link NIOFSDirectory}).
+     */
+    NIOFS,
+    /**
+     * Copies the files of the latest commit in the heap (see {@link ByteBuffersDirectory}).
+     *
+     * Suitable only for small tables. The copy is taken again as soon as a new commit is made to
+     * the index.
+     */
+    RAM
+  }
+
+  /**
+   * Options controlling how the data of a table are accessed.
+   *
+   * The class is immutable; use the {@code with} methods to derive new options.
+   */
+  public static final class Options {
+    /**
+     * Options reading the table sequentially through the default directory without warmup.
+     */
+    public static final Options DEFAULT =
+        new Options(null, DirectoryType.DEFAULT, false, false, null);
+
+    private final Executor scanExecutor;
+    private final DirectoryType directoryType;
+    private final boolean preload;
+    private final boolean warmup;
+    private final LuceneTableCache cache;
+
+    private Options(Executor scanExecutor, DirectoryType directoryType, boolean preload,
+        boolean warmup, LuceneTableCache cache) {
+      this.scanExecutor = scanExecutor;
+      this.directoryType = directoryType;
+      this.preload = preload;
+      this.warmup = warmup;
+      this.cache = cache;
+    }
+
+    /**
+     * Returns the executor used to scan the segments of the index in parallel; null if scans are
+     * sequential.
+     */
+    public Executor scanExecutor() {
+      return scanExecutor;
+    }
+
+    /**
+     * Returns options with the specified executor for scanning the segments of the index in
+     * parallel; null for sequential scans.
+     */
+    public Options withScanExecutor(Executor executor) {
+      return new Options(executor, directoryType, preload, warmup, cache);
+    }
+
+    /**
+     * Returns the directory implementation used to access the index files.
+     */
+    public DirectoryType directoryType() {
+      return directoryType;
+    }
+
+    /**
+     * Returns options with the specified directory implementation.
+     */
+    public Options withDirectoryType(DirectoryType type) {
+      return new Options(scanExecutor, type, preload, warmup, cache);
+    }
+
+    /**
+     * Returns whether memory-mapped files are loaded in physical memory when they are opened.
+     */
+    public boolean preload() {
+      return preload;
+    }
+
+    /**
+     * Returns options which (do not) preload memory-mapped files; applies only to
+     * {@link DirectoryType#MMAP} tables.
+     */
+    public Options withPreload(boolean preload) {
+      return new Options(scanExecutor, directoryType, preload, warmup, cache);
+    }
+
+    /**
+     * Returns whether the table is warmed up when the schema containing it is loaded.
+     */
+    public boolean warmup() {
+      return warmup;
+    }
+
+    /**
+     * Returns options which (do not) warm up the table when the schema is loaded.
+     *
+     * @see LuceneTable#warmup()
+     */
+    public Options withWarmup(boolean warmup) {
+      return new Options(scanExecutor, directoryType, preload, warmup, cache);
+    }
+
+    /**
+     * Returns the cache keeping decoded copies of the columns of the table; null if scans always
+     * read the values from the index.
+     */
+    public LuceneTableCache cache() {
+      return cache;
+    }
+
+    /**
+     * Returns options with the specified cache for the columns of the table; null to disable
+     * caching.
+     */
+    public Options withCache(LuceneTableCache cache) {
+      return new Options(scanExecutor, directoryType, preload, warmup, cache);
+    }
+  }
 }
@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+
+import com.github.zabetak.calcite.tutorial.LuceneBatch.ColumnVector;
+import com.github.zabetak.calcite.tutorial.LuceneBatch.DoubleVector;
+import com.github.zabetak.calcite.tutorial.LuceneBatch.IntVector;
+import com.github.zabetak.calcite.tutorial.LuceneBatch.StringVector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Cache keeping decoded copies of the columns of {@link LuceneTable}s off-heap.
+ *
+ * Each column of a table is cached separately, the first time it is scanned, as a direct
+ * {@link ByteBuffer} with one fixed-size slot per document of the index: an int for integers and
+ * dates, a double for doubles, and a dictionary ordinal for strings (the dictionary is stored in
+ * direct buffers as well). Scans over cached columns still obtain the matching documents from the
+ * index but read the values from the cache instead of decoding doc values or stored fields.
+ *
+ * A cache can be shared by many tables (see {@link LuceneTable.Options#withCache}) and the total
+ * size of the cached columns is bounded by a global byte budget; when the budget is exceeded the
+ * least recently used columns are evicted. The columns of a table are specific to a commit of its
+ * index and are dropped as soon as a scan sees a new commit.
+ *
+ * The cache is thread-safe.
+ */
+public final class LuceneTableCache {
+  private final long maxBytes;
+  private final LinkedHashMap<Key, CachedColumn> columns = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  /**
+   * Creates a cache holding at most the specified number of bytes.
+   */
+  public LuceneTableCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the maximum number of bytes held by the cache.
+   */
+  public long maxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Returns the number of bytes currently held by the cache.
+   */
+  public synchronized long sizeInBytes() {
+    return bytes;
+  }
+
+  /**
+   * Returns the number of column lookups that found the column in the cache.
+   */
+  public synchronized long hitCount() {
+    return hits;
+  }
+
+  /**
+   * Returns the number of column lookups that had to read the column from the index.
+   */
+  public synchronized long missCount() {
+    return misses;
+  }
+
+  /**
+   * Returns the number of columns evicted to stay within the byte budget.
+   */
+  public synchronized long evictionCount() {
+    return evictions;
+  }
+
+  /**
+   * Drops all the cached columns of the specified table.
+   */
+  public synchronized void invalidate(LuceneTable table) {
+    removeIf(k -> k.table == table);
+  }
+
+  @Override public synchronized String toString() {
+    return "LuceneTableCache(bytes=" + bytes + "/" + maxBytes + ", columns=" + columns.size()
+        + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ")";
+  }
+
+  /**
+   * Returns the cached columns of the specified table for the commit seen by the reader, loading
+   * the missing ones from the reader, or null if the columns cannot be cached.
+   */
+  CachedColumn[] columns(LuceneTable table, IndexReader reader, String[] fields,
+      SqlTypeName[] types) throws IOException {
+    long version = reader instanceof DirectoryReader ? ((DirectoryReader) reader).getVersion() : -1;
+    CachedColumn[] result = new CachedColumn[fields.length];
+    List<Integer> missing = new ArrayList<>();
+    long missingBytes = 0;
+    synchronized (this) {
+      // Columns of older commits are never going to be used again
+      removeIf(k -> k.table == table && k.version != version);
+      for (int i = 0; i < fields.length; i++) {
+        result[i] = columns.get(new Key(table, version, fields[i], types[i]));
+        if (result[i] == null) {
+          missing.add(i);
+          missingBytes += CachedColumn.slotSize(types[i]) * (long) reader.maxDoc();
+        }
+      }
+      if (missingBytes > maxBytes) {
+        // The columns are not going to fit no matter what is evicted so scan the index
+        misses += missing.size();
+        return null;
+      }
+      hits += fields.length - missing.size();
+      misses += missing.size();
+    }
+    if (missing.isEmpty()) {
+      return result;
+    }
+    String[] loadFields = new String[missing.size()];
+    SqlTypeName[] loadTypes = new SqlTypeName[missing.size()];
+    for (int i = 0; i < missing.size(); i++) {
+      loadFields[i] = fields[missing.get(i)];
+      loadTypes[i] = types[missing.get(i)];
+    }
+    CachedColumn[] loaded = CachedColumn.load(reader, loadFields, loadTypes);
+    synchronized (this) {
+      for (int i = 0; i < missing.size(); i++) {
+        int m = missing.get(i);
+        result[m] = loaded[i];
+        put(new Key(table, version, fields[m], types[m]), loaded[i]);
+      }
+    }
+    return result;
+  }
+
+  private void put(Key key, CachedColumn column) {
+    if (column.bytes() > maxBytes) {
+      return;
+    }
+    CachedColumn previous = columns.put(key, column);
+    if (previous != null) {
+      // Loaded concurrently by another scan
+      bytes -= previous.bytes();
+    }
+    bytes += column.bytes();
+    Iterator<Map.Entry<Key, CachedColumn>> lru = columns.entrySet().iterator();
+    while (bytes > maxBytes) {
+      bytes -= lru.next().getValue().bytes();
+      lru.remove();
+      evictions++;
+    }
+  }
+
+  private void removeIf(Predicate<Key> condition) {
+    Iterator<Map.Entry<Key, CachedColumn>> it = columns.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Key, CachedColumn> e = it.next();
+      if (condition.test(e.getKey())) {
+        bytes -= e.getValue().bytes();
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Identifies a column of a table at a specific commit.
+   */
+  private static final class Key {
+    private final LuceneTable table;
+    private final long version;
+    private final String field;
+    private final SqlTypeName type;
+
+    Key(LuceneTable table, long version, String field, SqlTypeName type) {
+      this.table = table;
+      this.version = version;
+      this.field = field;
+      this.type = type;
+    }
+
+    @Override public boolean equals(final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return table == key.table && version == key.version && field.equals(key.field)
+          && type == key.type;
+    }
+
+    @Override public int hashCode() {
+      return Objects.hash(System.identityHashCode(table), version, field, type);
+    }
+  }
+
+  /**
+   * The values of one column for every document of an index, stored in direct buffers.
+   */
+  static final class CachedColumn {
+    private final ByteBuffer values;
+    /**
+     * Bitmap with the documents without value; null if all documents have a value.
+     */
+    private final ByteBuffer nulls;
+    /**
+     * The offset of each string of the dictionary in {@link #dictionary}, followed by the end of
+     * the last string; null for non-string columns.
+     */
+    private final ByteBuffer offsets;
+    private final ByteBuffer dictionary;
+
+    private CachedColumn(ByteBuffer values, ByteBuffer nulls, ByteBuffer offsets,
+        ByteBuffer dictionary) {
+      this.values = values;
+      this.nulls = nulls;
+      this.offsets = offsets;
+      this.dictionary = dictionary;
+    }
+
+    static int slotSize(SqlTypeName type) {
+      return ColumnVector.of(type, 0) instanceof DoubleVector ? Double.BYTES : Integer.BYTES;
+    }
+
+    long bytes() {
+      return values.capacity() + capacity(nulls) + capacity(offsets) + capacity(dictionary);
+    }
+
+    private static long capacity(ByteBuffer buffer) {
+      return buffer == null ? 0 : buffer.capacity();
+    }
+
+    /**
+     * Fills the vector with the values of the specified (top-level) documents.
+     */
+    void fill(ColumnVector vector, int[] docs, int count) {
+      if (vector instanceof IntVector) {
+        int[] v = ((IntVector) vector).values;
+        for (int j = 0; j < count; j++) {
+          v[j] = values.getInt(docs[j] * Integer.BYTES);
+        }
+      } else if (vector instanceof DoubleVector) {
+        double[] v = ((DoubleVector) vector).values;
+        for (int j = 0; j < count; j++) {
+          v[j] = values.getDouble(docs[j] * Double.BYTES);
+        }
+      } else {
+        StringVector strings = (StringVector) vector;
+        int[] v = strings.ordinals;
+        for (int j = 0; j < count; j++) {
+          v[j] = values.getInt(docs[j] * Integer.BYTES);
+        }
+        strings.setDictionary(this::lookup);
+      }
+      if (nulls != null) {
+        for (int j = 0; j < count; j++) {
+          if ((nulls.get(docs[j] >>> 3) & (1 << (docs[j] & 7))) != 0) {
+            vector.setNull(j);
+          }
+        }
+      }
+    }
+
+    private String lookup(int ord) {
+      int start = offsets.getInt(ord * Integer.BYTES);
+      byte[] bytes = new byte[offsets.getInt((ord + 1) * Integer.BYTES) - start];
+      ByteBuffer view = dictionary.duplicate();
+      view.position(start);
+      view.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the specified columns for all the documents of the reader.
+     */
+    static CachedColumn[] load(IndexReader reader, String[] fields, SqlTypeName[] types)
+        throws IOException {
+      int maxDoc = reader.maxDoc();
+      ByteBuffer[] values = new ByteBuffer[fields.length];
+      BitSet[] nulls = new BitSet[fields.length];
+      List<Map<String, Integer>> dictionaries = new ArrayList<>();
+      for (int i = 0; i < fields.length; i++) {
+        values[i] = ByteBuffer.allocateDirect(slotSize(types[i]) * maxDoc);
+        nulls[i] = new BitSet(maxDoc);
+        // Deleted documents are never read so consider them null
+        nulls[i].set(0, maxDoc);
+        dictionaries.add(new LinkedHashMap<>());
+      }
+      LuceneHitIterator hits =
+          LuceneHitIterator.collector(new IndexSearcher(reader), new MatchAllDocsQuery(), 1024);
+      LuceneBatchReader batches = new LuceneBatchReader(reader, hits, fields, types, 1024);
+      for (LuceneBatch batch = batches.next(); batch != null; batch = batches.next()) {
+        for (int i = 0; i < fields.length; i++) {
+          ColumnVector column = batch.column(i);
+          for (int j = 0; j < batch.size(); j++) {
+            if (column.isNull(j)) {
+              continue;
+            }
+            int doc = batch.docId(j);
+            nulls[i].clear(doc);
+            if (column instanceof IntVector) {
+              values[i].putInt(doc * Integer.BYTES, ((IntVector) column).getInt(j));
+            } else if (column instanceof DoubleVector) {
+              values[i].putDouble(doc * Double.BYTES, ((DoubleVector) column).getDouble(j));
+            } else {
+              StringVector strings = (StringVector) column;
+              Map<String, Integer> dictionary = dictionaries.get(i);
+              String s = strings.lookup(strings.getOrdinal(j));
+              Integer ord = dictionary.get(s);
+              if (ord == null) {
+                ord = dictionary.size();
+                dictionary.put(s, ord);
+              }
+              values[i].putInt(doc * Integer.BYTES, ord);
+            }
+          }
+        }
+      }
+      CachedColumn[] result = new CachedColumn[fields.length];
+      for (int i = 0; i < fields.length; i++) {
+        ByteBuffer nullBitmap = null;
+        if (!nulls[i].isEmpty()) {
+          byte[] bits = nulls[i].toByteArray();
+          nullBitmap = ByteBuffer.allocateDirect((maxDoc + 7) / 8);
+          nullBitmap.put(bits).clear();
+        }
+        ByteBuffer offsets = null;
+        ByteBuffer dictionary = null;
+        if (ColumnVector.of(types[i], 0) instanceof StringVector) {
+          Map<String, Integer> strings = dictionaries.get(i);
+          offsets = ByteBuffer.allocateDirect((strings.size() + 1) * Integer.BYTES);
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          for (String s : strings.keySet()) {
+            offsets.putInt(out.size());
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            out.write(b, 0, b.length);
+          }
+          offsets.putInt(out.size()).clear();
+          dictionary = ByteBuffer.allocateDirect(out.size());
+          dictionary.put(out.toByteArray()).clear();
+        }
+        result[i] = new CachedColumn(values[i], nullBitmap, offsets, dictionary);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Returns the number of entries per table; mainly useful for testing.
+   */
+  synchronized Map<LuceneTable, Integer> columnsPerTable() {
+    Map<LuceneTable, Integer> counts = new HashMap<>();
+    for (Key k : columns.keySet()) {
+      counts.merge(k.table, 1, Integer::sum);
+    }
+    return counts;
+  }
+}
@@ -0,0 +1,479 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.metadata;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReader.CacheHelper;
+import org.apache.lucene.index.IndexReader.CacheKey;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.index.PrefixCodedTerms;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.DocValuesFieldExistsQuery;
+import org.apache.lucene.search.IndexOrDocValuesQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.PointInSetQuery;
+import org.apache.lucene.search.PointRangeQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FutureArrays;
+
+import com.github.zabetak.calcite.tutorial.LuceneDynamicParamQuery;
+import com.github.zabetak.calcite.tutorial.LuceneTable;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Estimates the number of documents matching a Lucene query, and the work needed to find them,
+ * from the structures of the index without running the query.
+ *
+ * <ul>
+ *   <li>Term queries use the document frequencies of their terms; queries expanding to many
+ *   terms (e.g., prefix queries) sum the frequencies of the terms they expand to.</li>
+ *   <li>Point range and point set queries use {@link PointValues#estimatePointCount}; small
+ *   segments are counted exactly since the estimates are coarse below the size of a leaf of the
+ *   points tree and counting is cheap there.</li>
+ *   <li>Comparisons with dynamic parameters ({@link LuceneDynamicParamQuery}) use the
+ *   selectivity estimated when they were translated.</li>
+ *   <li>Boolean queries combine the selectivities of their clauses assuming that they are
+ *   independent.</li>
+ * </ul>
+ *
+ * Besides the number of matching documents (hits), an estimate reports the number of terms,
+ * points, or ranges that must be looked up in the index and the number of postings visited to
+ * produce the hits, which make up the cost of the query.
+ *
+ * The planner asks for the estimate of the same query many times, so the estimates over a table
+ * are memoized per commit of its index until the reader of the commit is closed. Queries
+ * expanding to many terms stop after {@value #MAX_EXPANDED_TERMS} terms per segment and
+ * extrapolate the rest.
+ */
+public final class LuceneQueryEstimator {
+  /**
+   * The maximum number of points of a segment for which the matching points are counted exactly.
+   */
+  private static final long EXACT_POINT_COUNT = 16 * 1024;
+  /**
+   * The maximum number of terms of a segment that a query is expanded to.
+   */
+  private static final int MAX_EXPANDED_TERMS = 1024;
+  /**
+   * The maximum number of estimates memoized per commit.
+   */
+  private static final int MAX_MEMOIZED_ESTIMATES = 256;
+  /**
+   * The memoized estimates of the queries over each commit, least recently used first, by the
+   * cache key of the reader of the commit.
+   */
+  private static final Map<CacheKey, LinkedHashMap<Query, Estimate>> ESTIMATES = new HashMap<>();
+
+  private LuceneQueryEstimator() {
+  }
+
+  /**
+   * Estimates the specified query over the latest commit of the specified table; returns null if
+   * the index cannot be read or the query is not supported.
+   *
+   * The estimate is computed once per commit.
+   */
+  public static @Nullable Estimate estimate(LuceneTable table, Query query) {
+    try {
+      IndexSearcher searcher = table.acquireSearcher();
+      try {
+        IndexReader reader = searcher.getIndexReader();
+        CacheHelper helper = reader.getReaderCacheHelper();
+        if (helper == null) {
+          return estimate(reader, query);
+        }
+        Estimate estimate = memoized(helper, query);
+        if (estimate == null) {
+          estimate = estimate(reader, query);
+          if (estimate != null) {
+            memoize(helper, query, estimate);
+          }
+        }
+        return estimate;
+      } finally {
+        table.releaseSearcher(searcher);
+      }
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static @Nullable Estimate memoized(CacheHelper helper, Query query) {
+    synchronized (ESTIMATES) {
+      Map<Query, Estimate> estimates = ESTIMATES.get(helper.getKey());
+      return estimates == null ? null : estimates.get(query);
+    }
+  }
+
+  private static void memoize(CacheHelper helper, Query query, Estimate estimate) {
+    synchronized (ESTIMATES) {
+      LinkedHashMap<Query, Estimate> estimates = ESTIMATES.get(helper.getKey());
+      if (estimates == null) {
+        estimates = new LinkedHashMap<>(16, 0.75f, true);
+        ESTIMATES.put(helper.getKey(), estimates);
+        // The estimates are dropped with the commit, which is never read again
+        helper.addClosedListener(key -> {
+          synchronized (ESTIMATES) {
+            ESTIMATES.remove(key);
+          }
+        });
+      }
+      estimates.put(query, estimate);
+      if (estimates.size() > MAX_MEMOIZED_ESTIMATES) {
+        estimates.remove(estimates.keySet().iterator().next());
+      }
+    }
+  }
+
+  /**
+   * Estimates the specified query over the specified index; returns null if the query is not
+   * supported.
+   */
+  public static @Nullable Estimate estimate(IndexReader reader, Query query) throws IOException {
+    int numDocs = reader.numDocs();
+    if (query instanceof IndexOrDocValuesQuery) {
+      // Lucene only falls back to doc values when another clause leads the iteration
+      return estimate(reader, ((IndexOrDocValuesQuery) query).getIndexQuery());
+    }
+    if (query instanceof ConstantScoreQuery) {
+      return estimate(reader, ((ConstantScoreQuery) query).getQuery());
+    }
+    if (query instanceof BoostQuery) {
+      return estimate(reader, ((BoostQuery) query).getQuery());
+    }
+    if (query instanceof MatchAllDocsQuery) {
+      return new Estimate(numDocs, numDocs, 0, numDocs);
+    }
+    if (query instanceof MatchNoDocsQuery) {
+      return new Estimate(numDocs, 0, 0, 0);
+    }
+    if (query instanceof TermQuery) {
+      int df = reader.docFreq(((TermQuery) query).getTerm());
+      return new Estimate(numDocs, df, 1, df);
+    }
+    if (query instanceof TermInSetQuery) {
+      PrefixCodedTerms.TermIterator it = ((TermInSetQuery) query).getTermData().iterator();
+      long hits = 0;
+      int terms = 0;
+      for (BytesRef t = it.next(); t != null; t = it.next()) {
+        hits += reader.docFreq(new Term(it.field(), t));
+        terms++;
+      }
+      return new Estimate(numDocs, hits, terms, hits);
+    }
+    if (query instanceof TermRangeQuery && ((TermRangeQuery) query).getLowerTerm() == null
+        && ((TermRangeQuery) query).getUpperTerm() == null) {
+      // Documents having any term; the query itself goes over all the terms
+      String field = ((TermRangeQuery) query).getField();
+      long hits = 0;
+      long terms = 0;
+      for (LeafReaderContext leaf : reader.leaves()) {
+        Terms t = leaf.reader().terms(field);
+        if (t != null) {
+          hits += t.getDocCount();
+          terms = Math.max(terms, t.size());
+        }
+      }
+      return new Estimate(numDocs, hits, terms, hits);
+    }
+    if (query instanceof MultiTermQuery) {
+      return expand(reader, (MultiTermQuery) query);
+    }
+    if (query instanceof PointRangeQuery) {
+      PointRangeQuery range = (PointRangeQuery) query;
+      long hits = countPoints(reader, range.getField(), range.getLowerPoint(),
+          range.getUpperPoint(), range.getBytesPerDim());
+      return new Estimate(numDocs, hits, 1, hits);
+    }
+    if (query instanceof PointInSetQuery) {
+      PointInSetQuery set = (PointInSetQuery) query;
+      long hits = 0;
+      int points = 0;
+      for (byte[] p : set.getPackedPoints()) {
+        hits += countPoints(reader, set.getField(), p, p, set.getBytesPerDim());
+        points++;
+      }
+      return new Estimate(numDocs, hits, points, hits);
+    }
+    if (query instanceof DocValuesFieldExistsQuery) {
+      String field = ((DocValuesFieldExistsQuery) query).getField();
+      long hits = 0;
+      for (LeafReaderContext leaf : reader.leaves()) {
+        DocIdSetIterator it =
+            DocValuesFieldExistsQuery.getDocValuesDocIdSetIterator(field, leaf.reader());
+        hits += it == null ? 0 : it.cost();
+      }
+      return new Estimate(numDocs, hits, 0, hits);
+    }
+    if (query instanceof LuceneDynamicParamQuery) {
+      // The value is unknown until the plan is executed
+      double hits = numDocs * ((LuceneDynamicParamQuery) query).selectivity();
+      return new Estimate(numDocs, hits, 1, hits);
+    }
+    if (query instanceof BooleanQuery) {
+      return combine(reader, (BooleanQuery) query);
+    }
+    return null;
+  }
+
+  private static Estimate expand(IndexReader reader, MultiTermQuery query) throws IOException {
+    long hits = 0;
+    long terms = 0;
+    for (LeafReaderContext leaf : reader.leaves()) {
+      Terms t = leaf.reader().terms(query.getField());
+      if (t == null) {
+        continue;
+      }
+      TermsEnum it = query.getTermsEnum(t);
+      long leafHits = 0;
+      long leafTerms = 0;
+      while (leafTerms < MAX_EXPANDED_TERMS && it.next() != null) {
+        leafHits += it.docFreq();
+        leafTerms++;
+      }
+      if (leafTerms == MAX_EXPANDED_TERMS && it.next() != null) {
+        // The rest of the terms are assumed to be as frequent as the ones seen so far
+        long total = termCount(leaf.reader(), query);
+        if (total > leafTerms) {
+          leafHits = leafHits * total / leafTerms;
+          leafTerms = total;
+        }
+      }
+      hits += leafHits;
+      terms = Math.max(terms, leafTerms);
+    }
+    // Finding the first term is a lookup even if there is no term to expand to
+    return new Estimate(reader.numDocs(), hits, Math.max(1, terms), hits);
+  }
+
+  /**
+   * Returns the number of terms of a segment that the specified query expands to, or -1 if the
+   * number cannot be found without going over the terms.
+   *
+   * The terms of a prefix query are a range of the sorted doc values of the field, whose bounds
+   * are found by binary search.
+   */
+  private static long termCount(LeafReader reader, MultiTermQuery query) throws IOException {
+    if (!(query instanceof PrefixQuery)) {
+      return -1;
+    }
+    SortedDocValues values = reader.getSortedDocValues(query.getField());
+    if (values == null) {
+      return -1;
+    }
+    BytesRef prefix = ((PrefixQuery) query).getPrefix().bytes();
+    // The smallest value greater than all the values with the prefix, if any
+    byte[] next = null;
+    for (int i = prefix.length - 1; i >= 0 && next == null; i--) {
+      if (prefix.bytes[prefix.offset + i] != (byte) 0xFF) {
+        next = new byte[i + 1];
+        System.arraycopy(prefix.bytes, prefix.offset, next, 0, i + 1);
+        next[i]++;
+      }
+    }
+    long from = ordinal(values.lookupTerm(prefix));
+    long to = next == null
+        ? values.getValueCount()
+        : ordinal(values.lookupTerm(new BytesRef(next)));
+    return to - from;
+  }
+
+  /**
+   * Returns the ordinal of the first value not less than the value searched by
+   * {@link SortedDocValues#lookupTerm(BytesRef)}, given the result of the search.
+   */
+  private static long ordinal(int lookup) {
+    return lookup >= 0 ? lookup : -lookup - 1;
+  }
+
+  private static @Nullable Estimate combine(IndexReader reader, BooleanQuery query)
+      throws IOException {
+    int numDocs = reader.numDocs();
+    double selectivity = 1;
+    double should = 1;
+    boolean required = false;
+    boolean optional = false;
+    double lookups = 0;
+    double visited = 0;
+    for (BooleanClause c : query.clauses()) {
+      Estimate e = estimate(reader, c.getQuery());
+      if (e == null) {
+        return null;
+      }
+      lookups += e.lookups();
+      visited += e.visited();
+      switch (c.getOccur()) {
+      case MUST:
+      case FILTER:
+        selectivity *= e.selectivity();
+        required = true;
+        break;
+      case MUST_NOT:
+        selectivity *= 1 - e.selectivity();
+        break;
+      case SHOULD:
+        should *= 1 - e.selectivity();
+        optional = true;
+        break;
+      default:
+        throw new AssertionError(c.getOccur());
+      }
+    }
+    if (optional && (!required || query.getMinimumNumberShouldMatch() > 0)) {
+      // Optional clauses restrict the result only when there are no required clauses
+      selectivity *= 1 - should;
+      required = true;
+    }
+    // Lucene does not match anything with negated clauses alone
+    return new Estimate(numDocs, required ? numDocs * selectivity : 0, lookups, visited);
+  }
+
+  /**
+   * Returns the (estimated) number of points of the specified field between the specified
+   * (inclusive) packed values.
+   */
+  private static long countPoints(IndexReader reader, String field, byte[] lower, byte[] upper,
+      int bytesPerDim) throws IOException {
+    long count = 0;
+    for (LeafReaderContext leaf : reader.leaves()) {
+      LeafReader r = leaf.reader();
+      PointValues values = r.getPointValues(field);
+      if (values == null) {
+        continue;
+      }
+      RangeVisitor visitor = new RangeVisitor(lower, upper, bytesPerDim);
+      if (values.size() <= EXACT_POINT_COUNT) {
+        values.intersect(visitor);
+        count += visitor.count;
+      } else {
+        count += values.estimatePointCount(visitor);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Visitor counting the points between two (inclusive) packed values.
+   */
+  private static final class RangeVisitor implements PointValues.IntersectVisitor {
+    private final byte[] lower;
+    private final byte[] upper;
+    private final int bytesPerDim;
+    private long count;
+
+    RangeVisitor(byte[] lower, byte[] upper, int bytesPerDim) {
+      this.lower = lower;
+      this.upper = upper;
+      this.bytesPerDim = bytesPerDim;
+    }
+
+    @Override public void visit(int docID) {
+      count++;
+    }
+
+    @Override public void visit(int docID, byte[] packedValue) {
+      if (compareValues(packedValue, lower) >= 0 && compareValues(packedValue, upper) <= 0) {
+        count++;
+      }
+    }
+
+    @Override public PointValues.Relation compare(byte[] minPackedValue,
+        byte[] maxPackedValue) {
+      if (compareValues(minPackedValue, upper) > 0 || compareValues(maxPackedValue, lower) < 0) {
+        return PointValues.Relation.CELL_OUTSIDE_QUERY;
+      }
+      if (compareValues(minPackedValue, lower) >= 0 && compareValues(maxPackedValue, upper) <= 0) {
+        return PointValues.Relation.CELL_INSIDE_QUERY;
+      }
+      return PointValues.Relation.CELL_CROSSES_QUERY;
+    }
+
+    private int compareValues(byte[] a, byte[] b) {
+      // The queries of the translator are over one dimension
+      return FutureArrays.compareUnsigned(a, 0, bytesPerDim, b, 0, bytesPerDim);
+    }
+  }
+
+  /**
+   * The estimate of a query.
+   */
+  public static final class Estimate {
+    private final int numDocs;
+    private final double hits;
+    private final double lookups;
+    private final double visited;
+
+    Estimate(int numDocs, double hits, double lookups, double visited) {
+      this.numDocs = numDocs;
+      this.hits = Math.min(hits, numDocs);
+      this.lookups = lookups;
+      this.visited = visited;
+    }
+
+    /**
+     * Returns the number of documents matching the query.
+     */
+    public double hits() {
+      return hits;
+    }
+
+    /**
+     * Returns the fraction of the documents of the index that match the query.
+     */
+    public double selectivity() {
+      return numDocs == 0 ? 0 : hits / numDocs;
+    }
+
+    /**
+     * Returns the number of terms, points, or ranges that are looked up in the index.
+     */
+    public double lookups() {
+      return lookups;
+    }
+
+    /**
+     * Returns the number of postings (document ids) visited to produce the hits.
+     */
+    public double visited() {
+      return visited;
+    }
+  }
+}
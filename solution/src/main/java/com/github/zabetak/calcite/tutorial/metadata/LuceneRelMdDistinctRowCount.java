@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.metadata;
+
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.ReflectiveRelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMdDistinctRowCount;
+import org.apache.calcite.rel.metadata.RelMdUtil;
+import org.apache.calcite.rel.metadata.RelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.util.BuiltInMethod;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import com.github.zabetak.calcite.tutorial.LuceneStatistics;
+import com.github.zabetak.calcite.tutorial.LuceneTable;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.List;
+
+/**
+ * Estimates the number of distinct values of the columns of Lucene tables from the statistics of
+ * the index (see {@link LuceneStatistics}).
+ *
+ * Calcite otherwise knows the number of distinct values only for the keys of a table, and
+ * guesses it, for instance, when estimating the number of groups of an aggregate.
+ */
+public final class LuceneRelMdDistinctRowCount extends RelMdDistinctRowCount {
+  public static final RelMetadataProvider SOURCE =
+      ReflectiveRelMetadataProvider.reflectiveSource(
+          BuiltInMethod.DISTINCT_ROW_COUNT.method, new LuceneRelMdDistinctRowCount());
+
+  private LuceneRelMdDistinctRowCount() {
+  }
+
+  /**
+   * Returns the number of distinct values of the specified columns of a scan over a
+   * {@link LuceneTable}, assuming that the columns are independent.
+   */
+  public @Nullable Double getDistinctRowCount(TableScan scan, RelMetadataQuery mq,
+      ImmutableBitSet groupKey, @Nullable RexNode predicate) {
+    LuceneTable table = scan.getTable().unwrap(LuceneTable.class);
+    LuceneStatistics stats = table == null ? null : table.statistics();
+    if (stats == null || groupKey.isEmpty()
+        || RelMdUtil.areColumnsDefinitelyUnique(mq, scan, groupKey)) {
+      return super.getDistinctRowCount(scan, mq, groupKey, predicate);
+    }
+    List<String> names = scan.getRowType().getFieldNames();
+    double distinct = 1;
+    for (int i : groupKey) {
+      LuceneStatistics.ColumnStatistics column = stats.column(names.get(i));
+      if (column == null || column.distinctCount() == null) {
+        return super.getDistinctRowCount(scan, mq, groupKey, predicate);
+      }
+      // Nulls form a group of their own
+      distinct *= column.distinctCount() + (column.nullCount() > 0 ? 1 : 0);
+    }
+    double rowCount = mq.getRowCount(scan);
+    Double selectivity = mq.getSelectivity(scan, predicate);
+    return RelMdUtil.numDistinctVals(Math.min(distinct, rowCount),
+        rowCount * (selectivity == null ? 1 : selectivity));
+  }
+}
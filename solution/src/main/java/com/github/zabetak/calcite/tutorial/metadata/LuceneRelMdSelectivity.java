@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.metadata;
+
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.volcano.RelSubset;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.ReflectiveRelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMdSelectivity;
+import org.apache.calcite.rel.metadata.RelMdUtil;
+import org.apache.calcite.rel.metadata.RelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexUnknownAs;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.util.BuiltInMethod;
+import org.apache.calcite.util.DateString;
+import org.apache.calcite.util.Sarg;
+import org.apache.lucene.search.Query;
+
+import com.github.zabetak.calcite.tutorial.LuceneStatistics;
+import com.github.zabetak.calcite.tutorial.LuceneTable;
+import com.github.zabetak.calcite.tutorial.operators.RexToLuceneTranslator;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Estimates the selectivity of predicates over Lucene tables by translating them to Lucene
+ * queries and estimating the documents that match in the index (see
+ * {@link LuceneQueryEstimator}).
+ *
+ * The filters over a scan, in Lucene or enumerable convention, estimate their row count with the
+ * selectivity of their condition over their input, which is pushed down to the scan through
+ * projections, so all the alternatives of a filter get the same estimate.
+ *
+ * Comparisons and searches of numeric and date columns with literals are estimated from the
+ * histograms stored with the index (see {@link LuceneStatistics}) without searching it; other
+ * conjuncts are estimated together by searching the index. Conjuncts that cannot be translated
+ * are guessed as Calcite otherwise does.
+ */
+public final class LuceneRelMdSelectivity extends RelMdSelectivity {
+  public static final RelMetadataProvider SOURCE =
+      ReflectiveRelMetadataProvider.reflectiveSource(
+          BuiltInMethod.SELECTIVITY.method, new LuceneRelMdSelectivity());
+
+  private LuceneRelMdSelectivity() {
+  }
+
+  /**
+   * Returns the selectivity of the specified predicate over the best (or original) expression of
+   * the set, which Calcite does not do by itself.
+   */
+  public @Nullable Double getSelectivity(RelSubset subset, RelMetadataQuery mq,
+      @Nullable RexNode predicate) {
+    return mq.getSelectivity(subset.getBestOrOriginal(), predicate);
+  }
+
+  /**
+   * Returns the selectivity of the specified predicate over a scan of a {@link LuceneTable}.
+   */
+  public @Nullable Double getSelectivity(TableScan scan, RelMetadataQuery mq,
+      @Nullable RexNode predicate) {
+    LuceneTable table = scan.getTable().unwrap(LuceneTable.class);
+    if (table == null || predicate == null || predicate.isAlwaysTrue()) {
+      return super.getSelectivity(scan, mq, predicate);
+    }
+    LuceneStatistics stats = table.statistics();
+    double selectivity = 1;
+    boolean estimated = false;
+    List<RexNode> translatable = new ArrayList<>();
+    List<RexNode> rest = new ArrayList<>();
+    for (RexNode c : RelOptUtil.conjunctions(predicate)) {
+      Double s = stats == null ? null : histogramSelectivity(scan, stats, c);
+      if (s != null) {
+        selectivity *= s;
+        estimated = true;
+      } else {
+        (RexToLuceneTranslator.translate(scan, c) != null ? translatable : rest).add(c);
+      }
+    }
+    RexBuilder builder = scan.getCluster().getRexBuilder();
+    Query query = translatable.isEmpty() ? null
+        : RexToLuceneTranslator.translate(scan, RexUtil.composeConjunction(builder, translatable));
+    LuceneQueryEstimator.Estimate estimate =
+        query == null ? null : LuceneQueryEstimator.estimate(table, query);
+    if (estimate != null) {
+      selectivity *= estimate.selectivity();
+      estimated = true;
+    } else {
+      rest.addAll(translatable);
+    }
+    if (!estimated) {
+      return super.getSelectivity(scan, mq, predicate);
+    }
+    return selectivity * RelMdUtil.guessSelectivity(RexUtil.composeConjunction(builder, rest));
+  }
+
+  /**
+   * Returns the selectivity of a comparison or search of a numeric or date column with literals
+   * estimated from the histogram of the column, or null if the condition is not such a range or
+   * the column has no histogram.
+   */
+  private static @Nullable Double histogramSelectivity(TableScan scan, LuceneStatistics stats,
+      RexNode condition) {
+    if (!(condition instanceof RexCall) || ((RexCall) condition).getOperands().size() != 2) {
+      return null;
+    }
+    RexCall call = (RexCall) condition;
+    SqlKind kind = call.getKind();
+    RexNode column = call.getOperands().get(0);
+    RexNode literal = call.getOperands().get(1);
+    if (column instanceof RexLiteral && kind != SqlKind.SEARCH) {
+      kind = kind.reverse();
+      column = call.getOperands().get(1);
+      literal = call.getOperands().get(0);
+    }
+    if (!(column instanceof RexInputRef) || !(literal instanceof RexLiteral)) {
+      return null;
+    }
+    RelDataTypeField field =
+        scan.getRowType().getFieldList().get(((RexInputRef) column).getIndex());
+    LuceneStatistics.ColumnStatistics columnStats = stats.column(field.getName());
+    if (columnStats == null || columnStats.histogram() == null || stats.rowCount() == 0) {
+      return null;
+    }
+    double nulls = (double) columnStats.nullCount() / stats.rowCount();
+    Comparable<?> value = kind == SqlKind.SEARCH ? null
+        : field.getType().getSqlTypeName() == SqlTypeName.DATE
+            ? ((RexLiteral) literal).getValueAs(DateString.class)
+            : ((RexLiteral) literal).getValueAs(BigDecimal.class);
+    if (value == null && kind != SqlKind.SEARCH) {
+      return null;
+    }
+    Double fraction;
+    switch (kind) {
+    case LESS_THAN:
+      fraction = fraction(field, columnStats, Range.lessThan(value));
+      break;
+    case LESS_THAN_OR_EQUAL:
+      fraction = fraction(field, columnStats, Range.atMost(value));
+      break;
+    case GREATER_THAN:
+      fraction = fraction(field, columnStats, Range.greaterThan(value));
+      break;
+    case GREATER_THAN_OR_EQUAL:
+      fraction = fraction(field, columnStats, Range.atLeast(value));
+      break;
+    case SEARCH:
+      Sarg<?> sarg = ((RexLiteral) literal).getValueAs(Sarg.class);
+      fraction = 0d;
+      for (Range<?> range : sarg.rangeSet.asRanges()) {
+        Double f = fraction(field, columnStats, range);
+        if (f == null) {
+          return null;
+        }
+        fraction += f;
+      }
+      if (sarg.nullAs == RexUnknownAs.TRUE) {
+        return (1 - nulls) * Math.min(1, fraction) + nulls;
+      }
+      break;
+    default:
+      return null;
+    }
+    return fraction == null ? null : (1 - nulls) * Math.min(1, fraction);
+  }
+
+  /**
+   * Returns the estimated fraction of the non-null values of a column that are in the specified
+   * range, or null if it cannot be estimated.
+   */
+  private static @Nullable Double fraction(RelDataTypeField field,
+      LuceneStatistics.ColumnStatistics column, Range<?> range) {
+    Double lower = range.hasLowerBound() ? toDouble(range.lowerEndpoint())
+        : Double.valueOf(Double.NEGATIVE_INFINITY);
+    Double upper = range.hasUpperBound() ? toDouble(range.upperEndpoint())
+        : Double.valueOf(Double.POSITIVE_INFINITY);
+    if (lower == null || upper == null) {
+      return null;
+    }
+    if (field.getType().getSqlTypeName() == SqlTypeName.DOUBLE && lower.equals(upper)) {
+      // A point has no width in a continuous histogram
+      Double distinct = column.distinctCount();
+      return distinct == null || distinct == 0 ? null : 1 / distinct;
+    }
+    return column.histogram().fraction(lower,
+        range.hasLowerBound() && range.lowerBoundType() == BoundType.CLOSED, upper,
+        range.hasUpperBound() && range.upperBoundType() == BoundType.CLOSED);
+  }
+
+  private static @Nullable Double toDouble(@Nullable Object value) {
+    if (value instanceof BigDecimal) {
+      return ((BigDecimal) value).doubleValue();
+    }
+    if (value instanceof DateString) {
+      return (double) ((DateString) value).getDaysSinceEpoch();
+    }
+    return null;
+  }
+}
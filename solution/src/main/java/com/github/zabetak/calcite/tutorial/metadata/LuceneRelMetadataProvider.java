@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.metadata;
+
+import org.apache.calcite.rel.metadata.ChainedRelMetadataProvider;
+import org.apache.calcite.rel.metadata.DefaultRelMetadataProvider;
+import org.apache.calcite.rel.metadata.RelMetadataProvider;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Metadata provider combining the handlers specific to Lucene operators and tables with the
+ * default handlers of Calcite.
+ */
+public final class LuceneRelMetadataProvider {
+  /**
+   * The provider; a single instance is used so that the handlers are compiled only once.
+   */
+  public static final RelMetadataProvider INSTANCE = ChainedRelMetadataProvider.of(
+      ImmutableList.of(
+          LuceneRelMdDistinctRowCount.SOURCE,
+          LuceneRelMdSelectivity.SOURCE,
+          DefaultRelMetadataProvider.INSTANCE));
+
+  private LuceneRelMetadataProvider() {
+  }
+}
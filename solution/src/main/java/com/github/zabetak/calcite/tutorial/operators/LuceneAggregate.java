@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.operators;
+
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import com.github.zabetak.calcite.tutorial.LuceneAggregation;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Implementation of {@link Aggregate} in {@link LuceneRel#LUCENE} convention.
+ *
+ * The expression computes the aggregate calls for every group of hits while the index is
+ * searched. The group keys and arguments are read from doc values, segment by segment, into
+ * primitive hash tables so the hits are never materialized as rows; only one row per group is
+ * returned to Calcite.
+ *
+ * The expression supports a single grouping set and the {@code COUNT}, {@code SUM},
+ * {@code MIN}, and {@code MAX} functions over numeric columns (see
+ * {@link #toFunction(AggregateCall)}).
+ */
+public final class LuceneAggregate extends Aggregate implements LuceneRel {
+  public LuceneAggregate(RelOptCluster cluster, RelNode input, ImmutableBitSet groupSet,
+      List<AggregateCall> aggCalls) {
+    super(cluster, cluster.traitSetOf(LUCENE), Collections.emptyList(), input, groupSet, null,
+        aggCalls);
+  }
+
+  @Override public Aggregate copy(RelTraitSet traitSet, RelNode input, ImmutableBitSet groupSet,
+      @Nullable List<ImmutableBitSet> groupSets, List<AggregateCall> aggCalls) {
+    return new LuceneAggregate(getCluster(), input, groupSet, aggCalls);
+  }
+
+  @Override public @Nullable RelOptCost computeSelfCost(RelOptPlanner planner,
+      RelMetadataQuery mq) {
+    // The groups are computed over doc values without converting the input to rows
+    return super.computeSelfCost(planner, mq).multiplyBy(0.1);
+  }
+
+  @Override public Result implement() {
+    Result r = ((LuceneRel) getInput()).implement();
+    if (r.isLimited() || r.isAggregated()) {
+      throw new IllegalStateException("Aggregates cannot be applied after a limit or an aggregate"
+          + " in Lucene");
+    }
+    LinkedHashMap<String, SqlTypeName> columns = new LinkedHashMap<>();
+    List<String> names = new ArrayList<>();
+    int[] groups = new int[getGroupCount()];
+    int i = 0;
+    for (int key : getGroupSet()) {
+      groups[i++] = column(r, key, columns, names);
+    }
+    List<LuceneAggregation.Call> calls = new ArrayList<>();
+    for (AggregateCall call : getAggCallList()) {
+      int column = call.getArgList().isEmpty() ? -1 : column(r, call.getArgList().get(0), columns,
+          names);
+      calls.add(
+          new LuceneAggregation.Call(toFunction(call), column, call.getType().getSqlTypeName()));
+    }
+    return new Result(r.table, r.query, getRowType().getFieldNames(), null, 0, -1,
+        new LuceneAggregation(columns, groups, calls));
+  }
+
+  /**
+   * Returns the position of the specified input field in the columns read by the aggregation,
+   * adding it if needed.
+   */
+  private int column(Result r, int field, LinkedHashMap<String, SqlTypeName> columns,
+      List<String> names) {
+    String name = r.fields.get(field);
+    if (!columns.containsKey(name)) {
+      columns.put(name, getInput().getRowType().getFieldList().get(field).getType()
+          .getSqlTypeName());
+      names.add(name);
+    }
+    return names.indexOf(name);
+  }
+
+  /**
+   * Returns the function computing the specified call over an index, or null if the call cannot
+   * be computed in Lucene.
+   *
+   * Distinct, filtered, and ordered calls are not supported.
+   */
+  public static LuceneAggregation.@Nullable Function toFunction(AggregateCall call) {
+    if (call.isDistinct() || call.filterArg >= 0 || !call.getCollation().getFieldCollations()
+        .isEmpty() || call.getArgList().size() > 1) {
+      return null;
+    }
+    switch (call.getAggregation().getKind()) {
+    case COUNT:
+      return LuceneAggregation.Function.COUNT;
+    case SUM:
+      return call.getArgList().isEmpty() ? null : LuceneAggregation.Function.SUM;
+    case MIN:
+      return call.getArgList().isEmpty() ? null : LuceneAggregation.Function.MIN;
+    case MAX:
+      return call.getArgList().isEmpty() ? null : LuceneAggregation.Function.MAX;
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * Returns whether values of the specified type can be used as group keys.
+   */
+  public static boolean isGroupable(SqlTypeName type) {
+    return isNumeric(type) || type == SqlTypeName.CHAR || type == SqlTypeName.VARCHAR;
+  }
+
+  /**
+   * Returns whether values of the specified type can be aggregated (or be the result of an
+   * aggregate call).
+   */
+  public static boolean isNumeric(SqlTypeName type) {
+    switch (type) {
+    case TINYINT:
+    case SMALLINT:
+    case INTEGER:
+    case BIGINT:
+    case DATE:
+    case DOUBLE:
+      return true;
+    default:
+      return false;
+    }
+  }
+}
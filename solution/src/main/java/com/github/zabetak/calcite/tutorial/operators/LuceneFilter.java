@@ -17,14 +17,25 @@
 package com.github.zabetak.calcite.tutorial.operators;
 
 import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
 import org.apache.calcite.plan.RelTraitSet;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
 import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexTableInputRef.RelTableRef;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
 
+import com.github.zabetak.calcite.tutorial.LuceneTable;
+import com.github.zabetak.calcite.tutorial.metadata.LuceneQueryEstimator;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Set;
+
 /**
  * Implementation of {@link Filter} in {@link LuceneRel#LUCENE} convention.
  *
@@ -36,13 +47,45 @@ public class LuceneFilter extends Filter implements LuceneRel {
     super(cluster, cluster.traitSetOf(LUCENE), child, condition);
   }
 
+  /**
+   * Returns the cost of searching the index, which consists of looking up the terms, points, or
+   * ranges of the query and visiting the postings of the matching documents.
+   *
+   * Visiting a posting is much cheaper than reading a row, which is charged by
+   * {@link LuceneToEnumerableConverter} for the matching documents only, so a condition is worth
+   * pushing unless looking it up costs more than reading the whole input (e.g., a long
+   * {@code IN} list over a small table).
+   */
+  @Override public @Nullable RelOptCost computeSelfCost(RelOptPlanner planner,
+      RelMetadataQuery mq) {
+    Set<RelTableRef> tables = mq.getTableReferences(getInput());
+    LuceneTable table = tables == null || tables.size() != 1 ? null
+        : tables.iterator().next().getTable().unwrap(LuceneTable.class);
+    Query query = RexToLuceneTranslator.translate(getInput(), getCondition());
+    LuceneQueryEstimator.Estimate estimate =
+        table == null || query == null ? null : LuceneQueryEstimator.estimate(table, query);
+    if (estimate == null) {
+      // The index skips non-matching documents so make the operator cheap
+      return super.computeSelfCost(planner, mq).multiplyBy(0.1);
+    }
+    double inputRows = mq.getRowCount(getInput());
+    double lookups = estimate.lookups() * Math.log(inputRows + 1) / Math.log(2);
+    return planner.getCostFactory().makeCost(lookups + estimate.visited() * 0.1, 0, 0);
+  }
+
   @Override public Result implement() {
     Result r = ((LuceneRel) getInput()).implement();
+    if (r.isLimited()) {
+      throw new IllegalStateException("Filters cannot be applied after a limit in Lucene");
+    }
+    if (r.isAggregated()) {
+      throw new IllegalStateException("Filters cannot be applied after an aggregate in Lucene");
+    }
     Query q = RexToLuceneTranslator.translate(this);
-    return new Result(r.indexPath, new BooleanQuery.Builder()
+    return new Result(r.table, new BooleanQuery.Builder()
         .add(q, BooleanClause.Occur.MUST)
         .add(r.query, BooleanClause.Occur.MUST)
-        .build());
+        .build(), r.fields, r.sort, r.offset, r.fetch);
   }
 
   @Override public Filter copy(RelTraitSet traitSet, RelNode input, RexNode condition) {
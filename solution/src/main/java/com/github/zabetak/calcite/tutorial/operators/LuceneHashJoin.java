@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.operators;
+
+import org.apache.calcite.adapter.enumerable.EnumerableHashJoin;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.adapter.enumerable.JavaRowFormat;
+import org.apache.calcite.adapter.enumerable.PhysType;
+import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.function.EqualityComparer;
+import org.apache.calcite.linq4j.function.Function1;
+import org.apache.calcite.linq4j.function.Function2;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.ParameterExpression;
+import org.apache.calcite.linq4j.tree.Types;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.core.CorrelationId;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.util.Util;
+
+import com.github.zabetak.calcite.tutorial.LuceneJoins;
+import com.google.common.collect.ImmutableList;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Hash join in {@link org.apache.calcite.adapter.enumerable.EnumerableConvention enumerable
+ * convention} that filters one of its inputs, a Lucene scan, by the join keys of the other input
+ * at runtime.
+ *
+ * The join is an inner or semi equi-join; the filtered input is a
+ * {@link LuceneToEnumerableConverter} and the filter applies to one of its join keys, which must
+ * be a column of the index. When the other input has at most {@code maxKeys} distinct keys, the
+ * scan returns only the documents with one of these keys; otherwise the scan is not filtered.
+ * Either way the result is the same as the result of {@link EnumerableHashJoin}.
+ *
+ * @see LuceneJoins
+ */
+public final class LuceneHashJoin extends EnumerableHashJoin {
+  private static final Method HASH_JOIN = Types.lookupMethod(LuceneJoins.class, "hashJoin",
+      Enumerable.class, Enumerable.class, Function1.class, Function1.class, Function2.class,
+      EqualityComparer.class, boolean.class, Function1.class, String.class, int.class);
+  private static final Method SEMI_JOIN = Types.lookupMethod(LuceneJoins.class, "semiJoin",
+      Enumerable.class, Enumerable.class, Function1.class, Function1.class,
+      EqualityComparer.class, Function1.class, String.class, int.class);
+
+  /**
+   * The input that is filtered: 0 for the left, 1 for the right.
+   */
+  private final int filtered;
+  /**
+   * The position of the filtered key among the keys of the join.
+   */
+  private final int key;
+  /**
+   * The name of the filtered key in the index.
+   */
+  private final String field;
+  private final int maxKeys;
+
+  /**
+   * Creates a join.
+   *
+   * @param filtered - the input that is filtered: 0 for the left, 1 for the right
+   * @param key - the position of the filtered key among the keys of the join
+   * @param field - the name of the filtered key in the index
+   * @param maxKeys - the maximum number of distinct keys for which the filter is applied
+   */
+  public LuceneHashJoin(RelOptCluster cluster, RelTraitSet traits, RelNode left, RelNode right,
+      RexNode condition, Set<CorrelationId> variablesSet, JoinRelType joinType, int filtered,
+      int key, String field, int maxKeys) {
+    super(cluster, traits, left, right, condition, variablesSet, joinType);
+    this.filtered = filtered;
+    this.key = key;
+    this.field = field;
+    this.maxKeys = maxKeys;
+  }
+
+  @Override public LuceneHashJoin copy(RelTraitSet traitSet, RexNode condition, RelNode left,
+      RelNode right, JoinRelType joinType, boolean semiJoinDone) {
+    return new LuceneHashJoin(getCluster(), traitSet, left, right, condition, variablesSet,
+        joinType, filtered, key, field, maxKeys);
+  }
+
+  @Override public RelWriter explainTerms(RelWriter pw) {
+    return super.explainTerms(pw)
+        .item("keyFilter", (filtered == 0 ? "left." : "right.") + field)
+        .item("maxKeys", maxKeys);
+  }
+
+  @Override public @Nullable RelOptCost computeSelfCost(RelOptPlanner planner,
+      RelMetadataQuery mq) {
+    // The filtered input returns only the rows that may join when the other input is small, so
+    // make the operator slightly cheaper than the plain hash join
+    return super.computeSelfCost(planner, mq).multiplyBy(0.9);
+  }
+
+  @Override public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+    //  The method generates java code which resembles the snippet below.
+    //  return LuceneJoins.hashJoin(left, right, leftKey, rightKey, selector, null,
+    //      true, keyOfRight, "o_custkey", 1024);
+    //  or a call to LuceneJoins.semiJoin for semi-joins.
+    BlockBuilder builder = new BlockBuilder();
+    final Result leftResult = implementor.visitChild(this, 0, (EnumerableRel) left, pref);
+    Expression leftExpression = builder.append("left", leftResult.block);
+    final Result rightResult = implementor.visitChild(this, 1, (EnumerableRel) right, pref);
+    Expression rightExpression = builder.append("right", rightResult.block);
+    final PhysType keyPhysType =
+        leftResult.physType.project(joinInfo.leftKeys, JavaRowFormat.LIST);
+    Expression comparer = Util.first(keyPhysType.comparer(), Expressions.constant(null));
+    // The rows of the input that is not filtered provide the keys
+    final Result keysResult = filtered == 0 ? rightResult : leftResult;
+    int keysField = (filtered == 0 ? joinInfo.rightKeys : joinInfo.leftKeys).get(key);
+    Expression filterKey = keysResult.physType.generateAccessor(ImmutableList.of(keysField));
+    Expression leftKey = leftResult.physType.generateAccessor(joinInfo.leftKeys);
+    Expression rightKey = rightResult.physType.generateAccessor(joinInfo.rightKeys);
+    if (joinType == JoinRelType.SEMI) {
+      return implementor.result(leftResult.physType,
+          builder.append(
+              Expressions.call(SEMI_JOIN, leftExpression, rightExpression, leftKey, rightKey,
+                  comparer, filterKey, Expressions.constant(field),
+                  Expressions.constant(maxKeys)))
+              .toBlock());
+    }
+    final PhysType physType =
+        PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(), pref.preferArray());
+    Expression selector = selector(physType, leftResult.physType, rightResult.physType);
+    return implementor.result(physType,
+        builder.append(
+            Expressions.call(HASH_JOIN, leftExpression, rightExpression, leftKey, rightKey,
+                selector, comparer, Expressions.constant(filtered == 0), filterKey,
+                Expressions.constant(field), Expressions.constant(maxKeys)))
+            .toBlock());
+  }
+
+  /**
+   * Returns the function combining a left and a right row to a row of the (inner) join.
+   */
+  @SuppressWarnings("unchecked")
+  static Expression selector(PhysType physType, PhysType leftPhysType,
+      PhysType rightPhysType) {
+    ParameterExpression left = Expressions.parameter(leftPhysType.getJavaRowType(), "left");
+    ParameterExpression right = Expressions.parameter(rightPhysType.getJavaRowType(), "right");
+    List<Expression> fields = new ArrayList<>();
+    int leftCount = leftPhysType.getRowType().getFieldCount();
+    for (int i = 0; i < leftCount; i++) {
+      fields.add(leftPhysType.fieldReference(left, i, physType.getJavaFieldType(i)));
+    }
+    for (int i = 0; i < rightPhysType.getRowType().getFieldCount(); i++) {
+      fields.add(
+          rightPhysType.fieldReference(right, i, physType.getJavaFieldType(leftCount + i)));
+    }
+    return Expressions.lambda(Function2.class, physType.record(fields), left, right);
+  }
+}
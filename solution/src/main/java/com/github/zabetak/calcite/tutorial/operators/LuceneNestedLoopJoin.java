@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.operators;
+
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.adapter.enumerable.JavaRowFormat;
+import org.apache.calcite.adapter.enumerable.PhysType;
+import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.function.EqualityComparer;
+import org.apache.calcite.linq4j.function.Function1;
+import org.apache.calcite.linq4j.function.Function2;
+import org.apache.calcite.linq4j.tree.BlockBuilder;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.Types;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.core.CorrelationId;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.util.Util;
+
+import com.github.zabetak.calcite.tutorial.LuceneJoins;
+import com.google.common.collect.ImmutableList;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+
+/**
+ * Nested loop join in {@link org.apache.calcite.adapter.enumerable.EnumerableConvention
+ * enumerable convention} that searches one of its inputs, a Lucene scan, with batches of join
+ * keys of the other input.
+ *
+ * The join is an inner equi-join; the searched (inner) input is in the {@link LuceneRel#LUCENE}
+ * convention and the join converts it to a Lucene scan itself (see
+ * {@link LuceneToEnumerableConverter}), so the scan that is searched is known when the plan is
+ * implemented. The search applies to one of its join keys, which must be a column of the index.
+ * The other (outer) input is read in batches of {@code batchSize}
+ * distinct keys and, for each batch, the scan returns only the documents with one of these keys.
+ * The order of the outer input is not preserved.
+ *
+ * @see LuceneJoins#nestedLoopJoin
+ */
+public final class LuceneNestedLoopJoin extends Join implements EnumerableRel {
+  private static final Method NESTED_LOOP_JOIN = Types.lookupMethod(LuceneJoins.class,
+      "nestedLoopJoin", Enumerable.class, Enumerable.class, Function1.class, Function1.class,
+      Function2.class, EqualityComparer.class, boolean.class, Function1.class, String.class,
+      int.class);
+
+  /**
+   * The input that is searched: 0 for the left, 1 for the right.
+   */
+  private final int inner;
+  /**
+   * The position of the searched key among the keys of the join.
+   */
+  private final int key;
+  /**
+   * The name of the searched key in the index.
+   */
+  private final String field;
+  private final int batchSize;
+
+  /**
+   * Creates a join.
+   *
+   * @param inner - the input that is searched: 0 for the left, 1 for the right
+   * @param key - the position of the searched key among the keys of the join
+   * @param field - the name of the searched key in the index
+   * @param batchSize - the maximum number of distinct keys of a search
+   */
+  public LuceneNestedLoopJoin(RelOptCluster cluster, RelTraitSet traits, RelNode left,
+      RelNode right, RexNode condition, Set<CorrelationId> variablesSet, JoinRelType joinType,
+      int inner, int key, String field, int batchSize) {
+    super(cluster, traits, ImmutableList.of(), left, right, condition, variablesSet, joinType);
+    this.inner = inner;
+    this.key = key;
+    this.field = field;
+    this.batchSize = batchSize;
+  }
+
+  @Override public LuceneNestedLoopJoin copy(RelTraitSet traitSet, RexNode condition,
+      RelNode left, RelNode right, JoinRelType joinType, boolean semiJoinDone) {
+    return new LuceneNestedLoopJoin(getCluster(), traitSet, left, right, condition, variablesSet,
+        joinType, inner, key, field, batchSize);
+  }
+
+  @Override public RelWriter explainTerms(RelWriter pw) {
+    return super.explainTerms(pw)
+        .item("lookup", (inner == 0 ? "left." : "right.") + field)
+        .item("batchSize", batchSize);
+  }
+
+  @Override public @Nullable RelOptCost computeSelfCost(RelOptPlanner planner,
+      RelMetadataQuery mq) {
+    // Every outer row costs a search in the index of the inner input, whose price grows with the
+    // logarithm of its size, and every result row costs the fetch of a document. Unlike a hash
+    // join, the inner input is never read in full so the cost is low when the outer input is.
+    double outerRows = mq.getRowCount(getInput(1 - inner));
+    double innerRows = mq.getRowCount(getInput(inner));
+    double rowCount = mq.getRowCount(this);
+    double lookups = outerRows * Math.log(innerRows + 1) / Math.log(2);
+    return planner.getCostFactory().makeCost(rowCount + lookups, 0, 0);
+  }
+
+  @Override public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+    //  The method generates java code which resembles the snippet below.
+    //  return LuceneJoins.nestedLoopJoin(left, right, leftKey, rightKey, selector, null,
+    //      true, keyOfLeft, "o_custkey", 1024);
+    BlockBuilder builder = new BlockBuilder();
+    final Result leftResult = implementInput(implementor, 0, pref);
+    Expression leftExpression = builder.append("left", leftResult.block);
+    final Result rightResult = implementInput(implementor, 1, pref);
+    Expression rightExpression = builder.append("right", rightResult.block);
+    final PhysType keyPhysType =
+        leftResult.physType.project(joinInfo.leftKeys, JavaRowFormat.LIST);
+    Expression comparer = Util.first(keyPhysType.comparer(), Expressions.constant(null));
+    // The rows of the outer input provide the keys
+    final Result outerResult = inner == 0 ? rightResult : leftResult;
+    int outerField = (inner == 0 ? joinInfo.rightKeys : joinInfo.leftKeys).get(key);
+    Expression outerKey = outerResult.physType.generateAccessor(ImmutableList.of(outerField));
+    Expression leftKey = leftResult.physType.generateAccessor(joinInfo.leftKeys);
+    Expression rightKey = rightResult.physType.generateAccessor(joinInfo.rightKeys);
+    final PhysType physType =
+        PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(), pref.preferArray());
+    Expression selector =
+        LuceneHashJoin.selector(physType, leftResult.physType, rightResult.physType);
+    return implementor.result(physType,
+        builder.append(
+            Expressions.call(NESTED_LOOP_JOIN, leftExpression, rightExpression, leftKey,
+                rightKey, selector, comparer, Expressions.constant(inner == 1), outerKey,
+                Expressions.constant(field), Expressions.constant(batchSize)))
+            .toBlock());
+  }
+
+  /**
+   * Implements the specified input; the inner input is implemented by a Lucene scan.
+   */
+  private Result implementInput(EnumerableRelImplementor implementor, int input, Prefer pref) {
+    RelNode rel = getInput(input);
+    if (input != inner) {
+      return implementor.visitChild(this, input, (EnumerableRel) rel, pref);
+    }
+    if (!(rel instanceof LuceneRel)) {
+      throw new IllegalStateException("The searched input of " + getRelTypeName()
+          + " is not in the Lucene convention: " + rel);
+    }
+    // The converter is not an input of the join so it is implemented directly
+    return new LuceneToEnumerableConverter(rel).implement(implementor, pref);
+  }
+}
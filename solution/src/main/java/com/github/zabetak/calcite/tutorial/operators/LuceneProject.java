@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.operators;
+
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Implementation of {@link Project} in {@link LuceneRel#LUCENE} convention.
+ *
+ * The expression can only select (and rename) fields of its input; it does not compute any new
+ * values. It allows the Lucene index to load only the stored fields that are necessary for the
+ * query.
+ */
+public final class LuceneProject extends Project implements LuceneRel {
+  public LuceneProject(RelOptCluster cluster, RelNode input, List<? extends RexNode> projects,
+      RelDataType rowType) {
+    super(cluster, cluster.traitSetOf(LUCENE), Collections.emptyList(), input, projects, rowType);
+  }
+
+  @Override public Project copy(RelTraitSet traitSet, RelNode input, List<RexNode> projects,
+      RelDataType rowType) {
+    return new LuceneProject(getCluster(), input, projects, rowType);
+  }
+
+  @Override public @Nullable RelOptCost computeSelfCost(RelOptPlanner planner,
+      RelMetadataQuery mq) {
+    // Reading less fields from the index is always beneficial so make the operator cheap
+    return super.computeSelfCost(planner, mq).multiplyBy(0.1);
+  }
+
+  @Override public Result implement() {
+    Result r = ((LuceneRel) getInput()).implement();
+    if (r.isAggregated()) {
+      throw new IllegalStateException("Projects cannot be applied after an aggregate in Lucene");
+    }
+    List<String> fields = new ArrayList<>();
+    for (RexNode project : getProjects()) {
+      fields.add(r.fields.get(((RexInputRef) project).getIndex()));
+    }
+    return new Result(r.table, r.query, fields, r.sort, r.offset, r.fetch);
+  }
+}
@@ -19,6 +19,12 @@ package com.github.zabetak.calcite.tutorial.operators;
 import org.apache.calcite.plan.Convention;
 import org.apache.calcite.rel.RelNode;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+
+import com.github.zabetak.calcite.tutorial.LuceneAggregation;
+import com.github.zabetak.calcite.tutorial.LuceneTable;
+
+import java.util.List;
 
 /**
  * Relational expression representing Apache Lucene specific operations.
@@ -39,17 +45,75 @@ public interface LuceneRel extends RelNode {
    */
   class Result {
     /**
-     * Path to the index location in the filesystem.
+     * The table representing the index.
      */
-    public final String indexPath;
+    public final LuceneTable table;
     /**
      * Query for extracting the data from the index.
      */
     public final Query query;
+    /**
+     * Names of the index fields, in the order they appear in the output of the expression.
+     */
+    public final List<String> fields;
+    /**
+     * The order of the hits when only some of them are returned; null for index order.
+     */
+    public final Sort sort;
+    /**
+     * The number of (sorted) hits to skip.
+     */
+    public final int offset;
+    /**
+     * The maximum number of hits to return after the offset; -1 to return all hits.
+     */
+    public final int fetch;
+    /**
+     * The aggregation computed over the hits; null if the hits are returned as rows.
+     *
+     * When present, the names in {@link #fields} are the names of the output columns of the
+     * aggregation rather than fields of the index.
+     */
+    public final LuceneAggregation aggregation;
 
-    public Result(String indexPath, Query query) {
-      this.indexPath = indexPath;
+    public Result(LuceneTable table, Query query, List<String> fields) {
+      this(table, query, fields, null, 0, -1);
+    }
+
+    public Result(LuceneTable table, Query query, List<String> fields, Sort sort, int offset,
+        int fetch) {
+      this(table, query, fields, sort, offset, fetch, null);
+    }
+
+    public Result(LuceneTable table, Query query, List<String> fields, Sort sort, int offset,
+        int fetch, LuceneAggregation aggregation) {
+      this.table = table;
       this.query = query;
+      this.fields = fields;
+      this.sort = sort;
+      this.offset = offset;
+      this.fetch = fetch;
+      this.aggregation = aggregation;
+    }
+
+    /**
+     * Returns whether only some of the hits of the query are returned.
+     *
+     * The query of a limited result cannot be refined any further: the additional conditions
+     * would be applied before the limit instead of after it.
+     */
+    public boolean isLimited() {
+      return offset != 0 || fetch != -1;
+    }
+
+    /**
+     * Returns whether the hits of the query are aggregated.
+     *
+     * The rows of an aggregated result are groups, so no other Lucene operator can be applied on
+     * top of it.
+     */
+    public boolean isAggregated() {
+      return aggregation != null;
     }
   }
 }
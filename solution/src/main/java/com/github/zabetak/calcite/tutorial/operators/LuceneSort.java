@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.operators;
+
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelCollation;
+import org.apache.calcite.rel.RelFieldCollation;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Sort;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.lucene.search.SortField;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Implementation of {@link Sort} in {@link LuceneRel#LUCENE} convention.
+ *
+ * The expression returns the top hits of the query according to the collation, skipping the
+ * first {@code offset} hits. The hits are collected by Lucene using a bounded priority queue over
+ * the doc values of the sort keys, so only {@code offset + fetch} documents are ever kept and
+ * their fields read; the rest of the index is never decoded.
+ *
+ * The expression always has a fetch; a full sort has no benefit over sorting in memory. An empty
+ * collation returns the first hits in index order.
+ */
+public final class LuceneSort extends Sort implements LuceneRel {
+  public LuceneSort(RelOptCluster cluster, RelNode input, RelCollation collation,
+      @Nullable RexNode offset, RexNode fetch) {
+    super(cluster, cluster.traitSetOf(LUCENE), input, collation, offset, fetch);
+  }
+
+  @Override public Sort copy(RelTraitSet traitSet, RelNode newInput, RelCollation newCollation,
+      @Nullable RexNode offset, @Nullable RexNode fetch) {
+    return new LuceneSort(getCluster(), newInput, newCollation, offset, fetch);
+  }
+
+  @Override public @Nullable RelOptCost computeSelfCost(RelOptPlanner planner,
+      RelMetadataQuery mq) {
+    // The top hits are collected while the index is searched without materializing the input
+    return super.computeSelfCost(planner, mq).multiplyBy(0.1);
+  }
+
+  @Override public Result implement() {
+    Result r = ((LuceneRel) getInput()).implement();
+    if (r.isAggregated()) {
+      throw new IllegalStateException("Sorts cannot be applied after an aggregate in Lucene");
+    }
+    List<SortField> sortFields = new ArrayList<>();
+    for (RelFieldCollation c : getCollation().getFieldCollations()) {
+      SqlTypeName type =
+          getInput().getRowType().getFieldList().get(c.getFieldIndex()).getType().getSqlTypeName();
+      sortFields.add(toSortField(r.fields.get(c.getFieldIndex()), type, c));
+    }
+    int offset = this.offset == null ? 0 : RexLiteral.intValue(this.offset);
+    int fetch = RexLiteral.intValue(this.fetch);
+    org.apache.lucene.search.Sort sort = sortFields.isEmpty() ? null
+        : new org.apache.lucene.search.Sort(sortFields.toArray(new SortField[0]));
+    return new Result(r.table, r.query, r.fields, sort, offset, fetch);
+  }
+
+  /**
+   * Returns the Lucene sort field corresponding to the collation of a field with the specified
+   * name and type, or null if Lucene cannot sort on fields of this type.
+   *
+   * Lucene sorts on the doc values of the field; documents without value are placed according to
+   * the null direction of the collation.
+   */
+  public static @Nullable SortField toSortField(String name, SqlTypeName type,
+      RelFieldCollation collation) {
+    final boolean reverse;
+    switch (collation.direction) {
+    case ASCENDING:
+      reverse = false;
+      break;
+    case DESCENDING:
+      reverse = true;
+      break;
+    default:
+      return null;
+    }
+    RelFieldCollation.NullDirection nulls = collation.nullDirection;
+    if (nulls == RelFieldCollation.NullDirection.UNSPECIFIED) {
+      nulls = collation.direction.defaultNullDirection();
+    }
+    // The missing value is placed according to the ascending order and moves with the reversal
+    boolean missingHigh = (nulls == RelFieldCollation.NullDirection.LAST) != reverse;
+    final SortField field;
+    switch (type) {
+    case TINYINT:
+    case SMALLINT:
+    case INTEGER:
+    case DATE:
+      field = new SortField(name, SortField.Type.INT, reverse);
+      field.setMissingValue(missingHigh ? Integer.MAX_VALUE : Integer.MIN_VALUE);
+      return field;
+    case BIGINT:
+      field = new SortField(name, SortField.Type.LONG, reverse);
+      field.setMissingValue(missingHigh ? Long.MAX_VALUE : Long.MIN_VALUE);
+      return field;
+    case DOUBLE:
+      field = new SortField(name, SortField.Type.DOUBLE, reverse);
+      field.setMissingValue(missingHigh ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY);
+      return field;
+    case CHAR:
+    case VARCHAR:
+      field = new SortField(name, SortField.Type.STRING, reverse);
+      field.setMissingValue(missingHigh ? SortField.STRING_LAST : SortField.STRING_FIRST);
+      return field;
+    default:
+      return null;
+    }
+  }
+}
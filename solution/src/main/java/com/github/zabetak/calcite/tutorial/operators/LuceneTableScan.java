@@ -40,6 +40,6 @@ public final class LuceneTableScan extends TableScan implements LuceneRel {
 
   @Override public Result implement() {
     LuceneTable t = getTable().unwrap(LuceneTable.class);
-    return new Result(t.indexPath(), new MatchAllDocsQuery());
+    return new Result(t, new MatchAllDocsQuery(), getRowType().getFieldNames());
   }
 }
@@ -16,6 +16,7 @@
  */
 package com.github.zabetak.calcite.tutorial.operators;
 
+import org.apache.calcite.DataContext;
 import org.apache.calcite.adapter.enumerable.EnumerableConvention;
 import org.apache.calcite.adapter.enumerable.EnumerableRel;
 import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
@@ -23,23 +24,32 @@ import org.apache.calcite.adapter.enumerable.JavaRowFormat;
 import org.apache.calcite.adapter.enumerable.PhysType;
 import org.apache.calcite.adapter.enumerable.PhysTypeImpl;
 import org.apache.calcite.linq4j.tree.BlockBuilder;
-import org.apache.calcite.linq4j.tree.ConstantExpression;
-import org.apache.calcite.linq4j.tree.DeclarationStatement;
+import org.apache.calcite.linq4j.tree.Expression;
 import org.apache.calcite.linq4j.tree.Expressions;
 import org.apache.calcite.linq4j.tree.MethodCallExpression;
 import org.apache.calcite.linq4j.tree.NewExpression;
 import org.apache.calcite.plan.ConventionTraitDef;
 import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelCollation;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.convert.ConverterImpl;
 import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.util.BuiltInMethod;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
 
+import com.github.zabetak.calcite.tutorial.LuceneAggregation;
+import com.github.zabetak.calcite.tutorial.LuceneBatchFilter;
+import com.github.zabetak.calcite.tutorial.LuceneDynamicParamQuery;
 import com.github.zabetak.calcite.tutorial.LuceneEnumerable;
+import com.github.zabetak.calcite.tutorial.LuceneTable;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
 
-import java.lang.reflect.Method;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Relational expression that converts an lucene input to enumerable calling convention.
@@ -65,36 +75,105 @@ public final class LuceneToEnumerableConverter extends ConverterImpl implements
   }
 
   @Override public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+    return implement(implementor, pref, null);
+  }
+
+  /**
+   * Implements the converter, returning only the rows that satisfy the specified filter.
+   *
+   * @param batchFilter - the filter evaluated on the batches read from the index; null to return
+   * all the rows
+   */
+  Result implement(EnumerableRelImplementor implementor, Prefer pref,
+      @Nullable LuceneBatchFilter batchFilter) {
     //  The method generates java code which resembles the snippet below.
-    //  java.util.LinkedHashMap fields = new java.util.LinkedHashMap();
-    //  fields.put("ps_partkey", org.apache.calcite.sql.type.SqlTypeName.INTEGER);
-    //  fields.put("ps_suppkey", org.apache.calcite.sql.type.SqlTypeName.INTEGER);
-    //  fields.put("ps_availqty", org.apache.calcite.sql.type.SqlTypeName.INTEGER);
-    //  fields.put("ps_supplycost", org.apache.calcite.sql.type.SqlTypeName.DOUBLE);
-    //  fields.put("ps_comment", org.apache.calcite.sql.type.SqlTypeName.VARCHAR);
-    //  return new LuceneEnumerable("target/tpch/PARTSUPP", fields, "*:*");
+    //  return new LuceneEnumerable(v0stashed, v1stashed, v2stashed).withOrdered(false)
+    //      .withCancelFlag((AtomicBoolean) root.get("cancelFlag"));
+    //  with an additional withLimit(v3stashed, offset, fetch) call before withCancelFlag when
+    //  only the top hits according to the Lucene Sort v3stashed are needed, or a
+    //  withAggregation(v3stashed) call when the groups of the LuceneAggregation v3stashed are
+    //  returned instead of the hits, and a withBatchFilter(v4stashed) call when the rows are
+    //  filtered by the LuceneBatchFilter v4stashed.
+    //  where v0stashed is the LuceneTable for "target/tpch/PARTSUPP" index, v1stashed is the
+    //  LinkedHashMap with the name and type of the fields in the index, e.g.,
+    //  {ps_partkey=INTEGER, ps_suppkey=INTEGER, ps_supplycost=DOUBLE}, and v2stashed is the
+    //  Lucene query (*:*), all obtained from the DataContext. A query comparing columns with
+    //  dynamic parameters is wrapped in LuceneDynamicParamQuery.bind(v2stashed, root).
     try {
+      LuceneRel.Result luceneResult = ((LuceneRel) input).implement();
       BlockBuilder codeBlock = new BlockBuilder();
-      DeclarationStatement fieldStmt =
-          Expressions.declare(0, "fields", Expressions.new_(LinkedHashMap.class));
-      codeBlock.add(fieldStmt);
-      Method putMethod = Map.class.getMethod("put", Object.class, Object.class);
-      for (RelDataTypeField f : getRowType().getFieldList()) {
-        ConstantExpression fieldName = Expressions.constant(f.getName());
-        ConstantExpression fieldType = Expressions.constant(f.getType().getSqlTypeName());
-        MethodCallExpression callPut =
-            Expressions.call(fieldStmt.parameter, putMethod, fieldName, fieldType);
-        codeBlock.add(Expressions.statement(callPut));
+      LinkedHashMap<String, SqlTypeName> fieldMap = new LinkedHashMap<>();
+      if (luceneResult.isAggregated()) {
+        // The output fields are computed from the columns read by the aggregation
+        fieldMap = luceneResult.aggregation.columns();
+      } else {
+        List<RelDataTypeField> outputFields = getRowType().getFieldList();
+        for (int i = 0; i < outputFields.size(); i++) {
+          // The name of the field in the index may differ from the name in the output
+          fieldMap.put(luceneResult.fields.get(i),
+              outputFields.get(i).getType().getSqlTypeName());
+        }
+      }
+      // The table is passed to the generated code as is (through the DataContext) so that all
+      // queries share the same searchers
+      Expression table = implementor.stash(luceneResult.table, LuceneTable.class);
+      // The fields are passed as an object as well; statements populating a map in the generated
+      // code are dropped when Calcite rewrites the code of plans returning a single column
+      Expression fields = implementor.stash(fieldMap, LinkedHashMap.class);
+      // Likewise the query is passed as an object; queries do not reliably survive a round trip
+      // through their string representation and parsing them on every execution is wasteful
+      Expression luceneQuery = implementor.stash(luceneResult.query, Query.class);
+      if (LuceneDynamicParamQuery.hasDynamicParams(luceneResult.query)) {
+        // The comparisons with dynamic parameters are materialized from the values in the
+        // DataContext every time the plan is executed
+        luceneQuery = Expressions.call(
+            LuceneDynamicParamQuery.class.getMethod("bind", Query.class, DataContext.class),
+            luceneQuery, implementor.getRootExpression());
       }
-      ConstantExpression indexPath =
-          Expressions.constant(((LuceneRel) input).implement().indexPath);
-      ConstantExpression luceneQuery =
-          Expressions.constant(((LuceneRel) input).implement().query.toString());
       NewExpression luceneEnumerable =
-          Expressions.new_(LuceneEnumerable.class, indexPath, fieldStmt.parameter, luceneQuery);
-      codeBlock.add(Expressions.return_(null, luceneEnumerable));
+          Expressions.new_(LuceneEnumerable.class, table, fields, luceneQuery);
+      // Parallel scans may return the rows in any order unless the plan relies on the collation
+      // of the input
+      List<RelCollation> collations = getCluster().getMetadataQuery().collations(input);
+      boolean ordered = collations != null && !collations.isEmpty();
+      MethodCallExpression orderedEnumerable = Expressions.call(luceneEnumerable,
+          LuceneEnumerable.class.getMethod("withOrdered", boolean.class),
+          Expressions.constant(ordered));
+      MethodCallExpression limitedEnumerable = orderedEnumerable;
+      if (luceneResult.isLimited()) {
+        // Only the top hits are collected; a null sort stands for index order
+        Expression sort = luceneResult.sort == null
+            ? Expressions.constant(null, Sort.class)
+            : implementor.stash(luceneResult.sort, Sort.class);
+        limitedEnumerable = Expressions.call(orderedEnumerable,
+            LuceneEnumerable.class.getMethod("withLimit", Sort.class, int.class, int.class),
+            sort, Expressions.constant(luceneResult.offset),
+            Expressions.constant(luceneResult.fetch));
+      }
+      MethodCallExpression aggregatedEnumerable = limitedEnumerable;
+      if (luceneResult.isAggregated()) {
+        aggregatedEnumerable = Expressions.call(limitedEnumerable,
+            LuceneEnumerable.class.getMethod("withAggregation", LuceneAggregation.class),
+            implementor.stash(luceneResult.aggregation, LuceneAggregation.class));
+      }
+      MethodCallExpression filteredEnumerable = aggregatedEnumerable;
+      if (batchFilter != null) {
+        filteredEnumerable = Expressions.call(aggregatedEnumerable,
+            LuceneEnumerable.class.getMethod("withBatchFilter", LuceneBatchFilter.class),
+            implementor.stash(batchFilter, LuceneBatchFilter.class));
+      }
+      // The scan stops as soon as the query is cancelled or times out
+      Expression cancelFlag = Expressions.convert_(
+          Expressions.call(implementor.getRootExpression(), BuiltInMethod.DATA_CONTEXT_GET.method,
+              Expressions.constant(DataContext.Variable.CANCEL_FLAG.camelName)),
+          AtomicBoolean.class);
+      MethodCallExpression cancellableEnumerable = Expressions.call(filteredEnumerable,
+          LuceneEnumerable.class.getMethod("withCancelFlag", AtomicBoolean.class), cancelFlag);
+      codeBlock.add(Expressions.return_(null, cancellableEnumerable));
+      // LuceneEnumerable always returns arrays, even when there is a single field in the row, with
+      // the values in the internal representation of the respective type (e.g., int for DATE)
       PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(), getRowType(),
-          pref.prefer(JavaRowFormat.ARRAY));
+          JavaRowFormat.ARRAY, false);
       return implementor.result(physType, codeBlock.toBlock());
     } catch (NoSuchMethodException e) {
       throw new RuntimeException(e);
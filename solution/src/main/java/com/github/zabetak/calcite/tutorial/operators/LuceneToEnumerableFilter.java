@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.operators;
+
+import org.apache.calcite.adapter.enumerable.EnumerableConvention;
+import org.apache.calcite.adapter.enumerable.EnumerableRel;
+import org.apache.calcite.adapter.enumerable.EnumerableRelImplementor;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rex.RexNode;
+
+import com.github.zabetak.calcite.tutorial.LuceneBatchFilter;
+
+/**
+ * Filter in {@link EnumerableConvention enumerable convention} over a Lucene input that
+ * evaluates its condition on the column vectors of the batches read from the index.
+ *
+ * The filter converts its input, which is in the {@link LuceneRel#LUCENE} convention, to a
+ * Lucene scan itself (see {@link LuceneToEnumerableConverter}) and the scan drops the rows that
+ * do not satisfy the condition before they are materialized (see {@link LuceneBatchFilter}). It
+ * is meant for the conditions that cannot be searched in the index, so the condition must be
+ * translatable by {@link RexToBatchFilterTranslator}.
+ */
+public final class LuceneToEnumerableFilter extends Filter implements EnumerableRel {
+  public LuceneToEnumerableFilter(RelOptCluster cluster, RelNode input, RexNode condition) {
+    super(cluster, cluster.traitSetOf(EnumerableConvention.INSTANCE), input, condition);
+  }
+
+  @Override public Filter copy(RelTraitSet traitSet, RelNode input, RexNode condition) {
+    return new LuceneToEnumerableFilter(getCluster(), input, condition);
+  }
+
+  @Override public Result implement(EnumerableRelImplementor implementor, Prefer pref) {
+    LuceneBatchFilter batchFilter =
+        RexToBatchFilterTranslator.translate(getCondition(), getRowType());
+    if (batchFilter == null) {
+      throw new IllegalStateException("Cannot evaluate " + getCondition() + " on batches");
+    }
+    // The converter is not an input of the filter so it is implemented directly
+    return new LuceneToEnumerableConverter(getInput()).implement(implementor, pref, batchFilter);
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.operators;
+
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import com.github.zabetak.calcite.tutorial.LuceneBatchFilter;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Translates a condition over the rows of a Lucene scan to a {@link LuceneBatchFilter}.
+ *
+ * Only the conditions that the filter can evaluate on the column vectors are translated (see
+ * {@link LuceneBatchFilter}): comparisons of {@code INTEGER}, {@code DATE}, {@code DOUBLE},
+ * {@code CHAR}, and {@code VARCHAR} columns with literals of the same family, comparisons of two
+ * numeric or two date columns, {@code LIKE} with a literal pattern, {@code IS [NOT] NULL}, and
+ * {@code AND}/{@code OR}/{@code NOT} of them. {@code SEARCH} calls must be expanded beforehand.
+ */
+public final class RexToBatchFilterTranslator {
+  private RexToBatchFilterTranslator() {
+  }
+
+  /**
+   * Returns the filter evaluating the specified condition, or null if the condition cannot be
+   * evaluated on the column vectors.
+   *
+   * @param condition - the condition, whose input references are positions in the row type
+   * @param rowType - the type of the rows of the scan, which are also the columns of its batches
+   */
+  public static @Nullable LuceneBatchFilter translate(RexNode condition, RelDataType rowType) {
+    if (!(condition instanceof RexCall)) {
+      return null;
+    }
+    RexCall call = (RexCall) condition;
+    switch (call.getKind()) {
+    case AND:
+    case OR:
+      List<LuceneBatchFilter> operands = new ArrayList<>();
+      for (RexNode operand : call.getOperands()) {
+        LuceneBatchFilter filter = translate(operand, rowType);
+        if (filter == null) {
+          return null;
+        }
+        operands.add(filter);
+      }
+      return call.getKind() == SqlKind.AND
+          ? LuceneBatchFilter.and(operands)
+          : LuceneBatchFilter.or(operands);
+    case NOT:
+      LuceneBatchFilter operand = translate(call.getOperands().get(0), rowType);
+      return operand == null ? null : LuceneBatchFilter.not(operand);
+    case IS_NULL:
+    case IS_NOT_NULL:
+      RexNode column = call.getOperands().get(0);
+      return family(column, rowType) == null ? null : LuceneBatchFilter.isNull(
+          ((RexInputRef) column).getIndex(), call.getKind() == SqlKind.IS_NOT_NULL);
+    case EQUALS:
+    case NOT_EQUALS:
+    case LESS_THAN:
+    case LESS_THAN_OR_EQUAL:
+    case GREATER_THAN:
+    case GREATER_THAN_OR_EQUAL:
+      return comparison(call, rowType);
+    case LIKE:
+      return like(call, rowType);
+    default:
+      return null;
+    }
+  }
+
+  private static @Nullable LuceneBatchFilter comparison(RexCall call, RelDataType rowType) {
+    RexNode left = call.getOperands().get(0);
+    RexNode right = call.getOperands().get(1);
+    SqlKind kind = call.getKind();
+    if (left instanceof RexLiteral) {
+      RexNode swap = left;
+      left = right;
+      right = swap;
+      kind = kind.reverse();
+    }
+    Family family = family(left, rowType);
+    if (family == null) {
+      return null;
+    }
+    int column = ((RexInputRef) left).getIndex();
+    if (right instanceof RexInputRef) {
+      // Strings are compared with a dictionary per column so only numbers and dates qualify
+      return family != Family.STRING && family == family(right, rowType)
+          ? LuceneBatchFilter.compareColumns(kind, column, ((RexInputRef) right).getIndex())
+          : null;
+    }
+    Object value = right instanceof RexLiteral ? value((RexLiteral) right, family) : null;
+    return value == null ? null : LuceneBatchFilter.compare(kind, column, value);
+  }
+
+  private static @Nullable LuceneBatchFilter like(RexCall call, RelDataType rowType) {
+    if (call.getOperator() != SqlStdOperatorTable.LIKE || call.getOperands().size() != 2
+        || family(call.getOperands().get(0), rowType) != Family.STRING
+        || !(call.getOperands().get(1) instanceof RexLiteral)) {
+      return null;
+    }
+    String pattern = (String) value((RexLiteral) call.getOperands().get(1), Family.STRING);
+    return pattern == null ? null
+        : LuceneBatchFilter.like(((RexInputRef) call.getOperands().get(0)).getIndex(), pattern);
+  }
+
+  /**
+   * Returns the value of a (non-null) literal of the specified family; null if the literal is of
+   * another family.
+   */
+  private static @Nullable Object value(RexLiteral literal, Family family) {
+    if (literal.isNull()) {
+      return null;
+    }
+    switch (literal.getType().getSqlTypeName()) {
+    case TINYINT:
+    case SMALLINT:
+    case INTEGER:
+    case BIGINT:
+    case DECIMAL:
+    case FLOAT:
+    case REAL:
+    case DOUBLE:
+      return family == Family.NUMERIC ? literal.getValueAs(BigDecimal.class) : null;
+    case DATE:
+      // Days since epoch, like the values of date columns
+      return family == Family.DATE ? literal.getValueAs(Integer.class) : null;
+    case CHAR:
+    case VARCHAR:
+      return family == Family.STRING ? literal.getValueAs(String.class) : null;
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * Returns the family of the vector holding the values of the specified expression, or null if
+   * the expression is not a column with a supported type.
+   */
+  private static @Nullable Family family(RexNode node, RelDataType rowType) {
+    if (!(node instanceof RexInputRef)) {
+      return null;
+    }
+    SqlTypeName type =
+        rowType.getFieldList().get(((RexInputRef) node).getIndex()).getType().getSqlTypeName();
+    switch (type) {
+    case INTEGER:
+    case DOUBLE:
+      return Family.NUMERIC;
+    case DATE:
+      return Family.DATE;
+    case CHAR:
+    case VARCHAR:
+      return Family.STRING;
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * The kinds of values that can be compared with each other.
+   */
+  private enum Family {
+    NUMERIC, DATE, STRING
+  }
+}
@@ -16,59 +16,723 @@
  */
 package com.github.zabetak.calcite.tutorial.operators;
 
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.core.Filter;
 import org.apache.calcite.rel.metadata.RelMetadataQuery;
 import org.apache.calcite.rel.type.RelDataTypeField;
 import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexDynamicParam;
 import org.apache.calcite.rex.RexInputRef;
 import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.rex.RexTableInputRef;
+import org.apache.calcite.rex.RexUnknownAs;
 import org.apache.calcite.rex.RexVisitorImpl;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeFamily;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.util.DateString;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.NlsString;
+import org.apache.calcite.util.Sarg;
+import org.apache.lucene.document.DoublePoint;
 import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocValuesFieldExistsQuery;
+import org.apache.lucene.search.IndexOrDocValuesQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.util.BytesRef;
+
+import com.github.zabetak.calcite.tutorial.LuceneDynamicParamQuery;
+import com.github.zabetak.calcite.tutorial.LuceneStatistics;
+import com.github.zabetak.calcite.tutorial.LuceneTable;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * Translate row expressions ({@link org.apache.calcite.rex.RexNode}) to Apache Lucene queries
  * ({@link Query}).
  *
- * The translator assumes the expression is in some normalized form. At its current state it cannot
- * translate arbitrary Calcite expressions.
+ * The translator supports comparisons ({@code =, <>, <, <=, >, >=}) and searches (e.g.,
+ * {@code BETWEEN}, which Calcite represents as {@code SEARCH} over a {@link Sarg}) between a
+ * column and a literal. The column must be an {@code INTEGER}, {@code DATE}, or {@code DOUBLE}
+ * column of the table, possibly cast to a wider numeric type, and the comparisons are translated
+ * to range queries over the points ({@link IntPoint}, {@link DoublePoint}) of the column. Integer
+ * and date ranges are also checked against doc values, when they exist, through an
+ * {@link IndexOrDocValuesQuery} so that Lucene can pick the cheaper of the two when the range is
+ * combined with a more selective query.
+ *
+ * Literals are coerced to the type of the column: bounds that are not integers are rounded
+ * inwards for integer columns (e.g., {@code < 3.5} becomes {@code <= 3}) and exclusive bounds
+ * become the adjacent representable value. Searches over a set of values (e.g., {@code IN}
+ * lists) become set queries over the points of the column. Missing values never match since
+ * comparisons with null are unknown.
+ *
+ * Character columns are indexed as terms ({@link org.apache.lucene.document.StringField}) so the
+ * translator supports equality ({@link TermQuery}), inequality, searches over a set of values
+ * ({@link TermInSetQuery}), and {@code LIKE} patterns that have no wildcard other than a trailing
+ * {@code %} ({@link PrefixQuery}). Ranges over character columns are not translated since Lucene
+ * compares terms by their bytes, which does not agree with the collation of the column.
+ *
+ * Comparisons between a column and a dynamic parameter ({@code ?}) are translated to
+ * {@link LuceneDynamicParamQuery} placeholders, which become the comparison with the value of the
+ * parameter when the plan is executed, so that the plan of a query can be reused with different
+ * values. Searches and {@code LIKE} patterns never have dynamic parameters: Calcite only creates
+ * {@link Sarg}s out of literals and the translation of a pattern depends on its value.
+ *
+ * Conjunctions and disjunctions of translatable expressions become {@link BooleanQuery}s with
+ * {@code MUST} and {@code SHOULD} clauses respectively. Negations become {@code MUST_NOT}
+ * clauses; they are translated only when they refer to a single column (see
+ * {@link #not(RexCall)}).
+ *
+ * The visitor returns null for expressions it cannot translate.
  */
 public final class RexToLuceneTranslator extends RexVisitorImpl<Query> {
-  private final Filter filter;
+  /**
+   * The input of the expressions, whose fields the input references refer to.
+   */
+  private final RelNode input;
 
-  private RexToLuceneTranslator(Filter filter) {
+  private RexToLuceneTranslator(RelNode input) {
     super(false);
-    this.filter = filter;
+    this.input = input;
   }
 
-  @Override public Query visitCall(final RexCall call) {
+  @Override public @Nullable Query visitCall(final RexCall call) {
     switch (call.getKind()) {
     case EQUALS:
-      RexInputRef colRef = (RexInputRef) call.operands.get(0);
-      RexLiteral literal = (RexLiteral) call.operands.get(1);
-      RelMetadataQuery mq = filter.getCluster().getMetadataQuery();
-      RexTableInputRef col = (RexTableInputRef) mq.getExpressionLineage(filter.getInput(), colRef)
-          .stream()
-          .findFirst()
-          .get();
-      RelDataTypeField typeField = col.getTableRef().getTable()
-          .getRowType()
-          .getFieldList()
-          .get(col.getTableRef().getEntityNumber());
-      switch (typeField.getType().getSqlTypeName()) {
-      case INTEGER:
-        return IntPoint.newExactQuery(typeField.getName(), literal.getValueAs(Integer.class));
+    case NOT_EQUALS:
+    case LESS_THAN:
+    case LESS_THAN_OR_EQUAL:
+    case GREATER_THAN:
+    case GREATER_THAN_OR_EQUAL:
+      return comparison(call);
+    case SEARCH:
+      return search(call);
+    case LIKE:
+      return like(call);
+    case AND:
+      return combine(call, BooleanClause.Occur.MUST);
+    case OR:
+      return combine(call, BooleanClause.Occur.SHOULD);
+    case NOT:
+      return not(call);
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * Returns a boolean query with the translation of every operand of the specified call as a
+   * clause, or null if some operand cannot be translated.
+   */
+  private @Nullable Query combine(RexCall call, BooleanClause.Occur occur) {
+    if (call.operands.size() > BooleanQuery.getMaxClauseCount()) {
+      return null;
+    }
+    BooleanQuery.Builder builder = new BooleanQuery.Builder();
+    for (RexNode operand : call.operands) {
+      Query q = operand.accept(this);
+      if (q == null) {
+        return null;
+      }
+      builder.add(q, occur);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the query matching the documents for which the operand of the specified call is
+   * false, or null if the call cannot be translated.
+   *
+   * The operand is unknown (rather than false) for documents without a value for some of the
+   * columns it references, and such documents must not match. This is only handled for operands
+   * over a single column: the query matches the documents that have a value for the column but
+   * do not match the operand.
+   */
+  private @Nullable Query not(RexCall call) {
+    RexNode operand = call.operands.get(0);
+    ImmutableBitSet refs = RelOptUtil.InputFinder.bits(operand);
+    if (refs.cardinality() != 1) {
+      return null;
+    }
+    Column column = column(RexInputRef.of(refs.nth(0), input.getRowType()));
+    Query q = operand.accept(this);
+    if (column == null || q == null) {
+      return null;
+    }
+    return column.exclude(q);
+  }
+
+  private @Nullable Query comparison(RexCall call) {
+    RexNode left = call.operands.get(0);
+    RexNode right = call.operands.get(1);
+    SqlKind kind = call.getKind();
+    if (left instanceof RexLiteral || left instanceof RexDynamicParam) {
+      // 5 < $0 is the same as $0 > 5
+      RexNode swap = left;
+      left = right;
+      right = swap;
+      kind = kind.reverse();
+    }
+    Column column = column(left);
+    if (column == null) {
+      return null;
+    }
+    if (right instanceof RexDynamicParam) {
+      return dynamicParam(column, kind, (RexDynamicParam) right);
+    }
+    if (!(right instanceof RexLiteral)) {
+      return null;
+    }
+    if (column.isString()) {
+      String term = string((RexLiteral) right);
+      return term == null ? null : column.compare(kind, term);
+    }
+    BigDecimal value = value((RexLiteral) right);
+    return value == null ? null : column.compare(kind, value);
+  }
+
+  /**
+   * Translates a comparison between a column and a dynamic parameter to a placeholder, which is
+   * replaced by the comparison with the value of the parameter when the plan is executed (see
+   * {@link LuceneDynamicParamQuery}).
+   */
+  private static @Nullable Query dynamicParam(Column column, SqlKind kind,
+      RexDynamicParam param) {
+    boolean supported;
+    if (column.isString()) {
+      supported = SqlTypeFamily.CHARACTER.contains(param.getType())
+          && column.compare(kind, "") != null;
+    } else {
+      supported = (SqlTypeFamily.NUMERIC.contains(param.getType())
+          || param.getType().getSqlTypeName() == SqlTypeName.DATE)
+          && column.compare(kind, BigDecimal.ZERO) != null;
+    }
+    if (!supported) {
+      return null;
+    }
+    int index = param.getIndex();
+    return new LuceneDynamicParamQuery(index, column.name, kind.sql, column.selectivity(kind),
+        value -> {
+          if (value == null) {
+            // Comparisons with null are unknown
+            return new MatchNoDocsQuery();
+          }
+          return column.isString()
+              ? column.compare(kind, value.toString())
+              : column.compare(kind, decimal(index, value));
+        });
+  }
+
+  /**
+   * Returns the value of a dynamic parameter, in Calcite's internal representation, as a number.
+   */
+  private static BigDecimal decimal(int index, Object value) {
+    if (value instanceof BigDecimal) {
+      return (BigDecimal) value;
+    }
+    if (value instanceof Integer || value instanceof Long || value instanceof Short
+        || value instanceof Byte) {
+      return BigDecimal.valueOf(((Number) value).longValue());
+    }
+    if (value instanceof Number && Double.isFinite(((Number) value).doubleValue())) {
+      return BigDecimal.valueOf(((Number) value).doubleValue());
+    }
+    throw new IllegalArgumentException(
+        "Value " + value + " of dynamic parameter ?" + index + " is not a finite number");
+  }
+
+  private @Nullable Query search(RexCall call) {
+    Column column = column(call.operands.get(0));
+    if (column == null || !(call.operands.get(1) instanceof RexLiteral)) {
+      return null;
+    }
+    Sarg<?> sarg = ((RexLiteral) call.operands.get(1)).getValueAs(Sarg.class);
+    if (sarg == null || sarg.nullAs == RexUnknownAs.TRUE) {
+      // Missing values are never matched by the queries
+      return null;
+    }
+    if (column.isString()) {
+      return stringSearch(column, sarg);
+    }
+    if (sarg.isPoints()) {
+      List<BigDecimal> points = new ArrayList<>();
+      for (Range<?> range : sarg.rangeSet.asRanges()) {
+        BigDecimal point = value(range.lowerEndpoint());
+        if (point == null) {
+          return null;
+        }
+        points.add(point);
+      }
+      return column.points(points);
+    }
+    if (sarg.rangeSet.asRanges().size() > BooleanQuery.getMaxClauseCount()) {
+      return null;
+    }
+    List<Query> ranges = new ArrayList<>();
+    for (Range<?> range : sarg.rangeSet.asRanges()) {
+      BigDecimal lower = range.hasLowerBound() ? value(range.lowerEndpoint()) : null;
+      BigDecimal upper = range.hasUpperBound() ? value(range.upperEndpoint()) : null;
+      if (range.hasLowerBound() && lower == null || range.hasUpperBound() && upper == null) {
+        return null;
+      }
+      ranges.add(column.range(
+          lower, range.hasLowerBound() && range.lowerBoundType() == BoundType.CLOSED,
+          upper, range.hasUpperBound() && range.upperBoundType() == BoundType.CLOSED));
+    }
+    return union(ranges.toArray(new Query[0]));
+  }
+
+  /**
+   * Translates a search over a character column; only searches for a set of values (e.g.,
+   * {@code IN}) or for every value but a set of values (e.g., {@code NOT IN}) are supported.
+   */
+  private static @Nullable Query stringSearch(Column column, Sarg<?> sarg) {
+    boolean complemented = sarg.isComplementedPoints();
+    if (!sarg.isPoints() && !complemented) {
+      return null;
+    }
+    Iterable<? extends Range<?>> points =
+        complemented ? sarg.rangeSet.complement().asRanges() : sarg.rangeSet.asRanges();
+    Set<String> terms = new TreeSet<>();
+    for (Range<?> range : points) {
+      if (!(range.lowerEndpoint() instanceof NlsString)) {
+        return null;
+      }
+      terms.add(((NlsString) range.lowerEndpoint()).getValue());
+    }
+    Query q = column.terms(terms);
+    return complemented ? column.exclude(q) : q;
+  }
+
+  /**
+   * Translates a {@code LIKE} whose pattern is a literal without wildcards, which is the same as
+   * an equality, or with a single {@code %} at the end, which matches the values with a prefix.
+   */
+  private @Nullable Query like(RexCall call) {
+    if (call.getOperator() != SqlStdOperatorTable.LIKE || call.operands.size() != 2
+        || !(call.operands.get(1) instanceof RexLiteral)) {
+      // Negated patterns and patterns with an escape character are not supported
+      return null;
+    }
+    Column column = column(call.operands.get(0));
+    String pattern = string((RexLiteral) call.operands.get(1));
+    if (column == null || !column.isString() || pattern == null) {
+      return null;
+    }
+    String prefix = pattern.endsWith("%") ? pattern.substring(0, pattern.length() - 1) : null;
+    String literal = prefix == null ? pattern : prefix;
+    if (literal.indexOf('%') >= 0 || literal.indexOf('_') >= 0) {
+      return null;
+    }
+    if (prefix == null) {
+      return column.term(pattern);
+    }
+    return prefix.isEmpty() ? column.exists() : new PrefixQuery(new Term(column.name, prefix));
+  }
+
+  /**
+   * Returns the indexed column referenced by the specified expression, or null if the expression
+   * is not a (possibly cast) reference to a column that can be searched.
+   */
+  private @Nullable Column column(RexNode node) {
+    RexNode ref = node;
+    if (ref.getKind() == SqlKind.CAST) {
+      ref = ((RexCall) ref).operands.get(0);
+      if (SqlTypeFamily.CHARACTER.contains(ref.getType())
+          || !isWideningCast(ref.getType().getSqlTypeName(), node.getType().getSqlTypeName())) {
+        return null;
+      }
+    }
+    if (!(ref instanceof RexInputRef)) {
+      return null;
+    }
+    RelMetadataQuery mq = input.getCluster().getMetadataQuery();
+    Set<RexNode> lineage = mq.getExpressionLineage(input, ref);
+    if (lineage == null || lineage.size() != 1
+        || !(lineage.iterator().next() instanceof RexTableInputRef)) {
+      return null;
+    }
+    RexTableInputRef col = (RexTableInputRef) lineage.iterator().next();
+    RelDataTypeField typeField = col.getTableRef().getTable()
+        .getRowType()
+        .getFieldList()
+        .get(col.getIndex());
+    SqlTypeName type = typeField.getType().getSqlTypeName();
+    switch (type) {
+    case INTEGER:
+    case DATE:
+    case DOUBLE:
+    case CHAR:
+    case VARCHAR:
+      break;
+    default:
+      return null;
+    }
+    LuceneTable table = col.getTableRef().getTable().unwrap(LuceneTable.class);
+    boolean docValues = table != null && table.hasDocValues(typeField.getName());
+    return new Column(typeField.getName(), type, docValues, table);
+  }
+
+  /**
+   * Returns whether casting a value from one type to another preserves its order and equality.
+   */
+  private static boolean isWideningCast(SqlTypeName from, SqlTypeName to) {
+    if (from == to) {
+      return true;
+    }
+    switch (from) {
+    case INTEGER:
+      return to == SqlTypeName.BIGINT || to == SqlTypeName.DECIMAL || to == SqlTypeName.DOUBLE;
+    case DOUBLE:
+      return to == SqlTypeName.FLOAT;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * Returns the value of a literal as a number, with dates as days since epoch, or null if the
+   * literal is not numeric.
+   */
+  private static @Nullable BigDecimal value(RexLiteral literal) {
+    if (literal.isNull()) {
+      return null;
+    }
+    switch (literal.getType().getSqlTypeName()) {
+    case DATE:
+      return value(literal.getValueAs(DateString.class));
+    case TINYINT:
+    case SMALLINT:
+    case INTEGER:
+    case BIGINT:
+    case DECIMAL:
+    case FLOAT:
+    case REAL:
+    case DOUBLE:
+      return literal.getValueAs(BigDecimal.class);
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * Returns the value of a literal as a string, or null if the literal is not a character string.
+   */
+  private static @Nullable String string(RexLiteral literal) {
+    if (literal.isNull() || !SqlTypeFamily.CHARACTER.contains(literal.getType())) {
+      return null;
+    }
+    return literal.getValueAs(String.class);
+  }
+
+  /**
+   * Returns the value of a bound of a {@link Sarg} as a number, or null if it is not numeric.
+   */
+  private static @Nullable BigDecimal value(Object endpoint) {
+    if (endpoint instanceof BigDecimal) {
+      return (BigDecimal) endpoint;
+    }
+    if (endpoint instanceof DateString) {
+      return BigDecimal.valueOf(((DateString) endpoint).getDaysSinceEpoch());
+    }
+    return null;
+  }
+
+  /**
+   * Returns a query matching the documents matched by any of the specified queries.
+   */
+  private static Query union(Query... queries) {
+    List<Query> matching = new ArrayList<>();
+    for (Query q : queries) {
+      if (!(q instanceof MatchNoDocsQuery)) {
+        matching.add(q);
       }
     }
-    throw new AssertionError("Expression " + call + " cannot be translated to Lucene query");
+    if (matching.isEmpty()) {
+      return new MatchNoDocsQuery();
+    }
+    if (matching.size() == 1) {
+      return matching.get(0);
+    }
+    BooleanQuery.Builder builder = new BooleanQuery.Builder();
+    for (Query q : matching) {
+      builder.add(q, BooleanClause.Occur.SHOULD);
+    }
+    return builder.build();
   }
 
   /**
    * Translates the condition in the specified filter to a Lucene query.
+   *
+   * @throws AssertionError if the condition cannot be translated (see
+   * {@link #canTranslate(Filter)})
    */
   public static Query translate(Filter filter) {
-    RexToLuceneTranslator translator = new RexToLuceneTranslator(filter);
-    return filter.getCondition().accept(translator);
+    Query query = translate(filter.getInput(), filter.getCondition());
+    if (query == null) {
+      throw new AssertionError(
+          "Expression " + filter.getCondition() + " cannot be translated to Lucene query");
+    }
+    return query;
+  }
+
+  /**
+   * Translates the specified condition, over the specified input, to a Lucene query; returns
+   * null if the condition cannot be translated.
+   */
+  public static @Nullable Query translate(RelNode input, RexNode condition) {
+    return condition.accept(new RexToLuceneTranslator(input));
+  }
+
+  /**
+   * Returns whether the condition in the specified filter can be translated to a Lucene query.
+   */
+  public static boolean canTranslate(Filter filter) {
+    return canTranslate(filter, filter.getCondition());
+  }
+
+  /**
+   * Returns whether the specified condition, over the input of the specified filter, can be
+   * translated to a Lucene query.
+   */
+  public static boolean canTranslate(Filter filter, RexNode condition) {
+    return translate(filter.getInput(), condition) != null;
+  }
+
+  /**
+   * A column of the index that can be searched; numeric and date columns are searched by range
+   * and character columns by term.
+   */
+  private static final class Column {
+    private final String name;
+    private final SqlTypeName type;
+    private final boolean docValues;
+    private final @Nullable LuceneTable table;
+
+    Column(String name, SqlTypeName type, boolean docValues, @Nullable LuceneTable table) {
+      this.name = name;
+      this.type = type;
+      this.docValues = docValues;
+      this.table = table;
+    }
+
+    boolean isString() {
+      return type == SqlTypeName.CHAR || type == SqlTypeName.VARCHAR;
+    }
+
+    /**
+     * Returns a query matching the documents whose (character) value compares to the specified
+     * term as the comparison requires, or null if the comparison is not supported.
+     */
+    @Nullable Query compare(SqlKind kind, String term) {
+      switch (kind) {
+      case EQUALS:
+        return term(term);
+      case NOT_EQUALS:
+        return exclude(term(term));
+      default:
+        return null;
+      }
+    }
+
+    /**
+     * Returns a query matching the documents whose (numeric) value compares to the specified
+     * value as the comparison requires, or null if the comparison is not supported.
+     */
+    @Nullable Query compare(SqlKind kind, BigDecimal value) {
+      switch (kind) {
+      case EQUALS:
+        return range(value, true, value, true);
+      case NOT_EQUALS:
+        return union(range(null, false, value, false), range(value, false, null, false));
+      case LESS_THAN:
+        return range(null, false, value, false);
+      case LESS_THAN_OR_EQUAL:
+        return range(null, false, value, true);
+      case GREATER_THAN:
+        return range(value, false, null, false);
+      case GREATER_THAN_OR_EQUAL:
+        return range(value, true, null, false);
+      default:
+        return null;
+      }
+    }
+
+    /**
+     * Returns the estimated fraction of the documents for which the comparison with an unknown
+     * value is true.
+     *
+     * Equalities match the documents of one of the distinct values of the column; other
+     * comparisons are guessed as Calcite does.
+     */
+    double selectivity(SqlKind kind) {
+      LuceneStatistics stats = table == null ? null : table.statistics();
+      LuceneStatistics.ColumnStatistics column = stats == null ? null : stats.column(name);
+      Double distinct = column == null ? null : column.distinctCount();
+      if (distinct == null || distinct == 0 || stats.rowCount() == 0) {
+        return kind == SqlKind.EQUALS ? 0.15 : 0.5;
+      }
+      double values = 1 - (double) column.nullCount() / stats.rowCount();
+      switch (kind) {
+      case EQUALS:
+        return values / distinct;
+      case NOT_EQUALS:
+        return values * (1 - 1 / distinct);
+      default:
+        return values * 0.5;
+      }
+    }
+
+    /**
+     * Returns a query matching the documents that have a value for the column.
+     */
+    Query exists() {
+      if (!isString()) {
+        return range(null, false, null, false);
+      }
+      return docValues
+          ? new DocValuesFieldExistsQuery(name)
+          : new TermRangeQuery(name, null, null, true, true);
+    }
+
+    /**
+     * Returns a query matching the documents that have a value for the column and do not match
+     * the specified query.
+     */
+    Query exclude(Query q) {
+      return new BooleanQuery.Builder()
+          .add(exists(), BooleanClause.Occur.MUST)
+          .add(q, BooleanClause.Occur.MUST_NOT)
+          .build();
+    }
+
+    /**
+     * Returns a query matching the documents whose (character) value is the specified term.
+     */
+    Query term(String value) {
+      return new TermQuery(new Term(name, value));
+    }
+
+    /**
+     * Returns a query matching the documents whose (character) value is one of the specified
+     * terms.
+     */
+    Query terms(Collection<String> values) {
+      if (values.size() == 1) {
+        return term(values.iterator().next());
+      }
+      List<BytesRef> terms = new ArrayList<>();
+      for (String v : values) {
+        terms.add(new BytesRef(v));
+      }
+      return new TermInSetQuery(name, terms);
+    }
+
+    /**
+     * Returns a query matching the documents whose (numeric) value is one of the specified
+     * values.
+     */
+    Query points(List<BigDecimal> values) {
+      if (values.size() == 1) {
+        return range(values.get(0), true, values.get(0), true);
+      }
+      if (type == SqlTypeName.DOUBLE) {
+        double[] points = new double[values.size()];
+        for (int i = 0; i < points.length; i++) {
+          points[i] = values.get(i).doubleValue();
+        }
+        return DoublePoint.newSetQuery(name, points);
+      }
+      int[] points = new int[values.size()];
+      int n = 0;
+      for (BigDecimal v : values) {
+        // Values that are not integers or are out of range cannot match
+        if (v.signum() == 0 || v.stripTrailingZeros().scale() <= 0) {
+          long l = clamp(v.setScale(0, RoundingMode.UNNECESSARY));
+          if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) {
+            points[n++] = (int) l;
+          }
+        }
+      }
+      return n == 0 ? new MatchNoDocsQuery() : IntPoint.newSetQuery(name, Arrays.copyOf(points, n));
+    }
+
+    /**
+     * Returns a query matching the documents whose (numeric) value lies within the specified
+     * bounds; a null bound means the range is unbounded on that side.
+     */
+    Query range(@Nullable BigDecimal lower, boolean lowerInclusive, @Nullable BigDecimal upper,
+        boolean upperInclusive) {
+      if (type == SqlTypeName.DOUBLE) {
+        double lo = Double.NEGATIVE_INFINITY;
+        double hi = Double.POSITIVE_INFINITY;
+        if (lower != null) {
+          lo = lowerInclusive ? lower.doubleValue() : Math.nextUp(lower.doubleValue());
+        }
+        if (upper != null) {
+          hi = upperInclusive ? upper.doubleValue() : Math.nextDown(upper.doubleValue());
+        }
+        // Double doc values are not sortable as longs so only the points are used
+        return lo > hi ? new MatchNoDocsQuery() : DoublePoint.newRangeQuery(name, lo, hi);
+      }
+      long lo = Integer.MIN_VALUE;
+      long hi = Integer.MAX_VALUE;
+      if (lower != null) {
+        BigDecimal l =
+            lower.setScale(0, lowerInclusive ? RoundingMode.CEILING : RoundingMode.FLOOR);
+        lo = clamp(lowerInclusive ? l : l.add(BigDecimal.ONE));
+      }
+      if (upper != null) {
+        BigDecimal u =
+            upper.setScale(0, upperInclusive ? RoundingMode.FLOOR : RoundingMode.CEILING);
+        hi = clamp(upperInclusive ? u : u.subtract(BigDecimal.ONE));
+      }
+      if (lo > hi || lo > Integer.MAX_VALUE || hi < Integer.MIN_VALUE) {
+        return new MatchNoDocsQuery();
+      }
+      int from = (int) Math.max(lo, Integer.MIN_VALUE);
+      int to = (int) Math.min(hi, Integer.MAX_VALUE);
+      Query points = from == to
+          ? IntPoint.newExactQuery(name, from)
+          : IntPoint.newRangeQuery(name, from, to);
+      if (!docValues) {
+        return points;
+      }
+      return new IndexOrDocValuesQuery(points, NumericDocValuesField.newSlowRangeQuery(name,
+          from, to));
+    }
+
+    /**
+     * Returns the specified integer clamped just outside the range of {@code int} values so that
+     * it can be compared safely with {@code int} bounds.
+     */
+    private static long clamp(BigDecimal value) {
+      BigDecimal min = BigDecimal.valueOf((long) Integer.MIN_VALUE - 1);
+      BigDecimal max = BigDecimal.valueOf((long) Integer.MAX_VALUE + 1);
+      return value.max(min).min(max).longValueExact();
+    }
   }
 }
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.rules;
+
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterRule;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.logical.LogicalAggregate;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+
+import com.github.zabetak.calcite.tutorial.operators.LuceneAggregate;
+
+import static com.github.zabetak.calcite.tutorial.operators.LuceneRel.LUCENE;
+
+/**
+ * Rule to convert a {@link LogicalAggregate} to a {@link LuceneAggregate} if possible.
+ *
+ * The aggregate can be pushed in Lucene if it has a single grouping set and only simple
+ * {@code COUNT}, {@code SUM}, {@code MIN}, and {@code MAX} calls, for example:
+ *
+ * <pre>{@code
+ * LogicalAggregate(group=[{0}], EXPR$1=[COUNT()], EXPR$2=[MAX($2)])
+ * }</pre>
+ *
+ * Every group key and argument must be a column of the table with doc values; arguments must
+ * also be numeric. The input must not be limited (see {@link LuceneSortRule}) or aggregated
+ * already.
+ */
+public final class LuceneAggregateRule extends ConverterRule {
+  LuceneAggregateRule(final Config config) {
+    super(config);
+  }
+
+  @Override public boolean matches(final RelOptRuleCall ruleCall) {
+    Aggregate aggregate = ruleCall.rel(0);
+    RelNode input = aggregate.getInput();
+    if (aggregate.getGroupType() != Aggregate.Group.SIMPLE
+        || LuceneInputs.isLimited(input) || LuceneInputs.isAggregated(input)) {
+      return false;
+    }
+    RelMetadataQuery mq = ruleCall.getMetadataQuery();
+    RelDataType rowType = input.getRowType();
+    for (int key : aggregate.getGroupSet()) {
+      if (!LuceneAggregate.isGroupable(rowType.getFieldList().get(key).getType().getSqlTypeName())
+          || !LuceneInputs.hasDocValues(mq, input, key)) {
+        return false;
+      }
+    }
+    for (AggregateCall call : aggregate.getAggCallList()) {
+      if (LuceneAggregate.toFunction(call) == null
+          || !LuceneAggregate.isNumeric(call.getType().getSqlTypeName())) {
+        return false;
+      }
+      for (int arg : call.getArgList()) {
+        if (!LuceneAggregate.isNumeric(rowType.getFieldList().get(arg).getType().getSqlTypeName())
+            || !LuceneInputs.hasDocValues(mq, input, arg)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override public RelNode convert(final RelNode rel) {
+    final LogicalAggregate aggregate = (LogicalAggregate) rel;
+    final RelNode newInput =
+        convert(aggregate.getInput(), aggregate.getInput().getTraitSet().replace(LUCENE));
+    return new LuceneAggregate(aggregate.getCluster(), newInput, aggregate.getGroupSet(),
+        aggregate.getAggCallList());
+  }
+
+  public static final Config DEFAULT = Config.INSTANCE
+      .withConversion(LogicalAggregate.class, Convention.NONE, LUCENE, "LuceneAggregateRule")
+      .withRuleFactory(LuceneAggregateRule::new);
+}
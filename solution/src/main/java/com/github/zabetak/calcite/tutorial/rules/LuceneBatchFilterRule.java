@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.rules;
+
+import org.apache.calcite.adapter.enumerable.EnumerableCalc;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RelRule;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexLocalRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexProgram;
+import org.apache.calcite.rex.RexUtil;
+
+import com.github.zabetak.calcite.tutorial.operators.LuceneToEnumerableConverter;
+import com.github.zabetak.calcite.tutorial.operators.LuceneToEnumerableFilter;
+import com.github.zabetak.calcite.tutorial.operators.RexToBatchFilterTranslator;
+import com.github.zabetak.calcite.tutorial.operators.RexToLuceneTranslator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rule to evaluate the condition of an {@link EnumerableCalc} over a Lucene scan on the column
+ * vectors of the batches read by the scan, for example:
+ *
+ * <pre>{@code
+ * EnumerableCalc(expr#0..2=[{inputs}], expr#3=[<($t1, $t2)], proj#0..2=[{exprs}],
+ *     $condition=[$t3])
+ *   LuceneToEnumerableConverter
+ *     LuceneProject(l_orderkey=[$0], l_commitdate=[$11], l_receiptdate=[$12])
+ *       LuceneTableScan(table=[[LINEITEM]])
+ * }</pre>
+ *
+ * becomes
+ *
+ * <pre>{@code
+ * LuceneToEnumerableFilter(condition=[<($1, $2)])
+ *   LuceneProject(l_orderkey=[$0], l_commitdate=[$11], l_receiptdate=[$12])
+ *     LuceneTableScan(table=[[LINEITEM]])
+ * }</pre>
+ *
+ * These are the conditions that cannot be searched in the index (e.g., comparisons of two
+ * columns or {@code LIKE} patterns that do not start with a literal prefix) but whose rows would
+ * otherwise be materialized only to be dropped by the calc. The conjuncts of the condition that
+ * cannot be searched but can be evaluated on the vectors (see {@link RexToBatchFilterTranslator})
+ * move to a {@link LuceneToEnumerableFilter} that replaces the converter, and the rest stay in
+ * the calc, which disappears if it has nothing left to do. The input of the converter must not be
+ * aggregated since aggregations return groups rather than batches.
+ */
+public final class LuceneBatchFilterRule extends RelRule<LuceneBatchFilterRule.Config> {
+  LuceneBatchFilterRule(final Config config) {
+    super(config);
+  }
+
+  @Override public boolean matches(final RelOptRuleCall call) {
+    EnumerableCalc calc = call.rel(0);
+    LuceneToEnumerableConverter converter = call.rel(1);
+    return calc.getProgram().getCondition() != null
+        && !LuceneInputs.isAggregated(converter.getInput());
+  }
+
+  @Override public void onMatch(final RelOptRuleCall call) {
+    EnumerableCalc calc = call.rel(0);
+    LuceneToEnumerableConverter converter = call.rel(1);
+    RexBuilder rexBuilder = calc.getCluster().getRexBuilder();
+    RexProgram program = calc.getProgram();
+    RexNode condition = RexUtil.expandSearch(rexBuilder, null,
+        program.expandLocalRef(program.getCondition()));
+    List<RexNode> evaluated = new ArrayList<>();
+    List<RexNode> remaining = new ArrayList<>();
+    for (RexNode conjunct : RelOptUtil.conjunctions(condition)) {
+      // Searchable conjuncts are left to LuceneFilterRule, which restricts the hits instead
+      if (RexToLuceneTranslator.translate(converter.getInput(), conjunct) == null
+          && RexToBatchFilterTranslator.translate(conjunct, converter.getRowType()) != null) {
+        evaluated.add(conjunct);
+      } else {
+        remaining.add(conjunct);
+      }
+    }
+    if (evaluated.isEmpty()) {
+      return;
+    }
+    RelNode filtered = new LuceneToEnumerableFilter(converter.getCluster(), converter.getInput(),
+        RexUtil.composeConjunction(rexBuilder, evaluated));
+    List<RexNode> projects = new ArrayList<>();
+    for (RexLocalRef project : program.getProjectList()) {
+      projects.add(program.expandLocalRef(project));
+    }
+    RexProgram newProgram = RexProgram.create(filtered.getRowType(), projects,
+        remaining.isEmpty() ? null : RexUtil.composeConjunction(rexBuilder, remaining),
+        program.getOutputRowType(), rexBuilder);
+    call.transformTo(newProgram.isTrivial()
+        ? filtered
+        : EnumerableCalc.create(filtered, newProgram));
+  }
+
+  public static final Config DEFAULT = Config.EMPTY
+      .withDescription("LuceneBatchFilterRule")
+      .withOperandSupplier(b0 -> b0.operand(EnumerableCalc.class).oneInput(
+          b1 -> b1.operand(LuceneToEnumerableConverter.class).anyInputs()))
+      .as(Config.class);
+
+  /**
+   * Rule configuration.
+   */
+  public interface Config extends RelRule.Config {
+    @Override default LuceneBatchFilterRule toRule() {
+      return new LuceneBatchFilterRule(this);
+    }
+  }
+}
@@ -22,33 +22,35 @@ import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.convert.ConverterRule;
 import org.apache.calcite.rel.core.Filter;
 import org.apache.calcite.rel.logical.LogicalFilter;
-import org.apache.calcite.rel.metadata.RelMetadataQuery;
-import org.apache.calcite.rex.RexCall;
-import org.apache.calcite.rex.RexInputRef;
-import org.apache.calcite.rex.RexLiteral;
-import org.apache.calcite.rex.RexNode;
-import org.apache.calcite.sql.SqlKind;
-import org.apache.calcite.sql.type.SqlTypeName;
 
 import com.github.zabetak.calcite.tutorial.operators.LuceneFilter;
-
-import org.checkerframework.checker.nullness.qual.Nullable;
-
-import java.util.Set;
+import com.github.zabetak.calcite.tutorial.operators.RexToLuceneTranslator;
 
 import static com.github.zabetak.calcite.tutorial.operators.LuceneRel.LUCENE;
 
 /**
  * Rule to convert a {@link LogicalFilter} to a {@link LuceneFilter} if possible.
  *
- * The filter can be pushed in Lucene if it is of the following form.
+ * The filter can be pushed in Lucene if its condition is a comparison or a search between a
+ * column and a literal, a comparison between a column and a dynamic parameter, or a combination
+ * of those with {@code AND}, {@code OR}, and {@code NOT}, for example:
  *
  * <pre>{@code
  * =($0, 154)
+ * =($0, ?0)
+ * >($3, 220388.06:DECIMAL(8, 2))
+ * AND(SEARCH($0, Sarg[[3..5]]), OR(=($1, 10), <($2, 1995-01-01)))
  * }</pre>
  *
- * A single equality operator with input reference on the left side and an integer literal on the
- * right side. The input reference should be resolvable to an actual column of the table.
+ * The whole condition must be pushable; filters where only some of the conjuncts can be pushed
+ * are split beforehand by {@link LuceneFilterSplitRule}.
+ *
+ * The column should be resolvable to an actual column of the table (see
+ * {@link RexToLuceneTranslator}): an {@code INTEGER}, {@code DATE}, or {@code DOUBLE} column,
+ * which is searched by range, or a {@code CHAR} or {@code VARCHAR} column, which is searched by
+ * term with equalities, {@code IN} lists, and {@code LIKE} patterns with a literal prefix, e.g.,
+ * {@code LIKE($1, 'fur%')}. The input must not be limited (see {@link LuceneSortRule}) or
+ * aggregated (see {@link LuceneAggregateRule}).
  */
 public final class LuceneFilterRule extends ConverterRule {
   LuceneFilterRule(final Config config) {
@@ -57,24 +59,13 @@ public final class LuceneFilterRule extends ConverterRule {
 
   @Override public boolean matches(final RelOptRuleCall ruleCall) {
     Filter filter = ruleCall.rel(0);
-    RexNode condition = filter.getCondition();
-    if (!(condition instanceof RexCall)) {
+    if (LuceneInputs.isLimited(filter.getInput()) || LuceneInputs.isAggregated(filter.getInput())) {
       return false;
     }
-    RexCall call = (RexCall) condition;
-    if (call.op.kind.equals(SqlKind.EQUALS) &&
-        call.operands.get(0) instanceof RexInputRef &&
-        call.operands.get(1) instanceof RexLiteral) {
-      RelMetadataQuery mq = ruleCall.getMetadataQuery();
-      RexInputRef input = (RexInputRef) call.operands.get(0);
-      RexLiteral literal = (RexLiteral) call.operands.get(1);
-      Set<RexNode> lineage = mq.getExpressionLineage(filter.getInput(), input);
-      return lineage != null && SqlTypeName.INTEGER.equals(literal.getType().getSqlTypeName());
-    }
-    return false;
+    return RexToLuceneTranslator.canTranslate(filter);
   }
 
-  @Override public @Nullable RelNode convert(final RelNode rel) {
+  @Override public RelNode convert(final RelNode rel) {
     final LogicalFilter filter = (LogicalFilter) rel;
     final RelNode newInput =
         convert(filter.getInput(), filter.getInput().getTraitSet().replace(LUCENE));
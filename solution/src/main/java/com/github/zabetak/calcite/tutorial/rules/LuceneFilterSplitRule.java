@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.rules;
+
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.RelRule;
+import org.apache.calcite.rel.logical.LogicalFilter;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexUtil;
+
+import com.github.zabetak.calcite.tutorial.operators.RexToLuceneTranslator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rule to split a {@link LogicalFilter} whose condition can only be partially pushed in Lucene
+ * into two filters, for example:
+ *
+ * <pre>{@code
+ * LogicalFilter(condition=[AND(=($0, 6), =($1, 140), LIKE($2, '%x%'))])
+ * }</pre>
+ *
+ * becomes
+ *
+ * <pre>{@code
+ * LogicalFilter(condition=[LIKE($2, '%x%')])
+ *   LogicalFilter(condition=[AND(=($0, 6), =($1, 140))])
+ * }</pre>
+ *
+ * The bottom filter contains the conjuncts that can be translated to a Lucene query (see
+ * {@link RexToLuceneTranslator}) and is converted by {@link LuceneFilterRule}; the top one
+ * contains the rest and is evaluated by Calcite over the hits of the query. The input must not be
+ * limited (see {@link LuceneSortRule}) or aggregated (see {@link LuceneAggregateRule}).
+ */
+public final class LuceneFilterSplitRule extends RelRule<LuceneFilterSplitRule.Config> {
+  LuceneFilterSplitRule(final Config config) {
+    super(config);
+  }
+
+  @Override public boolean matches(final RelOptRuleCall call) {
+    LogicalFilter filter = call.rel(0);
+    return !LuceneInputs.isLimited(filter.getInput())
+        && !LuceneInputs.isAggregated(filter.getInput());
+  }
+
+  @Override public void onMatch(final RelOptRuleCall call) {
+    LogicalFilter filter = call.rel(0);
+    List<RexNode> pushed = new ArrayList<>();
+    List<RexNode> residual = new ArrayList<>();
+    for (RexNode conjunct : RelOptUtil.conjunctions(filter.getCondition())) {
+      if (RexToLuceneTranslator.canTranslate(filter, conjunct)) {
+        pushed.add(conjunct);
+      } else {
+        residual.add(conjunct);
+      }
+    }
+    if (pushed.isEmpty() || residual.isEmpty()) {
+      return;
+    }
+    RexBuilder rexBuilder = filter.getCluster().getRexBuilder();
+    LogicalFilter bottom = filter.copy(filter.getTraitSet(), filter.getInput(),
+        RexUtil.composeConjunction(rexBuilder, pushed));
+    call.transformTo(filter.copy(filter.getTraitSet(), bottom,
+        RexUtil.composeConjunction(rexBuilder, residual)));
+  }
+
+  public static final Config DEFAULT = Config.EMPTY
+      .withDescription("LuceneFilterSplitRule")
+      .withOperandSupplier(b0 -> b0.operand(LogicalFilter.class).anyInputs())
+      .as(Config.class);
+
+  /**
+   * Rule configuration.
+   */
+  public interface Config extends RelRule.Config {
+    @Override default LuceneFilterSplitRule toRule() {
+      return new LuceneFilterSplitRule(this);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.rules;
+
+import org.apache.calcite.adapter.enumerable.EnumerableHashJoin;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelRule;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.util.ImmutableBeans;
+
+import com.github.zabetak.calcite.tutorial.operators.LuceneHashJoin;
+import com.github.zabetak.calcite.tutorial.operators.LuceneToEnumerableConverter;
+
+/**
+ * Rule to convert an {@link EnumerableHashJoin} to a {@link LuceneHashJoin} filtering a Lucene
+ * input by the join keys of the other input, for example:
+ *
+ * <pre>{@code
+ * EnumerableHashJoin(condition=[=($0, $3)], joinType=[inner])
+ *   LuceneToEnumerableConverter
+ *     LuceneFilter(condition=[<($0, 3)])
+ *       LuceneTableScan(table=[[CUSTOMER]])
+ *   LuceneToEnumerableConverter
+ *     LuceneTableScan(table=[[ORDERS]])
+ * }</pre>
+ *
+ * The join must be an inner or semi equi-join. The filtered input must be a
+ * {@link LuceneToEnumerableConverter} with a join key that can be searched in the index (see
+ * {@link LuceneJoinKey}). Only the left input of a semi-join can be filtered. When both inputs
+ * qualify, the input with the most rows is filtered.
+ */
+public final class LuceneHashJoinRule extends RelRule<LuceneHashJoinRule.Config> {
+  LuceneHashJoinRule(final Config config) {
+    super(config);
+  }
+
+  @Override public boolean matches(final RelOptRuleCall call) {
+    EnumerableHashJoin join = call.rel(0);
+    return !(join instanceof LuceneHashJoin)
+        && (join.getJoinType() == JoinRelType.INNER || join.getJoinType() == JoinRelType.SEMI)
+        && join.analyzeCondition().isEqui();
+  }
+
+  @Override public void onMatch(final RelOptRuleCall call) {
+    EnumerableHashJoin join = call.rel(0);
+    RelMetadataQuery mq = call.getMetadataQuery();
+    LuceneJoinKey filtered = null;
+    double rowCount = -1;
+    // The right input of a semi-join does not produce rows
+    int sides = join.getJoinType() == JoinRelType.SEMI ? 1 : 2;
+    for (int i = 0; i < sides; i++) {
+      LuceneJoinKey key = LuceneJoinKey.of(mq, join, i, call.rel(i + 1));
+      if (key != null && mq.getRowCount(call.rel(i + 1)) > rowCount) {
+        filtered = key;
+        rowCount = mq.getRowCount(call.rel(i + 1));
+      }
+    }
+    if (filtered == null) {
+      return;
+    }
+    call.transformTo(
+        new LuceneHashJoin(join.getCluster(), join.getTraitSet(), join.getLeft(), join.getRight(),
+            join.getCondition(), join.getVariablesSet(), join.getJoinType(), filtered.side,
+            filtered.key, filtered.field, config.maxKeys()));
+  }
+
+  public static final Config DEFAULT = Config.EMPTY
+      .withDescription("LuceneHashJoinRule")
+      .withOperandSupplier(b0 -> b0.operand(EnumerableHashJoin.class).inputs(
+          b1 -> b1.operand(RelNode.class).anyInputs(),
+          b2 -> b2.operand(RelNode.class).anyInputs()))
+      .as(Config.class);
+
+  /**
+   * Rule configuration.
+   */
+  public interface Config extends RelRule.Config {
+    /**
+     * Returns the maximum number of distinct keys for which the Lucene input is filtered; larger
+     * key sets fall back to scanning the input as it is.
+     */
+    @ImmutableBeans.Property
+    @ImmutableBeans.IntDefault(1024)
+    int maxKeys();
+
+    /**
+     * Sets {@link #maxKeys()}.
+     */
+    Config withMaxKeys(int maxKeys);
+
+    @Override default LuceneHashJoinRule toRule() {
+      return new LuceneHashJoinRule(this);
+    }
+  }
+}
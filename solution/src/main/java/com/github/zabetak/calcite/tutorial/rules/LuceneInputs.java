@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.rules;
+
+import org.apache.calcite.plan.volcano.RelSubset;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.Sort;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexTableInputRef;
+
+import com.github.zabetak.calcite.tutorial.LuceneTable;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Utilities for checking whether an operator can be pushed in Lucene on top of its input.
+ */
+final class LuceneInputs {
+  private LuceneInputs() {
+  }
+
+  /**
+   * Returns whether the rows of the specified expression are limited by a sort with an offset or
+   * fetch below (possibly) some projections and filters.
+   *
+   * Operators that are implemented by refining the Lucene query (e.g., filters) must not be
+   * placed on top of a limited input since the query determines the hits before the limit is
+   * applied.
+   */
+  static boolean isLimited(RelNode rel) {
+    RelNode below = skipRowPreserving(rel);
+    if (below instanceof Sort) {
+      Sort sort = (Sort) below;
+      return sort.offset != null || sort.fetch != null;
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether the rows of the specified expression are computed by an aggregate below
+   * (possibly) some projections, filters, and sorts.
+   *
+   * The rows of an aggregate are groups, not documents, so no other Lucene operator can be placed
+   * on top of it.
+   */
+  static boolean isAggregated(RelNode rel) {
+    Set<RelNode> visited = new HashSet<>();
+    while (rel != null && visited.add(rel)) {
+      if (rel instanceof RelSubset) {
+        rel = ((RelSubset) rel).getOriginal();
+      } else if (rel instanceof Aggregate) {
+        return true;
+      } else if (rel instanceof Project || rel instanceof Filter || rel instanceof Sort) {
+        rel = rel.getInput(0);
+      } else {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether the specified field of the expression is a column of a {@link LuceneTable}
+   * with doc values.
+   */
+  static boolean hasDocValues(RelMetadataQuery mq, RelNode rel, int field) {
+    RexTableInputRef column = column(mq, rel, field);
+    if (column == null) {
+      return false;
+    }
+    LuceneTable table = column.getTableRef().getTable().unwrap(LuceneTable.class);
+    return table.hasDocValues(columnName(column));
+  }
+
+  /**
+   * Returns the name, in the index, of the specified field of the expression, or null if the
+   * field is not a column of a {@link LuceneTable}.
+   */
+  static @Nullable String columnName(RelMetadataQuery mq, RelNode rel, int field) {
+    RexTableInputRef column = column(mq, rel, field);
+    return column == null ? null : columnName(column);
+  }
+
+  private static String columnName(RexTableInputRef column) {
+    return column.getTableRef().getTable().getRowType().getFieldNames().get(column.getIndex());
+  }
+
+  /**
+   * Returns the column of a {@link LuceneTable} that the specified field of the expression
+   * originates from, or null if the field is computed or comes from another table.
+   */
+  private static @Nullable RexTableInputRef column(RelMetadataQuery mq, RelNode rel, int field) {
+    Set<RexNode> lineage = mq.getExpressionLineage(rel, RexInputRef.of(field, rel.getRowType()));
+    if (lineage == null || lineage.size() != 1) {
+      return null;
+    }
+    RexNode origin = lineage.iterator().next();
+    if (!(origin instanceof RexTableInputRef)) {
+      return null;
+    }
+    RexTableInputRef column = (RexTableInputRef) origin;
+    if (column.getTableRef().getTable().unwrap(LuceneTable.class) == null) {
+      return null;
+    }
+    return column;
+  }
+
+  /**
+   * Returns the first expression below projections, filters, and sorts without limit.
+   */
+  private static RelNode skipRowPreserving(RelNode rel) {
+    Set<RelNode> visited = new HashSet<>();
+    while (rel != null && visited.add(rel)) {
+      if (rel instanceof RelSubset) {
+        rel = ((RelSubset) rel).getOriginal();
+      } else if (rel instanceof Sort) {
+        Sort sort = (Sort) rel;
+        if (sort.offset != null || sort.fetch != null) {
+          return sort;
+        }
+        rel = sort.getInput();
+      } else if (rel instanceof Project || rel instanceof Filter) {
+        rel = rel.getInput(0);
+      } else {
+        return rel;
+      }
+    }
+    return rel;
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.rules;
+
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.JoinInfo;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.util.ImmutableIntList;
+
+import com.github.zabetak.calcite.tutorial.operators.LuceneToEnumerableConverter;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A join key of a Lucene input that can be searched with the keys of the other input of the join.
+ *
+ * The input must be a {@link LuceneToEnumerableConverter} over an input that is not limited or
+ * aggregated, and the key must be an {@code INTEGER}, {@code DATE}, {@code CHAR}, or
+ * {@code VARCHAR} column of the index compared with a key of the same type.
+ */
+final class LuceneJoinKey {
+  /**
+   * The input of the join: 0 for the left, 1 for the right.
+   */
+  final int side;
+  /**
+   * The position of the key among the keys of the join.
+   */
+  final int key;
+  /**
+   * The name of the key in the index.
+   */
+  final String field;
+
+  private LuceneJoinKey(int side, int key, String field) {
+    this.side = side;
+    this.key = key;
+    this.field = field;
+  }
+
+  /**
+   * Returns the first searchable key of the specified input of the join, or null if there is
+   * none.
+   *
+   * @param input - the input of the join matched by the rule, which may be one of the
+   * expressions of the input set rather than the input itself
+   */
+  static @Nullable LuceneJoinKey of(RelMetadataQuery mq, Join join, int side, RelNode input) {
+    if (!(input instanceof LuceneToEnumerableConverter)) {
+      return null;
+    }
+    RelNode scan = input.getInput(0);
+    if (LuceneInputs.isLimited(scan) || LuceneInputs.isAggregated(scan)) {
+      return null;
+    }
+    JoinInfo info = join.analyzeCondition();
+    ImmutableIntList keys = side == 0 ? info.leftKeys : info.rightKeys;
+    ImmutableIntList otherKeys = side == 0 ? info.rightKeys : info.leftKeys;
+    RelNode other = join.getInput(1 - side);
+    for (int k = 0; k < keys.size(); k++) {
+      SqlTypeName type = fieldType(scan, keys.get(k));
+      String name = LuceneInputs.columnName(mq, scan, keys.get(k));
+      if (name != null && isSearchable(type) && type == fieldType(other, otherKeys.get(k))) {
+        return new LuceneJoinKey(side, k, name);
+      }
+    }
+    return null;
+  }
+
+  private static SqlTypeName fieldType(RelNode rel, int field) {
+    return rel.getRowType().getFieldList().get(field).getType().getSqlTypeName();
+  }
+
+  /**
+   * Returns whether the keys of the specified type can be searched in the index with a set query.
+   */
+  private static boolean isSearchable(SqlTypeName type) {
+    switch (type) {
+    case INTEGER:
+    case DATE:
+    case CHAR:
+    case VARCHAR:
+      return true;
+    default:
+      return false;
+    }
+  }
+}
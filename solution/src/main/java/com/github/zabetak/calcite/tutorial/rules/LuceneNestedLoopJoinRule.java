@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.rules;
+
+import org.apache.calcite.adapter.enumerable.EnumerableHashJoin;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelRule;
+import org.apache.calcite.rel.RelCollations;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.util.ImmutableBeans;
+
+import com.github.zabetak.calcite.tutorial.operators.LuceneHashJoin;
+import com.github.zabetak.calcite.tutorial.operators.LuceneNestedLoopJoin;
+import com.github.zabetak.calcite.tutorial.operators.LuceneToEnumerableConverter;
+
+/**
+ * Rule to convert an {@link EnumerableHashJoin} to a {@link LuceneNestedLoopJoin} searching a
+ * Lucene input with batches of join keys of the other input, for example:
+ *
+ * <pre>{@code
+ * EnumerableHashJoin(condition=[=($0, $3)], joinType=[inner])
+ *   LuceneToEnumerableConverter
+ *     LuceneFilter(condition=[<($0, 3)])
+ *       LuceneTableScan(table=[[CUSTOMER]])
+ *   LuceneToEnumerableConverter
+ *     LuceneTableScan(table=[[ORDERS]])
+ * }</pre>
+ *
+ * becomes
+ *
+ * <pre>{@code
+ * LuceneNestedLoopJoin(condition=[=($0, $3)], joinType=[inner], lookup=[right.o_custkey])
+ *   LuceneToEnumerableConverter
+ *     LuceneFilter(condition=[<($0, 3)])
+ *       LuceneTableScan(table=[[CUSTOMER]])
+ *   LuceneTableScan(table=[[ORDERS]])
+ * }</pre>
+ *
+ * The join must be an inner equi-join. The searched input must be a
+ * {@link LuceneToEnumerableConverter} with a join key that can be searched in the index (see
+ * {@link LuceneJoinKey}). When both inputs qualify, the input with the most rows is searched.
+ * The nested loop join takes the input of the converter, which is in the Lucene convention, so
+ * that the searched input is always implemented by a Lucene scan whatever the planner picks for
+ * the rest of the plan. Whether the nested loop join is better than the hash join is left to the
+ * cost model.
+ */
+public final class LuceneNestedLoopJoinRule extends RelRule<LuceneNestedLoopJoinRule.Config> {
+  LuceneNestedLoopJoinRule(final Config config) {
+    super(config);
+  }
+
+  @Override public boolean matches(final RelOptRuleCall call) {
+    EnumerableHashJoin join = call.rel(0);
+    return !(join instanceof LuceneHashJoin)
+        && join.getJoinType() == JoinRelType.INNER
+        && join.analyzeCondition().isEqui();
+  }
+
+  @Override public void onMatch(final RelOptRuleCall call) {
+    EnumerableHashJoin join = call.rel(0);
+    RelMetadataQuery mq = call.getMetadataQuery();
+    LuceneJoinKey inner = null;
+    double rowCount = -1;
+    for (int i = 0; i < 2; i++) {
+      LuceneJoinKey key = LuceneJoinKey.of(mq, join, i, call.rel(i + 1));
+      if (key != null && mq.getRowCount(call.rel(i + 1)) > rowCount) {
+        inner = key;
+        rowCount = mq.getRowCount(call.rel(i + 1));
+      }
+    }
+    if (inner == null) {
+      return;
+    }
+    // The searched input is taken in the Lucene convention; the join converts it to a scan
+    RelNode left = inner.side == 0 ? call.rel(1).getInput(0) : join.getLeft();
+    RelNode right = inner.side == 1 ? call.rel(2).getInput(0) : join.getRight();
+    // The rows come out in batches so the order of the outer input is lost
+    call.transformTo(
+        new LuceneNestedLoopJoin(join.getCluster(),
+            join.getTraitSet().replace(RelCollations.EMPTY),
+            left, right, join.getCondition(), join.getVariablesSet(),
+            join.getJoinType(), inner.side, inner.key, inner.field, config.batchSize()));
+  }
+
+  public static final Config DEFAULT = Config.EMPTY
+      .withDescription("LuceneNestedLoopJoinRule")
+      .withOperandSupplier(b0 -> b0.operand(EnumerableHashJoin.class).inputs(
+          b1 -> b1.operand(RelNode.class).anyInputs(),
+          b2 -> b2.operand(RelNode.class).anyInputs()))
+      .as(Config.class);
+
+  /**
+   * Rule configuration.
+   */
+  public interface Config extends RelRule.Config {
+    /**
+     * Returns the maximum number of distinct keys of the outer input searched at once in the
+     * Lucene input.
+     */
+    @ImmutableBeans.Property
+    @ImmutableBeans.IntDefault(1024)
+    int batchSize();
+
+    /**
+     * Sets {@link #batchSize()}.
+     */
+    Config withBatchSize(int batchSize);
+
+    @Override default LuceneNestedLoopJoinRule toRule() {
+      return new LuceneNestedLoopJoinRule(this);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.rules;
+
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterRule;
+import org.apache.calcite.rel.logical.LogicalProject;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+
+import com.github.zabetak.calcite.tutorial.operators.LuceneProject;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.github.zabetak.calcite.tutorial.operators.LuceneRel.LUCENE;
+
+/**
+ * Rule to convert a {@link LogicalProject} to a {@link LuceneProject} if possible.
+ *
+ * The project can be pushed in Lucene if it only trims (and possibly reorders) the fields of its
+ * input; for example:
+ *
+ * <pre>{@code
+ * LogicalProject(c_custkey=[$0], c_name=[$1])
+ * }</pre>
+ *
+ * Every expression must be a distinct input reference and the input must not be aggregated (see
+ * {@link LuceneAggregateRule}).
+ */
+public final class LuceneProjectRule extends ConverterRule {
+  LuceneProjectRule(final Config config) {
+    super(config);
+  }
+
+  @Override public boolean matches(final RelOptRuleCall ruleCall) {
+    LogicalProject project = ruleCall.rel(0);
+    if (LuceneInputs.isAggregated(project.getInput())) {
+      return false;
+    }
+    Set<Integer> refs = new HashSet<>();
+    for (RexNode e : project.getProjects()) {
+      if (!(e instanceof RexInputRef) || !refs.add(((RexInputRef) e).getIndex())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override public RelNode convert(final RelNode rel) {
+    final LogicalProject project = (LogicalProject) rel;
+    final RelNode newInput =
+        convert(project.getInput(), project.getInput().getTraitSet().replace(LUCENE));
+    return new LuceneProject(project.getCluster(), newInput, project.getProjects(),
+        project.getRowType());
+  }
+
+  public static final Config DEFAULT = Config.INSTANCE
+      .withConversion(LogicalProject.class, Convention.NONE, LUCENE, "LuceneProjectRule")
+      .withRuleFactory(LuceneProjectRule::new);
+}
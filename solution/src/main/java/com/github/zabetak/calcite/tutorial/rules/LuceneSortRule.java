@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.rules;
+
+import org.apache.calcite.plan.Convention;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.rel.RelFieldCollation;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.convert.ConverterRule;
+import org.apache.calcite.rel.core.Sort;
+import org.apache.calcite.rel.logical.LogicalSort;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexLiteral;
+
+import com.github.zabetak.calcite.tutorial.operators.LuceneSort;
+
+import static com.github.zabetak.calcite.tutorial.operators.LuceneRel.LUCENE;
+
+/**
+ * Rule to convert a {@link LogicalSort} with a limit to a {@link LuceneSort} if possible.
+ *
+ * The sort can be pushed in Lucene if it has a fetch, for example:
+ *
+ * <pre>{@code
+ * LogicalSort(sort0=[$4], dir0=[DESC], fetch=[100])
+ * }</pre>
+ *
+ * The offset and fetch must be literals and every sort key must be a column of the table with
+ * doc values. The input must not be limited already since Lucene can only apply one limit, nor
+ * aggregated.
+ */
+public final class LuceneSortRule extends ConverterRule {
+  LuceneSortRule(final Config config) {
+    super(config);
+  }
+
+  @Override public boolean matches(final RelOptRuleCall ruleCall) {
+    Sort sort = ruleCall.rel(0);
+    if (!(sort.fetch instanceof RexLiteral)
+        || sort.offset != null && !(sort.offset instanceof RexLiteral)
+        || LuceneInputs.isLimited(sort.getInput())
+        || LuceneInputs.isAggregated(sort.getInput())) {
+      return false;
+    }
+    RelMetadataQuery mq = ruleCall.getMetadataQuery();
+    for (RelFieldCollation c : sort.getCollation().getFieldCollations()) {
+      RelDataTypeField field = sort.getInput().getRowType().getFieldList().get(c.getFieldIndex());
+      if (LuceneSort.toSortField(field.getName(), field.getType().getSqlTypeName(), c) == null
+          || !LuceneInputs.hasDocValues(mq, sort.getInput(), c.getFieldIndex())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override public RelNode convert(final RelNode rel) {
+    final LogicalSort sort = (LogicalSort) rel;
+    final RelNode newInput =
+        convert(sort.getInput(), sort.getInput().getTraitSet().replace(LUCENE));
+    return new LuceneSort(sort.getCluster(), newInput, sort.getCollation(), sort.offset,
+        sort.fetch);
+  }
+
+  public static final Config DEFAULT = Config.INSTANCE
+      .withConversion(LogicalSort.class, Convention.NONE, LUCENE, "LuceneSortRule")
+      .withRuleFactory(LuceneSortRule::new);
+}
@@ -18,25 +18,55 @@ package com.github.zabetak.calcite.tutorial;
 
 import org.apache.calcite.adapter.java.JavaTypeFactory;
 import org.apache.calcite.jdbc.JavaTypeFactoryImpl;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.sql.SqlKind;
 import org.apache.calcite.sql.type.SqlTypeName;
 
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoubleDocValuesField;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
 import com.github.zabetak.calcite.tutorial.indexer.DatasetIndexer;
 import com.github.zabetak.calcite.tutorial.indexer.TpchTable;
 import com.google.common.collect.ImmutableSet;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
-import java.sql.Date;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Stream;
 
 /**
@@ -60,6 +90,292 @@ public class LuceneEnumerableTest {
     assertContentEquals(expected, enumerable.toList());
   }
 
+  @Test
+  void testQueryObjectIsUsedAsIs() throws IOException {
+    try (LuceneTable table = new LuceneTable("target/tpch/ORDERS", null)) {
+      LuceneEnumerable enumerable = new LuceneEnumerable(table,
+          typedFields("ORDERS", ImmutableSet.of("o_orderkey", "o_orderdate")),
+          IntPoint.newExactQuery("o_orderkey", 96));
+      // Dates are returned in Calcite's internal representation (days since epoch)
+      List<Object[]> expected = Collections.singletonList(new Object[]{96, 8872});
+      assertContentEquals(expected, enumerable.toList());
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneEnumerable.ScanMode.class)
+  void testFullScanReturnsAllRows(LuceneEnumerable.ScanMode mode) {
+    LuceneEnumerable enumerable = new LuceneEnumerable("target/tpch/LINEITEM",
+        typedFields("LINEITEM", ImmutableSet.of("l_orderkey", "l_linenumber")), "*:*")
+        .withScanMode(mode);
+    Set<List<Object>> rows = new HashSet<>();
+    for (Object[] row : enumerable) {
+      rows.add(Arrays.asList(row));
+    }
+    Assertions.assertEquals(6005, rows.size());
+    Assertions.assertTrue(rows.contains(Arrays.asList(6, 1)));
+  }
+
+  @ParameterizedTest(name = "ordered={0}, docValues={1}")
+  @CsvSource({"true,true", "true,false", "false,true", "false,false"})
+  void testParallelScanReturnsAllRows(boolean ordered, boolean docValues, @TempDir Path dir)
+      throws IOException {
+    int numDocs = 10_000;
+    try (IndexWriter writer = new IndexWriter(FSDirectory.open(dir),
+        new IndexWriterConfig().setMaxBufferedDocs(1500).setMergePolicy(NoMergePolicy.INSTANCE))) {
+      for (int i = 0; i < numDocs; i++) {
+        Document doc = new Document();
+        doc.add(new IntPoint("id", i));
+        doc.add(new StoredField("id", i));
+        doc.add(new NumericDocValuesField("id", i));
+        doc.add(new StringField("name", "name" + i, Field.Store.YES));
+        writer.addDocument(doc);
+      }
+    }
+    LinkedHashMap<String, SqlTypeName> fields = new LinkedHashMap<>();
+    fields.put("id", SqlTypeName.INTEGER);
+    if (!docValues) {
+      // The field is not indexed with doc values so rows are read from stored fields
+      fields.put("name", SqlTypeName.VARCHAR);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try (LuceneTable table = new LuceneTable(dir.toString(), null,
+        LuceneTable.Options.DEFAULT.withScanExecutor(executor))) {
+      LuceneEnumerable enumerable =
+          new LuceneEnumerable(table, fields, "*:*").withOrdered(ordered);
+      List<Integer> ids = new ArrayList<>();
+      for (Object[] row : enumerable) {
+        ids.add((Integer) row[0]);
+        if (!docValues) {
+          Assertions.assertEquals("name" + row[0], row[1]);
+        }
+      }
+      // Segments are not necessarily in insertion order so the sequential scan is the reference
+      List<Integer> expected = new ArrayList<>();
+      for (Object[] row : new LuceneEnumerable(dir.toString(), fields, "*:*")) {
+        expected.add((Integer) row[0]);
+      }
+      Assertions.assertEquals(numDocs, expected.size());
+      if (!ordered) {
+        Collections.sort(expected);
+        Collections.sort(ids);
+      }
+      Assertions.assertEquals(expected, ids);
+      // Stopping early must not leave any task behind
+      try (Enumerator<Object[]> enumerator = enumerable.enumerator()) {
+        Assertions.assertTrue(enumerator.moveNext());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @ParameterizedTest(name = "docValues={0}")
+  @ValueSource(booleans = {true, false})
+  void testBatchesContainAllRowsIncludingNulls(boolean docValues, @TempDir Path dir)
+      throws IOException {
+    int numDocs = 3000;
+    try (IndexWriter writer = new IndexWriter(FSDirectory.open(dir),
+        new IndexWriterConfig().setMaxBufferedDocs(1000).setMergePolicy(NoMergePolicy.INSTANCE))) {
+      for (int i = 0; i < numDocs; i++) {
+        Document doc = new Document();
+        doc.add(new StoredField("id", i));
+        doc.add(new StoredField("price", i / 2.0));
+        if (docValues) {
+          doc.add(new NumericDocValuesField("id", i));
+          doc.add(new DoubleDocValuesField("price", i / 2.0));
+        }
+        // Every third document has no name
+        if (i % 3 != 0) {
+          doc.add(new StoredField("name", "name" + i % 10));
+          if (docValues) {
+            doc.add(new SortedDocValuesField("name", new BytesRef("name" + i % 10)));
+          }
+        }
+        writer.addDocument(doc);
+      }
+    }
+    LinkedHashMap<String, SqlTypeName> fields = new LinkedHashMap<>();
+    fields.put("id", SqlTypeName.INTEGER);
+    fields.put("price", SqlTypeName.DOUBLE);
+    fields.put("name", SqlTypeName.VARCHAR);
+    Set<Integer> seen = new HashSet<>();
+    try (LuceneTable table = new LuceneTable(dir.toString(), null)) {
+      for (LuceneBatch batch : new LuceneEnumerable(table, fields, "*:*").batches()) {
+        Assertions.assertTrue(batch.size() > 0 && batch.size() <= batch.capacity());
+        LuceneBatch.IntVector ids = (LuceneBatch.IntVector) batch.column(0);
+        LuceneBatch.DoubleVector prices = (LuceneBatch.DoubleVector) batch.column(1);
+        LuceneBatch.StringVector names = (LuceneBatch.StringVector) batch.column(2);
+        Assertions.assertTrue(names.hasNulls());
+        for (int i = 0; i < batch.size(); i++) {
+          int id = ids.getInt(i);
+          Assertions.assertTrue(seen.add(id));
+          Assertions.assertEquals(id / 2.0, prices.getDouble(i));
+          if (id % 3 == 0) {
+            Assertions.assertTrue(names.isNull(i));
+            Assertions.assertNull(batch.row(i)[2]);
+          } else {
+            Assertions.assertEquals("name" + id % 10, names.lookup(names.getOrdinal(i)));
+          }
+        }
+      }
+    }
+    Assertions.assertEquals(numDocs, seen.size());
+  }
+
+  @Test
+  void testLimitReturnsSortedRangeAcrossSegments(@TempDir Path dir) throws IOException {
+    int numDocs = 3000;
+    try (IndexWriter writer = new IndexWriter(FSDirectory.open(dir),
+        new IndexWriterConfig().setMaxBufferedDocs(1000).setMergePolicy(NoMergePolicy.INSTANCE))) {
+      for (int i = 0; i < numDocs; i++) {
+        // A permutation of 0..numDocs-1 so that the order of the prices differs from index order
+        double price = i * 7919 % numDocs;
+        Document doc = new Document();
+        doc.add(new StoredField("id", i));
+        doc.add(new NumericDocValuesField("id", i));
+        doc.add(new DoubleDocValuesField("price", price));
+        writer.addDocument(doc);
+      }
+    }
+    LinkedHashMap<String, SqlTypeName> fields = new LinkedHashMap<>();
+    fields.put("id", SqlTypeName.INTEGER);
+    fields.put("price", SqlTypeName.DOUBLE);
+    Sort byPriceDesc = new Sort(new SortField("price", SortField.Type.DOUBLE, true));
+    try (LuceneTable table = new LuceneTable(dir.toString(), null)) {
+      List<Object[]> rows =
+          new LuceneEnumerable(table, fields, "*:*").withLimit(byPriceDesc, 5, 10).toList();
+      Assertions.assertEquals(10, rows.size());
+      for (int i = 0; i < rows.size(); i++) {
+        double price = numDocs - 6 - i;
+        Assertions.assertEquals(price, rows.get(i)[1]);
+        Assertions.assertEquals(price, (int) rows.get(i)[0] * 7919 % numDocs);
+      }
+    }
+  }
+
+  @ParameterizedTest(name = "parallel={0}, docValues={1}")
+  @CsvSource({"true,true", "true,false", "false,true", "false,false"})
+  void testAggregationMergesGroupsAcrossSegments(boolean parallel, boolean docValues,
+      @TempDir Path dir) throws IOException {
+    int numDocs = 3000;
+    try (IndexWriter writer = new IndexWriter(FSDirectory.open(dir),
+        new IndexWriterConfig().setMaxBufferedDocs(1000).setMergePolicy(NoMergePolicy.INSTANCE))) {
+      for (int i = 0; i < numDocs; i++) {
+        Document doc = new Document();
+        doc.add(new StoredField("id", i));
+        doc.add(new StoredField("price", i / 2.0));
+        if (docValues) {
+          doc.add(new NumericDocValuesField("id", i));
+          doc.add(new DoubleDocValuesField("price", i / 2.0));
+        }
+        // Every third document has no name and belongs to the null group
+        if (i % 3 != 0) {
+          doc.add(new StoredField("name", "name" + i % 10));
+          if (docValues) {
+            doc.add(new SortedDocValuesField("name", new BytesRef("name" + i % 10)));
+          }
+        }
+        writer.addDocument(doc);
+      }
+    }
+    LinkedHashMap<String, SqlTypeName> columns = new LinkedHashMap<>();
+    columns.put("name", SqlTypeName.VARCHAR);
+    columns.put("id", SqlTypeName.INTEGER);
+    columns.put("price", SqlTypeName.DOUBLE);
+    LuceneAggregation aggregation = new LuceneAggregation(columns, new int[]{0}, Arrays.asList(
+        new LuceneAggregation.Call(LuceneAggregation.Function.COUNT, -1, SqlTypeName.BIGINT),
+        new LuceneAggregation.Call(LuceneAggregation.Function.SUM, 1, SqlTypeName.BIGINT),
+        new LuceneAggregation.Call(LuceneAggregation.Function.MIN, 2, SqlTypeName.DOUBLE),
+        new LuceneAggregation.Call(LuceneAggregation.Function.MAX, 2, SqlTypeName.DOUBLE)));
+    Map<String, Object[]> expected = new HashMap<>();
+    for (int i = 0; i < numDocs; i++) {
+      String name = i % 3 == 0 ? null : "name" + i % 10;
+      Object[] row = expected.computeIfAbsent(name, k -> new Object[]{k, 0L, 0L, null, null});
+      row[1] = (long) row[1] + 1;
+      row[2] = (long) row[2] + i;
+      row[3] = row[3] == null ? i / 2.0 : Math.min((double) row[3], i / 2.0);
+      row[4] = row[4] == null ? i / 2.0 : Math.max((double) row[4], i / 2.0);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try (LuceneTable table = new LuceneTable(dir.toString(), null, parallel
+        ? LuceneTable.Options.DEFAULT.withScanExecutor(executor)
+        : LuceneTable.Options.DEFAULT)) {
+      List<Object[]> rows =
+          new LuceneEnumerable(table, columns, "*:*").withAggregation(aggregation).toList();
+      Assertions.assertEquals(expected.size(), rows.size());
+      for (Object[] row : rows) {
+        Assertions.assertArrayEquals(expected.get((String) row[0]), row);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @ParameterizedTest(name = "parallel={0}, docValues={1}")
+  @CsvSource({"true,true", "true,false", "false,true", "false,false"})
+  void testBatchFilterReturnsRowsSatisfyingCondition(boolean parallel, boolean docValues,
+      @TempDir Path dir) throws IOException {
+    int numDocs = 3000;
+    try (IndexWriter writer = new IndexWriter(FSDirectory.open(dir),
+        new IndexWriterConfig().setMaxBufferedDocs(1000).setMergePolicy(NoMergePolicy.INSTANCE))) {
+      for (int i = 0; i < numDocs; i++) {
+        Document doc = new Document();
+        doc.add(new StoredField("id", i));
+        doc.add(new StoredField("price", i / 2.0));
+        if (docValues) {
+          doc.add(new NumericDocValuesField("id", i));
+          doc.add(new DoubleDocValuesField("price", i / 2.0));
+        }
+        // Every third document has no name
+        if (i % 3 != 0) {
+          doc.add(new StoredField("name", "name" + i % 10));
+          if (docValues) {
+            doc.add(new SortedDocValuesField("name", new BytesRef("name" + i % 10)));
+          }
+        }
+        writer.addDocument(doc);
+      }
+    }
+    LinkedHashMap<String, SqlTypeName> fields = new LinkedHashMap<>();
+    fields.put("id", SqlTypeName.INTEGER);
+    fields.put("price", SqlTypeName.DOUBLE);
+    fields.put("name", SqlTypeName.VARCHAR);
+    // id >= 1000 AND price < id AND (name IS NULL OR (name LIKE 'name_' AND NOT name = 'name5'))
+    LuceneBatchFilter filter = LuceneBatchFilter.and(Arrays.asList(
+        LuceneBatchFilter.compare(SqlKind.GREATER_THAN_OR_EQUAL, 0, 1000),
+        LuceneBatchFilter.compareColumns(SqlKind.LESS_THAN, 1, 0),
+        LuceneBatchFilter.or(Arrays.asList(
+            LuceneBatchFilter.isNull(2, false),
+            LuceneBatchFilter.and(Arrays.asList(
+                LuceneBatchFilter.like(2, "name_"),
+                LuceneBatchFilter.not(LuceneBatchFilter.compare(SqlKind.EQUALS, 2, "name5"))))))));
+    // NOT name = 'name5' is unknown, hence false, when the name is null
+    LuceneBatchFilter notName5 =
+        LuceneBatchFilter.not(LuceneBatchFilter.compare(SqlKind.EQUALS, 2, "name5"));
+    Set<Integer> expected = new HashSet<>();
+    for (int i = 1000; i < numDocs; i++) {
+      if (i % 3 == 0 || i % 10 != 5) {
+        expected.add(i);
+      }
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try (LuceneTable table = new LuceneTable(dir.toString(), null, parallel
+        ? LuceneTable.Options.DEFAULT.withScanExecutor(executor)
+        : LuceneTable.Options.DEFAULT)) {
+      Set<Integer> actual = new HashSet<>();
+      for (Object[] row : new LuceneEnumerable(table, fields, "*:*").withBatchFilter(filter)) {
+        Assertions.assertTrue(actual.add((int) row[0]));
+        Assertions.assertEquals((int) row[0] % 3 == 0, row[2] == null);
+      }
+      Assertions.assertEquals(expected, actual);
+      Assertions.assertEquals(numDocs - numDocs / 3 - numDocs / 10 * 2 / 3,
+          new LuceneEnumerable(table, fields, "*:*").withBatchFilter(notName5).count());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   private static void assertContentEquals(List<Object[]> expected, List<Object[]> actual) {
     Assertions.assertEquals(expected.size(), actual.size());
     for (int i = 0; i < expected.size(); i++) {
@@ -97,6 +413,6 @@ public class LuceneEnumerableTest {
         Arguments.of("ORDERS",
             ImmutableSet.of("o_orderkey", "o_orderdate"),
             "+o_orderdate:[8872 TO 8872]",
-            new Object[]{96, Date.valueOf("1994-04-17")}));
+            new Object[]{96, 8872}));
   }
 }
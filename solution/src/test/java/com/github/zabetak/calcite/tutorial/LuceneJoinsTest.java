@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.linq4j.function.Function1;
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import com.github.zabetak.calcite.tutorial.indexer.DatasetIndexer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link LuceneJoins}.
+ */
+public class LuceneJoinsTest {
+  private static final Function1<Object[], Object> KEY = row -> row[0];
+  private static final Function1<Object, Object> FILTER_KEY = row -> ((Object[]) row)[0];
+
+  @BeforeAll
+  static void indexTpchDataset() throws IOException, URISyntaxException {
+    DatasetIndexer.main(new String[]{});
+  }
+
+  @ParameterizedTest(name = "filterLeft={0}, maxKeys={1}")
+  @CsvSource({"true,0", "true,1", "true,2", "true,1024", "false,0", "false,2", "false,1024"})
+  void testHashJoinReturnsSameRowsWithAndWithoutFilter(boolean filterLeft, int maxKeys) {
+    LinkedHashMap<String, SqlTypeName> fields = new LinkedHashMap<>();
+    fields.put("o_custkey", SqlTypeName.INTEGER);
+    fields.put("o_orderkey", SqlTypeName.INTEGER);
+    Enumerable<Object[]> orders = new LuceneEnumerable("target/tpch/ORDERS", fields, "*:*");
+    // Null keys never join and duplicate keys join with the same orders
+    Enumerable<Object[]> customers = Linq4j.asEnumerable(Arrays.asList(
+        new Object[]{1}, new Object[]{2}, new Object[]{null}, new Object[]{2}));
+    Enumerable<Object[]> left = filterLeft ? orders : customers;
+    Enumerable<Object[]> right = filterLeft ? customers : orders;
+    List<List<Object>> joined = LuceneJoins.hashJoin(left, right, KEY, KEY,
+        (l, r) -> Arrays.asList(l[0], filterLeft ? l[1] : r[1]), null, filterLeft, FILTER_KEY,
+        "o_custkey", maxKeys).toList();
+    Assertions.assertEquals(5 + 9 + 9, joined.size());
+    Assertions.assertTrue(joined.contains(Arrays.asList(1, 102)));
+    Assertions.assertTrue(joined.contains(Arrays.asList(2, 5893)));
+  }
+
+  @Test
+  void testHashJoinStreamsLeftInputWithFewKeys() {
+    LinkedHashMap<String, SqlTypeName> fields = new LinkedHashMap<>();
+    fields.put("o_custkey", SqlTypeName.INTEGER);
+    fields.put("o_orderkey", SqlTypeName.INTEGER);
+    Enumerable<Object[]> orders = new LuceneEnumerable("target/tpch/ORDERS", fields, "*:*");
+    // Lots of rows with a single key, counting the rows that are read
+    int rows = 2 * LuceneJoins.MAX_BUFFERED_ROWS;
+    AtomicInteger read = new AtomicInteger();
+    Enumerable<Object[]> customers = Linq4j.asEnumerable(Collections.nCopies(rows, 1))
+        .select(k -> {
+          read.incrementAndGet();
+          return new Object[]{k};
+        });
+    Enumerable<List<Object>> joined = LuceneJoins.hashJoin(customers, orders, KEY, KEY,
+        (l, r) -> Arrays.asList(l[0], r[1]), null, false, FILTER_KEY, "o_custkey", 1024);
+    try (Enumerator<List<Object>> e = joined.enumerator()) {
+      Assertions.assertTrue(e.moveNext());
+      Assertions.assertTrue(read.get() <= LuceneJoins.MAX_BUFFERED_ROWS + 1, read::toString);
+    }
+    Assertions.assertEquals(rows * 5L, joined.count());
+  }
+
+  @ParameterizedTest(name = "lookupRight={0}, batchSize={1}")
+  @CsvSource({"true,1", "true,2", "true,1024", "false,1", "false,2", "false,1024"})
+  void testNestedLoopJoinReturnsSameRowsAsHashJoin(boolean lookupRight, int batchSize) {
+    LinkedHashMap<String, SqlTypeName> fields = new LinkedHashMap<>();
+    fields.put("o_custkey", SqlTypeName.INTEGER);
+    fields.put("o_orderkey", SqlTypeName.INTEGER);
+    Enumerable<Object[]> orders = new LuceneEnumerable("target/tpch/ORDERS", fields, "*:*");
+    // Null keys never join and duplicate keys join with the same orders
+    Enumerable<Object[]> customers = Linq4j.asEnumerable(Arrays.asList(
+        new Object[]{1}, new Object[]{2}, new Object[]{null}, new Object[]{2}));
+    Enumerable<Object[]> left = lookupRight ? customers : orders;
+    Enumerable<Object[]> right = lookupRight ? orders : customers;
+    List<List<Object>> joined = LuceneJoins.nestedLoopJoin(left, right, KEY, KEY,
+        (l, r) -> Arrays.asList(l[0], lookupRight ? r[1] : l[1]), null, lookupRight, FILTER_KEY,
+        "o_custkey", batchSize).toList();
+    Assertions.assertEquals(5 + 9 + 9, joined.size());
+    Assertions.assertTrue(joined.contains(Arrays.asList(1, 102)));
+    Assertions.assertTrue(joined.contains(Arrays.asList(2, 5893)));
+  }
+
+  @Test
+  void testNestedLoopJoinRestartsAfterReset() {
+    LinkedHashMap<String, SqlTypeName> fields = new LinkedHashMap<>();
+    fields.put("o_custkey", SqlTypeName.INTEGER);
+    fields.put("o_orderkey", SqlTypeName.INTEGER);
+    Enumerable<Object[]> orders = new LuceneEnumerable("target/tpch/ORDERS", fields, "*:*");
+    Enumerable<Object[]> customers = Linq4j.asEnumerable(Arrays.asList(
+        new Object[]{1}, new Object[]{2}));
+    Enumerable<List<Object>> joined = LuceneJoins.nestedLoopJoin(customers, orders, KEY, KEY,
+        (l, r) -> Arrays.asList(l[0], r[1]), null, true, FILTER_KEY, "o_custkey", 1);
+    try (Enumerator<List<Object>> e = joined.enumerator()) {
+      // Stop in the middle of the second batch
+      for (int i = 0; i < 5 + 1; i++) {
+        Assertions.assertTrue(e.moveNext());
+      }
+      e.reset();
+      int count = 0;
+      while (e.moveNext()) {
+        count++;
+      }
+      Assertions.assertEquals(5 + 9, count);
+    }
+  }
+
+  @Test
+  void testNestedLoopJoinFailsIfSearchedInputIsNotLucene() {
+    Enumerable<Object[]> rows = Linq4j.asEnumerable(Arrays.asList(
+        new Object[]{1}, new Object[]{2}));
+    Assertions.assertThrows(IllegalStateException.class, () -> LuceneJoins.nestedLoopJoin(rows,
+        rows, KEY, KEY, (l, r) -> l, null, true, FILTER_KEY, "o_custkey", 1024));
+  }
+
+  @ParameterizedTest(name = "maxKeys={0}")
+  @ValueSource(ints = {0, 1, 1024})
+  void testSemiJoinOnStringKeys(int maxKeys) {
+    LinkedHashMap<String, SqlTypeName> fields = new LinkedHashMap<>();
+    fields.put("o_orderstatus", SqlTypeName.VARCHAR);
+    Enumerable<Object[]> orders = new LuceneEnumerable("target/tpch/ORDERS", fields, "*:*");
+    Enumerable<Object[]> statuses = Linq4j.asEnumerable(Arrays.asList(
+        new Object[]{"F"}, new Object[]{"P"}));
+    Assertions.assertEquals(726 + 45,
+        LuceneJoins.semiJoin(orders, statuses, KEY, KEY, null, FILTER_KEY, "o_orderstatus",
+            maxKeys).count());
+  }
+}
@@ -17,12 +17,14 @@
 package com.github.zabetak.calcite.tutorial;
 
 import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Enumerator;
 import org.apache.calcite.sql.parser.SqlParseException;
 
 import com.github.zabetak.calcite.tutorial.indexer.DatasetIndexer;
 import com.github.zabetak.calcite.tutorial.indexer.TpchTable;
 
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.ValueSource;
@@ -36,11 +38,20 @@ import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.sql.Date;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Tests for end to end tests over Apache Lucene.
@@ -161,4 +172,526 @@ public class LuceneQueryProcessorTest {
       assertArrayEquals(expectedRow, (Object[]) LuceneQueryProcessor.execute(query, processor).single());
     }
   }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testFilterOnPKSubsetOfColumns(LuceneQueryProcessor.Type processor) throws SqlParseException {
+    String query = "SELECT c_phone, c_name AS name FROM CUSTOMER WHERE c_custkey = 32";
+    Object[] expectedRow = new Object[]{"25-430-914-2194", "Customer#000000032"};
+    assertArrayEquals(expectedRow, (Object[]) LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testFilterOnDateColumn(LuceneQueryProcessor.Type processor) throws SqlParseException {
+    String query = "SELECT o_orderkey, o_orderdate FROM ORDERS "
+        + "WHERE o_orderdate = DATE '1994-04-17' AND o_orderkey < 100";
+    Object[] expectedRow = new Object[]{96, Date.valueOf("1994-04-17")};
+    assertArrayEquals(expectedRow, (Object[]) LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testSingleDateColumn(LuceneQueryProcessor.Type processor) throws SqlParseException {
+    String query = "SELECT o_orderdate FROM ORDERS WHERE o_orderkey = 96";
+    assertEquals(Date.valueOf("1994-04-17"), LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testResultsAreCachedUntilIndexChanges(LuceneQueryProcessor.Type processor)
+      throws IOException, SqlParseException, URISyntaxException {
+    LuceneResultCache cache = new LuceneResultCache(1000);
+    String query = "SELECT r_name FROM REGION WHERE r_regionkey < 3";
+    try (LuceneSchema schema = LuceneQueryProcessor.createTpchSchema(
+        t -> LuceneTable.Options.DEFAULT, cache)) {
+      List<Object> expected = LuceneQueryProcessor.execute(query, processor, schema).toList();
+      assertEquals(3, expected.size());
+      assertEquals(0, cache.hitCount());
+      assertEquals(3, cache.sizeInRows());
+      assertEquals(expected, LuceneQueryProcessor.execute(query, processor, schema).toList());
+      assertEquals(1, cache.hitCount());
+      // Re-indexing creates a new commit so the results must be computed again
+      DatasetIndexer.main(new String[]{});
+      assertEquals(expected, LuceneQueryProcessor.execute(query, processor, schema).toList());
+      assertEquals(1, cache.hitCount());
+      assertEquals(2, cache.missCount());
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testNonDeterministicResultsAreNotCached(LuceneQueryProcessor.Type processor)
+      throws IOException, SqlParseException {
+    LuceneResultCache cache = new LuceneResultCache(1000);
+    try (LuceneSchema schema = LuceneQueryProcessor.createTpchSchema(
+        t -> LuceneTable.Options.DEFAULT, cache)) {
+      for (String query : new String[]{"SELECT r_regionkey, RAND() FROM REGION",
+          "SELECT RAND()", "VALUES (1), (2)"}) {
+        List<Object> first = LuceneQueryProcessor.execute(query, processor, schema).toList();
+        assertFalse(first.isEmpty());
+        LuceneQueryProcessor.execute(query, processor, schema).toList();
+      }
+      assertEquals(0, cache.hitCount());
+      assertEquals(0, cache.sizeInRows());
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testPlansAreCachedUntilIndexChanges(LuceneQueryProcessor.Type processor)
+      throws IOException, SqlParseException, URISyntaxException {
+    LucenePlanCache cache = new LucenePlanCache(10);
+    String query = "SELECT r_name FROM REGION WHERE r_regionkey < 3";
+    try (LuceneSchema schema = LuceneQueryProcessor.createTpchSchema(
+        t -> LuceneTable.Options.DEFAULT, null, cache)) {
+      List<Object> expected = LuceneQueryProcessor.execute(query, processor, schema).toList();
+      assertEquals(3, expected.size());
+      assertEquals(0, cache.hitCount());
+      assertEquals(1, cache.size());
+      // Whitespace outside of literals does not matter
+      assertEquals(expected, LuceneQueryProcessor.execute(
+          "SELECT r_name\n  FROM REGION  WHERE r_regionkey < 3 ", processor, schema).toList());
+      assertEquals(1, cache.hitCount());
+      assertEquals(0L, LuceneQueryProcessor.execute(
+          "SELECT COUNT(*) FROM REGION WHERE r_name = 'ASIA  '", processor, schema).single());
+      assertEquals(2, cache.missCount());
+      // Re-indexing creates a new commit so the plans must be computed again
+      DatasetIndexer.main(new String[]{});
+      assertEquals(expected, LuceneQueryProcessor.execute(query, processor, schema).toList());
+      assertEquals(1, cache.hitCount());
+      assertEquals(3, cache.missCount());
+      assertEquals(1, cache.invalidationCount());
+      assertEquals(1, cache.size());
+    }
+  }
+
+  @Test
+  void testPlanCacheEvictsLeastRecentlyUsedPlans() throws IOException, SqlParseException {
+    LucenePlanCache cache = new LucenePlanCache(2);
+    try (LuceneSchema schema = LuceneQueryProcessor.createTpchSchema(
+        t -> LuceneTable.Options.DEFAULT, null, cache)) {
+      for (String table : new String[]{"REGION", "NATION", "REGION", "SUPPLIER", "REGION"}) {
+        LuceneQueryProcessor.execute("SELECT COUNT(*) FROM " + table,
+            LuceneQueryProcessor.Type.PUSHDOWN, schema).single();
+      }
+      assertEquals(2, cache.hitCount());
+      assertEquals(3, cache.missCount());
+      assertEquals(1, cache.evictionCount());
+      assertEquals(2, cache.size());
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testCancelStopsScanOfCachedPlan(LuceneQueryProcessor.Type processor) throws IOException,
+      SqlParseException {
+    LucenePlanCache cache = new LucenePlanCache(10);
+    try (LuceneSchema schema = LuceneQueryProcessor.createTpchSchema(
+        t -> LuceneTable.Options.DEFAULT, null, cache)) {
+      assertEquals(6005, LuceneQueryProcessor.execute("SELECT * FROM LINEITEM", processor, schema)
+          .count());
+      AtomicBoolean cancelFlag = new AtomicBoolean(false);
+      Enumerable<Object[]> result = LuceneQueryProcessor.execute("SELECT * FROM LINEITEM",
+          processor, schema, cancelFlag, 0);
+      assertEquals(1, cache.hitCount());
+      try (Enumerator<Object[]> rows = result.enumerator()) {
+        assertTrue(rows.moveNext());
+        cancelFlag.set(true);
+        assertThrows(CancellationException.class, rows::moveNext);
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testCancelStopsScan(LuceneQueryProcessor.Type processor) throws IOException,
+      SqlParseException {
+    AtomicBoolean cancelFlag = new AtomicBoolean(false);
+    try (LuceneSchema schema = LuceneQueryProcessor.createTpchSchema(
+        t -> LuceneTable.Options.DEFAULT)) {
+      Enumerable<Object[]> result = LuceneQueryProcessor.execute("SELECT * FROM LINEITEM",
+          processor, schema, cancelFlag, 0);
+      try (Enumerator<Object[]> rows = result.enumerator()) {
+        assertTrue(rows.moveNext());
+        cancelFlag.set(true);
+        assertThrows(CancellationException.class, rows::moveNext);
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testTimeoutStopsRunawayQuery(LuceneQueryProcessor.Type processor) throws IOException,
+      SqlParseException {
+    try (LuceneSchema schema = LuceneQueryProcessor.createTpchSchema(
+        t -> LuceneTable.Options.DEFAULT)) {
+      long start = System.nanoTime();
+      // The cross join takes tens of seconds to complete; the aggregation may even start before
+      // execute returns
+      assertThrows(CancellationException.class, () -> LuceneQueryProcessor.execute(
+          "SELECT COUNT(*) FROM LINEITEM l1, LINEITEM l2", processor, schema,
+          new AtomicBoolean(false), 200).single());
+      assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testTimeoutDoesNotOutliveQuery(LuceneQueryProcessor.Type processor) throws IOException,
+      SqlParseException, InterruptedException {
+    AtomicBoolean cancelFlag = new AtomicBoolean(false);
+    try (LuceneSchema schema = LuceneQueryProcessor.createTpchSchema(
+        t -> LuceneTable.Options.DEFAULT)) {
+      assertEquals(5, LuceneQueryProcessor.execute("SELECT * FROM REGION", processor, schema,
+          cancelFlag, 300).count());
+      Enumerable<Object[]> result = LuceneQueryProcessor.execute("SELECT * FROM LINEITEM",
+          processor, schema, cancelFlag, 300);
+      try (Enumerator<Object[]> rows = result.enumerator()) {
+        assertTrue(rows.moveNext());
+      }
+      Thread.sleep(600);
+      // The deadlines of the completed queries must not cancel the next one using the flag
+      assertFalse(cancelFlag.get());
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testOrderByWithLimit(LuceneQueryProcessor.Type processor) throws SqlParseException {
+    String query = "SELECT o_orderkey, o_orderdate FROM ORDERS "
+        + "ORDER BY o_orderdate DESC, o_orderkey LIMIT 3";
+    Enumerable<Object[]> result = LuceneQueryProcessor.execute(query, processor);
+    List<Object[]> rows = result.toList();
+    assertEquals(3, rows.size());
+    assertArrayEquals(new Object[]{4678, Date.valueOf("1998-08-02")}, rows.get(0));
+    assertArrayEquals(new Object[]{1124, Date.valueOf("1998-07-30")}, rows.get(1));
+    assertArrayEquals(new Object[]{2981, Date.valueOf("1998-07-29")}, rows.get(2));
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testOrderByWithOffsetAndLimit(LuceneQueryProcessor.Type processor)
+      throws SqlParseException {
+    String query = "SELECT o_orderkey FROM ORDERS ORDER BY o_orderkey DESC LIMIT 3 OFFSET 2";
+    Enumerable<Integer> result = LuceneQueryProcessor.execute(query, processor);
+    assertEquals(Arrays.asList(5986, 5985, 5984), result.toList());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testFilterOnLimitedInput(LuceneQueryProcessor.Type processor) throws SqlParseException {
+    // The filter must apply to the first 10 orders and not to the whole table
+    String query = "SELECT o_orderkey FROM "
+        + "(SELECT o_orderkey FROM ORDERS ORDER BY o_orderkey LIMIT 10) t WHERE o_orderkey = 100";
+    assertEquals(0, LuceneQueryProcessor.execute(query, processor).count());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testGroupByCount(LuceneQueryProcessor.Type processor) throws SqlParseException {
+    String query = "SELECT o_custkey, COUNT(*) FROM ORDERS GROUP BY o_custkey "
+        + "ORDER BY o_custkey LIMIT 3";
+    List<Object[]> rows = LuceneQueryProcessor.<Object[]>execute(query, processor).toList();
+    assertEquals(3, rows.size());
+    assertArrayEquals(new Object[]{1, 5L}, rows.get(0));
+    assertArrayEquals(new Object[]{2, 9L}, rows.get(1));
+    assertArrayEquals(new Object[]{4, 22L}, rows.get(2));
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testGroupByOnFilteredInput(LuceneQueryProcessor.Type processor) throws SqlParseException {
+    String query = "SELECT l_returnflag, l_linestatus, COUNT(*), SUM(l_quantity), "
+        + "MIN(l_extendedprice), MAX(l_shipdate) FROM LINEITEM WHERE l_suppkey = 5 "
+        + "GROUP BY l_returnflag, l_linestatus ORDER BY 1, 2";
+    List<Object[]> rows = LuceneQueryProcessor.<Object[]>execute(query, processor).toList();
+    assertEquals(4, rows.size());
+    assertArrayEquals(new Object[]{"A", "F", 145L, 3332, 915.01, Date.valueOf("1995-06-06")},
+        rows.get(0));
+    assertArrayEquals(new Object[]{"N", "F", 4L, 95, 8226.09, Date.valueOf("1995-06-17")},
+        rows.get(1));
+    assertArrayEquals(new Object[]{"N", "O", 339L, 8899, 902.0, Date.valueOf("1998-11-25")},
+        rows.get(2));
+    assertArrayEquals(new Object[]{"R", "F", 157L, 3818, 908.0, Date.valueOf("1995-05-14")},
+        rows.get(3));
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testAggregateWithoutGroupsOnEmptyInput(LuceneQueryProcessor.Type processor)
+      throws SqlParseException {
+    String query = "SELECT COUNT(*), MAX(o_totalprice) FROM ORDERS WHERE o_custkey = -1";
+    assertArrayEquals(new Object[]{0L, null},
+        (Object[]) LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testAggregateOnLimitedInput(LuceneQueryProcessor.Type processor)
+      throws SqlParseException {
+    String query = "SELECT COUNT(*), MAX(o_orderkey) FROM "
+        + "(SELECT o_orderkey FROM ORDERS ORDER BY o_orderkey LIMIT 10) t";
+    assertArrayEquals(new Object[]{10L, 34},
+        (Object[]) LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testRangeFilterOnIntegerColumn(LuceneQueryProcessor.Type processor)
+      throws SqlParseException {
+    assertEquals(new HashSet<>(Arrays.asList(1, 2)), new HashSet<>(LuceneQueryProcessor
+        .<Integer>execute("SELECT c_custkey FROM CUSTOMER WHERE c_custkey < 3", processor)
+        .toList()));
+    assertEquals(new HashSet<>(Arrays.asList(3, 4, 5)), new HashSet<>(LuceneQueryProcessor
+        .<Integer>execute("SELECT c_custkey FROM CUSTOMER WHERE c_custkey BETWEEN 3 AND 5",
+            processor)
+        .toList()));
+    assertEquals(149L, LuceneQueryProcessor
+        .execute("SELECT COUNT(*) FROM CUSTOMER WHERE c_custkey <> 3", processor).single());
+    assertEquals(2L, LuceneQueryProcessor
+        .execute("SELECT COUNT(*) FROM CUSTOMER WHERE c_custkey < 3 OR c_custkey > 1490",
+            processor)
+        .single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testRangeFilterWithDecimalLiteralOnIntegerColumn(LuceneQueryProcessor.Type processor)
+      throws SqlParseException {
+    assertEquals(new HashSet<>(Arrays.asList(1, 2, 3)), new HashSet<>(LuceneQueryProcessor
+        .<Integer>execute("SELECT c_custkey FROM CUSTOMER WHERE 3.5 > c_custkey", processor)
+        .toList()));
+    assertEquals(124L, LuceneQueryProcessor
+        .execute("SELECT COUNT(*) FROM LINEITEM WHERE l_quantity > 49.5", processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testRangeFilterOnDoubleColumn(LuceneQueryProcessor.Type processor)
+      throws SqlParseException {
+    assertEquals(37L, LuceneQueryProcessor
+        .execute("SELECT COUNT(*) FROM ORDERS WHERE o_totalprice > 220388.06", processor)
+        .single());
+    assertEquals(57L, LuceneQueryProcessor
+        .execute("SELECT COUNT(*) FROM LINEITEM WHERE l_extendedprice <= 1000", processor)
+        .single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testRangeFilterOnDateColumn(LuceneQueryProcessor.Type processor)
+      throws SqlParseException {
+    String query = "SELECT o_orderkey, o_orderdate FROM ORDERS "
+        + "WHERE o_orderdate >= DATE '1998-08-01'";
+    assertArrayEquals(new Object[]{4678, Date.valueOf("1998-08-02")},
+        (Object[]) LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testFilterWithUntranslatableConjunct(LuceneQueryProcessor.Type processor)
+      throws SqlParseException {
+    String query = "SELECT l_orderkey, l_partkey, l_comment FROM LINEITEM "
+        + "WHERE l_orderkey = 6 AND l_partkey = 140 AND l_comment LIKE '%foxes%'";
+    assertArrayEquals(new Object[]{6, 140, "p furiously special foxes"},
+        (Object[]) LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testFilterWithUntranslatableDisjunct(LuceneQueryProcessor.Type processor)
+      throws SqlParseException {
+    String query = "SELECT COUNT(*) FROM LINEITEM "
+        + "WHERE (l_quantity < 10 OR l_comment LIKE '%x%') AND l_shipdate > DATE '1998-01-01'";
+    assertEquals(217L, LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testDisjunctiveFilterOnDifferentColumns(LuceneQueryProcessor.Type processor)
+      throws SqlParseException {
+    String query = "SELECT COUNT(*) FROM ORDERS WHERE o_custkey = 1 OR o_totalprice > 450000";
+    assertEquals(5L, LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testNegatedFilter(LuceneQueryProcessor.Type processor) throws SqlParseException {
+    String query = "SELECT COUNT(*) FROM LINEITEM "
+        + "WHERE NOT (l_quantity < 10 AND l_discount > 0.05)";
+    assertEquals(5474L, LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testEqualityFilterOnStringColumn(LuceneQueryProcessor.Type processor)
+      throws SqlParseException {
+    String query = "SELECT COUNT(*) FROM CUSTOMER WHERE c_mktsegment = 'BUILDING'";
+    assertEquals(29L, LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testInFilterOnStringColumn(LuceneQueryProcessor.Type processor)
+      throws SqlParseException {
+    String query = "SELECT COUNT(*) FROM LINEITEM WHERE l_shipmode IN ('MAIL', 'TRUCK')";
+    assertEquals(1727L, LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testNotInFilterOnStringColumn(LuceneQueryProcessor.Type processor)
+      throws SqlParseException {
+    String query = "SELECT COUNT(*) FROM LINEITEM WHERE l_shipmode NOT IN ('MAIL', 'SHIP')";
+    assertEquals(4353L, LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testInFilterOnIntegerColumn(LuceneQueryProcessor.Type processor)
+      throws SqlParseException {
+    String query = "SELECT COUNT(*) FROM LINEITEM WHERE l_orderkey IN (1, 2, 3, 4, 5, 6, 7)";
+    assertEquals(25L, LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testPrefixLikeFilter(LuceneQueryProcessor.Type processor) throws SqlParseException {
+    String query = "SELECT COUNT(*) FROM LINEITEM WHERE l_comment LIKE 'fur%'";
+    assertEquals(34L, LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testFilterComparingColumns(LuceneQueryProcessor.Type processor)
+      throws SqlParseException {
+    String query = "SELECT COUNT(*) FROM LINEITEM WHERE l_commitdate < l_receiptdate";
+    assertEquals(3752L, LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testJoinWithSelectiveSide(LuceneQueryProcessor.Type processor) throws SqlParseException {
+    String query = "SELECT COUNT(*) FROM CUSTOMER JOIN ORDERS ON c_custkey = o_custkey "
+        + "WHERE c_mktsegment = 'BUILDING'";
+    assertEquals(250L, LuceneQueryProcessor.execute(query, processor).single());
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testDynamicParamsAreBoundOnEveryExecution(LuceneQueryProcessor.Type processor)
+      throws IOException, SqlParseException {
+    LucenePlanCache plans = new LucenePlanCache(10);
+    LuceneResultCache results = new LuceneResultCache(1000);
+    String query = "SELECT c_name FROM CUSTOMER WHERE c_custkey = ?";
+    try (LuceneSchema schema = LuceneQueryProcessor.createTpchSchema(
+        t -> LuceneTable.Options.DEFAULT, results, plans)) {
+      LuceneQueryProcessor.PreparedQuery prepared =
+          LuceneQueryProcessor.prepare(query, processor, schema);
+      assertEquals(1, prepared.parameterRowType().getFieldCount());
+      assertEquals("Customer#000000001", prepared.execute(Arrays.asList(1)).single());
+      assertEquals("Customer#000000032", prepared.execute(Arrays.asList(32L)).single());
+      assertEquals(0, prepared.execute(Arrays.asList((Object) null)).count());
+      // The plan is shared by all values but the results are not
+      assertEquals("Customer#000000032",
+          LuceneQueryProcessor.execute(query, processor, schema, Arrays.asList(32)).single());
+      assertEquals(1, plans.hitCount());
+      assertEquals(1, plans.size());
+      assertEquals(1, results.hitCount());
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testRangeFilterWithDynamicParamsOnDateColumn(LuceneQueryProcessor.Type processor)
+      throws IOException, SqlParseException {
+    String query = "SELECT COUNT(*) FROM ORDERS "
+        + "WHERE o_orderdate BETWEEN ? AND ? AND o_orderstatus <> ?";
+    try (LuceneSchema schema = LuceneQueryProcessor.createTpchSchema(
+        t -> LuceneTable.Options.DEFAULT)) {
+      assertEquals(LuceneQueryProcessor.execute("SELECT COUNT(*) FROM ORDERS "
+              + "WHERE o_orderdate BETWEEN DATE '1994-01-01' AND DATE '1994-12-31' "
+              + "AND o_orderstatus <> 'O'", processor, schema).single(),
+          LuceneQueryProcessor.execute(query, processor, schema,
+              Arrays.asList(Date.valueOf("1994-01-01"), Date.valueOf("1994-12-31"), "O"))
+              .single());
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneQueryProcessor.Type.class)
+  void testInListOfDynamicParams(LuceneQueryProcessor.Type processor)
+      throws IOException, SqlParseException {
+    String query = "SELECT COUNT(*) FROM LINEITEM WHERE l_orderkey IN (?, ?, ?) "
+        + "AND l_quantity > ?";
+    try (LuceneSchema schema = LuceneQueryProcessor.createTpchSchema(
+        t -> LuceneTable.Options.DEFAULT)) {
+      assertEquals(LuceneQueryProcessor.execute("SELECT COUNT(*) FROM LINEITEM "
+              + "WHERE l_orderkey IN (1, 3, 7) AND l_quantity > 20.5", processor, schema).single(),
+          LuceneQueryProcessor.execute(query, processor, schema, Arrays.asList(1, 3, 7, 20.5))
+              .single());
+    }
+  }
+
+  @Test
+  void testWrongNumberOfDynamicParamsFails() throws IOException, SqlParseException {
+    try (LuceneSchema schema = LuceneQueryProcessor.createTpchSchema(
+        t -> LuceneTable.Options.DEFAULT)) {
+      LuceneQueryProcessor.PreparedQuery prepared = LuceneQueryProcessor.prepare(
+          "SELECT c_name FROM CUSTOMER WHERE c_custkey = ?", LuceneQueryProcessor.Type.PUSHDOWN,
+          schema);
+      assertThrows(IllegalArgumentException.class, () -> prepared.execute(Arrays.asList()));
+      assertThrows(IllegalArgumentException.class,
+          () -> prepared.execute(Arrays.asList("Customer#000000001")));
+    }
+  }
+
+  @Test
+  void testPointLookupWithDynamicParamIsPushed() throws IOException, SqlParseException {
+    String lookup = explain("SELECT c_name FROM CUSTOMER WHERE c_custkey = ?");
+    assertTrue(lookup.contains("LuceneFilter(condition=[=($0, ?0)])"), lookup);
+    String join = explain("SELECT c_name, o_orderkey FROM CUSTOMER JOIN ORDERS "
+        + "ON c_custkey = o_custkey WHERE c_custkey = ?");
+    assertTrue(join.contains("LuceneNestedLoopJoin"), join);
+  }
+
+  @Test
+  void testSelectiveFilterJoinsByLookup() throws IOException, SqlParseException {
+    String query = "SELECT c_name, o_orderkey FROM CUSTOMER JOIN ORDERS ON c_custkey = o_custkey "
+        + "WHERE c_custkey < 3";
+    String plan = explain(query);
+    assertTrue(plan.contains("LuceneNestedLoopJoin"), plan);
+    assertTrue(plan.contains("LuceneFilter(condition=[<($0, 3)])"), plan);
+  }
+
+  @Test
+  void testLongInListIsPushedOnlyOnLargeTables() throws IOException, SqlParseException {
+    String values = "(0, 2, 4, 6, 8, 10, 12, 14, 16, 18, 20, 22, 24, 1, 3)";
+    // Looking up 15 keys costs more than reading the 25 nations
+    String nations = explain("SELECT n_name FROM NATION WHERE n_nationkey IN " + values);
+    assertFalse(nations.contains("LuceneFilter"), nations);
+    String orders = explain("SELECT o_orderkey FROM ORDERS WHERE o_custkey IN " + values);
+    assertTrue(orders.contains("LuceneFilter"), orders);
+    String nation = explain("SELECT n_name FROM NATION WHERE n_nationkey = 3");
+    assertTrue(nation.contains("LuceneFilter"), nation);
+  }
+
+  @Test
+  void testUnsearchableFilterIsEvaluatedOnBatches() throws IOException, SqlParseException {
+    String columns = explain("SELECT COUNT(*) FROM LINEITEM WHERE l_commitdate < l_receiptdate");
+    assertTrue(columns.contains("LuceneToEnumerableFilter(condition=[<($0, $1)])"), columns);
+    // The searchable conjunct is pushed in the query and the rest is evaluated on the batches
+    String like = explain("SELECT l_orderkey FROM LINEITEM "
+        + "WHERE l_orderkey < 100 AND l_comment LIKE '%foxes%'");
+    assertTrue(like.contains("LuceneToEnumerableFilter(condition=[LIKE($1, '%foxes%')])"), like);
+    assertTrue(like.contains("LuceneFilter(condition=[<($0, 100)])"), like);
+  }
+
+  private static String explain(String query) throws IOException, SqlParseException {
+    try (LuceneSchema schema = LuceneQueryProcessor.createTpchSchema(
+        t -> LuceneTable.Options.DEFAULT)) {
+      return LuceneQueryProcessor.explain(query, LuceneQueryProcessor.Type.PUSHDOWN, schema);
+    }
+  }
 }
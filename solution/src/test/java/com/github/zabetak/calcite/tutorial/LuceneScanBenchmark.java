@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.calcite.adapter.java.JavaTypeFactory;
+import org.apache.calcite.jdbc.JavaTypeFactoryImpl;
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import com.github.zabetak.calcite.tutorial.indexer.DatasetIndexer;
+import com.github.zabetak.calcite.tutorial.indexer.TpchTable;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Micro-benchmark comparing the {@link LuceneEnumerable.ScanMode}s over the LINEITEM table, and
+ * row-at-a-time with batch ({@link LuceneEnumerable#batches()}) consumption.
+ *
+ * The benchmark is not part of the test suite; run it from the solution directory with:
+ *
+ * <pre>{@code
+ * java -cp <test-classpath> com.github.zabetak.calcite.tutorial.LuceneScanBenchmark [iterations]
+ * }</pre>
+ */
+public final class LuceneScanBenchmark {
+  private LuceneScanBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    DatasetIndexer.main(new String[]{});
+    LinkedHashMap<String, SqlTypeName> fields = new LinkedHashMap<>();
+    JavaTypeFactory typeFactory = new JavaTypeFactoryImpl();
+    for (TpchTable.Column c : TpchTable.LINEITEM.columns) {
+      fields.put(c.name, typeFactory.createType(c.type).getSqlTypeName());
+    }
+    try (LuceneTable table = new LuceneTable("target/tpch/LINEITEM", null)) {
+      for (String query : new String[]{"*:*", "+l_linenumber:[1 TO 2]"}) {
+        for (LuceneEnumerable.ScanMode mode : LuceneEnumerable.ScanMode.values()) {
+          LuceneEnumerable enumerable = new LuceneEnumerable(table, fields, query)
+              .withScanMode(mode);
+          // Warm-up
+          scan(enumerable, iterations);
+          long start = System.nanoTime();
+          long rows = scan(enumerable, iterations);
+          double avgMs = (System.nanoTime() - start) / 1e6 / iterations;
+          System.out.printf("query=%-24s mode=%-9s rows=%d avg=%.3fms%n",
+              query, mode, rows / iterations, avgMs);
+        }
+        LuceneEnumerable enumerable = new LuceneEnumerable(table, fields, query);
+        scanBatches(enumerable, iterations);
+        long start = System.nanoTime();
+        long rows = scanBatches(enumerable, iterations);
+        double avgMs = (System.nanoTime() - start) / 1e6 / iterations;
+        System.out.printf("query=%-24s mode=%-9s rows=%d avg=%.3fms%n",
+            query, "BATCHES", rows / iterations, avgMs);
+      }
+    }
+  }
+
+  private static long scan(LuceneEnumerable enumerable, int iterations) {
+    long rows = 0;
+    for (int i = 0; i < iterations; i++) {
+      try (Enumerator<Object[]> e = enumerable.enumerator()) {
+        while (e.moveNext()) {
+          rows++;
+        }
+      }
+    }
+    return rows;
+  }
+
+  private static long scanBatches(LuceneEnumerable enumerable, int iterations) {
+    long rows = 0;
+    for (int i = 0; i < iterations; i++) {
+      try (Enumerator<LuceneBatch> e = enumerable.batches().enumerator()) {
+        while (e.moveNext()) {
+          rows += e.current().size();
+        }
+      }
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.calcite.linq4j.Enumerator;
+
+import com.github.zabetak.calcite.tutorial.indexer.DatasetIndexer;
+import com.github.zabetak.calcite.tutorial.indexer.TpchTable;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link LuceneTableCache}.
+ */
+public class LuceneTableCacheTest {
+
+  @BeforeAll
+  static void indexTpchDataset() throws IOException, URISyntaxException {
+    // The dataset may already be there but doesn't hurt much to re-index it
+    DatasetIndexer.main(new String[]{});
+  }
+
+  @Test
+  void testSecondScanIsServedFromCache() throws IOException {
+    LuceneTableCache cache = new LuceneTableCache(1024 * 1024);
+    try (LuceneSchema cached = schema(cache); LuceneSchema uncached = schema(null)) {
+      LuceneTable table = table(cached, TpchTable.NATION);
+      List<List<Object>> expected = scan(table(uncached, TpchTable.NATION));
+      assertEquals(expected, scan(table));
+      int columns = TpchTable.NATION.columns.size();
+      assertEquals(0, cache.hitCount());
+      assertEquals(columns, cache.missCount());
+      assertTrue(cache.sizeInBytes() > 0);
+      assertEquals(expected, scan(table));
+      assertEquals(columns, cache.hitCount());
+      assertEquals(columns, cache.missCount());
+    }
+  }
+
+  @Test
+  void testNewCommitInvalidatesCache() throws IOException, URISyntaxException {
+    LuceneTableCache cache = new LuceneTableCache(1024 * 1024);
+    try (LuceneSchema schema = schema(cache)) {
+      LuceneTable table = table(schema, TpchTable.REGION);
+      List<List<Object>> expected = scan(table);
+      long bytes = cache.sizeInBytes();
+      DatasetIndexer.main(new String[]{});
+      table.refresh();
+      assertEquals(expected, scan(table));
+      int columns = TpchTable.REGION.columns.size();
+      assertEquals(2 * columns, cache.missCount());
+      // The columns of the previous commit are dropped
+      assertEquals(bytes, cache.sizeInBytes());
+      assertEquals(columns, cache.columnsPerTable().get(table).intValue());
+    }
+  }
+
+  @Test
+  void testLeastRecentlyUsedColumnsAreEvicted() throws IOException {
+    LuceneTableCache unbounded = new LuceneTableCache(Long.MAX_VALUE);
+    try (LuceneSchema schema = schema(unbounded)) {
+      scan(table(schema, TpchTable.NATION));
+      long nationBytes = unbounded.sizeInBytes();
+      scan(table(schema, TpchTable.REGION));
+      long regionBytes = unbounded.sizeInBytes() - nationBytes;
+      // Room for one of the two tables only
+      LuceneTableCache cache = new LuceneTableCache(Math.max(nationBytes, regionBytes));
+      try (LuceneSchema bounded = schema(cache); LuceneSchema uncached = schema(null)) {
+        LuceneTable nation = table(bounded, TpchTable.NATION);
+        LuceneTable region = table(bounded, TpchTable.REGION);
+        scan(nation);
+        assertEquals(nationBytes, cache.sizeInBytes());
+        assertEquals(scan(table(uncached, TpchTable.REGION)), scan(region));
+        assertTrue(cache.evictionCount() > 0);
+        assertTrue(cache.sizeInBytes() <= cache.maxBytes());
+        assertEquals(TpchTable.REGION.columns.size(),
+            cache.columnsPerTable().get(region).intValue());
+      }
+    }
+  }
+
+  @Test
+  void testColumnsLargerThanCacheAreReadFromIndex() throws IOException {
+    LuceneTableCache cache = new LuceneTableCache(16);
+    try (LuceneSchema cached = schema(cache); LuceneSchema uncached = schema(null)) {
+      assertEquals(scan(table(uncached, TpchTable.NATION)),
+          scan(table(cached, TpchTable.NATION)));
+      assertEquals(0, cache.sizeInBytes());
+      assertEquals(0, cache.evictionCount());
+    }
+  }
+
+  private static LuceneSchema schema(LuceneTableCache cache) {
+    return LuceneQueryProcessor.createTpchSchema(
+        table -> LuceneTable.Options.DEFAULT.withCache(cache));
+  }
+
+  private static LuceneTable table(LuceneSchema schema, TpchTable table) {
+    return (LuceneTable) schema.getTableMap().get(table.name());
+  }
+
+  private static List<List<Object>> scan(LuceneTable table) {
+    List<List<Object>> rows = new ArrayList<>();
+    try (Enumerator<Object[]> e = table.scan(null).enumerator()) {
+      while (e.moveNext()) {
+        rows.add(Arrays.asList(e.current()));
+      }
+    }
+    return rows;
+  }
+}
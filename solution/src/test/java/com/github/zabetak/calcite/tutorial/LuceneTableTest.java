@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial;
+
+import org.apache.calcite.jdbc.JavaTypeFactoryImpl;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import com.github.zabetak.calcite.tutorial.indexer.DatasetIndexer;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for {@link LuceneTable}.
+ */
+public class LuceneTableTest {
+
+  @BeforeAll
+  static void indexTpchDataset() throws IOException, URISyntaxException {
+    // The dataset may already be there but doesn't hurt much to re-index it
+    DatasetIndexer.main(new String[]{});
+  }
+
+  @Test
+  void testSearcherIsSharedUntilIndexChanges() throws IOException, URISyntaxException {
+    try (LuceneTable table = new LuceneTable("target/tpch/NATION", null)) {
+      IndexSearcher s1 = table.acquireSearcher();
+      IndexSearcher s2 = table.acquireSearcher();
+      assertSame(s1.getIndexReader(), s2.getIndexReader());
+      table.releaseSearcher(s1);
+      table.releaseSearcher(s2);
+      // Re-indexing creates a new commit so the next searcher should be over a new reader
+      DatasetIndexer.main(new String[]{});
+      table.refresh();
+      IndexSearcher s3 = table.acquireSearcher();
+      assertNotSame(s1.getIndexReader(), s3.getIndexReader());
+      assertEquals(25, s3.count(new MatchAllDocsQuery()));
+      table.releaseSearcher(s3);
+    }
+  }
+
+  @Test
+  void testAcquireSearcherAfterCloseFails() throws IOException {
+    LuceneTable table = new LuceneTable("target/tpch/NATION", null);
+    IndexSearcher searcher = table.acquireSearcher();
+    table.close();
+    // Searchers acquired before closing remain usable until they are released
+    assertEquals(25, searcher.count(new MatchAllDocsQuery()));
+    table.releaseSearcher(searcher);
+    assertThrows(AlreadyClosedException.class, table::acquireSearcher);
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneTable.DirectoryType.class)
+  void testSearcherReadsDocumentsAfterClose(LuceneTable.DirectoryType type) throws IOException {
+    LuceneTable table = new LuceneTable("target/tpch/NATION", null,
+        LuceneTable.Options.DEFAULT.withDirectoryType(type));
+    IndexSearcher searcher = table.acquireSearcher();
+    table.close();
+    // The directory is closed only after the searcher is released
+    assertEquals("ALGERIA", searcher.doc(0).get("n_name"));
+    table.releaseSearcher(searcher);
+  }
+
+  @Test
+  void testStatisticsReflectIndex() {
+    LuceneSchema schema = LuceneQueryProcessor.createTpchSchema(t -> LuceneTable.Options.DEFAULT);
+    LuceneTable orders = (LuceneTable) schema.getTable("ORDERS");
+    LuceneTable lineitem = (LuceneTable) schema.getTable("LINEITEM");
+    assertEquals(1500d, orders.getStatistic().getRowCount());
+    assertEquals(6005d, lineitem.getStatistic().getRowCount());
+    assertTrue(orders.getStatistic().isKey(ImmutableBitSet.of(0)));
+    assertFalse(lineitem.getStatistic().isKey(ImmutableBitSet.of(0)));
+    assertTrue(lineitem.getStatistic().isKey(ImmutableBitSet.of(0, 3)));
+    LuceneStatistics.ColumnStatistics status = orders.statistics().column("o_orderstatus");
+    assertEquals(3d, status.distinctCount());
+    assertEquals("F", status.min());
+    assertEquals("P", status.max());
+    assertEquals(0, status.nullCount());
+    LuceneStatistics.ColumnStatistics quantity = lineitem.statistics().column("l_quantity");
+    assertEquals(50d, quantity.distinctCount());
+    assertEquals(1, quantity.min());
+    assertEquals(50, quantity.max());
+    LuceneStatistics.ColumnStatistics price = orders.statistics().column("o_totalprice");
+    // The statistics stored by the indexer estimate the distinct values of every column
+    assertEquals(1500d, price.distinctCount(), 1500 * 0.05);
+    assertEquals(263411.29, price.max());
+    assertNull(status.histogram());
+    // 124 of the 6005 line items have the maximum quantity
+    assertEquals(124d / 6005, quantity.histogram().fraction(50, true, 50, true), 0.005);
+    assertEquals(1d, quantity.histogram().fraction(0, false, 50, true), 1e-9);
+    assertEquals(0d, quantity.histogram().fraction(50, false, 100, true), 1e-9);
+  }
+
+  @Test
+  void testStatisticsOfIndexWithoutStoredStatistics(@TempDir Path dir) throws IOException {
+    try (Directory directory = FSDirectory.open(dir);
+         IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+      for (int k : new int[]{1, 2, 5}) {
+        Document doc = new Document();
+        doc.add(new IntPoint("k", k));
+        writer.addDocument(doc);
+      }
+      writer.addDocument(new Document());
+    }
+    RelDataTypeFactory typeFactory = new JavaTypeFactoryImpl();
+    RelDataType rowType = typeFactory.builder().add("k", SqlTypeName.INTEGER).build();
+    try (LuceneTable table = new LuceneTable(dir.toString(), rowType)) {
+      LuceneStatistics stats = table.statistics();
+      assertEquals(4, stats.rowCount());
+      LuceneStatistics.ColumnStatistics k = stats.column("k");
+      assertEquals(1, k.nullCount());
+      assertEquals(3d, k.distinctCount());
+      assertEquals(1, k.min());
+      assertEquals(5, k.max());
+      assertNull(k.histogram());
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(LuceneTable.DirectoryType.class)
+  void testDirectoryTypeSeesNewCommits(LuceneTable.DirectoryType type)
+      throws IOException, URISyntaxException {
+    LuceneTable.Options options =
+        LuceneTable.Options.DEFAULT.withDirectoryType(type).withPreload(true);
+    try (LuceneTable table = new LuceneTable("target/tpch/NATION", null, options)) {
+      table.warmup();
+      IndexSearcher s1 = table.acquireSearcher();
+      assertEquals(25, s1.count(new MatchAllDocsQuery()));
+      DatasetIndexer.main(new String[]{});
+      table.refresh();
+      IndexSearcher s2 = table.acquireSearcher();
+      assertNotSame(s1.getIndexReader(), s2.getIndexReader());
+      assertEquals(25, s2.count(new MatchAllDocsQuery()));
+      // The searcher over the previous commit remains usable until it is released
+      assertEquals(25, s1.count(new MatchAllDocsQuery()));
+      table.releaseSearcher(s1);
+      table.releaseSearcher(s2);
+    }
+  }
+}
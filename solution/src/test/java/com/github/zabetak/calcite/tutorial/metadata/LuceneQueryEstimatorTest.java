@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to you under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zabetak.calcite.tutorial.metadata;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import com.github.zabetak.calcite.tutorial.LuceneTable;
+import com.github.zabetak.calcite.tutorial.indexer.DatasetIndexer;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests for {@link LuceneQueryEstimator}.
+ */
+public class LuceneQueryEstimatorTest {
+
+  @BeforeAll
+  static void indexTpchDataset() throws IOException, URISyntaxException {
+    // The dataset may already be there but doesn't hurt much to re-index it
+    DatasetIndexer.main(new String[]{});
+  }
+
+  @Test
+  void testEstimatesOfSimpleQueriesAreExact() throws IOException {
+    try (LuceneTable orders = new LuceneTable("target/tpch/ORDERS", null);
+         LuceneTable lineitem = new LuceneTable("target/tpch/LINEITEM", null)) {
+      assertEquals(1500d, LuceneQueryEstimator.estimate(orders, new MatchAllDocsQuery()).hits());
+      TermQuery finished = new TermQuery(new Term("o_orderstatus", "F"));
+      LuceneQueryEstimator.Estimate estimate = LuceneQueryEstimator.estimate(orders, finished);
+      assertEquals(726d, estimate.hits());
+      assertEquals(726d / 1500, estimate.selectivity());
+      assertEquals(1d, estimate.lookups());
+      assertEquals(124d, LuceneQueryEstimator.estimate(lineitem,
+          IntPoint.newRangeQuery("l_quantity", 50, Integer.MAX_VALUE)).hits());
+      assertEquals(25d, LuceneQueryEstimator.estimate(lineitem,
+          IntPoint.newSetQuery("l_orderkey", 1, 2, 3, 4, 5, 6, 7)).hits());
+    }
+  }
+
+  @Test
+  void testEstimateOfNegationIsComplement() throws IOException {
+    try (LuceneTable orders = new LuceneTable("target/tpch/ORDERS", null)) {
+      BooleanQuery notFinished = new BooleanQuery.Builder()
+          .add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST)
+          .add(new TermQuery(new Term("o_orderstatus", "F")), BooleanClause.Occur.MUST_NOT)
+          .build();
+      assertEquals(774d, LuceneQueryEstimator.estimate(orders, notFinished).hits(), 1e-6);
+    }
+  }
+
+  @Test
+  void testEstimatesAreMemoizedPerCommit(@TempDir Path dir) throws IOException {
+    try (IndexWriter writer = new IndexWriter(FSDirectory.open(dir), new IndexWriterConfig());
+         LuceneTable table = new LuceneTable(dir.toString(), null)) {
+      writer.addDocument(document("name1"));
+      writer.commit();
+      TermQuery query = new TermQuery(new Term("name", "name1"));
+      LuceneQueryEstimator.Estimate estimate = LuceneQueryEstimator.estimate(table, query);
+      assertEquals(1d, estimate.hits());
+      assertSame(estimate, LuceneQueryEstimator.estimate(table,
+          new TermQuery(new Term("name", "name1"))));
+      writer.addDocument(document("name1"));
+      writer.commit();
+      table.refresh();
+      assertEquals(2d, LuceneQueryEstimator.estimate(table, query).hits());
+    }
+  }
+
+  @Test
+  void testPrefixExpandingToManyTermsIsExtrapolated(@TempDir Path dir) throws IOException {
+    int numDocs = 5000;
+    try (IndexWriter writer = new IndexWriter(FSDirectory.open(dir), new IndexWriterConfig())) {
+      for (int i = 0; i < numDocs; i++) {
+        writer.addDocument(document("name" + i));
+        writer.addDocument(document("other" + i));
+      }
+    }
+    try (LuceneTable table = new LuceneTable(dir.toString(), null)) {
+      // Every term has a single document so the extrapolation is exact
+      LuceneQueryEstimator.Estimate estimate =
+          LuceneQueryEstimator.estimate(table, new PrefixQuery(new Term("name", "name")));
+      assertEquals(numDocs, estimate.hits());
+      assertEquals(numDocs, estimate.lookups());
+    }
+  }
+
+  private static Document document(String name) {
+    Document doc = new Document();
+    doc.add(new StringField("name", name, Field.Store.NO));
+    doc.add(new SortedDocValuesField("name", new BytesRef(name)));
+    return doc;
+  }
+}